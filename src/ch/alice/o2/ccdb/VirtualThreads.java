@@ -0,0 +1,143 @@
+package ch.alice.o2.ccdb;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+import lazyj.Utils;
+
+/**
+ * Optional use of virtual threads (JDK 21+) for the request handling and the internal pools. The code is built for older JDKs, so the API is looked up by reflection and,
+ * when the running JVM doesn't have it, everything keeps using the regular platform threads.<br>
+ * <br>
+ * Set <code>virtual.threads=true</code> (or export <code>VIRTUAL_THREADS=true</code>) to enable it. Since virtual threads are not a scarce resource the concurrency is then
+ * no longer bounded by the thread pool sizes but by the explicit limits around the database and the disk (see <code>ConcurrencyLimits</code> in the servlets package).
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public final class VirtualThreads {
+	/**
+	 * <code>Thread.ofVirtual()</code>, <code>null</code> if the JVM doesn't support virtual threads
+	 */
+	private static final Method ofVirtual;
+
+	private static final boolean enabled;
+
+	static {
+		Method m = null;
+
+		try {
+			m = Thread.class.getMethod("ofVirtual");
+		}
+		catch (@SuppressWarnings("unused") final NoSuchMethodException | SecurityException e) {
+			// older JDK
+		}
+
+		ofVirtual = m;
+
+		final boolean requested = Utils.stringToBool(Options.getOption("virtual.threads", null), false);
+
+		if (requested && ofVirtual == null)
+			System.err.println("Virtual threads were requested but this JVM (" + System.getProperty("java.version") + ") doesn't support them, using platform threads");
+
+		enabled = requested && ofVirtual != null;
+	}
+
+	private VirtualThreads() {
+		// static helper methods only
+	}
+
+	/**
+	 * @return <code>true</code> if the running JVM can create virtual threads
+	 */
+	public static boolean isSupported() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * @return <code>true</code> if virtual threads should be used instead of the thread pools
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param name
+	 *            prefix of the thread names, a counter is appended to it
+	 * @return a factory of virtual threads, or <code>null</code> if they are not supported
+	 */
+	public static ThreadFactory factory(final String name) {
+		if (ofVirtual == null)
+			return null;
+
+		try {
+			// the builder implementation is not public, its methods have to be called through the interface
+			final Class<?> builderInterface = Class.forName("java.lang.Thread$Builder");
+
+			Object builder = ofVirtual.invoke(null);
+
+			builder = builderInterface.getMethod("name", String.class, long.class).invoke(builder, name, Long.valueOf(0));
+
+			return (ThreadFactory) builderInterface.getMethod("factory").invoke(builder);
+		}
+		catch (final ReflectiveOperationException | RuntimeException e) {
+			System.err.println("Cannot create a virtual thread factory: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            prefix of the thread names
+	 * @param platformExecutor
+	 *            the executor to use when virtual threads are not enabled
+	 * @return an executor that starts one virtual thread per task when enabled, otherwise the given executor
+	 */
+	public static ExecutorService newExecutor(final String name, final Supplier<ExecutorService> platformExecutor) {
+		if (enabled) {
+			final ThreadFactory factory = factory(name);
+
+			if (factory != null)
+				try {
+					return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+				}
+				catch (final ReflectiveOperationException | RuntimeException e) {
+					System.err.println("Cannot create a virtual thread executor for " + name + ": " + e.getMessage());
+				}
+		}
+
+		return platformExecutor.get();
+	}
+
+	/**
+	 * Start a thread running the given task, a virtual one if enabled
+	 *
+	 * @param name
+	 *            thread name
+	 * @param task
+	 *            what to run
+	 * @return the started thread
+	 */
+	public static Thread start(final String name, final Runnable task) {
+		Thread t = null;
+
+		if (enabled) {
+			final ThreadFactory factory = factory(name);
+
+			if (factory != null) {
+				t = factory.newThread(task);
+				t.setName(name);
+			}
+		}
+
+		if (t == null)
+			t = new Thread(task, name);
+
+		t.start();
+
+		return t;
+	}
+}
@@ -43,6 +43,7 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.test.cassandra.tomcat.Options;
 import ch.alice.o2.ccdb.multicast.Utils.Pair;
+import ch.alice.o2.ccdb.servlets.NegativeResultCache;
 import utils.CachedThreadPool;
 
 /**
@@ -256,8 +257,10 @@ public class UDPReceiver extends Thread {
 			if (status == HttpServletResponse.SC_PARTIAL_CONTENT) {
 				copyHeaders(con, blob);
 
-				if (payloadMissingBlocks.size() > 1) {
-					// more than one Range will come as multipart responses
+				final String contentType = con.getHeaderField("Content-Type");
+
+				if (contentType != null && contentType.startsWith("multipart/byteranges")) {
+					// more than one Range will come as multipart responses (adjacent ranges can be merged by the server in a single one)
 
 					try (InputStream conIS = con.getInputStream()) {
 						final ByteArrayDataSource dataSource = new ByteArrayDataSource(conIS, con.getHeaderField("Content-Type"));
@@ -310,7 +313,19 @@ public class UDPReceiver extends Thread {
 							offset += read;
 						}
 
-						blob.addByteRange(payloadFragment, new Pair(payloadMissingBlocks.get(0).first, payloadMissingBlocks.get(0).first + payloadFragment.length));
+						int startOffset = payloadMissingBlocks.get(0).first;
+
+						final String contentRange = con.getHeaderField("Content-Range");
+
+						if (contentRange != null) {
+							final StringTokenizer st = new StringTokenizer(contentRange, " -/");
+
+							st.nextToken();
+
+							startOffset = Integer.parseInt(st.nextToken());
+						}
+
+						blob.addByteRange(payloadFragment, new Pair(startOffset, startOffset + payloadFragment.length));
 					}
 				}
 			}
@@ -469,6 +484,8 @@ public class UDPReceiver extends Thread {
 		}
 		finally {
 			contentStructureWriteLock.unlock();
+
+			NegativeResultCache.getInstance().invalidate(blob.getKey());
 		}
 	}
 
@@ -480,6 +497,9 @@ public class UDPReceiver extends Thread {
 
 			if (currentBlobsForKey != null)
 				currentBlobsForKey.sort(startTimeComparator);
+
+			// called when an object becomes complete, so it can be served from now on
+			NegativeResultCache.getInstance().invalidate(key);
 		}
 		finally {
 			contentStructureReadLock.unlock();
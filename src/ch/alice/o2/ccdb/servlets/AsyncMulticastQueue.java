@@ -16,7 +16,6 @@ import alien.monitoring.Monitor;
 import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.shell.commands.JAliEnCOMMander;
-import lazyj.DBFunctions;
 import lazyj.cache.ExpirationCache;
 
 /**
@@ -152,9 +151,7 @@ public class AsyncMulticastQueue {
 
 		if (target != null) {
 			// checks have passed, we have the file
-			try (DBFunctions db = SQLObject.getDB()) {
-				db.query("update ccdb set replicas=replicas || ? where id=? AND NOT ? = ANY(replicas);", false, Integer.valueOf(0), obj.id, Integer.valueOf(0));
-			}
+			obj.addReplica(Integer.valueOf(0));
 
 			return true;
 		}
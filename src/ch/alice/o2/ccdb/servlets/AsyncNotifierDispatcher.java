@@ -0,0 +1,286 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.Options;
+
+/**
+ * Asynchronous delivery of the object events to one {@link SQLNotifier}. Each notifier gets its own bounded queue and worker threads, so that a slow one (Grid replication, HTTP
+ * mirroring) doesn't delay the others. Repeated updates of the same object that are still waiting in the queue are coalesced into a single callback with the latest state.<br>
+ * <br>
+ * Configuration keys, where <code>&lt;name&gt;</code> is the simple class name of the notifier (eg. <code>SQLtoHTTP</code>):
+ * <ul>
+ * <li><code>notifier.&lt;name&gt;.threads</code> - number of worker threads (default 1)</li>
+ * <li><code>notifier.&lt;name&gt;.queue</code> - maximum number of pending events (default 10000)</li>
+ * <li><code>notifier.&lt;name&gt;.policy</code> - what to do when the queue is full: <code>block</code> (default, the caller waits for a free slot), <code>drop</code> (discard the
+ * new event), <code>drop_oldest</code> (discard the oldest pending event) or <code>caller_runs</code> (execute the callback in the caller thread)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class AsyncNotifierDispatcher implements MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(AsyncNotifierDispatcher.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(AsyncNotifierDispatcher.class.getCanonicalName());
+
+	private enum EventType {
+		NEW, UPDATED, DELETED
+	}
+
+	private enum OverflowPolicy {
+		BLOCK, DROP, DROP_OLDEST, CALLER_RUNS
+	}
+
+	private static final class Event {
+		final EventType type;
+
+		/**
+		 * Can be replaced by a more recent state of the same object while the event is waiting in the queue
+		 */
+		volatile SQLObject object;
+
+		final long queued = System.nanoTime();
+
+		Event(final EventType type, final SQLObject object) {
+			this.type = type;
+			this.object = object;
+		}
+	}
+
+	private final SQLNotifier notifier;
+
+	private final String name;
+
+	private final OverflowPolicy policy;
+
+	private final BlockingQueue<Event> queue;
+
+	/**
+	 * Update events waiting in the queue, by object ID
+	 */
+	private final Map<UUID, Event> pendingUpdates = new ConcurrentHashMap<>();
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong latencySum = new AtomicLong();
+	private final AtomicLong latencyCount = new AtomicLong();
+	private final AtomicLong latencyMax = new AtomicLong();
+
+	/**
+	 * @param notifier
+	 *            the notifier to deliver the events to
+	 */
+	AsyncNotifierDispatcher(final SQLNotifier notifier) {
+		this.notifier = notifier;
+		this.name = notifier.getClass().getSimpleName();
+
+		final String prefix = "notifier." + name + ".";
+
+		final int threads = Math.max(Options.getIntOption(prefix + "threads", 1), 1);
+
+		queue = new LinkedBlockingQueue<>(Math.max(Options.getIntOption(prefix + "queue", 10000), 1));
+
+		OverflowPolicy p = OverflowPolicy.BLOCK;
+
+		final String policyName = Options.getOption(prefix + "policy", "block");
+
+		try {
+			p = OverflowPolicy.valueOf(policyName.trim().toUpperCase());
+		}
+		catch (@SuppressWarnings("unused") final IllegalArgumentException iae) {
+			logger.log(Level.WARNING, "Unknown overflow policy for " + name + ": " + policyName + ", using `block`");
+		}
+
+		policy = p;
+
+		for (int i = 0; i < threads; i++) {
+			final Thread worker = new Thread(this::run, "AsyncNotifierDispatcher." + name + "." + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		monitor.addMonitoring(name, this);
+	}
+
+	/**
+	 * @return the notifier that receives the events
+	 */
+	SQLNotifier getNotifier() {
+		return notifier;
+	}
+
+	/**
+	 * @param object
+	 *            newly created object
+	 */
+	void newObject(final SQLObject object) {
+		publish(new Event(EventType.NEW, object));
+	}
+
+	/**
+	 * @param object
+	 *            modified object
+	 */
+	void updatedObject(final SQLObject object) {
+		final Event event = new Event(EventType.UPDATED, object);
+
+		final Event pending = pendingUpdates.compute(object.id, (k, existing) -> {
+			if (existing != null) {
+				existing.object = object;
+				return existing;
+			}
+
+			return event;
+		});
+
+		if (pending != event) {
+			coalesced.incrementAndGet();
+			return;
+		}
+
+		publish(event);
+	}
+
+	/**
+	 * @param object
+	 *            removed object
+	 */
+	void deletedObject(final SQLObject object) {
+		publish(new Event(EventType.DELETED, object));
+	}
+
+	private void publish(final Event event) {
+		if (queue.offer(event))
+			return;
+
+		switch (policy) {
+			case BLOCK:
+				try {
+					queue.put(event);
+				}
+				catch (@SuppressWarnings("unused") final InterruptedException ie) {
+					discard(event);
+				}
+				break;
+			case DROP:
+				discard(event);
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(event)) {
+					final Event oldest = queue.poll();
+
+					if (oldest != null)
+						discard(oldest);
+				}
+				break;
+			case CALLER_RUNS:
+				dispatch(event);
+				break;
+			default:
+				break;
+		}
+	}
+
+	private void discard(final Event event) {
+		if (event.type == EventType.UPDATED)
+			pendingUpdates.remove(event.object.id, event);
+
+		dropped.incrementAndGet();
+	}
+
+	private void run() {
+		while (true) {
+			try {
+				dispatch(queue.take());
+			}
+			catch (@SuppressWarnings("unused") final InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	private void dispatch(final Event event) {
+		if (event.type == EventType.UPDATED)
+			// from now on, further updates of this object will go in a new event
+			pendingUpdates.computeIfPresent(event.object.id, (k, v) -> v == event ? null : v);
+
+		final SQLObject object = event.object;
+
+		try {
+			switch (event.type) {
+				case NEW:
+					if (notifier instanceof SQLtoUDP) {
+						if (lazyj.Utils.stringToBool(object.getProperty("forSyncReco"), true))
+							AsyncMulticastQueue.queueObject(object);
+					}
+					else
+						notifier.newObject(object);
+					break;
+				case UPDATED:
+					notifier.updatedObject(object);
+					break;
+				case DELETED:
+					notifier.deletedObject(object);
+					break;
+				default:
+					break;
+			}
+		}
+		catch (final Throwable t) {
+			failed.incrementAndGet();
+			logger.log(Level.WARNING, name + " failed to process the " + event.type + " event of " + object.id, t);
+		}
+
+		processed.incrementAndGet();
+
+		final long latency = (System.nanoTime() - event.queued) / 1000;
+
+		latencySum.addAndGet(latency);
+		latencyCount.incrementAndGet();
+		latencyMax.accumulateAndGet(latency, Math::max);
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add("queue_length");
+		paramValues.add(Double.valueOf(queue.size()));
+
+		paramNames.add("processed");
+		paramValues.add(Double.valueOf(processed.get()));
+
+		paramNames.add("dropped");
+		paramValues.add(Double.valueOf(dropped.get()));
+
+		paramNames.add("coalesced");
+		paramValues.add(Double.valueOf(coalesced.get()));
+
+		paramNames.add("failed");
+		paramValues.add(Double.valueOf(failed.get()));
+
+		// latencies since the previous report
+		final long count = latencyCount.getAndSet(0);
+		final long sum = latencySum.getAndSet(0);
+		final long max = latencyMax.getAndSet(0);
+
+		paramNames.add("avg_latency_ms");
+		paramValues.add(Double.valueOf(count > 0 ? sum / 1000. / count : 0));
+
+		paramNames.add("max_latency_ms");
+		paramValues.add(Double.valueOf(max / 1000.));
+	}
+}
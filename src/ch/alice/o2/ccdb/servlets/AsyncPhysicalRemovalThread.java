@@ -1,17 +1,33 @@
 package ch.alice.o2.ccdb.servlets;
 
+import java.util.Collection;
+import java.util.Vector;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.Options;
 
 /**
- * Physical removal of files is expensive so don't make the client wait until it happens but instead return control immediately and do the physical removal asynchronously
+ * Physical removal of files is expensive so don't make the client wait until it happens but instead return control immediately and do the physical removal asynchronously.
+ * The queue is served by <code>removal.threads</code> (default 4) worker threads, so that bulk removals are not limited by the latency of a single storage operation. The workers
+ * remove the files themselves (see {@link SQLNotifier#removesFiles()}) and only pass the event on to the queues of the other asynchronous notifiers.
  *
  * @author costing
  * @since 2018-06-08
  */
 public class AsyncPhysicalRemovalThread extends Thread {
-	private AsyncPhysicalRemovalThread() {
-		// singleton
+	private static final Monitor monitor = MonitorFactory.getMonitor(AsyncPhysicalRemovalThread.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(AsyncPhysicalRemovalThread.class.getCanonicalName());
+
+	private AsyncPhysicalRemovalThread(final int index) {
+		super("AsyncPhysicalRemovalThread." + index);
 	}
 
 	@Override
@@ -22,8 +38,7 @@ public class AsyncPhysicalRemovalThread extends Thread {
 				object = asyncPhysicalRemovalQueue.take();
 
 				if (object != null)
-					for (final SQLNotifier notifier : SQLBacked.getNotifiers())
-						notifier.deletedObject(object);
+					remove(object);
 			}
 			catch (final InterruptedException e) {
 				e.printStackTrace();
@@ -31,23 +46,99 @@ public class AsyncPhysicalRemovalThread extends Thread {
 		}
 	}
 
-	private final BlockingQueue<SQLObject> asyncPhysicalRemovalQueue = new LinkedBlockingQueue<>();
+	private static void remove(final SQLObject object) {
+		boolean ok = true;
 
-	private static AsyncPhysicalRemovalThread instance = null;
+		for (final AsyncNotifierDispatcher dispatcher : SQLBacked.getDispatchers()) {
+			final SQLNotifier notifier = dispatcher.getNotifier();
 
-	private static synchronized AsyncPhysicalRemovalThread getInstance() {
-		if (instance == null) {
-			instance = new AsyncPhysicalRemovalThread();
-			instance.start();
+			if (notifier.removesFiles()) {
+				try {
+					notifier.deletedObject(object);
+				}
+				catch (final Throwable t) {
+					ok = false;
+					logger.log(Level.WARNING, notifier + " failed to remove " + object.id, t);
+				}
+			}
+			else
+				dispatcher.deletedObject(object);
 		}
 
-		return instance;
+		if (ok)
+			removed.incrementAndGet();
+		else
+			failed.incrementAndGet();
+	}
+
+	private static final BlockingQueue<SQLObject> asyncPhysicalRemovalQueue = new LinkedBlockingQueue<>();
+
+	/**
+	 * Objects whose files were removed from all the storages
+	 */
+	private static final AtomicLong removed = new AtomicLong();
+
+	private static final AtomicLong failed = new AtomicLong();
+
+	private static boolean started = false;
+
+	private static synchronized void ensureStarted() {
+		if (started)
+			return;
+
+		final int threads = Math.max(Options.getIntOption("removal.threads", 4), 1);
+
+		for (int i = 0; i < threads; i++)
+			new AsyncPhysicalRemovalThread(i).start();
+
+		monitor.addMonitoring("removal_queue", new MonitoringObject() {
+			@Override
+			public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+				paramNames.add("queue_length");
+				paramValues.add(Double.valueOf(asyncPhysicalRemovalQueue.size()));
+
+				paramNames.add("removed");
+				paramValues.add(Double.valueOf(removed.get()));
+
+				paramNames.add("failed");
+				paramValues.add(Double.valueOf(failed.get()));
+			}
+		});
+
+		started = true;
 	}
 
 	/**
 	 * @param object object to delete asynchronously
 	 */
 	static void queueDeletion(final SQLObject object) {
-		getInstance().asyncPhysicalRemovalQueue.offer(object);
+		for (final SQLNotifier notifier : SQLBacked.getNotifiers())
+			if (notifier.isSynchronous())
+				notifier.deletedObject(object);
+
+		ensureStarted();
+
+		asyncPhysicalRemovalQueue.offer(object);
+	}
+
+	/**
+	 * @param objects objects to delete asynchronously
+	 */
+	static void queueDeletion(final Collection<SQLObject> objects) {
+		for (final SQLObject object : objects)
+			for (final SQLNotifier notifier : SQLBacked.getNotifiers())
+				if (notifier.isSynchronous())
+					notifier.deletedObject(object);
+
+		ensureStarted();
+
+		asyncPhysicalRemovalQueue.addAll(objects);
+	}
+
+	/**
+	 * @return number of objects waiting for physical removal
+	 */
+	static int getQueueLength() {
+		return asyncPhysicalRemovalQueue.size();
 	}
 }
@@ -88,9 +88,7 @@ public class AsyncReplication extends Thread implements SQLNotifier {
 				try {
 					xrootd.put(newpfn, localFile);
 
-					try (DBFunctions db = SQLObject.getDB()) {
-						db.query("update ccdb set replicas=replicas || ? where id=? and NOT ? = ANY(replicas);", false, seNumber, object.id, seNumber);
-					}
+					object.addReplica(seNumber);
 				}
 				catch (final IOException e) {
 					System.err.println("Could not upload to: " + newpfn.pfn + ", reason was: " + e.getMessage());
@@ -132,9 +130,7 @@ public class AsyncReplication extends Thread implements SQLNotifier {
 				final LFN result = IOUtils.upload(localFile, targetObjectPath, getGridUser(), null, "-S", "ocdb:1,http:5,disk:2");
 
 				if (result != null)
-					try (DBFunctions db = SQLObject.getDB()) {
-						db.query("update ccdb set replicas=replicas || ? where id=? AND NOT ? = ANY(replicas);", false, Integer.valueOf(-1), object.id, Integer.valueOf(-1));
-					}
+					object.addReplica(Integer.valueOf(-1));
 				else
 					System.err.println("Failed to upload " + localFile + " to " + targetObjectPath);
 			}
@@ -346,6 +342,11 @@ public class AsyncReplication extends Thread implements SQLNotifier {
 		// nothing to do on update, the underlying backend doesn't need to know of metadata changes
 	}
 
+	@Override
+	public boolean removesFiles() {
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return "AsyncReplication";
@@ -0,0 +1,211 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import ch.alice.o2.ccdb.Options;
+import lazyj.Utils;
+
+/**
+ * Non-blocking transfer of a reply body. The request is put in asynchronous mode and the content is written in chunks each time the container signals that the socket can
+ * take more data, so the worker thread is released as soon as the transfer is started. Slow clients downloading large objects then only cost a socket and this small state
+ * object, not a thread each.<br>
+ * <br>
+ * Content that can be handed over to Tomcat's sendfile is still served that way, since the container already sends it without holding a thread.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>download.async</code> - set to <code>true</code> to enable the non-blocking writers (default <code>false</code>, the replies are written synchronously)</li>
+ * <li><code>download.async.min</code> - smaller replies are still written synchronously, in bytes (default 65536)</li>
+ * <li><code>download.async.timeout</code> - maximum duration of a transfer, in milliseconds (default 3600000)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class AsyncSender implements WriteListener, AsyncListener {
+	private static final Monitor monitor = MonitorFactory.getMonitor(AsyncSender.class.getCanonicalName());
+
+	private static final Logger logger = Logger.getLogger(AsyncSender.class.getCanonicalName());
+
+	private static final boolean enabled = Utils.stringToBool(Options.getOption("download.async", null), false);
+
+	private static final long minSize = Options.getIntOption("download.async.min", 64 * 1024);
+
+	private static final long timeout = Options.getIntOption("download.async.timeout", 3600000);
+
+	/**
+	 * How much to write in one go, the file content is copied through the per-thread buffer of {@link FileSender}, of the same size
+	 */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final AtomicInteger active = new AtomicInteger();
+
+	private static final AtomicLong started = new AtomicLong();
+
+	private static final AtomicLong failed = new AtomicLong();
+
+	static {
+		monitor.addMonitoring("async_downloads", (names, values) -> {
+			names.add("active");
+			values.add(Double.valueOf(active.get()));
+
+			names.add("started");
+			values.add(Double.valueOf(started.get()));
+
+			names.add("failed");
+			values.add(Double.valueOf(failed.get()));
+		});
+	}
+
+	private final AsyncContext context;
+
+	private final ServletOutputStream output;
+
+	private final ByteRanges.Source source;
+
+	private final Monitor dataMonitor;
+
+	private final long length;
+
+	private long position;
+
+	private long remaining;
+
+	private boolean closed = false;
+
+	private AsyncSender(final AsyncContext context, final ServletOutputStream output, final ByteRanges.Source source, final Monitor dataMonitor, final long first,
+			final long length) {
+		this.context = context;
+		this.output = output;
+		this.source = source;
+		this.dataMonitor = dataMonitor;
+		this.length = length;
+		this.position = first;
+		this.remaining = length;
+	}
+
+	/**
+	 * Start sending a slice of the content as the entire body of the reply, if this reply qualifies for a non-blocking transfer. The headers (including the Content-Length) are
+	 * expected to be set already. When this method returns <code>true</code> the source belongs to the transfer and is closed at its end.
+	 *
+	 * @param request
+	 * @param response
+	 * @param dataMonitor
+	 *            where to account the served bytes (<code>GET_data</code>) when the transfer completes, can be <code>null</code>
+	 * @param source
+	 *            the content
+	 * @param first
+	 *            offset of the first byte to send
+	 * @param length
+	 *            how many bytes to send
+	 * @return <code>true</code> if the transfer was started in asynchronous mode, <code>false</code> if the caller should send the content itself
+	 * @throws IOException
+	 */
+	static boolean start(final HttpServletRequest request, final HttpServletResponse response, final Monitor dataMonitor, final ByteRanges.Source source, final long first,
+			final long length) throws IOException {
+		if (!enabled || length < minSize || !request.isAsyncSupported() || request.isAsyncStarted() || source.canSendfile(request, length))
+			return false;
+
+		final AsyncContext context = request.startAsync(request, response);
+		context.setTimeout(timeout);
+
+		final ServletOutputStream output = response.getOutputStream();
+
+		final AsyncSender sender = new AsyncSender(context, output, source, dataMonitor, first, length);
+
+		context.addListener(sender);
+
+		active.incrementAndGet();
+		started.incrementAndGet();
+
+		// the container calls onWritePossible() right away, from one of its threads
+		output.setWriteListener(sender);
+
+		return true;
+	}
+
+	@Override
+	public void onWritePossible() throws IOException {
+		while (output.isReady()) {
+			if (remaining <= 0) {
+				context.complete();
+				return;
+			}
+
+			final int chunk = (int) Math.min(remaining, CHUNK_SIZE);
+
+			source.write(output, position, chunk);
+
+			position += chunk;
+			remaining -= chunk;
+		}
+
+		// the socket buffer is full, the container will call again when the client has read some of it
+	}
+
+	@Override
+	public void onError(final Throwable t) {
+		failed.incrementAndGet();
+
+		logger.log(Level.FINE, "Asynchronous transfer failed with " + remaining + " bytes left to send", t);
+
+		context.complete();
+	}
+
+	@Override
+	public void onComplete(final AsyncEvent event) throws IOException {
+		release();
+	}
+
+	@Override
+	public void onTimeout(final AsyncEvent event) throws IOException {
+		failed.incrementAndGet();
+
+		logger.log(Level.WARNING, "Asynchronous transfer timed out with " + remaining + " bytes left to send");
+
+		context.complete();
+	}
+
+	@Override
+	public void onError(final AsyncEvent event) throws IOException {
+		context.complete();
+	}
+
+	@Override
+	public void onStartAsync(final AsyncEvent event) throws IOException {
+		// nothing to do
+	}
+
+	private synchronized void release() {
+		if (closed)
+			return;
+
+		closed = true;
+
+		active.decrementAndGet();
+
+		if (dataMonitor != null && remaining <= 0)
+			dataMonitor.addMeasurement("GET_data", length);
+
+		try {
+			source.close();
+		}
+		catch (final IOException ioe) {
+			logger.log(Level.FINE, "Cannot close the content source", ioe);
+		}
+	}
+}
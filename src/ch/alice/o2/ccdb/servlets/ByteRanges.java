@@ -0,0 +1,636 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import alien.monitoring.Monitor;
+import ch.alice.o2.ccdb.UUIDTools;
+
+/**
+ * HTTP <code>Range</code> support shared by all backends. The header is parsed in place, without splitting it in substrings, into a primitive array of (first, last) offsets.
+ * Overlapping and adjacent ranges are merged, as allowed by RFC 7233, and the unsatisfiable ones are skipped (a 416 is only returned when no range is left). The exact length of
+ * a <code>multipart/byteranges</code> reply is computed before sending any byte of it and the content is written directly from the backing {@link Source}. Single part replies
+ * are written with non-blocking I/O when {@link AsyncSender} is enabled.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public final class ByteRanges {
+	private static final byte[] CRLF_DASHES = "\r\n--".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONTENT_TYPE = "\r\nContent-Type: ".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONTENT_RANGE = "\r\nContent-Range: bytes ".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] DASHES = "--".getBytes(StandardCharsets.ISO_8859_1);
+
+	private final long size;
+
+	/**
+	 * Pairs of (first, last) offsets, both inclusive
+	 */
+	private long[] bounds = new long[16];
+
+	private int count = 0;
+
+	private String error = null;
+
+	private ByteRanges(final long size) {
+		this.size = size;
+	}
+
+	/**
+	 * Parse the value of a <code>Range</code> header
+	 *
+	 * @param header
+	 *            header value, for example <code>bytes=0-99,200-</code>
+	 * @param size
+	 *            size of the entire content
+	 * @return the requested ranges, sorted and merged. Check {@link #isSatisfiable()} before using them.
+	 */
+	public static ByteRanges parse(final CharSequence header, final long size) {
+		final ByteRanges ret = new ByteRanges(size);
+
+		final int len = header.length();
+
+		int i = skipWhitespace(header, 0);
+
+		if (!startsWith(header, i, "bytes=")) {
+			ret.error = "Only byte ranges are supported";
+			return ret;
+		}
+
+		i += 6;
+
+		while (i < len) {
+			final char c = header.charAt(i);
+
+			if (c == ',' || c == ' ' || c == '\t') {
+				i++;
+				continue;
+			}
+
+			long first = -1;
+			long last = -1;
+
+			if (c >= '0' && c <= '9') {
+				final int end = digitsEnd(header, i);
+
+				if (end - i > 18) {
+					ret.error = "Range value too large";
+					return ret;
+				}
+
+				first = parseLong(header, i, end);
+				i = skipWhitespace(header, end);
+			}
+
+			if (i >= len || header.charAt(i) != '-') {
+				ret.error = "Invalid range specification";
+				return ret;
+			}
+
+			i = skipWhitespace(header, i + 1);
+
+			if (i < len && header.charAt(i) >= '0' && header.charAt(i) <= '9') {
+				final int end = digitsEnd(header, i);
+
+				if (end - i > 18) {
+					ret.error = "Range value too large";
+					return ret;
+				}
+
+				last = parseLong(header, i, end);
+				i = skipWhitespace(header, end);
+			}
+
+			if (i < len && header.charAt(i) != ',') {
+				ret.error = "Invalid range specification";
+				return ret;
+			}
+
+			if (first < 0) {
+				// a single negative value means 'last N bytes'
+				if (last < 0) {
+					ret.error = "Invalid range specification";
+					return ret;
+				}
+
+				if (last == 0 || size == 0) {
+					ret.error = "You requested an empty suffix of the content";
+					continue;
+				}
+
+				ret.add(Math.max(size - last, 0), size - 1);
+				continue;
+			}
+
+			if (first >= size) {
+				ret.error = "You requested an invalid range, starting beyond the end of the file (" + first + ")";
+				continue;
+			}
+
+			if (last >= 0 && first > last) {
+				ret.error = "The requested range is wrong, the second value (" + last + ") should be larger than the first (" + first + ")";
+				continue;
+			}
+
+			ret.add(first, last < 0 || last >= size ? size - 1 : last);
+		}
+
+		ret.merge();
+
+		return ret;
+	}
+
+	private static boolean startsWith(final CharSequence s, final int offset, final String prefix) {
+		if (s.length() - offset < prefix.length())
+			return false;
+
+		for (int i = 0; i < prefix.length(); i++)
+			if (s.charAt(offset + i) != prefix.charAt(i))
+				return false;
+
+		return true;
+	}
+
+	private static int skipWhitespace(final CharSequence s, final int offset) {
+		int i = offset;
+
+		while (i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == '\t'))
+			i++;
+
+		return i;
+	}
+
+	private static int digitsEnd(final CharSequence s, final int offset) {
+		int i = offset;
+
+		while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+			i++;
+
+		return i;
+	}
+
+	private static long parseLong(final CharSequence s, final int start, final int end) {
+		long value = 0;
+
+		for (int i = start; i < end; i++)
+			value = value * 10 + (s.charAt(i) - '0');
+
+		return value;
+	}
+
+	private void add(final long first, final long last) {
+		if (count * 2 == bounds.length) {
+			final long[] newBounds = new long[bounds.length * 2];
+			System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+			bounds = newBounds;
+		}
+
+		bounds[count * 2] = first;
+		bounds[count * 2 + 1] = last;
+		count++;
+	}
+
+	/**
+	 * Sort the ranges by their start offset (insertion sort, requests are typically already sorted) and merge the overlapping or adjacent ones
+	 */
+	private void merge() {
+		if (count < 2)
+			return;
+
+		for (int i = 1; i < count; i++) {
+			final long first = bounds[i * 2];
+			final long last = bounds[i * 2 + 1];
+
+			int j = i - 1;
+
+			while (j >= 0 && bounds[j * 2] > first) {
+				bounds[j * 2 + 2] = bounds[j * 2];
+				bounds[j * 2 + 3] = bounds[j * 2 + 1];
+				j--;
+			}
+
+			bounds[j * 2 + 2] = first;
+			bounds[j * 2 + 3] = last;
+		}
+
+		int merged = 0;
+
+		for (int i = 1; i < count; i++) {
+			if (bounds[i * 2] <= bounds[merged * 2 + 1] + 1) {
+				if (bounds[i * 2 + 1] > bounds[merged * 2 + 1])
+					bounds[merged * 2 + 1] = bounds[i * 2 + 1];
+			}
+			else {
+				merged++;
+				bounds[merged * 2] = bounds[i * 2];
+				bounds[merged * 2 + 1] = bounds[i * 2 + 1];
+			}
+		}
+
+		count = merged + 1;
+	}
+
+	/**
+	 * @return <code>true</code> if there is at least one range to serve
+	 */
+	public boolean isSatisfiable() {
+		return count > 0;
+	}
+
+	/**
+	 * @return the reason why (some of) the ranges were rejected, can be <code>null</code>
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return number of (merged) ranges
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param idx
+	 * @return first byte of the given range
+	 */
+	public long getFirst(final int idx) {
+		return bounds[idx * 2];
+	}
+
+	/**
+	 * @param idx
+	 * @return last byte of the given range, inclusive
+	 */
+	public long getLast(final int idx) {
+		return bounds[idx * 2 + 1];
+	}
+
+	/**
+	 * @param idx
+	 * @return number of bytes in the given range
+	 */
+	public long getLength(final int idx) {
+		return bounds[idx * 2 + 1] - bounds[idx * 2] + 1;
+	}
+
+	private static int digits(final long value) {
+		long v = value;
+		int n = 1;
+
+		while (v >= 10) {
+			v /= 10;
+			n++;
+		}
+
+		return n;
+	}
+
+	private int partHeaderLength(final int idx, final byte[] boundary, final byte[] contentType) {
+		return CRLF_DASHES.length + boundary.length + CONTENT_TYPE.length + contentType.length + CONTENT_RANGE.length + digits(getFirst(idx)) + 1 + digits(getLast(idx)) + 1
+				+ digits(size) + HEADER_END.length;
+	}
+
+	/**
+	 * @param boundary
+	 *            multipart boundary
+	 * @param contentType
+	 *            content type of each part
+	 * @return exact length of the <code>multipart/byteranges</code> body
+	 */
+	public long getMultipartLength(final byte[] boundary, final byte[] contentType) {
+		long length = 0;
+
+		for (int i = 0; i < count; i++)
+			length += partHeaderLength(i, boundary, contentType) + getLength(i);
+
+		return length + CRLF_DASHES.length + boundary.length + DASHES.length;
+	}
+
+	/**
+	 * Write the <code>multipart/byteranges</code> body
+	 *
+	 * @param os
+	 *            where to write
+	 * @param source
+	 *            content to take the ranges from
+	 * @param boundary
+	 *            multipart boundary
+	 * @param contentType
+	 *            content type of each part
+	 * @throws IOException
+	 */
+	public void writeMultipart(final OutputStream os, final Source source, final byte[] boundary, final byte[] contentType) throws IOException {
+		final byte[] header = new byte[CRLF_DASHES.length + boundary.length + CONTENT_TYPE.length + contentType.length + CONTENT_RANGE.length + 3 * 20 + 2 + HEADER_END.length];
+
+		int fixed = 0;
+
+		fixed = put(header, fixed, CRLF_DASHES);
+		fixed = put(header, fixed, boundary);
+		fixed = put(header, fixed, CONTENT_TYPE);
+		fixed = put(header, fixed, contentType);
+		fixed = put(header, fixed, CONTENT_RANGE);
+
+		for (int i = 0; i < count; i++) {
+			int pos = fixed;
+
+			pos = putLong(header, pos, getFirst(i));
+			header[pos++] = '-';
+			pos = putLong(header, pos, getLast(i));
+			header[pos++] = '/';
+			pos = putLong(header, pos, size);
+			pos = put(header, pos, HEADER_END);
+
+			os.write(header, 0, pos);
+
+			source.write(os, getFirst(i), getLength(i));
+		}
+
+		os.write(CRLF_DASHES);
+		os.write(boundary);
+		os.write(DASHES);
+	}
+
+	private static int put(final byte[] target, final int offset, final byte[] value) {
+		System.arraycopy(value, 0, target, offset, value.length);
+		return offset + value.length;
+	}
+
+	private static int putLong(final byte[] target, final int offset, final long value) {
+		final int n = digits(value);
+
+		long v = value;
+
+		for (int i = offset + n - 1; i >= offset; i--) {
+			target[i] = (byte) ('0' + (v % 10));
+			v /= 10;
+		}
+
+		return offset + n;
+	}
+
+	/**
+	 * @param request
+	 * @return <code>true</code> if the client asked for parts of the content only
+	 */
+	public static boolean isRangeRequest(final HttpServletRequest request) {
+		final String range = request.getHeader("Range");
+
+		return range != null && !range.isBlank();
+	}
+
+	/**
+	 * Serve the content, entirely or the ranges that the client asked for. The object-specific headers are expected to be set already.
+	 *
+	 * @param request
+	 * @param response
+	 * @param monitor
+	 *            where to account the served bytes (<code>GET_data</code>), can be <code>null</code>
+	 * @param source
+	 *            the content, closed at the end
+	 * @param contentType
+	 *            content type of the object
+	 * @param fileName
+	 *            original file name
+	 * @throws IOException
+	 */
+	static void serve(final HttpServletRequest request, final HttpServletResponse response, final Monitor monitor, final Source source, final String contentType, final String fileName)
+			throws IOException {
+		boolean handedOver = false;
+
+		try {
+			final Source s = source;
+
+			final long size = s.size();
+
+			final String range = request.getHeader("Range");
+
+			if (range == null || range.isBlank()) {
+				response.setHeader("Accept-Ranges", "bytes");
+				response.setContentLengthLong(size);
+				response.setHeader("Content-Disposition", "inline;filename=\"" + fileName + "\"");
+				response.setHeader("Content-Type", contentType);
+
+				if (AsyncSender.start(request, response, monitor, s, 0, size)) {
+					handedOver = true;
+					return;
+				}
+
+				s.send(request, response, 0, size);
+
+				if (monitor != null)
+					monitor.addMeasurement("GET_data", size);
+
+				return;
+			}
+
+			final ByteRanges ranges = parse(range, size);
+
+			if (!ranges.isSatisfiable()) {
+				response.setHeader("Content-Range", "bytes */" + size);
+
+				if (ranges.getError() != null)
+					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, ranges.getError());
+				else
+					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+
+				return;
+			}
+
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+			if (ranges.getCount() == 1) {
+				// A single byte range
+				final long first = ranges.getFirst(0);
+				final long toCopy = ranges.getLength(0);
+
+				response.setContentLengthLong(toCopy);
+				response.setHeader("Content-Range", "bytes " + first + "-" + ranges.getLast(0) + "/" + size);
+				response.setHeader("Content-Disposition", "inline;filename=\"" + fileName + "\"");
+				response.setHeader("Content-Type", contentType);
+
+				if (AsyncSender.start(request, response, monitor, s, first, toCopy)) {
+					handedOver = true;
+					return;
+				}
+
+				s.send(request, response, first, toCopy);
+
+				if (monitor != null)
+					monitor.addMeasurement("GET_data", toCopy);
+
+				return;
+			}
+
+			final String boundaryString = "THIS_STRING_SEPARATES_" + UUIDTools.generateTimeUUID(System.currentTimeMillis(), null).toString();
+
+			final byte[] boundary = boundaryString.getBytes(StandardCharsets.ISO_8859_1);
+			final byte[] partContentType = contentType.getBytes(StandardCharsets.ISO_8859_1);
+
+			response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundaryString);
+			response.setContentLengthLong(ranges.getMultipartLength(boundary, partContentType));
+
+			try (OutputStream os = response.getOutputStream()) {
+				ranges.writeMultipart(os, s, boundary, partContentType);
+			}
+
+			if (monitor != null)
+				for (int i = 0; i < ranges.getCount(); i++)
+					monitor.addMeasurement("GET_data", ranges.getLength(i));
+		}
+		finally {
+			// unless a non-blocking transfer took it over, to close it when done
+			if (!handedOver)
+				source.close();
+		}
+	}
+
+	/**
+	 * Content to serve the ranges from
+	 */
+	public abstract static class Source implements Closeable {
+		/**
+		 * @return total size of the content
+		 */
+		public abstract long size();
+
+		/**
+		 * Write a slice of the content to the given stream
+		 *
+		 * @param os
+		 * @param first
+		 * @param length
+		 * @throws IOException
+		 */
+		public abstract void write(OutputStream os, long first, long length) throws IOException;
+
+		/**
+		 * Send a slice of the content as the entire body of the reply
+		 *
+		 * @param request
+		 * @param response
+		 * @param first
+		 * @param length
+		 * @throws IOException
+		 */
+		void send(final HttpServletRequest request, final HttpServletResponse response, final long first, final long length) throws IOException {
+			try (OutputStream os = response.getOutputStream()) {
+				write(os, first, length);
+			}
+		}
+
+		/**
+		 * @param request
+		 * @param length
+		 * @return <code>true</code> if {@link #send(HttpServletRequest, HttpServletResponse, long, long)} would let the connector transfer this many bytes without holding
+		 *         the thread
+		 */
+		boolean canSendfile(final HttpServletRequest request, final long length) {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			// nothing to release by default
+		}
+
+		/**
+		 * @param content
+		 * @return in-memory content
+		 */
+		public static Source of(final byte[] content) {
+			return new Source() {
+				@Override
+				public long size() {
+					return content.length;
+				}
+
+				@Override
+				public void write(final OutputStream os, final long first, final long length) throws IOException {
+					// the ranges are validated against the array size, they fit in an int
+					os.write(content, (int) first, (int) length);
+				}
+			};
+		}
+
+		/**
+		 * @param content
+		 *            buffer whose remaining bytes are the content, it is not modified
+		 * @return in-memory content
+		 */
+		public static Source of(final ByteBuffer content) {
+			return new Source() {
+				@Override
+				public long size() {
+					return content.remaining();
+				}
+
+				@Override
+				public void write(final OutputStream os, final long first, final long length) throws IOException {
+					if (content.hasArray()) {
+						os.write(content.array(), content.arrayOffset() + content.position() + (int) first, (int) length);
+						return;
+					}
+
+					final ByteBuffer slice = content.duplicate();
+					slice.position(content.position() + (int) first);
+					slice.limit(content.position() + (int) (first + length));
+
+					Channels.newChannel(os).write(slice);
+				}
+			};
+		}
+
+		/**
+		 * @param file
+		 * @return file content, served with sendfile when possible
+		 */
+		public static Source of(final File file) {
+			return new Source() {
+				private final long fileSize = file.length();
+
+				private RandomAccessFile input = null;
+
+				@Override
+				public long size() {
+					return fileSize;
+				}
+
+				@Override
+				public void write(final OutputStream os, final long first, final long length) throws IOException {
+					if (input == null)
+						input = new RandomAccessFile(file, "r");
+
+					FileSender.copy(input, os, first, length);
+				}
+
+				@Override
+				void send(final HttpServletRequest request, final HttpServletResponse response, final long first, final long length) throws IOException {
+					FileSender.send(request, response, file, first, length);
+				}
+
+				@Override
+				boolean canSendfile(final HttpServletRequest request, final long length) {
+					return FileSender.canSendfile(request, length);
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (input != null)
+						input.close();
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,401 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Metadata of an object, as (metadata key ID, value) pairs kept in two flat arrays instead of a hash table of boxed keys and entry objects.<br>
+ * <br>
+ * Objects loaded from the database keep the <code>hstore</code> text as it came from the server and only decode it when the map is first iterated or modified. Single key
+ * lookups (like {@link SQLObject#getLastModified()}) are answered by scanning the text, so the listings that only need a few fields never decode the rest.<br>
+ * <br>
+ * Reading is thread safe, since cached objects are shared between requests; modifications are not, as for the previous <code>HashMap</code>.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class CompactMetadata extends AbstractMap<Integer, String> {
+	private static final int[] NO_KEYS = new int[0];
+
+	private static final String[] NO_VALUES = new String[0];
+
+	/**
+	 * <code>hstore</code> text representation, until it is decoded in the arrays below
+	 */
+	private volatile String encoded;
+
+	private int[] keys = NO_KEYS;
+
+	private String[] values = NO_VALUES;
+
+	private int size = 0;
+
+	private Set<Map.Entry<Integer, String>> entrySet = null;
+
+	/**
+	 * Empty metadata, for a new object
+	 */
+	CompactMetadata() {
+		encoded = null;
+	}
+
+	/**
+	 * @param hstore
+	 *            text representation of the database column, as in <code>"1"=&gt;"value", "2"=&gt;"other value"</code>. Can be <code>null</code>.
+	 */
+	CompactMetadata(final String hstore) {
+		encoded = hstore != null && hstore.length() > 0 ? hstore : null;
+	}
+
+	/**
+	 * Decode the text representation in the arrays, once
+	 */
+	private void decode() {
+		if (encoded == null)
+			return;
+
+		synchronized (this) {
+			final String text = encoded;
+
+			if (text == null)
+				return;
+
+			int[] newKeys = new int[4];
+			String[] newValues = new String[4];
+			int count = 0;
+
+			final int len = text.length();
+			int pos = 0;
+
+			while ((pos = text.indexOf('"', pos)) >= 0) {
+				final int keyEnd = endOfQuoted(text, pos + 1);
+				final int key = parseKey(text, pos + 1, keyEnd);
+
+				pos = skipSeparator(text, keyEnd + 1);
+
+				if (pos >= len)
+					break;
+
+				if (text.charAt(pos) != '"') {
+					// NULL value
+					pos += 4;
+					continue;
+				}
+
+				final int valueEnd = endOfQuoted(text, pos + 1);
+
+				if (key >= 0) {
+					if (count == newKeys.length) {
+						newKeys = Arrays.copyOf(newKeys, count * 2);
+						newValues = Arrays.copyOf(newValues, count * 2);
+					}
+
+					newKeys[count] = key;
+					newValues[count] = unescape(text, pos + 1, valueEnd);
+					count++;
+				}
+
+				pos = valueEnd + 1;
+			}
+
+			keys = newKeys;
+			values = newValues;
+			size = count;
+
+			// volatile write, publishing the arrays to the threads that only look at the text
+			encoded = null;
+		}
+	}
+
+	/**
+	 * Look up a single key in the text representation, without decoding anything else
+	 *
+	 * @param text
+	 * @param wantedKey
+	 * @return the value, or <code>null</code> if the key is not present
+	 */
+	private static String lookup(final String text, final int wantedKey) {
+		final int len = text.length();
+		int pos = 0;
+
+		while ((pos = text.indexOf('"', pos)) >= 0) {
+			final int keyEnd = endOfQuoted(text, pos + 1);
+			final int key = parseKey(text, pos + 1, keyEnd);
+
+			pos = skipSeparator(text, keyEnd + 1);
+
+			if (pos >= len)
+				return null;
+
+			if (text.charAt(pos) != '"') {
+				pos += 4;
+				continue;
+			}
+
+			final int valueEnd = endOfQuoted(text, pos + 1);
+
+			if (key == wantedKey)
+				return unescape(text, pos + 1, valueEnd);
+
+			pos = valueEnd + 1;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param text
+	 * @param start
+	 *            first character after the opening quote
+	 * @return position of the closing quote, skipping the escaped characters
+	 */
+	private static int endOfQuoted(final String text, final int start) {
+		final int len = text.length();
+
+		int i = start;
+
+		while (i < len) {
+			final char c = text.charAt(i);
+
+			if (c == '\\')
+				i += 2;
+			else if (c == '"')
+				return i;
+			else
+				i++;
+		}
+
+		return len;
+	}
+
+	/**
+	 * @param text
+	 * @param pos
+	 *            first character after a key
+	 * @return position of the value, after the <code>=&gt;</code> separator and any white space
+	 */
+	private static int skipSeparator(final String text, final int pos) {
+		final int len = text.length();
+
+		int i = pos;
+
+		while (i < len) {
+			final char c = text.charAt(i);
+
+			if (c == '=' || c == '>' || Character.isWhitespace(c))
+				i++;
+			else
+				break;
+		}
+
+		return i;
+	}
+
+	/**
+	 * @param text
+	 * @param start
+	 * @param end
+	 * @return the numeric metadata key ID, or <code>-1</code> if the key is not a number
+	 */
+	private static int parseKey(final String text, final int start, final int end) {
+		if (start >= end || end - start > 9)
+			return -1;
+
+		int value = 0;
+
+		for (int i = start; i < end; i++) {
+			final char c = text.charAt(i);
+
+			if (c < '0' || c > '9')
+				return -1;
+
+			value = value * 10 + (c - '0');
+		}
+
+		return value;
+	}
+
+	private static String unescape(final String text, final int start, final int end) {
+		final int firstEscape = text.indexOf('\\', start);
+
+		if (firstEscape < 0 || firstEscape >= end)
+			return text.substring(start, end);
+
+		final StringBuilder sb = new StringBuilder(end - start);
+
+		for (int i = start; i < end; i++) {
+			final char c = text.charAt(i);
+
+			if (c == '\\' && i + 1 < end)
+				sb.append(text.charAt(++i));
+			else
+				sb.append(c);
+		}
+
+		return sb.toString();
+	}
+
+	private int indexOf(final int key) {
+		for (int i = 0; i < size; i++)
+			if (keys[i] == key)
+				return i;
+
+		return -1;
+	}
+
+	private void removeAt(final int idx) {
+		final int toMove = size - idx - 1;
+
+		if (toMove > 0) {
+			System.arraycopy(keys, idx + 1, keys, idx, toMove);
+			System.arraycopy(values, idx + 1, values, idx, toMove);
+		}
+
+		size--;
+		values[size] = null;
+	}
+
+	@Override
+	public String get(final Object key) {
+		if (!(key instanceof Integer))
+			return null;
+
+		final int k = ((Integer) key).intValue();
+
+		final String text = encoded;
+
+		if (text != null)
+			return lookup(text, k);
+
+		final int idx = indexOf(k);
+
+		return idx >= 0 ? values[idx] : null;
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		decode();
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public String put(final Integer key, final String value) {
+		if (key == null || value == null)
+			throw new NullPointerException("Metadata keys and values cannot be null");
+
+		decode();
+
+		final int k = key.intValue();
+
+		final int idx = indexOf(k);
+
+		if (idx >= 0) {
+			final String old = values[idx];
+			values[idx] = value;
+			return old;
+		}
+
+		if (size == keys.length) {
+			final int newCapacity = Math.max(4, size * 2);
+			keys = Arrays.copyOf(keys, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+		}
+
+		keys[size] = k;
+		values[size] = value;
+		size++;
+
+		return null;
+	}
+
+	@Override
+	public String remove(final Object key) {
+		if (!(key instanceof Integer))
+			return null;
+
+		decode();
+
+		final int idx = indexOf(((Integer) key).intValue());
+
+		if (idx < 0)
+			return null;
+
+		final String old = values[idx];
+
+		removeAt(idx);
+
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		decode();
+
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<Integer, String>> entrySet() {
+		if (entrySet == null)
+			entrySet = new AbstractSet<>() {
+				@Override
+				public Iterator<Map.Entry<Integer, String>> iterator() {
+					decode();
+
+					return new Iterator<>() {
+						private int next = 0;
+
+						private int last = -1;
+
+						@Override
+						public boolean hasNext() {
+							return next < size;
+						}
+
+						@Override
+						public Map.Entry<Integer, String> next() {
+							if (next >= size)
+								throw new NoSuchElementException();
+
+							last = next++;
+
+							return new AbstractMap.SimpleImmutableEntry<>(Integer.valueOf(keys[last]), values[last]);
+						}
+
+						@Override
+						public void remove() {
+							if (last < 0)
+								throw new IllegalStateException();
+
+							removeAt(last);
+							next = last;
+							last = -1;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return CompactMetadata.this.size();
+				}
+			};
+
+		return entrySet;
+	}
+}
@@ -0,0 +1,179 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted set of replica IDs kept in a small <code>int</code> array, with the same iteration order as the <code>TreeSet</code> it replaces. The database array is parsed from its
+ * text representation, without going through <code>java.sql.Array</code> and an <code>Integer[]</code>.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class CompactReplicas extends AbstractSet<Integer> {
+	private static final int[] NO_VALUES = new int[0];
+
+	private int[] values = NO_VALUES;
+
+	private int size = 0;
+
+	/**
+	 * Empty set, for a new object
+	 */
+	CompactReplicas() {
+		// nothing to initialize
+	}
+
+	/**
+	 * @param array
+	 *            text representation of the database column, as in <code>{0,1,5}</code>. Can be <code>null</code>.
+	 */
+	CompactReplicas(final String array) {
+		if (array == null || array.length() < 3)
+			return;
+
+		int count = 1;
+
+		for (int i = array.length() - 1; i >= 0; i--)
+			if (array.charAt(i) == ',')
+				count++;
+
+		values = new int[count];
+
+		int value = 0;
+		boolean negative = false;
+		boolean inNumber = false;
+
+		for (int i = 0; i < array.length(); i++) {
+			final char c = array.charAt(i);
+
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				inNumber = true;
+			}
+			else if (c == '-')
+				negative = true;
+			else if (c == ',' || c == '}') {
+				if (inNumber)
+					values[size++] = negative ? -value : value;
+
+				value = 0;
+				negative = false;
+				inNumber = false;
+			}
+		}
+
+		for (int i = 1; i < size; i++)
+			if (values[i - 1] >= values[i]) {
+				// the arrays written by this code are always sorted, but be tolerant to anything else
+				Arrays.sort(values, 0, size);
+				removeDuplicates();
+				break;
+			}
+	}
+
+	private void removeDuplicates() {
+		int j = 0;
+
+		for (int i = 0; i < size; i++)
+			if (j == 0 || values[j - 1] != values[i])
+				values[j++] = values[i];
+
+		size = j;
+	}
+
+	private int indexOf(final Object o) {
+		if (!(o instanceof Integer))
+			return -1;
+
+		return Arrays.binarySearch(values, 0, size, ((Integer) o).intValue());
+	}
+
+	@Override
+	public boolean contains(final Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public boolean add(final Integer replica) {
+		final int idx = Arrays.binarySearch(values, 0, size, replica.intValue());
+
+		if (idx >= 0)
+			return false;
+
+		final int insertAt = -idx - 1;
+
+		if (size == values.length)
+			values = Arrays.copyOf(values, Math.max(2, size * 2));
+
+		System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+
+		values[insertAt] = replica.intValue();
+		size++;
+
+		return true;
+	}
+
+	private void removeAt(final int idx) {
+		System.arraycopy(values, idx + 1, values, idx, size - idx - 1);
+		size--;
+	}
+
+	@Override
+	public boolean remove(final Object o) {
+		final int idx = indexOf(o);
+
+		if (idx < 0)
+			return false;
+
+		removeAt(idx);
+
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return new Iterator<>() {
+			private int next = 0;
+
+			private int last = -1;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Integer next() {
+				if (next >= size)
+					throw new NoSuchElementException();
+
+				last = next++;
+
+				return Integer.valueOf(values[last]);
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0)
+					throw new IllegalStateException();
+
+				removeAt(last);
+				next = last;
+				last = -1;
+			}
+		};
+	}
+}
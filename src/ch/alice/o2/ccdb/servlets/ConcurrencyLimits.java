@@ -0,0 +1,167 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.Vector;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.Options;
+import ch.alice.o2.ccdb.VirtualThreads;
+
+/**
+ * Explicit bounds on the number of requests that use the database or the disk at the same time. With a fixed pool of request threads these were implicitly bounded by the pool
+ * size, with virtual threads (see {@link VirtualThreads}) there is no such bound anymore and thousands of concurrent requests would otherwise all try to open a database
+ * connection or read a file at once.<br>
+ * <br>
+ * The permits are per thread: a thread that already holds one (for example a method opening a second database accessor while iterating over the results of a first one) doesn't
+ * take another, so nested calls cannot deadlock waiting for each other.<br>
+ * <br>
+ * Configuration keys (a value of <code>0</code> means no limit):
+ * <ul>
+ * <li><code>limits.db</code> - concurrent database accessors (default 64 with virtual threads, otherwise no limit)</li>
+ * <li><code>limits.disk</code> - concurrent disk reads (default 32 with virtual threads, otherwise no limit)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class ConcurrencyLimits {
+	private static final Monitor monitor = MonitorFactory.getMonitor(ConcurrencyLimits.class.getCanonicalName());
+
+	/**
+	 * Holding a permit, to be closed when the protected operation is over. Closing it more than once has no effect.
+	 */
+	interface Permit extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+	private static final Permit NO_LIMIT = () -> {
+		// nothing to release
+	};
+
+	/**
+	 * One limited resource
+	 */
+	static final class Limit implements MonitoringObject {
+		private final int permits;
+
+		private final Semaphore semaphore;
+
+		/**
+		 * How many permits of this limit the current thread holds, only the first one is taken from the semaphore
+		 */
+		private final ThreadLocal<AtomicInteger> held = ThreadLocal.withInitial(AtomicInteger::new);
+
+		private final AtomicInteger waiting = new AtomicInteger();
+
+		private final AtomicLong acquired = new AtomicLong();
+
+		private final AtomicLong waited = new AtomicLong();
+
+		private final AtomicLong waitNanos = new AtomicLong();
+
+		Limit(final int permits) {
+			this.permits = permits;
+			this.semaphore = permits > 0 ? new Semaphore(permits, true) : null;
+		}
+
+		/**
+		 * Block until the resource can be used
+		 *
+		 * @return the permit, to be closed when done
+		 */
+		Permit acquire() {
+			if (semaphore == null)
+				return NO_LIMIT;
+
+			final AtomicInteger counter = held.get();
+
+			if (counter.getAndIncrement() == 0) {
+				if (!semaphore.tryAcquire()) {
+					waiting.incrementAndGet();
+
+					final long start = System.nanoTime();
+
+					semaphore.acquireUninterruptibly();
+
+					waitNanos.addAndGet(System.nanoTime() - start);
+					waiting.decrementAndGet();
+					waited.incrementAndGet();
+				}
+
+				acquired.incrementAndGet();
+			}
+
+			return new Permit() {
+				private boolean closed = false;
+
+				@Override
+				public synchronized void close() {
+					if (closed)
+						return;
+
+					closed = true;
+
+					// the counter of the thread that acquired it, even if it is closed from another one
+					if (counter.decrementAndGet() == 0)
+						semaphore.release();
+				}
+			};
+		}
+
+		@Override
+		public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+			if (semaphore == null)
+				return;
+
+			paramNames.add("permits");
+			paramValues.add(Double.valueOf(permits));
+
+			paramNames.add("in_use");
+			paramValues.add(Double.valueOf(permits - semaphore.availablePermits()));
+
+			paramNames.add("waiting");
+			paramValues.add(Double.valueOf(waiting.get()));
+
+			paramNames.add("acquired");
+			paramValues.add(Double.valueOf(acquired.get()));
+
+			paramNames.add("waited");
+			paramValues.add(Double.valueOf(waited.get()));
+
+			paramNames.add("wait_ms");
+			paramValues.add(Double.valueOf(waitNanos.get() / 1000000.));
+		}
+	}
+
+	private static final Limit database = new Limit(Options.getIntOption("limits.db", VirtualThreads.isEnabled() ? 64 : 0));
+
+	private static final Limit disk = new Limit(Options.getIntOption("limits.disk", VirtualThreads.isEnabled() ? 32 : 0));
+
+	static {
+		monitor.addMonitoring("db", database);
+		monitor.addMonitoring("disk", disk);
+	}
+
+	private ConcurrencyLimits() {
+		// static helper methods only
+	}
+
+	/**
+	 * @return a permit to use the database, released when the accessor is closed
+	 */
+	static Permit database() {
+		return database.acquire();
+	}
+
+	/**
+	 * @return a permit to read from the local disk
+	 */
+	static Permit disk() {
+		return disk.acquire();
+	}
+}
@@ -0,0 +1,128 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import ch.alice.o2.ccdb.Options;
+import lazyj.Utils;
+
+/**
+ * Serving (parts of) local files as the body of a reply. Whenever the connector supports it the transfer is delegated to Tomcat's sendfile implementation, so the content goes
+ * from the page cache to the socket without being copied through the Java heap. Otherwise, or for multipart replies, the data is copied with a per-thread buffer.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>download.sendfile</code> - set to <code>false</code> to always copy the content through the servlet output stream (default <code>true</code>)</li>
+ * <li><code>download.sendfile.min</code> - smaller replies are copied instead, in bytes (default 49152, the same as Tomcat's own threshold)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+class FileSender {
+	private static final Monitor monitor = MonitorFactory.getMonitor(FileSender.class.getCanonicalName());
+
+	private static final boolean sendfileEnabled = Utils.stringToBool(Options.getOption("download.sendfile", null), true);
+
+	private static final long sendfileMinSize = Options.getIntOption("download.sendfile.min", 48 * 1024);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+	private FileSender() {
+		// static helper methods only
+	}
+
+	/**
+	 * @param request
+	 * @param count
+	 *            how many bytes would be sent
+	 * @return <code>true</code> if the transfer would be handed over to the connector's sendfile implementation
+	 */
+	static boolean canSendfile(final HttpServletRequest request, final long count) {
+		return sendfileEnabled && count >= sendfileMinSize && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"));
+	}
+
+	/**
+	 * Send a contiguous part of a file as the entire body of the reply. The headers (including the Content-Length) are expected to be set already.
+	 *
+	 * @param request
+	 * @param response
+	 * @param file
+	 *            file to serve
+	 * @param first
+	 *            offset of the first byte to send
+	 * @param count
+	 *            how many bytes to send
+	 * @throws IOException
+	 */
+	static void send(final HttpServletRequest request, final HttpServletResponse response, final File file, final long first, final long count) throws IOException {
+		if (canSendfile(request, count)) {
+			request.setAttribute("org.apache.tomcat.sendfile.filename", file.getAbsolutePath());
+			request.setAttribute("org.apache.tomcat.sendfile.start", Long.valueOf(first));
+			request.setAttribute("org.apache.tomcat.sendfile.end", Long.valueOf(first + count));
+
+			monitor.incrementCounter("sendfile");
+			monitor.addMeasurement("sendfile_data", count);
+			return;
+		}
+
+		monitor.incrementCounter("copy");
+
+		try (RandomAccessFile input = new RandomAccessFile(file, "r"); OutputStream output = response.getOutputStream()) {
+			copy(input, output, first, count);
+		}
+	}
+
+	/**
+	 * Copy a part of a file to the given stream, reusing a per-thread buffer
+	 *
+	 * @param input
+	 * @param output
+	 * @param first
+	 *            offset of the first byte to copy
+	 * @param count
+	 *            how many bytes to copy
+	 * @throws IOException
+	 */
+	static void copy(final RandomAccessFile input, final OutputStream output, final long first, final long count) throws IOException {
+		final FileChannel channel = input.getChannel();
+
+		final ByteBuffer buffer = buffers.get();
+
+		long position = first;
+		long leftToCopy = count;
+
+		while (leftToCopy > 0) {
+			buffer.clear();
+
+			if (leftToCopy < buffer.capacity())
+				buffer.limit((int) leftToCopy);
+
+			final int cnt;
+
+			// only the disk access counts against the limit, not the (possibly slow) write to the client
+			try (ConcurrencyLimits.Permit permit = ConcurrencyLimits.disk()) {
+				cnt = channel.read(buffer, position);
+			}
+
+			if (cnt < 0)
+				throw new IOException("Unexpected end of file " + position + " bytes into the file, " + leftToCopy + " bytes short");
+
+			output.write(buffer.array(), 0, cnt);
+
+			position += cnt;
+			leftToCopy -= cnt;
+		}
+	}
+}
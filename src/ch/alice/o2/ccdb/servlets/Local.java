@@ -3,20 +3,12 @@ package ch.alice.o2.ccdb.servlets;
 import static ch.alice.o2.ccdb.servlets.ServletHelper.printUsage;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.net.InetAddress;
-import java.util.AbstractMap;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -155,7 +147,7 @@ public class Local extends HttpServlet {
 
 		CCDBUtils.disableCaching(response);
 
-		final LocalObjectWithVersion matchingObject = getMatchingObject(parser);
+		final LocalObjectWithVersion matchingObject = getMatchingObject(parser, true);
 
 		if (matchingObject == null) {
 			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -225,212 +217,10 @@ public class Local extends HttpServlet {
 	}
 
 	private static void download(final LocalObjectWithVersion obj, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
-		final String range = request.getHeader("Range");
-
-		if (range == null || range.trim().isEmpty()) {
-			response.setHeader("Accept-Ranges", "bytes");
-			response.setContentLengthLong(obj.referenceFile.length());
-			response.setHeader("Content-Disposition", "inline;filename=\"" + obj.getOriginalName() + "\"");
-			response.setHeader("Content-Type", obj.getProperty("Content-Type", "application/octet-stream"));
+		if (!ByteRanges.isRangeRequest(request))
 			setMD5Header(obj, response);
 
-			try (InputStream is = new FileInputStream(obj.referenceFile); OutputStream os = response.getOutputStream()) {
-				IOUtils.copy(is, os);
-			}
-
-			if (monitor != null)
-				monitor.addMeasurement("GET_data", obj.referenceFile.length());
-
-			return;
-		}
-
-		// a Range request was made, serve only the requested bytes
-
-		final long fileSize = obj.referenceFile.length();
-
-		if (!range.startsWith("bytes=")) {
-			response.setHeader("Content-Range", "bytes */" + fileSize);
-			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-			return;
-		}
-
-		final StringTokenizer st = new StringTokenizer(range.substring(6).trim(), ",");
-
-		final List<Map.Entry<Long, Long>> requestedRanges = new ArrayList<>();
-
-		while (st.hasMoreTokens()) {
-			final String s = st.nextToken();
-
-			final int idx = s.indexOf('-');
-
-			long start;
-			long end;
-
-			if (idx > 0) {
-				start = Long.parseLong(s.substring(0, idx));
-
-				if (start >= fileSize) {
-					response.setHeader("Content-Range", "bytes */" + fileSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested an invalid range, starting beyond the end of the file (" + start + ")");
-					return;
-				}
-
-				if (idx < (s.length() - 1)) {
-					end = Long.parseLong(s.substring(idx + 1));
-
-					if (end >= fileSize) {
-						response.setHeader("Content-Range", "bytes */" + fileSize);
-						response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested bytes beyond what the file contains (" + end + ")");
-						return;
-					}
-				}
-				else
-					end = fileSize - 1;
-
-				if (start > end) {
-					response.setHeader("Content-Range", "bytes */" + fileSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
-							"The requested range is wrong, the second value (" + end + ") should be larger than the first (" + start + ")");
-					return;
-				}
-			}
-			else if (idx == 0) {
-				// a single negative value means 'last N bytes'
-				start = Long.parseLong(s.substring(idx + 1));
-
-				end = fileSize - 1;
-
-				start = end - start + 1;
-
-				if (start < 0) {
-					response.setHeader("Content-Range", "bytes */" + fileSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
-							"You requested more last bytes (" + s.substring(idx + 1) + ") from the end of the file than the file actually has (" + fileSize + ")");
-					start = 0;
-				}
-			}
-			else {
-				start = Long.parseLong(s);
-
-				if (start >= fileSize) {
-					response.setHeader("Content-Range", "bytes */" + fileSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested an invalid range, starting beyond the end of the file (" + start + ")");
-					return;
-				}
-
-				end = fileSize - 1;
-			}
-
-			requestedRanges.add(new AbstractMap.SimpleEntry<>(Long.valueOf(start), Long.valueOf(end)));
-		}
-
-		if (requestedRanges.size() == 0) {
-			response.setHeader("Content-Range", "bytes */" + fileSize);
-			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-			return;
-		}
-
-		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-
-		if (requestedRanges.size() == 1) {
-			// A single byte range
-			final Map.Entry<Long, Long> theRange = requestedRanges.get(0);
-			final long first = theRange.getKey().longValue();
-			final long last = theRange.getValue().longValue();
-
-			final long toCopy = last - first + 1;
-
-			response.setContentLengthLong(toCopy);
-			response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + fileSize);
-			response.setHeader("Content-Disposition", "inline;filename=\"" + obj.getOriginalName() + "\"");
-			response.setHeader("Content-Type", obj.getProperty("Content-Type", "application/octet-stream"));
-
-			try (RandomAccessFile input = new RandomAccessFile(obj.referenceFile, "r"); OutputStream output = response.getOutputStream()) {
-				input.seek(first);
-				copy(input, output, toCopy);
-
-				if (monitor != null)
-					monitor.addMeasurement("GET_data", toCopy);
-			}
-
-			return;
-		}
-
-		// the content length should be computed based on the ranges and the header sizes. Or just don't send it :)
-		final String boundaryString = "THIS_STRING_SEPARATES_" + UUIDTools.generateTimeUUID(System.currentTimeMillis(), null).toString();
-
-		response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundaryString);
-
-		final ArrayList<String> subHeaders = new ArrayList<>(requestedRanges.size());
-
-		long contentLength = 0;
-
-		for (final Map.Entry<Long, Long> theRange : requestedRanges) {
-			final long first = theRange.getKey().longValue();
-			final long last = theRange.getValue().longValue();
-
-			final long toCopy = last - first + 1;
-
-			final StringBuilder subHeader = new StringBuilder();
-
-			subHeader.append("\r\n--").append(boundaryString);
-			subHeader.append("\r\nContent-Type: ").append(obj.getProperty("Content-Type", "application/octet-stream")).append("\r\n");
-			subHeader.append("Content-Range: bytes ").append(first).append("-").append(last).append("/").append(fileSize).append("\r\n\r\n");
-
-			final String sh = subHeader.toString();
-
-			subHeaders.add(sh);
-
-			contentLength += toCopy + sh.length();
-		}
-
-		final String documentFooter = "\r\n--" + boundaryString + "--";
-
-		contentLength += documentFooter.length();
-
-		response.setContentLengthLong(contentLength);
-
-		try (RandomAccessFile input = new RandomAccessFile(obj.referenceFile, "r"); OutputStream output = response.getOutputStream()) {
-			final Iterator<Map.Entry<Long, Long>> itRange = requestedRanges.iterator();
-			final Iterator<String> itSubHeader = subHeaders.iterator();
-
-			while (itRange.hasNext()) {
-				final Map.Entry<Long, Long> theRange = itRange.next();
-				final String subHeader = itSubHeader.next();
-
-				final long first = theRange.getKey().longValue();
-				final long last = theRange.getValue().longValue();
-
-				final long toCopy = last - first + 1;
-
-				output.write(subHeader.getBytes());
-
-				input.seek(first);
-				copy(input, output, toCopy);
-
-				if (monitor != null)
-					monitor.addMeasurement("GET_data", toCopy);
-			}
-
-			output.write(documentFooter.getBytes());
-		}
-	}
-
-	private static void copy(final RandomAccessFile input, final OutputStream output, final long count) throws IOException {
-		final byte[] buffer = new byte[4096];
-		int cnt = 0;
-
-		long leftToCopy = count;
-
-		do {
-			final int toCopy = (int) Math.min(leftToCopy, buffer.length);
-
-			cnt = input.read(buffer, 0, toCopy);
-
-			output.write(buffer, 0, cnt);
-
-			leftToCopy -= cnt;
-		} while (leftToCopy > 0);
+		ByteRanges.serve(request, response, monitor, ByteRanges.Source.of(obj.referenceFile), obj.getProperty("Content-Type", "application/octet-stream"), obj.getOriginalName());
 	}
 
 	@Override
@@ -506,6 +296,8 @@ public class Local extends HttpServlet {
 
 			newObject.saveProperties(request.getRemoteHost());
 
+			NegativeResultCache.getInstance().invalidate(parser.path);
+
 			setHeaders(newObject, response);
 			response.setHeader("Location", getURLPrefix(request) + "/" + parser.path + "/" + parser.startTime + "/" + targetUUID.toString());
 			response.sendError(HttpServletResponse.SC_CREATED);
@@ -525,7 +317,7 @@ public class Local extends HttpServlet {
 				return;
 			}
 
-			final LocalObjectWithVersion matchingObject = getMatchingObject(parser);
+			final LocalObjectWithVersion matchingObject = getMatchingObject(parser, false);
 
 			if (matchingObject == null) {
 				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -541,6 +333,8 @@ public class Local extends HttpServlet {
 
 			matchingObject.saveProperties(request.getRemoteHost());
 
+			NegativeResultCache.getInstance().invalidate(parser.path);
+
 			setHeaders(matchingObject, response);
 
 			response.setHeader("Location", getURLPrefix(request) + matchingObject.referenceFile.getPath().substring(basePath.length()));
@@ -562,7 +356,7 @@ public class Local extends HttpServlet {
 				return;
 			}
 
-			final LocalObjectWithVersion matchingObject = getMatchingObject(parser);
+			final LocalObjectWithVersion matchingObject = getMatchingObject(parser, false);
 
 			if (matchingObject == null) {
 				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -582,7 +376,34 @@ public class Local extends HttpServlet {
 		}
 	}
 
-	private static LocalObjectWithVersion getMatchingObject(final RequestParser parser) {
+	/**
+	 * @param parser
+	 * @param allowCached
+	 *            whether or not a recent miss can be answered from {@link NegativeResultCache}. Only read-only operations should allow it.
+	 * @return the most recent matching object
+	 */
+	private static LocalObjectWithVersion getMatchingObject(final RequestParser parser, final boolean allowCached) {
+		final NegativeResultCache negativeCache = NegativeResultCache.getInstance();
+
+		if (!allowCached || !negativeCache.isEnabled())
+			return lookupMatchingObject(parser);
+
+		final String negativeKey = negativeCache.getKey(parser);
+
+		if (negativeCache.isKnownMiss(negativeKey))
+			return null;
+
+		final long lookupStart = NegativeResultCache.startLookup();
+
+		final LocalObjectWithVersion ret = lookupMatchingObject(parser);
+
+		if (ret == null)
+			negativeCache.put(negativeKey, parser.path, lookupStart);
+
+		return ret;
+	}
+
+	private static LocalObjectWithVersion lookupMatchingObject(final RequestParser parser) {
 		final File fBaseDir = new File(Local.basePath + "/" + parser.path);
 
 		if (parser.startTime > 0 && parser.uuidConstraint != null) {
@@ -643,7 +464,7 @@ public class Local extends HttpServlet {
 			if (!parser.ok)
 				return;
 
-			final LocalObjectWithVersion matchingObject = getMatchingObject(parser);
+			final LocalObjectWithVersion matchingObject = getMatchingObject(parser, true);
 
 			if (matchingObject == null) {
 				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
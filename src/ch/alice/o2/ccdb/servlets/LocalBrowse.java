@@ -66,7 +66,7 @@ public class LocalBrowse extends HttpServlet {
 
 			response.setContentType(formatter.getContentType());
 
-			try (PrintWriter pw = response.getWriter()) {
+			try (PrintWriter pw = formatter.getWriter(response)) {
 				formatter.start(pw);
 
 				formatter.header(pw);
@@ -4,17 +4,13 @@ import static ch.alice.o2.ccdb.servlets.ServletHelper.printUsage;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.ref.Reference;
 import java.net.InetAddress;
 import java.security.NoSuchAlgorithmException;
-import java.util.AbstractMap;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.UUID;
 
 import javax.servlet.ServletException;
@@ -116,7 +112,7 @@ public class Memory extends HttpServlet {
 			return;
 		}
 
-		final Blob matchingObject = getMatchingObject(parser);
+		final Blob matchingObject = getMatchingObject(parser, true);
 
 		CCDBUtils.disableCaching(response);
 
@@ -219,199 +215,10 @@ public class Memory extends HttpServlet {
 	 * @throws IOException
 	 */
 	static void download(final Blob obj, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
-		final String range = request.getHeader("Range");
-
-		// System.err.println("Client " + request.getRemoteAddr() + " requested to download " + obj.getUuid() + ", range: " + range);
-
-		if (range == null || range.trim().isEmpty()) {
-			response.setHeader("Accept-Ranges", "bytes");
-			response.setContentLengthLong(obj.getPayload().length);
-			response.setHeader("Content-Disposition", "inline;filename=\"" + obj.getOriginalName() + "\"");
-			response.setHeader("Content-Type", obj.getProperty("Content-Type", "application/octet-stream"));
+		if (!ByteRanges.isRangeRequest(request))
 			setMD5Header(obj, response);
 
-			try (OutputStream os = response.getOutputStream()) {
-				os.write(obj.getPayload(), 0, obj.getPayload().length);
-			}
-
-			if (monitor != null)
-				monitor.addMeasurement("GET_data", obj.getPayload().length);
-
-			return;
-		}
-
-		// a Range request was made, serve only the requested bytes
-
-		final long payloadSize = obj.getSize();
-
-		if (!range.startsWith("bytes=")) {
-			response.setHeader("Content-Range", "bytes */" + payloadSize);
-			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-			return;
-		}
-
-		final StringTokenizer st = new StringTokenizer(range.substring(6).trim(), ",");
-
-		final List<Map.Entry<Long, Long>> requestedRanges = new ArrayList<>();
-
-		while (st.hasMoreTokens()) {
-			final String s = st.nextToken();
-
-			final int idx = s.indexOf('-');
-
-			long start;
-			long end;
-
-			if (idx > 0) {
-				start = Long.parseLong(s.substring(0, idx));
-
-				if (start >= payloadSize) {
-					response.setHeader("Content-Range", "bytes */" + payloadSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested an invalid range, starting beyond the end of the file (" + start + ")");
-					return;
-				}
-
-				if (idx < (s.length() - 1)) {
-					end = Long.parseLong(s.substring(idx + 1));
-
-					if (end >= payloadSize) {
-						response.setHeader("Content-Range", "bytes */" + payloadSize);
-						response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested bytes beyond what the file contains (" + end + ")");
-						return;
-					}
-				}
-				else
-					end = payloadSize - 1;
-
-				if (start > end) {
-					response.setHeader("Content-Range", "bytes */" + payloadSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
-							"The requested range is wrong, the second value (" + end + ") should be larger than the first (" + start + ")");
-					return;
-				}
-			}
-			else if (idx == 0) {
-				// a single negative value means 'last N bytes'
-				start = Long.parseLong(s.substring(idx + 1));
-
-				end = payloadSize - 1;
-
-				start = end - start + 1;
-
-				if (start < 0) {
-					response.setHeader("Content-Range", "bytes */" + payloadSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
-							"You requested more last bytes (" + s.substring(idx + 1) + ") from the end of the file than the file actually has (" + payloadSize + ")");
-					start = 0;
-				}
-			}
-			else {
-				start = Long.parseLong(s);
-
-				if (start >= payloadSize) {
-					response.setHeader("Content-Range", "bytes */" + payloadSize);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested an invalid range, starting beyond the end of the file (" + start + ")");
-					return;
-				}
-
-				end = payloadSize - 1;
-			}
-
-			requestedRanges.add(new AbstractMap.SimpleEntry<>(Long.valueOf(start), Long.valueOf(end)));
-		}
-
-		if (requestedRanges.size() == 0) {
-			response.setHeader("Content-Range", "bytes */" + payloadSize);
-			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-			return;
-		}
-
-		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-
-		if (requestedRanges.size() == 1) {
-			// A single byte range
-			final Map.Entry<Long, Long> theRange = requestedRanges.get(0);
-			final long first = theRange.getKey().longValue();
-			final long last = theRange.getValue().longValue();
-
-			final long toCopy = last - first + 1;
-
-			response.setContentLengthLong(toCopy);
-			response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + payloadSize);
-			response.setHeader("Content-Disposition", "inline;filename=\"" + obj.getOriginalName() + "\"");
-			response.setHeader("Content-Type", obj.getProperty("Content-Type", "application/octet-stream"));
-
-			try (OutputStream os = response.getOutputStream()) {
-				// TODO: Check if cast from long to int would be a problem
-				os.write(obj.getPayload(), (int) first, (int) toCopy);
-
-				if (monitor != null)
-					monitor.addMeasurement("GET_data", toCopy);
-			}
-
-			return;
-		}
-
-		// the content length should be computed based on the ranges and the header
-		// sizes. Or just don't send it :)
-		final String boundaryString = "THIS_STRING_SEPARATES_" + UUIDTools.generateTimeUUID(System.currentTimeMillis(), null).toString();
-
-		response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundaryString);
-
-		final ArrayList<String> subHeaders = new ArrayList<>(requestedRanges.size());
-
-		long contentLength = 0;
-
-		for (final Map.Entry<Long, Long> theRange : requestedRanges) {
-			final long first = theRange.getKey().longValue();
-			final long last = theRange.getValue().longValue();
-
-			final long toCopy = last - first + 1;
-
-			final StringBuilder subHeader = new StringBuilder();
-
-			subHeader.append("\r\n--").append(boundaryString);
-			subHeader.append("\r\nContent-Type: ").append(obj.getProperty("Content-Type", "application/octet-stream")).append("\r\n");
-			subHeader.append("Content-Range: bytes ").append(first).append("-").append(last).append("/").append(payloadSize).append("\r\n\r\n");
-
-			final String sh = subHeader.toString();
-
-			subHeaders.add(sh);
-
-			contentLength += toCopy + sh.length();
-		}
-
-		final String documentFooter = "\r\n--" + boundaryString + "--";
-
-		contentLength += documentFooter.length();
-
-		response.setContentLengthLong(contentLength);
-
-		try (OutputStream os = response.getOutputStream()) {
-			final Iterator<Map.Entry<Long, Long>> itRange = requestedRanges.iterator();
-			final Iterator<String> itSubHeader = subHeaders.iterator();
-
-			while (itRange.hasNext()) {
-				final Map.Entry<Long, Long> theRange = itRange.next();
-				final String subHeader = itSubHeader.next();
-
-				final long first = theRange.getKey().longValue();
-				final long last = theRange.getValue().longValue();
-
-				final long toCopy = last - first + 1;
-
-				os.write(subHeader.getBytes());
-
-				// TODO: Check if cast from long to int would be a problem
-				os.write(obj.getPayload(), (int) first, (int) toCopy);
-
-				if (monitor != null)
-					monitor.addMeasurement("GET_data", toCopy);
-			}
-
-			os.write(documentFooter.getBytes());
-		}
-
+		ByteRanges.serve(request, response, monitor, ByteRanges.Source.of(obj.getPayload()), obj.getProperty("Content-Type", "application/octet-stream"), obj.getOriginalName());
 	}
 
 	@Override
@@ -550,7 +357,7 @@ public class Memory extends HttpServlet {
 				return;
 			}
 
-			final Blob matchingObject = getMatchingObject(parser);
+			final Blob matchingObject = getMatchingObject(parser, false);
 
 			if (matchingObject == null) {
 				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -582,7 +389,34 @@ public class Memory extends HttpServlet {
 		}
 	}
 
-	private static Blob getMatchingObject(final RequestParser parser) {
+	/**
+	 * @param parser
+	 * @param allowCached
+	 *            whether or not a recent miss can be answered from {@link NegativeResultCache}. Only read-only operations should allow it.
+	 * @return the most recent matching object
+	 */
+	private static Blob getMatchingObject(final RequestParser parser, final boolean allowCached) {
+		final NegativeResultCache negativeCache = NegativeResultCache.getInstance();
+
+		if (!allowCached || !negativeCache.isEnabled())
+			return lookupMatchingObject(parser);
+
+		final String negativeKey = negativeCache.getKey(parser);
+
+		if (negativeCache.isKnownMiss(negativeKey))
+			return null;
+
+		final long lookupStart = NegativeResultCache.startLookup();
+
+		final Blob ret = lookupMatchingObject(parser);
+
+		if (ret == null)
+			negativeCache.put(negativeKey, parser.path, lookupStart);
+
+		return ret;
+	}
+
+	private static Blob lookupMatchingObject(final RequestParser parser) {
 		final List<Reference<Blob>> candidates = UDPReceiver.currentCacheContent.get(parser.path);
 
 		if (candidates == null || candidates.size() == 0)
@@ -649,7 +483,7 @@ public class Memory extends HttpServlet {
 		if (!parser.ok)
 			return;
 
-		final Blob matchingObject = getMatchingObject(parser);
+		final Blob matchingObject = getMatchingObject(parser, true);
 
 		if (matchingObject == null) {
 			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
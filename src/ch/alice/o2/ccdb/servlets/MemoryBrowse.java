@@ -62,7 +62,7 @@ public class MemoryBrowse extends HttpServlet {
 
 		response.setContentType(formatter.getContentType());
 
-		try (PrintWriter pw = response.getWriter()) {
+		try (PrintWriter pw = formatter.getWriter(response)) {
 			formatter.start(pw);
 
 			formatter.header(pw);
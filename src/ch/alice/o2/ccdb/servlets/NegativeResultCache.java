@@ -0,0 +1,309 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.Options;
+import ch.alice.o2.ccdb.RequestParser;
+
+/**
+ * Short-lived memory of the requests that didn't match any object, keyed by (path, time, constraints), shared by all backends. Repeated requests for paths that don't exist
+ * (yet) or for constraints that never match are answered without going to the database or scanning the repository again.<br>
+ * <br>
+ * The answers of a path are dropped as soon as an object is created or modified on it through this instance. Changes that this instance is not notified about (other instances
+ * sharing the same database, objects becoming valid as time passes) are seen at the latest after <code>cache.negative.ttl</code>.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>cache.negative.size</code> - maximum number of remembered misses (default 10000, <code>0</code> disables the cache)</li>
+ * <li><code>cache.negative.ttl</code> - for how long a miss is remembered, in milliseconds (default 5000)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class NegativeResultCache implements SQLNotifier, MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(NegativeResultCache.class.getCanonicalName());
+
+	private static final class CacheEntry {
+		final String path;
+
+		/**
+		 * {@link System#nanoTime()} when the lookup that produced this answer has started
+		 */
+		final long lookupStart;
+
+		CacheEntry(final String path, final long lookupStart) {
+			this.path = path;
+			this.lookupStart = lookupStart;
+		}
+	}
+
+	private final int maxSize = Options.getIntOption("cache.negative.size", 10000);
+
+	private final long ttl = Options.getIntOption("cache.negative.ttl", 5000) * 1000000L;
+
+	private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Path -&gt; {@link System#nanoTime()} of its last modification. Answers produced by lookups that started before this moment are stale. Modification times older than the TTL
+	 * are forgotten, all the answers that they could invalidate have expired in the mean time, so the map only holds the paths modified during the last one or two TTLs.
+	 */
+	private final Map<String, Long> lastModified = new ConcurrentHashMap<>();
+
+	/**
+	 * {@link System#nanoTime()} of the last cleanup of {@link #lastModified}
+	 */
+	private volatile long lastModifiedPruned = System.nanoTime();
+
+	/**
+	 * {@link System#nanoTime()} of the last {@link #clear()}, answers produced by lookups that started before it are stale
+	 */
+	private volatile long clearedAt = System.nanoTime();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong stored = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private NegativeResultCache() {
+		if (isEnabled())
+			monitor.addMonitoring("cache", this);
+	}
+
+	private static NegativeResultCache instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	public static synchronized NegativeResultCache getInstance() {
+		if (instance == null)
+			instance = new NegativeResultCache();
+
+		return instance;
+	}
+
+	/**
+	 * @return <code>true</code> if the cache is enabled
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0 && ttl > 0;
+	}
+
+	/**
+	 * Build the cache key for this request
+	 *
+	 * @param parser
+	 * @return the key
+	 */
+	String getKey(final RequestParser parser) {
+		final StringBuilder sb = new StringBuilder(parser.path.length() + 64);
+
+		sb.append(parser.path).append('/');
+
+		if (parser.startTimeSet)
+			sb.append(parser.startTime);
+		else
+			sb.append('*');
+
+		sb.append('/');
+
+		if (parser.uuidConstraint != null)
+			sb.append(parser.uuidConstraint);
+
+		sb.append('/').append(parser.notAfter).append('/').append(parser.notBefore);
+
+		if (parser.flagConstraints != null && parser.flagConstraints.size() > 0) {
+			final Map<String, String> sortedConstraints = parser.flagConstraints.size() > 1 ? new TreeMap<>(parser.flagConstraints) : parser.flagConstraints;
+
+			for (final Map.Entry<String, String> constraint : sortedConstraints.entrySet())
+				sb.append('/').append(constraint.getKey()).append('=').append(constraint.getValue());
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * To be taken <i>before</i> looking up the object and passed back to {@link #put(String, String, long)}
+	 *
+	 * @return the start time of a lookup
+	 */
+	static long startLookup() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param key
+	 * @return <code>true</code> if the same request recently didn't match anything
+	 */
+	boolean isKnownMiss(final String key) {
+		final CacheEntry entry = cache.get(key);
+
+		if (entry == null)
+			return false;
+
+		if (System.nanoTime() - entry.lookupStart >= ttl || isModifiedSince(entry.path, entry.lookupStart)) {
+			cache.remove(key, entry);
+			return false;
+		}
+
+		hits.incrementAndGet();
+		return true;
+	}
+
+	private boolean isModifiedSince(final String path, final long lookupStart) {
+		if (clearedAt - lookupStart >= 0)
+			return true;
+
+		final Long modified = lastModified.get(path);
+
+		return modified != null && modified.longValue() - lookupStart >= 0;
+	}
+
+	/**
+	 * Remember that a request didn't match anything
+	 *
+	 * @param key
+	 * @param path
+	 * @param lookupStart
+	 *            as returned by {@link #startLookup()} before the lookup was done
+	 */
+	void put(final String key, final String path, final long lookupStart) {
+		if (System.nanoTime() - lookupStart >= ttl || isModifiedSince(path, lookupStart))
+			return;
+
+		cache.put(key, new CacheEntry(path, lookupStart));
+		stored.incrementAndGet();
+
+		if (cache.size() > maxSize)
+			evict();
+	}
+
+	/**
+	 * Drop the expired entries, then arbitrary ones until the cache is 10% below its maximum size
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock())
+			return;
+
+		try {
+			final long now = System.nanoTime();
+
+			final int target = maxSize - maxSize / 10;
+
+			for (int pass = 0; pass < 2 && cache.size() > target; pass++) {
+				final Iterator<CacheEntry> it = cache.values().iterator();
+
+				while (it.hasNext() && cache.size() > target) {
+					final CacheEntry entry = it.next();
+
+					if (pass > 0 || now - entry.lookupStart >= ttl) {
+						it.remove();
+						evictions.incrementAndGet();
+					}
+				}
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Forget the modification times older than the TTL, at most once per TTL
+	 *
+	 * @param now
+	 */
+	private void pruneModifications(final long now) {
+		if (now - lastModifiedPruned < ttl || !evictionLock.tryLock())
+			return;
+
+		try {
+			lastModifiedPruned = now;
+
+			lastModified.values().removeIf(l -> now - l.longValue() >= ttl);
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Forget the misses of a path, to be called when objects are added or modified on it
+	 *
+	 * @param path
+	 */
+	public void invalidate(final String path) {
+		if (path == null || !isEnabled())
+			return;
+
+		final long now = System.nanoTime();
+
+		lastModified.put(path, Long.valueOf(now));
+		invalidations.incrementAndGet();
+
+		pruneModifications(now);
+	}
+
+	/**
+	 * Forget all the misses, to be called when this instance might have missed changes
+	 */
+	public void clear() {
+		clearedAt = System.nanoTime();
+		cache.clear();
+		invalidations.incrementAndGet();
+	}
+
+	@Override
+	public boolean isSynchronous() {
+		return true;
+	}
+
+	@Override
+	public void newObject(final SQLObject object) {
+		invalidate(object.getPath());
+	}
+
+	@Override
+	public void updatedObject(final SQLObject object) {
+		invalidate(object.getPath());
+	}
+
+	@Override
+	public void deletedObject(final SQLObject object) {
+		// removing an object cannot make a request that matched nothing match something
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add("hits");
+		paramValues.add(Double.valueOf(hits.get()));
+
+		paramNames.add("stored");
+		paramValues.add(Double.valueOf(stored.get()));
+
+		paramNames.add("evictions");
+		paramValues.add(Double.valueOf(evictions.get()));
+
+		paramNames.add("invalidations");
+		paramValues.add(Double.valueOf(invalidations.get()));
+
+		paramNames.add("size");
+		paramValues.add(Double.valueOf(cache.size()));
+	}
+
+	@Override
+	public String toString() {
+		return "NegativeResultCache";
+	}
+}
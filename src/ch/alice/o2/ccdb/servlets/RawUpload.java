@@ -0,0 +1,179 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletRequest;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import ch.alice.o2.ccdb.Options;
+import lazyj.Utils;
+
+/**
+ * Upload of an object as the raw body of the request, as an alternative to <code>multipart/form-data</code>. The body is not buffered by the container but written to the
+ * final location as it arrives, the MD5 checksum being computed in the same pass.<br>
+ * <br>
+ * Clients have to opt in, either by sending the content as <code>Content-Type: application/octet-stream</code> or, to keep another content type for the object, by adding the
+ * <code>X-Raw-Upload: true</code> header. Any other request is expected to be a multipart form, as before.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>upload.buffer</code> - size of the per-thread transfer buffer, in bytes (default 65536)</li>
+ * <li><code>upload.fsync</code> - <code>none</code> (default, leave it to the OS), <code>data</code> (flush the content) or <code>full</code> (flush the content and the file
+ * metadata) before acknowledging the upload</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+class RawUpload {
+	private static final Monitor monitor = MonitorFactory.getMonitor(RawUpload.class.getCanonicalName());
+
+	private static final int bufferSize = Math.max(Options.getIntOption("upload.buffer", 64 * 1024), 4096);
+
+	private static final String fsyncPolicy = Options.getOption("upload.fsync", "none").trim().toLowerCase();
+
+	/**
+	 * The servlet stream only fills byte arrays, so a heap buffer is used: it is read into, hashed and handed to the file channel without any further copy on the Java side
+	 */
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(bufferSize));
+
+	private RawUpload() {
+		// static helper methods only
+	}
+
+	/**
+	 * Content type that marks the request body as the object itself
+	 */
+	static final String RAW_CONTENT_TYPE = "application/octet-stream";
+
+	/**
+	 * Header that marks the request body as the object itself, whatever its content type
+	 */
+	static final String RAW_UPLOAD_HEADER = "X-Raw-Upload";
+
+	/**
+	 * @param request
+	 * @return <code>true</code> if the client has explicitly sent the object as the request body, <code>false</code> if it should be a multipart form
+	 */
+	static boolean isRawUpload(final HttpServletRequest request) {
+		final String contentType = request.getContentType();
+
+		if (contentType == null)
+			return false;
+
+		final String mimeType = contentType.toLowerCase().trim();
+
+		if (mimeType.startsWith("multipart/"))
+			return false;
+
+		if (mimeType.startsWith(RAW_CONTENT_TYPE) && (mimeType.length() == RAW_CONTENT_TYPE.length() || mimeType.charAt(RAW_CONTENT_TYPE.length()) == ';'))
+			return true;
+
+		return Utils.stringToBool(request.getHeader(RAW_UPLOAD_HEADER), false);
+	}
+
+	/**
+	 * @param request
+	 * @param path
+	 *            object path
+	 * @return the original file name, from the <code>Content-Disposition</code> header if present, otherwise the last element of the path
+	 */
+	static String getFileName(final HttpServletRequest request, final String path) {
+		final String disposition = request.getHeader("Content-Disposition");
+
+		if (disposition != null) {
+			final int idx = disposition.indexOf("filename=");
+
+			if (idx >= 0) {
+				String name = disposition.substring(idx + 9).trim();
+
+				final int end = name.indexOf(';');
+
+				if (end >= 0)
+					name = name.substring(0, end).trim();
+
+				if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\""))
+					name = name.substring(1, name.length() - 1);
+
+				if (!name.isBlank())
+					return name;
+			}
+		}
+
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * @param request
+	 * @return the content type of the uploaded object
+	 */
+	static String getContentType(final HttpServletRequest request) {
+		final String contentType = request.getContentType();
+
+		return contentType != null && !contentType.isBlank() ? contentType : RAW_CONTENT_TYPE;
+	}
+
+	/**
+	 * Write the entire request body to the target file
+	 *
+	 * @param request
+	 * @param targetFile
+	 * @param md5
+	 *            digester to update with the content
+	 * @return number of bytes that were received
+	 * @throws IOException
+	 *             if the content could not be read or written, or if the request was shorter than the announced Content-Length
+	 */
+	static long receive(final HttpServletRequest request, final File targetFile, final MessageDigest md5) throws IOException {
+		final long expectedLength = request.getContentLengthLong();
+
+		final ByteBuffer buffer = buffers.get();
+		final byte[] array = buffer.array();
+
+		long size = 0;
+
+		try (InputStream is = request.getInputStream(); RandomAccessFile raf = new RandomAccessFile(targetFile, "rw"); FileChannel channel = raf.getChannel()) {
+			int n;
+
+			while ((n = is.read(array, 0, array.length)) >= 0) {
+				if (n == 0)
+					continue;
+
+				md5.update(array, 0, n);
+
+				buffer.clear();
+				buffer.limit(n);
+
+				try (ConcurrencyLimits.Permit permit = ConcurrencyLimits.disk()) {
+					while (buffer.hasRemaining())
+						channel.write(buffer);
+				}
+
+				size += n;
+			}
+
+			if (expectedLength >= 0 && size != expectedLength)
+				throw new IOException("Received " + size + " bytes instead of the announced " + expectedLength);
+
+			// in case a previous file was overwritten
+			if (raf.length() != size)
+				raf.setLength(size);
+
+			if ("data".equals(fsyncPolicy))
+				channel.force(false);
+			else if ("full".equals(fsyncPolicy))
+				channel.force(true);
+		}
+
+		monitor.addMeasurement("raw_upload_data", size);
+
+		return size;
+	}
+}
@@ -0,0 +1,350 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import alien.se.SE;
+import alien.se.SEUtils;
+import ch.alice.o2.ccdb.Options;
+import lazyj.ExtProperties;
+import lazyj.Utils;
+
+/**
+ * Where the replicas of the objects can be found. The <code>server.N.urlPattern</code> templates are parsed once into literal and placeholder segments, that are then rendered
+ * for each object in a reused per-thread buffer, instead of looking up the configuration and doing string replacements on each redirect. The default patterns (including the
+ * local host name, when absolute URLs are configured) are also determined only once.<br>
+ * <br>
+ * The compiled templates are dropped when the configuration file is reloaded or changed at runtime; the <code>-D</code> / environment overrides cannot change while running.<br>
+ * <br>
+ * The preference order of each replica for a client site is also cached: the local copy first (if <code>local.copy.first</code> is set), then the storage elements at the
+ * client's site, then the other ones, in increasing order of their IDs.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class ReplicaLocations implements MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(ReplicaLocations.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(ReplicaLocations.class.getCanonicalName());
+
+	private static final int LITERAL = 0;
+	private static final int UUID_PLACEHOLDER = 1;
+	private static final int FOLDER_PLACEHOLDER = 2;
+	private static final int PATH_PLACEHOLDER = 3;
+	private static final int HASH_PLACEHOLDER = 4;
+
+	private static final String[] PLACEHOLDERS = { null, "UUID", "FOLDER", "PATH", "HASH" };
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * A URL pattern, split in segments
+	 */
+	static final class Template {
+		private final String pattern;
+
+		private final int[] types;
+
+		private final String[] literals;
+
+		private final boolean aliEn;
+
+		private Template(final String pattern) {
+			this.pattern = pattern;
+
+			final List<Integer> segmentTypes = new ArrayList<>();
+			final List<String> segmentLiterals = new ArrayList<>();
+
+			int pos = 0;
+
+			while (pos < pattern.length()) {
+				int nextType = LITERAL;
+				int nextPos = pattern.length();
+
+				for (int type = UUID_PLACEHOLDER; type <= HASH_PLACEHOLDER; type++) {
+					final int idx = pattern.indexOf(PLACEHOLDERS[type], pos);
+
+					if (idx >= 0 && idx < nextPos) {
+						nextPos = idx;
+						nextType = type;
+					}
+				}
+
+				if (nextPos > pos) {
+					segmentTypes.add(Integer.valueOf(LITERAL));
+					segmentLiterals.add(pattern.substring(pos, nextPos));
+				}
+
+				if (nextType == LITERAL)
+					break;
+
+				segmentTypes.add(Integer.valueOf(nextType));
+				segmentLiterals.add(null);
+
+				pos = nextPos + PLACEHOLDERS[nextType].length();
+			}
+
+			types = new int[segmentTypes.size()];
+
+			for (int i = 0; i < types.length; i++)
+				types[i] = segmentTypes.get(i).intValue();
+
+			literals = segmentLiterals.toArray(new String[0]);
+
+			aliEn = pattern.startsWith("alien://");
+		}
+
+		/**
+		 * @return <code>true</code> if the rendered URLs are AliEn LFNs, to be resolved to physical locations
+		 */
+		boolean isAliEn() {
+			return aliEn;
+		}
+
+		/**
+		 * @param obj
+		 * @return the URL of this object
+		 */
+		String render(final SQLObject obj) {
+			final StringBuilder sb = buffers.get();
+
+			sb.setLength(0);
+
+			for (int i = 0; i < types.length; i++) {
+				switch (types[i]) {
+					case UUID_PLACEHOLDER:
+						appendUUID(sb, obj.id);
+						break;
+					case FOLDER_PLACEHOLDER: {
+						// same as SQLObject.getFolder()
+						final int hash = Math.abs(obj.id.hashCode() % 1000000);
+						sb.append(hash % 100).append('/').append(hash / 100);
+						break;
+					}
+					case PATH_PLACEHOLDER:
+						sb.append(obj.getPath());
+						break;
+					case HASH_PLACEHOLDER:
+						sb.append(SE.generatePath(obj.id.toString()));
+						break;
+					default:
+						sb.append(literals[i]);
+				}
+			}
+
+			renders.incrementAndGet();
+
+			return sb.toString();
+		}
+
+		@Override
+		public String toString() {
+			return pattern;
+		}
+	}
+
+	private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+	private static final AtomicLong renders = new AtomicLong();
+
+	private final AtomicLong compilations = new AtomicLong();
+
+	private final AtomicLong reloads = new AtomicLong();
+
+	private final ExtProperties config;
+
+	private final Map<Integer, Template> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * Client site ("" when not known) -&gt; replica ID -&gt; preference rank
+	 */
+	private final Map<String, Map<Integer, Integer>> ranks = new ConcurrentHashMap<>();
+
+	/**
+	 * @param config
+	 *            configuration whose changes invalidate the compiled templates. <code>ExtProperties</code> only notifies its changes through the deprecated
+	 *            <code>java.util.Observable</code>, which this constructor has to use.
+	 */
+	@SuppressWarnings("deprecation")
+	private ReplicaLocations(final ExtProperties config) {
+		this.config = config;
+
+		config.addObserver((o, arg) -> configurationChanged());
+
+		monitor.addMonitoring("locations", this);
+	}
+
+	private static ReplicaLocations instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized ReplicaLocations getInstance() {
+		if (instance == null)
+			instance = new ReplicaLocations(SQLObject.getConfig());
+
+		return instance;
+	}
+
+	/**
+	 * @param replica
+	 * @return the compiled URL template of this replica
+	 */
+	Template getTemplate(final Integer replica) {
+		final Template template = templates.get(replica);
+
+		if (template != null)
+			return template;
+
+		return templates.computeIfAbsent(replica, k -> {
+			compilations.incrementAndGet();
+			return new Template(getPattern(k.intValue()));
+		});
+	}
+
+	private String getPattern(final int replica) {
+		final String configKey = "server." + replica + ".urlPattern";
+
+		final String pattern = Options.getOption(configKey, config.gets(configKey, null));
+
+		if (pattern != null)
+			return pattern;
+
+		if (replica == 0) {
+			final String relativeURLKey = "server.0.relativeURL";
+
+			if (Utils.stringToBool(Options.getOption(relativeURLKey, null), config.getb(relativeURLKey, true))) {
+				// It's easier for CcdbApi to follow redirects if this is disabled, having the full URL in the Location header
+				return "/download/UUID";
+			}
+
+			String hostname;
+
+			try {
+				hostname = InetAddress.getLocalHost().getCanonicalHostName();
+			}
+			catch (@SuppressWarnings("unused") final Throwable t) {
+				hostname = "localhost";
+			}
+
+			return "http://" + hostname + ":" + Options.getIntOption("tomcat.port", 8080) + "/download/UUID";
+		}
+
+		if (replica > 0) {
+			final SE se = SEUtils.getSE(replica);
+
+			if (se != null) {
+				String sePattern = se.generateProtocol();
+
+				if (!sePattern.endsWith("/"))
+					sePattern += "/";
+
+				return sePattern + "HASH.ccdb";
+			}
+		}
+
+		return "alien:///alice/data/CCDB/PATHHASH";
+	}
+
+	/**
+	 * @param replica
+	 * @param clientSite
+	 *            closest site of the client, can be <code>null</code> if not known (yet)
+	 * @return the preference rank of this replica for clients of this site, lower is better
+	 */
+	int getRank(final Integer replica, final String clientSite) {
+		final Map<Integer, Integer> siteRanks = ranks.computeIfAbsent(clientSite != null ? clientSite : "", k -> new ConcurrentHashMap<>());
+
+		final Integer rank = siteRanks.get(replica);
+
+		if (rank != null)
+			return rank.intValue();
+
+		final int newRank = computeRank(replica.intValue(), clientSite);
+
+		siteRanks.put(replica, Integer.valueOf(newRank));
+
+		return newRank;
+	}
+
+	private static int computeRank(final int replica, final String clientSite) {
+		if (replica == 0)
+			return SQLBacked.isLocalCopyFirst() ? 0 : 2;
+
+		if (replica > 0 && clientSite != null) {
+			final SE se = SEUtils.getSE(replica);
+
+			// storage element names are VO::SITE::NAME
+			if (se != null && se.seName != null) {
+				final int first = se.seName.indexOf("::");
+				final int last = se.seName.lastIndexOf("::");
+
+				if (first >= 0 && last > first && se.seName.substring(first + 2, last).equalsIgnoreCase(clientSite))
+					return 1;
+			}
+		}
+
+		return 2;
+	}
+
+	/**
+	 * Write the canonical representation of a UUID, without creating an intermediate String
+	 *
+	 * @param sb
+	 * @param uuid
+	 */
+	static void appendUUID(final StringBuilder sb, final UUID uuid) {
+		appendHex(sb, uuid.getMostSignificantBits() >>> 32, 8);
+		sb.append('-');
+		appendHex(sb, uuid.getMostSignificantBits() >>> 16, 4);
+		sb.append('-');
+		appendHex(sb, uuid.getMostSignificantBits(), 4);
+		sb.append('-');
+		appendHex(sb, uuid.getLeastSignificantBits() >>> 48, 4);
+		sb.append('-');
+		appendHex(sb, uuid.getLeastSignificantBits(), 12);
+	}
+
+	private static void appendHex(final StringBuilder sb, final long value, final int digits) {
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+			sb.append(HEX[(int) ((value >>> shift) & 0xF)]);
+	}
+
+	/**
+	 * Configuration file was reloaded or changed, the patterns have to be compiled again
+	 */
+	private void configurationChanged() {
+		templates.clear();
+		ranks.clear();
+
+		reloads.incrementAndGet();
+
+		logger.log(Level.INFO, "Configuration changed, the replica URL templates will be compiled again");
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add("templates");
+		paramValues.add(Double.valueOf(templates.size()));
+
+		paramNames.add("compilations");
+		paramValues.add(Double.valueOf(compilations.get()));
+
+		paramNames.add("reloads");
+		paramValues.add(Double.valueOf(reloads.get()));
+
+		paramNames.add("renders");
+		paramValues.add(Double.valueOf(renders.get()));
+	}
+}
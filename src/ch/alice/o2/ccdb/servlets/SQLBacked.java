@@ -13,7 +13,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,7 +32,6 @@ import ch.alice.o2.ccdb.Options;
 import ch.alice.o2.ccdb.RequestParser;
 import ch.alice.o2.ccdb.multicast.Utils;
 import lazyj.DBFunctions;
-import utils.CachedThreadPool;
 
 /**
  * SQL-backed implementation of CCDB. Files reside on this server and/or a separate storage and clients are served directly or redirected to one of the other replicas for the actual file access.
@@ -59,11 +57,16 @@ public class SQLBacked extends HttpServlet {
 
 	private static final boolean localCopyFirst = lazyj.Utils.stringToBool(Options.getOption("local.copy.first", null), false);
 
+	/**
+	 * Answer the <code>If-None-Match</code> requests without loading the metadata of the matching object (default <code>true</code>, can be disabled to compare the latency)
+	 */
+	private static final boolean etagFastPath = lazyj.Utils.stringToBool(Options.getOption("etag.fastpath", null), true);
+
 	private static boolean hasGridBacking = false;
 
 	private static boolean hasUDPSender = false;
 
-	private static CachedThreadPool asyncOperations = new CachedThreadPool(16, 1, TimeUnit.SECONDS);
+	private static List<AsyncNotifierDispatcher> dispatchers = new ArrayList<>();
 
 	static {
 		monitor.addMonitoring("stats", new SQLStatsExporter(null));
@@ -102,6 +105,24 @@ public class SQLBacked extends HttpServlet {
 
 		if (httpSender != null)
 			notifiers.add(httpSender);
+
+		notifiers.add(SQLObjectCache.getInstance());
+
+		if (NegativeResultCache.getInstance().isEnabled())
+			notifiers.add(NegativeResultCache.getInstance());
+
+		if (SQLPathIndex.getInstance().isEnabled())
+			notifiers.add(SQLPathIndex.getInstance());
+
+		if (SQLFolderStats.getInstance().isEnabled())
+			notifiers.add(SQLFolderStats.getInstance());
+
+		if (SQLReadReplicas.getInstance().isEnabled())
+			notifiers.add(SQLReadReplicas.getInstance());
+
+		for (final SQLNotifier notifier : notifiers)
+			if (!notifier.isSynchronous())
+				dispatchers.add(new AsyncNotifierDispatcher(notifier));
 	}
 
 	static boolean isLocalCopyFirst() {
@@ -136,6 +157,13 @@ public class SQLBacked extends HttpServlet {
 		return Collections.unmodifiableCollection(notifiers);
 	}
 
+	/**
+	 * @return the queues that deliver the events to the asynchronous notifiers
+	 */
+	static Collection<AsyncNotifierDispatcher> getDispatchers() {
+		return Collections.unmodifiableCollection(dispatchers);
+	}
+
 	@Override
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
 		try (Timing t = new Timing(monitor, "GET_ms")) {
@@ -159,7 +187,18 @@ public class SQLBacked extends HttpServlet {
 
 		CCDBUtils.disableCaching(response);
 
-		final SQLObject matchingObject = SQLObject.getMatchingObject(parser);
+		if (parser.cachedValue != null && etagFastPath) {
+			// most polling clients already have the latest object, answer them from memory when the ID of the match is known
+			try (Timing t = new Timing(monitor, "GET_not_modified_fast_ms")) {
+				if (parser.cachedValue.equals(SQLObject.getMatchingObjectId(parser))) {
+					response.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+					return;
+				}
+			}
+		}
+
+		// otherwise a single query, that doesn't read the metadata and the replicas of the object that the client already has
+		final SQLObject matchingObject = SQLObject.getMatchingObject(parser, true, etagFastPath ? parser.cachedValue : null);
 
 		if (matchingObject == null) {
 			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -248,7 +287,7 @@ public class SQLBacked extends HttpServlet {
 		// create the given object and return the unique identifier to it
 		// URL parameters are:
 		// task name / detector name / start time [/ end time] [ / flag ]*
-		// mime-encoded blob is the value to be stored
+		// mime-encoded blob is the value to be stored, or the raw request body for "Content-Type: application/octet-stream" or "X-Raw-Upload: true" requests
 		// if end time is missing then it will be set to the same value as start time
 		// flags are in the form "key=value"
 
@@ -260,20 +299,28 @@ public class SQLBacked extends HttpServlet {
 				return;
 			}
 
-			final Collection<Part> parts = request.getParts();
+			Part part = null;
 
-			if (parts.size() == 0) {
-				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "POST request doesn't contain the data to upload");
-				return;
-			}
+			if (!RawUpload.isRawUpload(request)) {
+				final Collection<Part> parts = request.getParts();
+
+				if (parts.size() == 0) {
+					response.sendError(HttpServletResponse.SC_BAD_REQUEST, "POST request doesn't contain the data to upload");
+					return;
+				}
+
+				if (parts.size() > 1) {
+					response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A single object can be uploaded at a time");
+					return;
+				}
 
-			if (parts.size() > 1) {
-				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "A single object can be uploaded at a time");
+				part = parts.iterator().next();
+			}
+			else if (request.getContentLengthLong() == 0) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "POST request doesn't contain the data to upload");
 				return;
 			}
 
-			final Part part = parts.iterator().next();
-
 			final SQLObject newObject = new SQLObject(request, parser.path, parser.uuidConstraint);
 
 			final File targetFile = newObject.getLocalFile(true);
@@ -295,34 +342,66 @@ public class SQLBacked extends HttpServlet {
 
 			newObject.size = 0;
 
-			try (FileOutputStream fos = new FileOutputStream(targetFile); InputStream is = part.getInputStream()) {
-				final byte[] buffer = new byte[1024 * 16];
+			if (part == null) {
+				try {
+					newObject.size = RawUpload.receive(request, targetFile, md5);
+				}
+				catch (final IOException ioe) {
+					response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Cannot upload the request body to the local file " + targetFile.getAbsolutePath() + ": " + ioe.getMessage());
+
+					if (!targetFile.delete())
+						logger.log(Level.WARNING, "Cannot delete target file of failed upload " + targetFile.getAbsolutePath());
+
+					return;
+				}
+
+				if (newObject.size == 0) {
+					// chunked request with an empty body
+					response.sendError(HttpServletResponse.SC_BAD_REQUEST, "POST request doesn't contain the data to upload");
 
-				int n;
+					if (!targetFile.delete())
+						logger.log(Level.WARNING, "Cannot delete target file of empty upload " + targetFile.getAbsolutePath());
 
-				while ((n = is.read(buffer)) >= 0) {
-					fos.write(buffer, 0, n);
-					md5.update(buffer, 0, n);
-					newObject.size += n;
+					return;
 				}
 			}
-			catch (@SuppressWarnings("unused") final IOException ioe) {
-				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Cannot upload the blob to the local file " + targetFile.getAbsolutePath());
+			else {
+				try (FileOutputStream fos = new FileOutputStream(targetFile); InputStream is = part.getInputStream()) {
+					final byte[] buffer = new byte[1024 * 16];
 
-				if (!targetFile.delete())
-					logger.log(Level.WARNING, "Cannot delete target file of failed upload " + targetFile.getAbsolutePath());
+					int n;
 
-				return;
+					while ((n = is.read(buffer)) >= 0) {
+						fos.write(buffer, 0, n);
+						md5.update(buffer, 0, n);
+						newObject.size += n;
+					}
+				}
+				catch (@SuppressWarnings("unused") final IOException ioe) {
+					response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Cannot upload the blob to the local file " + targetFile.getAbsolutePath());
+
+					if (!targetFile.delete())
+						logger.log(Level.WARNING, "Cannot delete target file of failed upload " + targetFile.getAbsolutePath());
+
+					return;
+				}
 			}
 
 			for (final Map.Entry<String, String> constraint : parser.flagConstraints.entrySet())
 				newObject.setProperty(constraint.getKey(), constraint.getValue());
 
 			newObject.uploadedFrom = request.getRemoteHost();
-			newObject.fileName = part.getSubmittedFileName();
-			newObject.contentType = part.getContentType();
 			newObject.md5 = Utils.humanReadableChecksum(md5.digest()); // UUIDTools.getMD5(targetFile);
-			newObject.setProperty("partName", part.getName());
+
+			if (part != null) {
+				newObject.fileName = part.getSubmittedFileName();
+				newObject.contentType = part.getContentType();
+				newObject.setProperty("partName", part.getName());
+			}
+			else {
+				newObject.fileName = RawUpload.getFileName(request, parser.path);
+				newObject.contentType = RawUpload.getContentType(request);
+			}
 
 			newObject.replicas.add(Integer.valueOf(0));
 
@@ -335,6 +414,10 @@ public class SQLBacked extends HttpServlet {
 				return;
 			}
 
+			for (final SQLNotifier notifier : notifiers)
+				if (notifier.isSynchronous())
+					notifier.newObject(newObject);
+
 			setHeaders(newObject, response);
 
 			final String location = newObject.getAddress(Integer.valueOf(0)).iterator().next();
@@ -343,16 +426,8 @@ public class SQLBacked extends HttpServlet {
 			response.setHeader("Content-Location", location);
 			response.sendError(HttpServletResponse.SC_CREATED);
 
-			asyncOperations.execute(() -> {
-				for (final SQLNotifier notifier : notifiers) {
-					if (notifier instanceof SQLtoUDP) {
-						if (lazyj.Utils.stringToBool(newObject.getProperty("forSyncReco"), true))
-							AsyncMulticastQueue.queueObject(newObject);
-					}
-					else
-						notifier.newObject(newObject);
-				}
-			});
+			for (final AsyncNotifierDispatcher dispatcher : dispatchers)
+				dispatcher.newObject(newObject);
 
 			if (monitor != null)
 				monitor.addMeasurement("POST_data", newObject.size);
@@ -369,7 +444,7 @@ public class SQLBacked extends HttpServlet {
 				return;
 			}
 
-			final SQLObject matchingObject = SQLObject.getMatchingObject(parser);
+			final SQLObject matchingObject = SQLObject.getMatchingObjectForUpdate(parser);
 
 			if (matchingObject == null) {
 				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -385,6 +460,11 @@ public class SQLBacked extends HttpServlet {
 
 			final boolean changed = matchingObject.save(request);
 
+			if (changed)
+				for (final SQLNotifier notifier : notifiers)
+					if (notifier.isSynchronous())
+						notifier.updatedObject(matchingObject);
+
 			setHeaders(matchingObject, response);
 
 			response.setHeader("Location", matchingObject.getAddresses(null, false).iterator().next());
@@ -394,10 +474,8 @@ public class SQLBacked extends HttpServlet {
 			else
 				response.sendError(HttpServletResponse.SC_NOT_MODIFIED);
 
-			asyncOperations.execute(() -> {
-				for (final SQLNotifier notifier : notifiers)
-					notifier.updatedObject(matchingObject);
-			});
+			for (final AsyncNotifierDispatcher dispatcher : dispatchers)
+				dispatcher.updatedObject(matchingObject);
 		}
 	}
 
@@ -411,7 +489,7 @@ public class SQLBacked extends HttpServlet {
 				return;
 			}
 
-			final SQLObject matchingObject = SQLObject.getMatchingObject(parser);
+			final SQLObject matchingObject = SQLObject.getMatchingObjectForUpdate(parser);
 
 			if (matchingObject == null) {
 				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -423,14 +501,16 @@ public class SQLBacked extends HttpServlet {
 				return;
 			}
 
+			for (final SQLNotifier notifier : notifiers)
+				if (notifier.isSynchronous())
+					notifier.deletedObject(matchingObject);
+
 			setHeaders(matchingObject, response);
 
 			response.sendError(HttpServletResponse.SC_NO_CONTENT);
 
-			asyncOperations.execute(() -> {
-				for (final SQLNotifier notifier : notifiers)
-					notifier.deletedObject(matchingObject);
-			});
+			for (final AsyncNotifierDispatcher dispatcher : dispatchers)
+				dispatcher.deletedObject(matchingObject);
 		}
 	}
 
@@ -444,7 +524,7 @@ public class SQLBacked extends HttpServlet {
 			if (!parser.ok)
 				return;
 
-			final SQLObject matchingObject = SQLObject.getMatchingObject(parser);
+			final SQLObject matchingObject = SQLObject.getMatchingObject(parser, true);
 
 			if (matchingObject == null) {
 				response.sendError(HttpServletResponse.SC_NOT_FOUND, "No matching objects found");
@@ -481,6 +561,7 @@ public class SQLBacked extends HttpServlet {
 
 					db.query("CREATE TABLE IF NOT EXISTS ccdb_metadata (metadataId SERIAL PRIMARY KEY, metadataKey text UNIQUE NOT NULL);");
 					db.query("CREATE TABLE IF NOT EXISTS config(key TEXT PRIMARY KEY, value TEXT);");
+					db.query("CREATE TABLE IF NOT EXISTS ccdb_replica_heartbeat (id int PRIMARY KEY, ts timestamptz NOT NULL);");
 
 					if (!db.query("SELECT * FROM ccdb LIMIT 0")) {
 						System.err.println("Database communication cannot be established, please fix config.properties and/or the PostgreSQL server and try again");
@@ -509,6 +590,14 @@ public class SQLBacked extends HttpServlet {
 
 					db.query("CREATE TRIGGER ccdb_increment_trigger AFTER INSERT ON ccdb FOR EACH ROW EXECUTE PROCEDURE ccdb_increment();", true);
 					db.query("CREATE TRIGGER ccdb_decrement_trigger AFTER DELETE ON ccdb FOR EACH ROW EXECUTE PROCEDURE ccdb_decrement();", true);
+
+					SQLObject.loadDictionaries();
+
+					SQLMetadataPlanner.getInstance().start();
+
+					SQLFolderStats.getInstance().load();
+
+					SQLInvalidationChannel.getInstance().start();
 				}
 				else
 					throw new IllegalArgumentException("Only PostgreSQL support is implemented at the moment");
@@ -0,0 +1,296 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.Timing;
+import ch.alice.o2.ccdb.Options;
+import ch.alice.o2.ccdb.RequestParser;
+import lazyj.Format;
+
+/**
+ * Resolve many objects valid at the same moment in a single request, typically all the calibration objects that a job needs for one run.<br>
+ * <br>
+ * The request is a <code>POST /batch/&lt;timestamp&gt;[/key=value]*</code>, the flag constraints and the <code>If-Not-After</code> / <code>If-Not-Before</code> headers applying
+ * to all items. The body lists one item per line, as <code>path[/key=value]* ["ETag"]</code>: the item's own flag constraints are added to the common ones, and the optional
+ * ETag is the object that the client already has (the equivalent of <code>If-None-Match</code>). Items that share the same constraints are resolved together, with one
+ * multi-path query.<br>
+ * <br>
+ * The reply is a JSON document with one entry per item, in the order of the request, with a <code>status</code> of 200 (followed by the object metadata and its
+ * <code>Content-Location</code>s), 304 (the ETag is still the matching object) or 404 (nothing matches).<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>batch.maxitems</code> - maximum number of items in one request (default 1000)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+@WebServlet("/batch/*")
+public class SQLBatchResolve extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLBatchResolve.class.getCanonicalName());
+
+	private static final int maxItems = Options.getIntOption("batch.maxitems", 1000);
+
+	private static final class Item {
+		final String path;
+
+		final Map<String, String> flagConstraints;
+
+		final UUID cachedValue;
+
+		SQLObject match = null;
+
+		Item(final String path, final Map<String, String> flagConstraints, final UUID cachedValue) {
+			this.path = path;
+			this.flagConstraints = flagConstraints;
+			this.cachedValue = cachedValue;
+		}
+	}
+
+	@Override
+	protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+		try (Timing t = new Timing(monitor, "BATCH_ms")) {
+			final RequestParser parser = new RequestParser(request, true);
+
+			if (!parser.ok || !parser.startTimeSet || (parser.path != null && !parser.path.isEmpty())) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The request should be POST /batch/<timestamp>[/key=value]*, with one path[/key=value]* [\"ETag\"] per line in the body");
+				return;
+			}
+
+			final List<Item> items = new ArrayList<>();
+
+			try (BufferedReader br = request.getReader()) {
+				String line;
+
+				while ((line = br.readLine()) != null) {
+					line = line.trim();
+
+					if (line.isEmpty() || line.startsWith("#"))
+						continue;
+
+					if (items.size() >= maxItems) {
+						response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "At most " + maxItems + " items can be resolved in one request");
+						return;
+					}
+
+					final Item item = parseItem(line, parser.flagConstraints);
+
+					if (item == null) {
+						response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Cannot parse this item: " + line);
+						return;
+					}
+
+					items.add(item);
+				}
+			}
+
+			if (items.isEmpty()) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "No paths to resolve");
+				return;
+			}
+
+			resolve(parser, items);
+
+			final String clientIPAddress = request.getRemoteAddr();
+
+			final boolean httpOnly = lazyj.Utils.stringToBool(request.getParameter("HTTPOnly"), false);
+
+			CCDBUtils.disableCaching(response);
+
+			response.setContentType("application/json");
+
+			int found = 0;
+			int notModified = 0;
+
+			try (PrintWriter pw = response.getWriter()) {
+				pw.print("{\"timestamp\":");
+				pw.print(parser.startTime);
+				pw.print(",\"objects\":[\n");
+
+				boolean first = true;
+
+				for (final Item item : items) {
+					if (first)
+						first = false;
+					else
+						pw.print(",\n");
+
+					final Map<String, Object> jsonContent = new LinkedHashMap<>();
+
+					jsonContent.put("path", item.path);
+
+					if (item.match == null)
+						jsonContent.put("status", Integer.valueOf(HttpServletResponse.SC_NOT_FOUND));
+					else if (item.match.id.equals(item.cachedValue)) {
+						jsonContent.put("status", Integer.valueOf(HttpServletResponse.SC_NOT_MODIFIED));
+						jsonContent.put("ETag", "\"" + item.match.id + "\"");
+						notModified++;
+					}
+					else {
+						fillObject(jsonContent, item.match, clientIPAddress, httpOnly);
+						found++;
+					}
+
+					pw.print(Format.toJSON(jsonContent, false));
+				}
+
+				pw.print("\n]}\n");
+			}
+
+			monitor.addMeasurement("BATCH_items", items.size());
+			monitor.addMeasurement("BATCH_found", found);
+			monitor.addMeasurement("BATCH_not_modified", notModified);
+		}
+	}
+
+	/**
+	 * Parse one line of the request body
+	 *
+	 * @param line
+	 * @param commonConstraints
+	 *            flags given in the URL, that apply to all items
+	 * @return the item, or <code>null</code> if the line is not valid
+	 */
+	private static Item parseItem(final String line, final Map<String, String> commonConstraints) {
+		final StringTokenizer st = new StringTokenizer(line, " \t");
+
+		final String spec = st.nextToken();
+
+		UUID cachedValue = null;
+
+		if (st.hasMoreTokens()) {
+			String etag = st.nextToken();
+
+			if (etag.indexOf('"') >= 0 && etag.lastIndexOf('"') > etag.indexOf('"'))
+				etag = etag.substring(etag.indexOf('"') + 1, etag.lastIndexOf('"'));
+
+			try {
+				cachedValue = UUID.fromString(etag);
+			}
+			catch (@SuppressWarnings("unused") final IllegalArgumentException iae) {
+				return null;
+			}
+		}
+
+		final Map<String, String> flagConstraints = new HashMap<>(commonConstraints);
+
+		final StringBuilder path = new StringBuilder();
+
+		final StringTokenizer pathTokens = new StringTokenizer(spec, "/");
+
+		while (pathTokens.hasMoreTokens()) {
+			final String token = pathTokens.nextToken();
+
+			final int idx = token.indexOf('=');
+
+			if (idx >= 0)
+				flagConstraints.put(Format.decode(token.substring(0, idx).trim()), Format.decode(token.substring(idx + 1).trim()));
+			else {
+				if (path.length() > 0)
+					path.append('/');
+
+				path.append(Format.decode(token));
+			}
+		}
+
+		if (path.length() == 0)
+			return null;
+
+		return new Item(path.toString(), flagConstraints, cachedValue);
+	}
+
+	/**
+	 * Look up the matching objects, with one query for each distinct set of flag constraints
+	 *
+	 * @param parser
+	 *            common constraints
+	 * @param items
+	 */
+	private static void resolve(final RequestParser parser, final List<Item> items) {
+		final Map<String, List<Item>> groups = new LinkedHashMap<>();
+
+		for (final Item item : items) {
+			final String key = new TreeMap<>(item.flagConstraints).toString();
+
+			groups.computeIfAbsent(key, k -> new ArrayList<>()).add(item);
+		}
+
+		for (final List<Item> group : groups.values()) {
+			final RequestParser groupParser = new RequestParser(null);
+
+			groupParser.startTime = parser.startTime;
+			groupParser.endTime = parser.endTime;
+			groupParser.startTimeSet = true;
+			groupParser.notAfter = parser.notAfter;
+			groupParser.notBefore = parser.notBefore;
+			groupParser.flagConstraints.putAll(group.get(0).flagConstraints);
+
+			final List<String> paths = new ArrayList<>(group.size());
+
+			for (final Item item : group)
+				paths.add(item.path);
+
+			final Map<String, SQLObject> matches = SQLObject.getLatestMatchingObjects(groupParser, paths);
+
+			for (final Item item : group)
+				item.match = matches.get(item.path);
+		}
+
+		monitor.addMeasurement("BATCH_queries", groups.size());
+	}
+
+	/**
+	 * Same fields and names as the headers of a <code>GET</code> for this object
+	 *
+	 * @param jsonContent
+	 * @param obj
+	 * @param clientIPAddress
+	 * @param httpOnly
+	 */
+	private static void fillObject(final Map<String, Object> jsonContent, final SQLObject obj, final String clientIPAddress, final boolean httpOnly) {
+		jsonContent.put("status", Integer.valueOf(HttpServletResponse.SC_OK));
+		jsonContent.put("ETag", "\"" + obj.id + "\"");
+		jsonContent.put("Valid-From", Long.valueOf(obj.validFrom));
+		jsonContent.put("Valid-Until", Long.valueOf(obj.validUntil));
+
+		if (obj.initialValidity != obj.validUntil)
+			jsonContent.put("InitialValidityLimit", Long.valueOf(obj.initialValidity));
+
+		jsonContent.put("Created", Long.valueOf(obj.createTime));
+		jsonContent.put("Last-Modified", Long.valueOf(obj.getLastModified()));
+		jsonContent.put("Content-MD5", obj.md5);
+		jsonContent.put("Content-Disposition", "inline;filename=\"" + obj.fileName + "\"");
+		jsonContent.put("Content-Type", obj.contentType);
+		jsonContent.put("Content-Length", Long.valueOf(obj.size));
+
+		for (final Map.Entry<Integer, String> metadataEntry : obj.metadata.entrySet()) {
+			final String mdKey = SQLObject.getMetadataString(metadataEntry.getKey());
+
+			if (mdKey != null)
+				jsonContent.putIfAbsent(mdKey, metadataEntry.getValue());
+		}
+
+		jsonContent.put("Content-Location", obj.getAddresses(clientIPAddress, httpOnly));
+	}
+}
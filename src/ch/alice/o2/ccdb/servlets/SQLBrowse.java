@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -14,6 +15,7 @@ import javax.servlet.http.HttpServletResponse;
 import alien.monitoring.Monitor;
 import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
+import ch.alice.o2.ccdb.Options;
 import ch.alice.o2.ccdb.RequestParser;
 import ch.alice.o2.ccdb.servlets.formatters.FormatterFactory;
 import ch.alice.o2.ccdb.servlets.formatters.SQLFormatter;
@@ -32,6 +34,8 @@ public class SQLBrowse extends HttpServlet {
 
 	private static final Monitor monitor = MonitorFactory.getMonitor(SQLBrowse.class.getCanonicalName());
 
+	private static final boolean streamingEnabled = Utils.stringToBool(Options.getOption("browse.streaming", null), true);
+
 	@Override
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
 		try (Timing t = new Timing(monitor, "GET_ms")) {
@@ -50,8 +54,6 @@ public class SQLBrowse extends HttpServlet {
 			 * }
 			 */
 
-			final Collection<SQLObject> matchingObjects = SQLObject.getAllMatchingObjects(parser);
-
 			final SQLFormatter formatter = FormatterFactory.getFormatter(request);
 
 			response.setContentType(formatter.getContentType());
@@ -64,15 +66,16 @@ public class SQLBrowse extends HttpServlet {
 
 			formatter.setExtendedReport(sizeReport);
 
-			try (PrintWriter pw = response.getWriter()) {
+			try (PrintWriter pw = formatter.getWriter(response)) {
 				formatter.start(pw);
 
 				formatter.header(pw);
 
-				boolean first = true;
+				final Consumer<SQLObject> objectWriter = new Consumer<>() {
+					private boolean first = true;
 
-				if (matchingObjects != null)
-					for (final SQLObject object : matchingObjects) {
+					@Override
+					public void accept(final SQLObject object) {
 						if (first)
 							first = false;
 						else
@@ -83,6 +86,17 @@ public class SQLBrowse extends HttpServlet {
 						if (prepare && parser.latestFlag)
 							AsyncMulticastQueue.queueObject(object);
 					}
+				};
+
+				if (streamingEnabled)
+					// objects queued for the multicast distribution need all their fields, otherwise only read the ones that the client asked for
+					SQLObject.streamAllMatchingObjects(parser, prepare ? SQLProjection.ALL : SQLProjection.forFields(formatter.getFieldFilter()), objectWriter);
+				else {
+					final Collection<SQLObject> matchingObjects = SQLObject.getAllMatchingObjects(parser);
+
+					if (matchingObjects != null)
+						matchingObjects.forEach(objectWriter);
+				}
 
 				formatter.footer(pw);
 
@@ -95,69 +109,100 @@ public class SQLBrowse extends HttpServlet {
 					long thisFolderCount = 0;
 					long thisFolderSize = 0;
 
-					try (DBFunctions db = SQLObject.getDB()) {
-						String prefix = "";
+					final StringBuilder suffix = new StringBuilder();
+
+					if (parser.startTimeSet)
+						suffix.append('/').append(parser.startTime);
+
+					if (parser.uuidConstraint != null)
+						suffix.append('/').append(parser.uuidConstraint);
+
+					for (final Map.Entry<String, String> entry : parser.flagConstraints.entrySet())
+						suffix.append('/').append(entry.getKey()).append('=').append(entry.getValue());
+
+					final SQLFolderStats stats = SQLFolderStats.getInstance();
+
+					if (stats.isLoaded()) {
+						final SQLFolderStats.Folder thisFolder = stats.getFolder(parser.path);
 
-						if (parser.path == null || parser.path.length() == 0)
-							db.query("select distinct split_part(path,'/',1) from ccdb_paths order by 1;");
-						else {
-							int cnt = 0;
+						if (thisFolder != null) {
+							final String prefix = parser.path == null || parser.path.length() == 0 ? "" : parser.path + "/";
 
-							for (final char c : parser.path.toCharArray())
-								if (c == '/')
-									cnt++;
+							boolean first = true;
 
-							db.query("select distinct split_part(path,'/',?) from ccdb_paths where path like ? order by 1;", false, Integer.valueOf(cnt + 2), parser.path + "/%");
+							for (final SQLFolderStats.Folder subfolder : thisFolder.getChildren()) {
+								if (first)
+									first = false;
+								else
+									formatter.middle(pw);
 
-							prefix = parser.path + "/";
+								final String folder = prefix + subfolder.getName();
+
+								if (sizeReport)
+									formatter.subfoldersListing(pw, folder, folder + suffix, subfolder.getOwnCount(), subfolder.getOwnSize(),
+											subfolder.getTotalCount() - subfolder.getOwnCount(), subfolder.getTotalSize() - subfolder.getOwnSize());
+								else
+									formatter.subfoldersListing(pw, folder, folder + suffix);
+							}
+
+							thisFolderCount = thisFolder.getOwnCount();
+							thisFolderSize = thisFolder.getOwnSize();
 						}
+					}
+					else {
+						try (DBFunctions db = SQLObject.getReadDB()) {
+							String prefix = "";
 
-						final StringBuilder suffix = new StringBuilder();
+							if (parser.path == null || parser.path.length() == 0)
+								db.query("select distinct split_part(path,'/',1) from ccdb_paths order by 1;");
+							else {
+								int cnt = 0;
 
-						if (parser.startTimeSet)
-							suffix.append('/').append(parser.startTime);
+								for (final char c : parser.path.toCharArray())
+									if (c == '/')
+										cnt++;
 
-						if (parser.uuidConstraint != null)
-							suffix.append('/').append(parser.uuidConstraint);
+								db.query("select distinct split_part(path,'/',?) from ccdb_paths where path like ? order by 1;", false, Integer.valueOf(cnt + 2), parser.path + "/%");
 
-						for (final Map.Entry<String, String> entry : parser.flagConstraints.entrySet())
-							suffix.append('/').append(entry.getKey()).append('=').append(entry.getValue());
+								prefix = parser.path + "/";
+							}
 
-						first = true;
+							boolean first = true;
 
-						while (db.moveNext()) {
-							if (first)
-								first = false;
-							else
-								formatter.middle(pw);
+							while (db.moveNext()) {
+								if (first)
+									first = false;
+								else
+									formatter.middle(pw);
 
-							final String folder = prefix + db.gets(1);
+								final String folder = prefix + db.gets(1);
 
-							if (sizeReport) {
-								try (DBFunctions db2 = SQLObject.getDB()) {
-									db2.query("SELECT object_count, object_size FROM ccdb_stats WHERE pathid=(SELECT pathid FROM ccdb_paths WHERE path=?);", false, folder);
+								if (sizeReport) {
+									try (DBFunctions db2 = SQLObject.getReadDB()) {
+										db2.query("SELECT object_count, object_size FROM ccdb_stats WHERE pathid=(SELECT pathid FROM ccdb_paths WHERE path=?);", false, folder);
 
-									final long ownCount = db2.getl(1);
-									final long ownSize = db2.getl(2);
+										final long ownCount = db2.getl(1);
+										final long ownSize = db2.getl(2);
 
-									db2.query("SELECT sum(object_count), sum(object_size) FROM ccdb_stats WHERE pathid IN (SELECT pathid FROM ccdb_paths WHERE path LIKE ?);", false,
-											folder + "/%");
+										db2.query("SELECT sum(object_count), sum(object_size) FROM ccdb_stats WHERE pathid IN (SELECT pathid FROM ccdb_paths WHERE path LIKE ?);", false,
+												folder + "/%");
 
-									final long subfoldersCount = db2.getl(1);
-									final long subfoldersSize = db2.getl(2);
+										final long subfoldersCount = db2.getl(1);
+										final long subfoldersSize = db2.getl(2);
 
-									formatter.subfoldersListing(pw, folder, folder + suffix, ownCount, ownSize, subfoldersCount, subfoldersSize);
+										formatter.subfoldersListing(pw, folder, folder + suffix, ownCount, ownSize, subfoldersCount, subfoldersSize);
+									}
 								}
+								else
+									formatter.subfoldersListing(pw, folder, folder + suffix);
 							}
-							else
-								formatter.subfoldersListing(pw, folder, folder + suffix);
-						}
 
-						if (sizeReport) {
-							db.query("SELECT object_count, object_size FROM ccdb_stats WHERE pathid=(SELECT pathid FROM ccdb_paths WHERE path=?);", false, parser.path);
+							if (sizeReport) {
+								db.query("SELECT object_count, object_size FROM ccdb_stats WHERE pathid=(SELECT pathid FROM ccdb_paths WHERE path=?);", false, parser.path);
 
-							thisFolderCount = db.getl(1);
-							thisFolderSize = db.getl(2);
+								thisFolderCount = db.getl(1);
+								thisFolderSize = db.getl(2);
+							}
 						}
 					}
 
@@ -0,0 +1,169 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import alien.monitoring.MonitoringObject;
+import lazyj.DBFunctions;
+import lazyj.DBFunctions.DBConnection;
+import lazyj.ExtProperties;
+
+/**
+ * Managed access to the database connections. The connections themselves are pooled by lazyj, this class makes sure that the pool is used efficiently:
+ * <ul>
+ * <li>the connection properties are snapshotted once (and refreshed every minute) instead of copying the entire configuration for each {@link DBFunctions} instance</li>
+ * <li>unless otherwise configured, idle connections are only validated if they were not used in the last <code>validateInterval</code> ms (default 10000), instead of costing a
+ * server round trip each time they are taken from the pool</li>
+ * <li>the number of accessors in use at the same time is bounded by {@link ConcurrencyLimits}</li>
+ * </ul>
+ * It also exports the pool state (established connections, borrow latency, query rate and average execution time) through the monitoring.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+class SQLConnectionPool implements MonitoringObject {
+	private static final long REFRESH_INTERVAL = 1000L * 60;
+
+	private final ExtProperties config;
+
+	private final Properties overrides;
+
+	private volatile Properties connectionProperties = null;
+
+	private volatile long lastRefreshed = 0;
+
+	private String poolKey = null;
+
+	private long lastQueryCount = 0;
+	private long lastQueryTime = 0;
+
+	/**
+	 * @param config
+	 *            database configuration
+	 */
+	SQLConnectionPool(final ExtProperties config) {
+		this(config, null);
+	}
+
+	/**
+	 * @param config
+	 *            database configuration
+	 * @param overrides
+	 *            keys that replace the ones in the configuration, for example the <code>host</code> and <code>port</code> of a replica that otherwise shares the settings of the
+	 *            primary server. Can be <code>null</code>.
+	 */
+	SQLConnectionPool(final ExtProperties config, final Properties overrides) {
+		this.config = config;
+		this.overrides = overrides;
+	}
+
+	private Properties getConnectionProperties() {
+		Properties p = connectionProperties;
+
+		if (p == null || System.currentTimeMillis() - lastRefreshed > REFRESH_INTERVAL) {
+			p = config.getProperties();
+
+			if (overrides != null)
+				p.putAll(overrides);
+
+			if (p.getProperty("validateInterval") == null)
+				p.setProperty("validateInterval", "10000");
+
+			connectionProperties = p;
+			lastRefreshed = System.currentTimeMillis();
+		}
+
+		return p;
+	}
+
+	/**
+	 * @return a new database accessor, or <code>null</code> if no database is configured. It counts against the <code>limits.db</code> concurrency limit until it is closed.
+	 * @see ConcurrencyLimits
+	 */
+	DBFunctions getDB() {
+		final Properties p = getConnectionProperties();
+
+		if (p.getProperty("driver") == null)
+			return null;
+
+		final ConcurrencyLimits.Permit permit = ConcurrencyLimits.database();
+
+		return new DBFunctions(p) {
+			@Override
+			public void close() {
+				try {
+					super.close();
+				}
+				finally {
+					permit.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return a new database accessor that is not subject to the concurrency limit, for the background threads that keep a connection open for a long time. Can be
+	 *         <code>null</code> if no database is configured.
+	 */
+	DBFunctions getDedicatedDB() {
+		final Properties p = getConnectionProperties();
+
+		if (p.getProperty("driver") == null)
+			return null;
+
+		return new DBFunctions(p);
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		final Properties p = getConnectionProperties();
+
+		if (p.getProperty("driver") == null)
+			return;
+
+		if (poolKey == null)
+			poolKey = DBFunctions.propToJDBC(p);
+
+		// probe how long it takes to get a connection from the pool
+		final long borrowStart = System.nanoTime();
+
+		try (DBFunctions db = new DBFunctions(p)) {
+			final DBConnection dbc = db.getConnection();
+
+			paramNames.add("borrow_ms");
+			paramValues.add(Double.valueOf((System.nanoTime() - borrowStart) / 1000000.));
+
+			if (dbc != null)
+				dbc.free();
+			else {
+				paramNames.add("borrow_failed");
+				paramValues.add(Double.valueOf(1));
+			}
+		}
+
+		final Integer established = DBFunctions.getActiveConnections().get(poolKey);
+
+		paramNames.add("connections");
+		paramValues.add(Double.valueOf(established != null ? established.intValue() : 0));
+
+		final AtomicInteger queryCountHolder = DBFunctions.chmQueryCount.get(poolKey);
+		final AtomicLong queryTimeHolder = DBFunctions.chmQueryTime.get(poolKey);
+
+		final long queryCount = queryCountHolder != null ? queryCountHolder.get() : 0;
+		final long queryTime = queryTimeHolder != null ? queryTimeHolder.get() : 0;
+
+		final long deltaCount = queryCount - lastQueryCount;
+		final long deltaTime = queryTime - lastQueryTime;
+
+		lastQueryCount = queryCount;
+		lastQueryTime = queryTime;
+
+		paramNames.add("queries");
+		paramValues.add(Double.valueOf(queryCount));
+
+		paramNames.add("avg_query_ms");
+		paramValues.add(Double.valueOf(deltaCount > 0 ? (double) deltaTime / deltaCount : 0));
+	}
+}
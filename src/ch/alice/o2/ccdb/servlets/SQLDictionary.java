@@ -0,0 +1,291 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import alien.monitoring.MonitoringObject;
+import lazyj.DBFunctions;
+
+/**
+ * Concurrent two-way mapping between the text values and the integer primary keys of one of the dictionary tables (<code>ccdb_paths</code>, <code>ccdb_metadata</code>,
+ * <code>ccdb_contenttype</code>). Lookups of known values never lock, the content is bulk loaded when the database structure is initialized and unknown values are inserted
+ * with only the requests for the same key waiting for each other.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+class SQLDictionary implements MonitoringObject {
+	private final String name;
+	private final String table;
+	private final String idColumn;
+	private final String valueColumn;
+
+	private final Map<String, Integer> forward = new ConcurrentHashMap<>();
+	private final Map<Integer, String> reverse = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong inserts = new AtomicLong();
+
+	/**
+	 * Sequence used to allocate identifiers when no database backend is configured
+	 */
+	private final AtomicInteger localSequence = new AtomicInteger();
+
+	/**
+	 * @param name
+	 *            short name of this dictionary, used as prefix for the monitoring parameters
+	 * @param table
+	 *            database table backing it
+	 * @param idColumn
+	 *            integer primary key column
+	 * @param valueColumn
+	 *            unique text value column
+	 */
+	SQLDictionary(final String name, final String table, final String idColumn, final String valueColumn) {
+		this.name = name;
+		this.table = table;
+		this.idColumn = idColumn;
+		this.valueColumn = valueColumn;
+	}
+
+	/**
+	 * Bulk load the entire table content in memory
+	 *
+	 * @return number of entries that were loaded
+	 */
+	int load() {
+		return Math.max(load(null), 0);
+	}
+
+	/**
+	 * Load the table content again and forget the entries that are no longer in the database, for example paths that were removed by another instance
+	 *
+	 * @return number of entries that were loaded, or <code>-1</code> if the table could not be read
+	 */
+	int reload() {
+		final Set<Integer> seen = new HashSet<>();
+
+		final int count = load(seen);
+
+		if (count >= 0)
+			for (final Integer id : new ArrayList<>(reverse.keySet()))
+				if (!seen.contains(id))
+					remove(id);
+
+		return count;
+	}
+
+	/**
+	 * @param seen
+	 *            if not <code>null</code>, collects the IDs that are present in the database
+	 * @return number of entries that were loaded, or <code>-1</code> if the table could not be read
+	 */
+	private int load(final Set<Integer> seen) {
+		int count = 0;
+
+		try (DBFunctions db = SQLObject.getDB()) {
+			if (db == null)
+				return -1;
+
+			db.setReadOnly(true);
+
+			if (!db.query("SELECT " + idColumn + ", " + valueColumn + " FROM " + table + ";"))
+				return -1;
+
+			while (db.moveNext()) {
+				final Integer id = Integer.valueOf(db.geti(1));
+
+				cache(db.gets(2), id);
+
+				if (seen != null)
+					seen.add(id);
+
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private void cache(final String value, final Integer id) {
+		forward.put(value, id);
+		reverse.put(id, value);
+	}
+
+	/**
+	 * Look up the integer ID of a value
+	 *
+	 * @param value
+	 *            text value to look up
+	 * @param createIfNotExists
+	 *            whether or not to insert the value in the database if it is not known yet
+	 * @return the ID, or <code>null</code> if the value doesn't exist (and was not requested to be created, or the creation failed)
+	 */
+	Integer getId(final String value, final boolean createIfNotExists) {
+		if (value == null)
+			return null;
+
+		final Integer id = forward.get(value);
+
+		if (id != null) {
+			hits.incrementAndGet();
+			return id;
+		}
+
+		misses.incrementAndGet();
+
+		if (!createIfNotExists) {
+			try (DBFunctions db = SQLObject.getDB()) {
+				if (db == null)
+					return null;
+
+				return select(db, value);
+			}
+		}
+
+		// the database is queried without holding any lock of the map, concurrent requests for the same value may both go to the database but they get the same ID from it
+		final Integer newId = selectOrInsert(value);
+
+		if (newId == null)
+			return null;
+
+		final Integer previous = forward.putIfAbsent(value, newId);
+
+		if (previous != null)
+			return previous;
+
+		reverse.put(newId, value);
+
+		return newId;
+	}
+
+	private Integer select(final DBFunctions db, final String value) {
+		db.query("SELECT " + idColumn + " FROM " + table + " WHERE " + valueColumn + "=?;", false, value);
+
+		if (db.moveNext()) {
+			final Integer id = Integer.valueOf(db.geti(1));
+			cache(value, id);
+			return id;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Find or create the database ID of a value, without touching the caches
+	 */
+	private Integer selectOrInsert(final String value) {
+		try (DBFunctions db = SQLObject.getDB()) {
+			if (db == null)
+				return Integer.valueOf(localSequence.incrementAndGet());
+
+			db.query("SELECT " + idColumn + " FROM " + table + " WHERE " + valueColumn + "=?;", false, value);
+
+			Integer id = null;
+
+			if (db.moveNext())
+				id = Integer.valueOf(db.geti(1));
+			else {
+				final Integer hashId = SQLObject.absHashCode(value);
+
+				if (hashId.intValue() > 0 && db.query("INSERT INTO " + table + " (" + idColumn + ", " + valueColumn + ") VALUES (?, ?);", false, hashId, value))
+					// could create the hash-based ID, all good
+					id = hashId;
+				else {
+					// there is conflict on this hash code, take the next available value instead
+					db.query("INSERT INTO " + table + " (" + valueColumn + ") VALUES (?);", false, value);
+
+					// always execute the select, in case another instance has inserted it in the mean time
+					db.query("SELECT " + idColumn + " FROM " + table + " WHERE " + valueColumn + "=?;", false, value);
+
+					if (db.moveNext())
+						id = Integer.valueOf(db.geti(1));
+				}
+
+				if (id != null)
+					inserts.incrementAndGet();
+			}
+
+			return id;
+		}
+	}
+
+	/**
+	 * Reverse lookup, from the integer ID to the text value
+	 *
+	 * @param id
+	 * @return the text value, or <code>null</code> if the ID is not known
+	 */
+	String getValue(final Integer id) {
+		if (id == null)
+			return null;
+
+		final String value = reverse.get(id);
+
+		if (value != null) {
+			hits.incrementAndGet();
+			return value;
+		}
+
+		misses.incrementAndGet();
+
+		try (DBFunctions db = SQLObject.getDB()) {
+			if (db == null)
+				return null;
+
+			db.query("SELECT " + valueColumn + " FROM " + table + " WHERE " + idColumn + "=?;", false, id);
+
+			if (db.moveNext()) {
+				final String dbValue = db.gets(1);
+				cache(dbValue, id);
+				return dbValue;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Forget an entry, after it was removed from the database
+	 *
+	 * @param id
+	 * @return the value that was associated to this ID, if any
+	 */
+	String remove(final Integer id) {
+		final String value = reverse.remove(id);
+
+		if (value != null)
+			forward.remove(value, id);
+
+		return value;
+	}
+
+	/**
+	 * @return number of cached entries
+	 */
+	int size() {
+		return reverse.size();
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add(name + "_hits");
+		paramValues.add(Double.valueOf(hits.get()));
+
+		paramNames.add(name + "_misses");
+		paramValues.add(Double.valueOf(misses.get()));
+
+		paramNames.add(name + "_inserts");
+		paramValues.add(Double.valueOf(inserts.get()));
+
+		paramNames.add(name + "_size");
+		paramValues.add(Double.valueOf(size()));
+	}
+}
@@ -1,17 +1,7 @@
 package ch.alice.o2.ccdb.servlets;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.RandomAccessFile;
-import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.UUID;
 
 import javax.servlet.ServletException;
@@ -20,12 +10,9 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.tomcat.util.http.fileupload.IOUtils;
-
 import alien.monitoring.Monitor;
 import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
-import ch.alice.o2.ccdb.UUIDTools;
 
 /**
  * SQL-backed implementation of CCDB. This servlet only implements GET (and HEAD) for a particular UUID that is known to reside on this server. It should normally not be accessed directly but clients
@@ -99,8 +86,6 @@ public class SQLDownload extends HttpServlet {
 			return;
 		}
 
-		final String range = request.getHeader("Range");
-
 		final File localFile = obj.getLocalFile(false);
 
 		if (localFile == null) {
@@ -108,209 +93,10 @@ public class SQLDownload extends HttpServlet {
 			return;
 		}
 
-		if (range == null || range.trim().isEmpty()) {
-			response.setHeader("Accept-Ranges", "bytes");
-			response.setContentLengthLong(obj.size);
-			response.setHeader("Content-Disposition", "inline;filename=\"" + obj.fileName + "\"");
-			response.setHeader("Content-Type", obj.contentType);
+		if (!ByteRanges.isRangeRequest(request))
 			SQLBacked.setMD5Header(obj, response);
 
-			try (InputStream is = new FileInputStream(localFile); OutputStream os = response.getOutputStream()) {
-				IOUtils.copy(is, os);
-			}
-
-			if (monitor != null)
-				monitor.addMeasurement("GET_data", localFile.length());
-
-			return;
-		}
-
-		// a Range request was made, serve only the requested bytes
-
-		if (!range.startsWith("bytes=")) {
-			response.setHeader("Content-Range", "bytes */" + obj.size);
-			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-			return;
-		}
-
-		final StringTokenizer st = new StringTokenizer(range.substring(6).trim(), ",");
-
-		final List<Map.Entry<Long, Long>> requestedRanges = new ArrayList<>();
-
-		while (st.hasMoreTokens()) {
-			final String s = st.nextToken();
-
-			final int idx = s.indexOf('-');
-
-			long start;
-			long end;
-
-			if (idx > 0) {
-				start = Long.parseLong(s.substring(0, idx));
-
-				if (start >= obj.size) {
-					response.setHeader("Content-Range", "bytes */" + obj.size);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested an invalid range, starting beyond the end of the file (" + start + ")");
-					return;
-				}
-
-				if (idx < (s.length() - 1)) {
-					end = Long.parseLong(s.substring(idx + 1));
-
-					if (end >= obj.size) {
-						response.setHeader("Content-Range", "bytes */" + obj.size);
-						response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested bytes beyond what the file contains (" + end + ")");
-						return;
-					}
-				}
-				else
-					end = obj.size - 1;
-
-				if (start > end) {
-					response.setHeader("Content-Range", "bytes */" + obj.size);
-					response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
-							"The requested range is wrong, the second value (" + end + ") should be larger than the first (" + start + ")");
-					return;
-				}
-			}
-			else
-				if (idx == 0) {
-					// a single negative value means 'last N bytes'
-					start = Long.parseLong(s.substring(idx + 1));
-
-					end = obj.size - 1;
-
-					start = end - start + 1;
-
-					if (start < 0) {
-						response.setHeader("Content-Range", "bytes */" + obj.size);
-						response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
-								"You requested more last bytes (" + s.substring(idx + 1) + ") from the end of the file than the file actually has (" + obj.size + ")");
-						start = 0;
-					}
-				}
-				else {
-					start = Long.parseLong(s);
-
-					if (start >= obj.size) {
-						response.setHeader("Content-Range", "bytes */" + obj.size);
-						response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "You requested an invalid range, starting beyond the end of the file (" + start + ")");
-						return;
-					}
-
-					end = obj.size - 1;
-				}
-
-			requestedRanges.add(new AbstractMap.SimpleEntry<>(Long.valueOf(start), Long.valueOf(end)));
-		}
-
-		if (requestedRanges.size() == 0) {
-			response.setHeader("Content-Range", "bytes */" + obj.size);
-			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
-			return;
-		}
-
-		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-
-		if (requestedRanges.size() == 1) {
-			// A single byte range
-			final Map.Entry<Long, Long> theRange = requestedRanges.get(0);
-			final long first = theRange.getKey().longValue();
-			final long last = theRange.getValue().longValue();
-
-			final long toCopy = last - first + 1;
-
-			response.setContentLengthLong(toCopy);
-			response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + obj.size);
-			response.setHeader("Content-Disposition", "inline;filename=\"" + obj.fileName + "\"");
-			response.setHeader("Content-Type", obj.contentType);
-
-			try (RandomAccessFile input = new RandomAccessFile(localFile, "r"); OutputStream output = response.getOutputStream()) {
-				input.seek(first);
-				copy(input, output, toCopy);
-
-				if (monitor != null)
-					monitor.addMeasurement("GET_data", toCopy);
-			}
-
-			return;
-		}
-
-		// the content length should be computed based on the ranges and the header sizes. Or just don't send it :)
-		final String boundaryString = "THIS_STRING_SEPARATES_" + UUIDTools.generateTimeUUID(System.currentTimeMillis(), null).toString();
-
-		response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundaryString);
-
-		final ArrayList<String> subHeaders = new ArrayList<>(requestedRanges.size());
-
-		long contentLength = 0;
-
-		for (final Map.Entry<Long, Long> theRange : requestedRanges) {
-			final long first = theRange.getKey().longValue();
-			final long last = theRange.getValue().longValue();
-
-			final long toCopy = last - first + 1;
-
-			final StringBuilder subHeader = new StringBuilder();
-
-			subHeader.append("\r\n--").append(boundaryString);
-			subHeader.append("\r\nContent-Type: ").append(obj.contentType).append("\r\n");
-			subHeader.append("Content-Range: bytes ").append(first).append("-").append(last).append("/").append(obj.size).append("\r\n\r\n");
-
-			final String sh = subHeader.toString();
-
-			subHeaders.add(sh);
-
-			contentLength += toCopy + sh.length();
-		}
-
-		final String documentFooter = "\r\n--" + boundaryString + "--";
-
-		contentLength += documentFooter.length();
-
-		response.setContentLengthLong(contentLength);
-
-		try (RandomAccessFile input = new RandomAccessFile(localFile, "r"); OutputStream output = response.getOutputStream()) {
-			final Iterator<Map.Entry<Long, Long>> itRange = requestedRanges.iterator();
-			final Iterator<String> itSubHeader = subHeaders.iterator();
-
-			while (itRange.hasNext()) {
-				final Map.Entry<Long, Long> theRange = itRange.next();
-				final String subHeader = itSubHeader.next();
-
-				final long first = theRange.getKey().longValue();
-				final long last = theRange.getValue().longValue();
-
-				final long toCopy = last - first + 1;
-
-				output.write(subHeader.getBytes());
-
-				input.seek(first);
-				copy(input, output, toCopy);
-
-				if (monitor != null)
-					monitor.addMeasurement("GET_data", toCopy);
-			}
-
-			output.write(documentFooter.getBytes());
-		}
-	}
-
-	private static void copy(final RandomAccessFile input, final OutputStream output, final long count) throws IOException {
-		final byte[] buffer = new byte[4096];
-		int cnt = 0;
-
-		long leftToCopy = count;
-
-		do {
-			final int toCopy = (int) Math.min(leftToCopy, buffer.length);
-
-			cnt = input.read(buffer, 0, toCopy);
-
-			output.write(buffer, 0, cnt);
-
-			leftToCopy -= cnt;
-		} while (leftToCopy > 0);
+		ByteRanges.serve(request, response, monitor, ByteRanges.Source.of(localFile), obj.contentType, obj.fileName);
 	}
 
 	@Override
@@ -0,0 +1,396 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import alien.monitoring.Timing;
+import ch.alice.o2.ccdb.Options;
+import lazyj.DBFunctions;
+
+/**
+ * In-memory image of <code>ccdb_stats</code>, organized as the folder hierarchy of the paths. Each folder keeps the number and total size of the objects stored directly under
+ * its own path and, rolled up, under its entire subtree. The tree is loaded once from the database and then kept up to date by the object creation and removal events, so
+ * the browsing size reports and {@link SQLStatsExporter} are answered by walking the children of one folder instead of aggregating the statistics table.<br>
+ * <br>
+ * Other instances writing to the same database are only seen after a reload. Configuration keys:
+ * <ul>
+ * <li><code>stats.inmemory</code> - set to <code>0</code> to disable the in-memory tree and query the database each time (default <code>1</code>)</li>
+ * <li><code>stats.inmemory.refresh</code> - interval between full reloads from the database, in seconds (default 600, <code>0</code> to only load it at startup)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class SQLFolderStats implements SQLNotifier, MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLFolderStats.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(SQLFolderStats.class.getCanonicalName());
+
+	/**
+	 * One level in the folder hierarchy
+	 */
+	public static final class Folder {
+		private final String name;
+
+		private final Folder parent;
+
+		private final Map<String, Folder> children = new ConcurrentSkipListMap<>();
+
+		/**
+		 * Whether this folder is an object path (as opposed to just an intermediate level)
+		 */
+		volatile boolean isPath = false;
+
+		private final AtomicLong ownCount = new AtomicLong();
+		private final AtomicLong ownSize = new AtomicLong();
+		private final AtomicLong totalCount = new AtomicLong();
+		private final AtomicLong totalSize = new AtomicLong();
+
+		private Folder(final String name, final Folder parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		/**
+		 * @return the last component of the path
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the immediate subfolders, sorted by name
+		 */
+		public Collection<Folder> getChildren() {
+			return children.values();
+		}
+
+		/**
+		 * @return number of objects stored directly in this folder
+		 */
+		public long getOwnCount() {
+			return ownCount.get();
+		}
+
+		/**
+		 * @return total size of the objects stored directly in this folder
+		 */
+		public long getOwnSize() {
+			return ownSize.get();
+		}
+
+		/**
+		 * @return number of objects in this folder and all its subfolders
+		 */
+		public long getTotalCount() {
+			return totalCount.get();
+		}
+
+		/**
+		 * @return total size of the objects in this folder and all its subfolders
+		 */
+		public long getTotalSize() {
+			return totalSize.get();
+		}
+
+		private Folder getOrCreateChild(final String childName) {
+			final Folder existing = children.get(childName);
+
+			if (existing != null)
+				return existing;
+
+			return children.computeIfAbsent(childName, k -> new Folder(k, this));
+		}
+
+		private void add(final long deltaCount, final long deltaSize) {
+			ownCount.addAndGet(deltaCount);
+			ownSize.addAndGet(deltaSize);
+
+			for (Folder f = this; f != null; f = f.parent) {
+				f.totalCount.addAndGet(deltaCount);
+				f.totalSize.addAndGet(deltaSize);
+			}
+		}
+	}
+
+	private final boolean enabled = Options.getIntOption("stats.inmemory", 1) == 1;
+
+	private final long refreshInterval = Options.getIntOption("stats.inmemory.refresh", 600) * 1000L;
+
+	private volatile Folder root = null;
+
+	private volatile long lastLoaded = 0;
+
+	/**
+	 * Object creation or removal event received while a reload is in progress
+	 */
+	private static final class PendingUpdate {
+		final String path;
+		final long deltaCount;
+		final long deltaSize;
+
+		PendingUpdate(final String path, final long deltaCount, final long deltaSize) {
+			this.path = path;
+			this.deltaCount = deltaCount;
+			this.deltaSize = deltaSize;
+		}
+	}
+
+	/**
+	 * Guards {@link #root} changes and {@link #pending}
+	 */
+	private final Object updateLock = new Object();
+
+	/**
+	 * Events received since the current reload has started, to be applied to the new tree too. <code>null</code> when no reload is in progress.
+	 */
+	private List<PendingUpdate> pending = null;
+
+	private SQLFolderStats() {
+		if (enabled) {
+			monitor.addMonitoring("tree", this);
+
+			if (refreshInterval > 0) {
+				final Thread refresher = new Thread("SQLFolderStats.refresher") {
+					@Override
+					public void run() {
+						while (true) {
+							try {
+								Thread.sleep(refreshInterval);
+							}
+							catch (@SuppressWarnings("unused") final InterruptedException ie) {
+								return;
+							}
+
+							if (root != null)
+								load();
+						}
+					}
+				};
+
+				refresher.setDaemon(true);
+				refresher.start();
+			}
+		}
+	}
+
+	private static SQLFolderStats instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized SQLFolderStats getInstance() {
+		if (instance == null)
+			instance = new SQLFolderStats();
+
+		return instance;
+	}
+
+	/**
+	 * @return <code>true</code> if the in-memory tree was enabled in the configuration
+	 */
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * (Re)load the entire tree from the database. The new tree is built aside and replaces the current one when complete. The events received while the database is scanned keep
+	 * updating the current tree and are replayed on the new one before it takes over.
+	 */
+	synchronized void load() {
+		if (!enabled)
+			return;
+
+		final Folder newRoot = new Folder("", null);
+
+		int paths = 0;
+
+		try (DBFunctions db = SQLObject.getDB(); Timing t = new Timing(monitor, "load_ms")) {
+			if (db == null)
+				return;
+
+			synchronized (updateLock) {
+				pending = new ArrayList<>();
+			}
+
+			if (!db.query("SELECT path, coalesce(object_count,0), coalesce(object_size,0) FROM ccdb_paths LEFT OUTER JOIN ccdb_stats USING(pathid);")) {
+				logger.log(Level.WARNING, "Cannot load the folder statistics from the database");
+				return;
+			}
+
+			while (db.moveNext()) {
+				final Folder f = getOrCreate(newRoot, db.gets(1));
+
+				f.isPath = true;
+				f.add(db.getl(2), db.getl(3));
+
+				paths++;
+			}
+
+			synchronized (updateLock) {
+				for (final PendingUpdate update : pending)
+					apply(newRoot, update.path, update.deltaCount, update.deltaSize);
+
+				root = newRoot;
+			}
+
+			lastLoaded = System.currentTimeMillis();
+
+			logger.log(Level.INFO, "Loaded the statistics of " + paths + " paths in " + t.getMillis() + " ms");
+		}
+		finally {
+			synchronized (updateLock) {
+				pending = null;
+			}
+		}
+	}
+
+	private static Folder getOrCreate(final Folder start, final String path) {
+		Folder f = start;
+
+		int idx = 0;
+
+		while (idx < path.length()) {
+			int next = path.indexOf('/', idx);
+
+			if (next < 0)
+				next = path.length();
+
+			if (next > idx)
+				f = f.getOrCreateChild(path.substring(idx, next));
+
+			idx = next + 1;
+		}
+
+		return f;
+	}
+
+	/**
+	 * @param path
+	 *            folder to look up, <code>null</code> or empty string for the top level
+	 * @return the folder, or <code>null</code> if the tree is not (yet) available or the folder doesn't exist. A <code>null</code> result when {@link #isLoaded()} is
+	 *         <code>true</code> means that there are no such objects.
+	 */
+	public Folder getFolder(final String path) {
+		Folder f = root;
+
+		if (f == null || path == null)
+			return f;
+
+		int idx = 0;
+
+		while (f != null && idx < path.length()) {
+			int next = path.indexOf('/', idx);
+
+			if (next < 0)
+				next = path.length();
+
+			if (next > idx)
+				f = f.children.get(path.substring(idx, next));
+
+			idx = next + 1;
+		}
+
+		return f;
+	}
+
+	/**
+	 * @return <code>true</code> if the tree is enabled and was loaded from the database, so it can be used instead of querying <code>ccdb_stats</code>
+	 */
+	public boolean isLoaded() {
+		return root != null;
+	}
+
+	/**
+	 * Forget about a path that was removed from the database. The folder is kept as long as it has subfolders.
+	 *
+	 * @param path
+	 */
+	void removePath(final String path) {
+		Folder f = getFolder(path);
+
+		if (f == null)
+			return;
+
+		f.isPath = false;
+
+		while (f.parent != null && !f.isPath && f.children.isEmpty() && f.totalCount.get() == 0) {
+			f.parent.children.remove(f.name, f);
+			f = f.parent;
+		}
+	}
+
+	private void account(final SQLObject object, final long sign) {
+		final String path = object.getPath();
+
+		if (path == null)
+			// the path ID doesn't resolve any more
+			return;
+
+		final long deltaSize = sign * Math.max(object.size, 0);
+
+		final Folder r;
+
+		synchronized (updateLock) {
+			r = root;
+
+			if (pending != null)
+				pending.add(new PendingUpdate(path, sign, deltaSize));
+		}
+
+		if (r != null)
+			apply(r, path, sign, deltaSize);
+	}
+
+	private static void apply(final Folder start, final String path, final long deltaCount, final long deltaSize) {
+		final Folder f = getOrCreate(start, path);
+
+		f.isPath = true;
+
+		f.add(deltaCount, deltaSize);
+	}
+
+	@Override
+	public boolean isSynchronous() {
+		return true;
+	}
+
+	@Override
+	public void newObject(final SQLObject object) {
+		account(object, 1);
+	}
+
+	@Override
+	public void updatedObject(final SQLObject object) {
+		// neither the path nor the size can change
+	}
+
+	@Override
+	public void deletedObject(final SQLObject object) {
+		account(object, -1);
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		final Folder r = root;
+
+		if (r == null)
+			return;
+
+		paramNames.add("age_s");
+		paramValues.add(Double.valueOf((System.currentTimeMillis() - lastLoaded) / 1000.));
+
+		paramNames.add("objects");
+		paramValues.add(Double.valueOf(r.getTotalCount()));
+	}
+}
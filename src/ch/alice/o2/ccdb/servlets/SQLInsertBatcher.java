@@ -0,0 +1,238 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import alien.monitoring.Timing;
+import ch.alice.o2.ccdb.Options;
+import lazyj.DBFunctions;
+
+/**
+ * Group commit of new objects: concurrent {@link SQLObject#save(javax.servlet.http.HttpServletRequest)} calls queue their rows here and one of the flusher threads writes all
+ * rows that accumulated in a single multi-row INSERT. Each caller waits for, and gets back, the outcome of its own row. Should the multi-row statement fail (constraint
+ * violation of one of the rows, a path removed in the mean time etc) each row is retried individually.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>insert.batch.size</code> - maximum number of rows in one statement (default 0, ie. batching disabled; at most 1000)</li>
+ * <li><code>insert.batch.linger</code> - how long to wait for more rows once the first one arrived, in milliseconds (default 2)</li>
+ * <li><code>insert.batch.threads</code> - number of flushing threads, ie. concurrent batches (default 2)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class SQLInsertBatcher implements MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLInsertBatcher.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(SQLInsertBatcher.class.getCanonicalName());
+
+	/**
+	 * PostgreSQL cannot bind more than 65535 parameters in one statement, with 14 values per row keep a safe margin
+	 */
+	private static final int MAX_BATCH_SIZE = 1000;
+
+	private static final class PendingInsert {
+		final SQLObject object;
+		final Object[] values;
+		final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+		PendingInsert(final SQLObject object) {
+			this.object = object;
+			this.values = object.getInsertValues();
+		}
+	}
+
+	private final int batchSize = Math.min(Options.getIntOption("insert.batch.size", 0), MAX_BATCH_SIZE);
+
+	private final long linger = Options.getIntOption("insert.batch.linger", 2);
+
+	private final BlockingQueue<PendingInsert> queue = new LinkedBlockingQueue<>(10000);
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	private SQLInsertBatcher() {
+		if (isEnabled()) {
+			final int threads = Math.max(Options.getIntOption("insert.batch.threads", 2), 1);
+
+			for (int i = 0; i < threads; i++) {
+				final Thread flusher = new Thread(this::flushLoop, "SQLInsertBatcher.flusher." + i);
+				flusher.setDaemon(true);
+				flusher.start();
+			}
+
+			monitor.addMonitoring("batcher", this);
+
+			logger.log(Level.INFO, "Group commit of inserts enabled, up to " + batchSize + " rows per statement, " + linger + " ms linger time, " + threads + " threads");
+		}
+	}
+
+	private static SQLInsertBatcher instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized SQLInsertBatcher getInstance() {
+		if (instance == null)
+			instance = new SQLInsertBatcher();
+
+		return instance;
+	}
+
+	/**
+	 * @return <code>true</code> if batching was enabled in the configuration
+	 */
+	boolean isEnabled() {
+		return batchSize > 1;
+	}
+
+	/**
+	 * Queue the object for insertion and wait for the outcome
+	 *
+	 * @param object
+	 * @return <code>true</code> if the row was inserted
+	 */
+	boolean insert(final SQLObject object) {
+		if (!isEnabled())
+			return object.insert();
+
+		final PendingInsert pending = new PendingInsert(object);
+
+		if (!queue.offer(pending)) {
+			// too many waiting already, don't add even more latency
+			monitor.incrementCounter("queue_full");
+			return object.insert();
+		}
+
+		try {
+			return pending.result.get().booleanValue();
+		}
+		catch (@SuppressWarnings("unused") final Exception e) {
+			return false;
+		}
+	}
+
+	private void flushLoop() {
+		final List<PendingInsert> batch = new ArrayList<>(batchSize);
+
+		while (true) {
+			try {
+				final PendingInsert first = queue.take();
+
+				batch.add(first);
+
+				final long deadline = System.currentTimeMillis() + linger;
+
+				while (batch.size() < batchSize) {
+					if (queue.drainTo(batch, batchSize - batch.size()) > 0)
+						continue;
+
+					final long remaining = deadline - System.currentTimeMillis();
+
+					if (remaining <= 0)
+						break;
+
+					final PendingInsert next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+
+					if (next == null)
+						break;
+
+					batch.add(next);
+				}
+
+				flush(batch);
+			}
+			catch (@SuppressWarnings("unused") final InterruptedException ie) {
+				return;
+			}
+			catch (final Throwable t) {
+				logger.log(Level.WARNING, "Exception flushing a batch of " + batch.size() + " inserts", t);
+			}
+			finally {
+				for (final PendingInsert pending : batch)
+					pending.result.complete(Boolean.FALSE);
+
+				batch.clear();
+			}
+		}
+	}
+
+	private void flush(final List<PendingInsert> batch) {
+		batches.incrementAndGet();
+		rows.addAndGet(batch.size());
+
+		monitor.addMeasurement("batch_size", batch.size());
+
+		if (batch.size() == 1) {
+			final PendingInsert pending = batch.get(0);
+			pending.result.complete(Boolean.valueOf(pending.object.insert()));
+			return;
+		}
+
+		final StringBuilder q = new StringBuilder(SQLObject.INSERT_COLUMNS.length() + batch.size() * (SQLObject.INSERT_ROW.length() + 1));
+		q.append(SQLObject.INSERT_COLUMNS);
+
+		final Object[] arguments = new Object[batch.size() * batch.get(0).values.length];
+
+		int argc = 0;
+
+		for (final PendingInsert pending : batch) {
+			if (argc > 0)
+				q.append(',');
+
+			q.append(SQLObject.INSERT_ROW);
+
+			System.arraycopy(pending.values, 0, arguments, argc, pending.values.length);
+			argc += pending.values.length;
+		}
+
+		q.append(';');
+
+		boolean ok;
+
+		try (DBFunctions db = SQLObject.getDB(); Timing t = new Timing(monitor, "batch_insert_ms")) {
+			ok = db.query(q.toString(), true, arguments) && db.getUpdateCount() == batch.size();
+		}
+
+		if (ok) {
+			for (final PendingInsert pending : batch)
+				pending.result.complete(Boolean.TRUE);
+
+			return;
+		}
+
+		// one of the rows is faulty, find out which by inserting them one by one
+		fallbacks.incrementAndGet();
+
+		for (final PendingInsert pending : batch)
+			pending.result.complete(Boolean.valueOf(pending.object.insert()));
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add("batches");
+		paramValues.add(Double.valueOf(batches.get()));
+
+		paramNames.add("rows");
+		paramValues.add(Double.valueOf(rows.get()));
+
+		paramNames.add("fallbacks");
+		paramValues.add(Double.valueOf(fallbacks.get()));
+
+		paramNames.add("queue_length");
+		paramValues.add(Double.valueOf(queue.size()));
+	}
+}
@@ -0,0 +1,518 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.Options;
+import lazyj.DBFunctions;
+import lazyj.DBFunctions.DBConnection;
+import lazyj.Utils;
+
+/**
+ * Keeps the in-memory caches of several instances sharing the same database consistent with each other, through PostgreSQL's <code>LISTEN</code> / <code>NOTIFY</code>.<br>
+ * <br>
+ * Every change that {@link SQLObject} makes to the database is published as a compact event, <code>op pathId objectId</code>, where the operation is <code>N</code> (new
+ * object), <code>U</code> (updated object), <code>D</code> (deleted object, the ID is <code>-</code> for bulk removals) or <code>P</code> (the path itself was removed). The
+ * events are queued and sent by a background thread, grouping many of them in one notification, with the ID of the publishing instance on the first line so that it can ignore
+ * its own events.<br>
+ * <br>
+ * Each instance holds one dedicated connection on which it listens for the events of the others and applies them to its caches (latest objects, negative answers, path
+ * indexes, path dictionary, read replica stickiness). If the connection is lost the events sent in the mean time are lost too, so after reconnecting all caches are dropped and
+ * the dictionaries reloaded. Events that cannot be queued or sent are lost in the same way, in which case the publisher asks all the other instances to do the same with a
+ * <code>R</code> (resynchronize) event.<br>
+ * <br>
+ * The PostgreSQL JDBC driver is only needed at runtime, its notification API is accessed by reflection. <code>ch.alice.o2.ccdb.testing.InvalidationChannelCheck</code> exercises
+ * the channel against a real database.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>invalidation.enabled</code> - set to <code>false</code> to disable the channel (default <code>true</code>)</li>
+ * <li><code>invalidation.channel</code> - name of the notification channel (default <code>ccdb_invalidation</code>), all instances sharing a database must use the same
+ * one</li>
+ * <li><code>invalidation.poll</code> - how long to wait for notifications in one call, in milliseconds (default 500)</li>
+ * <li><code>invalidation.queue</code> - maximum number of events waiting to be sent (default 100000)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public final class SQLInvalidationChannel implements MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLInvalidationChannel.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(SQLInvalidationChannel.class.getCanonicalName());
+
+	/**
+	 * New object
+	 */
+	public static final char NEW = 'N';
+
+	/**
+	 * Updated object
+	 */
+	public static final char UPDATED = 'U';
+
+	/**
+	 * Deleted object(s)
+	 */
+	public static final char DELETED = 'D';
+
+	/**
+	 * Removed path
+	 */
+	public static final char PATH_REMOVED = 'P';
+
+	/**
+	 * Events were lost, all caches have to be dropped
+	 */
+	private static final char RESYNC = 'R';
+
+	/**
+	 * PostgreSQL's limit is 8000 bytes, leave some room for the instance ID
+	 */
+	private static final int MAX_PAYLOAD = 7000;
+
+	private final boolean enabled = Utils.stringToBool(Options.getOption("invalidation.enabled", null), true);
+
+	private final String channel = Options.getOption("invalidation.channel", "ccdb_invalidation").replaceAll("[^a-zA-Z0-9_]", "_");
+
+	private final int pollTimeout = Math.max(Options.getIntOption("invalidation.poll", 500), 10);
+
+	private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+
+	private final BlockingQueue<String> outgoing = new LinkedBlockingQueue<>(Math.max(Options.getIntOption("invalidation.queue", 100000), 1));
+
+	/**
+	 * Set when an event could not be queued or sent, the next notification asks the other instances to resynchronize instead
+	 */
+	private final AtomicBoolean resyncPending = new AtomicBoolean();
+
+	/**
+	 * Minimum time between two resynchronization requests, in milliseconds
+	 */
+	private static final long MIN_RESYNC_INTERVAL = 1000;
+
+	private long lastResyncRequest = 0;
+
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong notifications = new AtomicLong();
+	private final AtomicLong publishErrors = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong applied = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+	private final AtomicLong resyncs = new AtomicLong();
+	private final AtomicLong resyncRequests = new AtomicLong();
+
+	private volatile boolean listening = false;
+
+	private volatile boolean started = false;
+
+	/**
+	 * Backend process ID of the listening connection, 0 when not listening
+	 */
+	private volatile int listenerPid = 0;
+
+	private SQLInvalidationChannel() {
+		// singleton, or separate instances for testing
+	}
+
+	private static SQLInvalidationChannel instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized SQLInvalidationChannel getInstance() {
+		if (instance == null)
+			instance = new SQLInvalidationChannel();
+
+		return instance;
+	}
+
+	/**
+	 * Create another channel, with its own instance ID and connections, that applies the events it receives to the caches of this process just like the main one. Only meant to
+	 * simulate several instances in the same process.
+	 *
+	 * @return a new channel, to be {@link #start()}ed
+	 */
+	public static SQLInvalidationChannel createInstance() {
+		return new SQLInvalidationChannel();
+	}
+
+	/**
+	 * Start the publisher and listener threads, if the channel is enabled and a database is configured
+	 */
+	public synchronized void start() {
+		if (started || !enabled)
+			return;
+
+		try (DBFunctions db = SQLObject.getDB()) {
+			if (db == null || !db.isPostgreSQL())
+				return;
+		}
+
+		started = true;
+
+		if (this == instance)
+			monitor.addMonitoring("channel", this);
+
+		final Thread publisher = new Thread(this::publishLoop, "SQLInvalidationChannel.publisher");
+		publisher.setDaemon(true);
+		publisher.start();
+
+		final Thread listener = new Thread(this::listenLoop, "SQLInvalidationChannel.listener");
+		listener.setDaemon(true);
+		listener.start();
+
+		logger.log(Level.INFO, "Cache invalidation channel " + channel + " started, this instance is " + instanceId);
+	}
+
+	/**
+	 * Announce a change to the other instances
+	 *
+	 * @param op
+	 *            one of {@link #NEW}, {@link #UPDATED}, {@link #DELETED}, {@link #PATH_REMOVED}
+	 * @param pathId
+	 * @param objectId
+	 *            can be <code>null</code> for path-level events
+	 */
+	public void publish(final char op, final Integer pathId, final UUID objectId) {
+		if (!started || pathId == null)
+			return;
+
+		final String event = op + " " + pathId + " " + (objectId != null ? objectId.toString() : "-");
+
+		if (!outgoing.offer(event)) {
+			dropped.incrementAndGet();
+			resyncPending.set(true);
+		}
+	}
+
+	private void publishLoop() {
+		final List<String> batch = new ArrayList<>();
+
+		while (true) {
+			try {
+				// a pending resynchronization request has to go out even if nothing else is published
+				final String first = resyncPending.get() ? outgoing.poll(MIN_RESYNC_INTERVAL, TimeUnit.MILLISECONDS) : outgoing.take();
+
+				batch.clear();
+
+				if (first != null) {
+					batch.add(first);
+					outgoing.drainTo(batch, 10000);
+				}
+			}
+			catch (@SuppressWarnings("unused") final InterruptedException ie) {
+				return;
+			}
+
+			// a resynchronization is expensive for the receivers, while events keep being lost ask for it at most once per interval
+			if (System.currentTimeMillis() - lastResyncRequest >= MIN_RESYNC_INTERVAL && resyncPending.getAndSet(false)) {
+				// what is still queued is covered by the full resynchronization
+				outgoing.drainTo(batch);
+
+				batch.clear();
+				batch.add(String.valueOf(RESYNC));
+
+				lastResyncRequest = System.currentTimeMillis();
+				resyncRequests.incrementAndGet();
+
+				logger.log(Level.WARNING, "Cache invalidation events were lost, asking the other instances to resynchronize");
+			}
+
+			if (batch.isEmpty())
+				continue;
+
+			final StringBuilder payload = new StringBuilder(MAX_PAYLOAD + 100);
+
+			for (final String event : batch) {
+				if (payload.length() > 0 && payload.length() + event.length() + 1 > MAX_PAYLOAD) {
+					send(payload.toString());
+					payload.setLength(0);
+				}
+
+				if (payload.length() == 0)
+					payload.append(instanceId);
+
+				payload.append('\n').append(event);
+			}
+
+			if (payload.length() > 0)
+				send(payload.toString());
+
+			published.addAndGet(batch.size());
+		}
+	}
+
+	private void send(final String payload) {
+		for (int attempt = 0; attempt < 3; attempt++) {
+			try (DBFunctions db = SQLObject.getDB()) {
+				if (db.query("SELECT pg_notify(?, ?);", false, channel, payload)) {
+					notifications.incrementAndGet();
+					return;
+				}
+			}
+
+			publishErrors.incrementAndGet();
+
+			try {
+				Thread.sleep(1000);
+			}
+			catch (@SuppressWarnings("unused") final InterruptedException ie) {
+				return;
+			}
+		}
+
+		// sent together with the next event
+		resyncPending.set(true);
+
+		logger.log(Level.WARNING, "Could not publish a cache invalidation notification, other instances might serve stale content until they resynchronize");
+	}
+
+	private void listenLoop() {
+		boolean firstConnection = true;
+
+		while (true) {
+			// held for as long as the channel works, it shouldn't take one of the permits of the request threads
+			try (DBFunctions db = SQLObject.getDedicatedDB()) {
+				final DBConnection dbc = db.getConnection();
+
+				if (dbc != null)
+					try {
+						listen(dbc.getConnection(), firstConnection);
+					}
+					catch (final SQLException | ReflectiveOperationException e) {
+						if (listening)
+							logger.log(Level.WARNING, "Lost the cache invalidation channel, reconnecting", e);
+						else
+							logger.log(Level.WARNING, "Cannot listen on the cache invalidation channel", e);
+					}
+					finally {
+						listening = false;
+						listenerPid = 0;
+
+						// the session is subscribed to the channel, it cannot go back to the pool
+						dbc.close();
+					}
+			}
+
+			firstConnection = false;
+			reconnects.incrementAndGet();
+
+			try {
+				Thread.sleep(5000);
+			}
+			catch (@SuppressWarnings("unused") final InterruptedException ie) {
+				return;
+			}
+		}
+	}
+
+	private void listen(final Connection conn, final boolean firstConnection) throws SQLException, ReflectiveOperationException {
+		final Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection");
+		final Method getNotifications = pgConnectionClass.getMethod("getNotifications", int.class);
+		final Method getParameter = Class.forName("org.postgresql.PGNotification").getMethod("getParameter");
+
+		final Object pgConnection = conn.unwrap(pgConnectionClass);
+
+		conn.setAutoCommit(true);
+
+		try (Statement stat = conn.createStatement()) {
+			stat.execute("LISTEN " + channel);
+
+			try (ResultSet rs = stat.executeQuery("SELECT pg_backend_pid();")) {
+				listenerPid = rs.next() ? rs.getInt(1) : 0;
+			}
+		}
+
+		listening = true;
+
+		// events published while not listening are lost, the only safe option is to start over
+		if (!firstConnection)
+			resync("reconnecting to the invalidation channel");
+
+		while (true) {
+			final Object[] pending;
+
+			try {
+				pending = (Object[]) getNotifications.invoke(pgConnection, Integer.valueOf(pollTimeout));
+			}
+			catch (final InvocationTargetException ite) {
+				if (ite.getCause() instanceof SQLException)
+					throw (SQLException) ite.getCause();
+
+				throw ite;
+			}
+
+			if (pending != null)
+				for (final Object notification : pending)
+					apply((String) getParameter.invoke(notification));
+
+			if (conn.isClosed())
+				throw new SQLException("Connection closed");
+		}
+	}
+
+	/**
+	 * Apply the events received from another instance
+	 *
+	 * @param payload
+	 */
+	private void apply(final String payload) {
+		if (payload == null)
+			return;
+
+		final StringTokenizer lines = new StringTokenizer(payload, "\n");
+
+		if (!lines.hasMoreTokens())
+			return;
+
+		final String sender = lines.nextToken();
+
+		if (instanceId.equals(sender))
+			return;
+
+		while (lines.hasMoreTokens()) {
+			final String event = lines.nextToken();
+
+			received.incrementAndGet();
+
+			if (event.charAt(0) == RESYNC) {
+				resync("events were lost by the instance " + sender);
+				applied.incrementAndGet();
+				continue;
+			}
+
+			final StringTokenizer st = new StringTokenizer(event, " ");
+
+			if (st.countTokens() < 2)
+				continue;
+
+			final String op = st.nextToken();
+
+			final Integer pathId;
+
+			try {
+				pathId = Integer.valueOf(st.nextToken());
+			}
+			catch (@SuppressWarnings("unused") final NumberFormatException nfe) {
+				continue;
+			}
+
+			apply(op.charAt(0), pathId);
+
+			applied.incrementAndGet();
+		}
+	}
+
+	private static void apply(final char op, final Integer pathId) {
+		SQLObjectCache.getInstance().invalidate(pathId);
+
+		if (SQLPathIndex.getInstance().isEnabled())
+			SQLPathIndex.getInstance().drop(pathId);
+
+		SQLReadReplicas.getInstance().recordWrite(Collections.singletonList(pathId));
+
+		if (op == PATH_REMOVED) {
+			final String path = SQLObject.removePathID(pathId);
+
+			if (path != null)
+				SQLFolderStats.getInstance().removePath(path);
+		}
+		else if (op == NEW || op == UPDATED)
+			NegativeResultCache.getInstance().invalidate(SQLObject.getPath(pathId));
+	}
+
+	/**
+	 * Drop everything that could have been changed by the events that were missed
+	 *
+	 * @param reason
+	 *            why the events were missed, for the log
+	 */
+	private void resync(final String reason) {
+		resyncs.incrementAndGet();
+
+		SQLObjectCache.getInstance().clear();
+		NegativeResultCache.getInstance().clear();
+
+		if (SQLPathIndex.getInstance().isEnabled())
+			SQLPathIndex.getInstance().clear();
+
+		SQLObject.reloadDictionaries();
+
+		if (SQLFolderStats.getInstance().isEnabled())
+			SQLFolderStats.getInstance().load();
+
+		logger.log(Level.INFO, "Caches resynchronized after " + reason);
+	}
+
+	/**
+	 * @return the instance ID that prefixes the notifications of this channel
+	 */
+	public String getInstanceId() {
+		return instanceId;
+	}
+
+	/**
+	 * @return the backend process ID of the listening connection, <code>0</code> if the channel is not listening at the moment
+	 */
+	public int getListenerPid() {
+		return listenerPid;
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add("listening");
+		paramValues.add(Double.valueOf(listening ? 1 : 0));
+
+		paramNames.add("published");
+		paramValues.add(Double.valueOf(published.get()));
+
+		paramNames.add("notifications");
+		paramValues.add(Double.valueOf(notifications.get()));
+
+		paramNames.add("publish_errors");
+		paramValues.add(Double.valueOf(publishErrors.get()));
+
+		paramNames.add("dropped");
+		paramValues.add(Double.valueOf(dropped.get()));
+
+		paramNames.add("queued");
+		paramValues.add(Double.valueOf(outgoing.size()));
+
+		paramNames.add("received");
+		paramValues.add(Double.valueOf(received.get()));
+
+		paramNames.add("applied");
+		paramValues.add(Double.valueOf(applied.get()));
+
+		paramNames.add("reconnects");
+		paramValues.add(Double.valueOf(reconnects.get()));
+
+		paramNames.add("resyncs");
+		paramValues.add(Double.valueOf(resyncs.get()));
+
+		paramNames.add("resync_requests");
+		paramValues.add(Double.valueOf(resyncRequests.get()));
+	}
+}
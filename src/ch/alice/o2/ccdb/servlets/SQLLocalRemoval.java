@@ -54,6 +54,11 @@ public class SQLLocalRemoval implements SQLNotifier {
 		// nothing to do on update, the underlying backend doesn't need to know of metadata changes
 	}
 
+	@Override
+	public boolean removesFiles() {
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return "SQLLocalRemoval";
@@ -0,0 +1,440 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import alien.monitoring.Timing;
+import ch.alice.o2.ccdb.Options;
+import lazyj.DBFunctions;
+import lazyj.Utils;
+
+/**
+ * Translation of the flag constraints of a request into SQL predicates on the <code>metadata</code> hstore column, in a form that the database can answer from an index:
+ * <ul>
+ * <li>keys that have their own expression index (<code>ccdb_metadata_&lt;metadataId&gt;_idx</code> on <code>(pathId, (metadata -&gt; 'metadataId'))</code>) are compared with the
+ * key inlined in the statement, otherwise the index cannot be matched; these predicates come first</li>
+ * <li>all the other keys are folded in a single <code>metadata @&gt; ?::hstore</code> containment test, that the GIN index on the column can answer</li>
+ * </ul>
+ * The predicates are always generated in the order of the metadata IDs. PostgreSQL decides by itself in which order to evaluate them, while a stable statement text lets the
+ * prepared statements be reused.<br>
+ * <br>
+ * No index is created unless configured to. The indexes are created in the background with <code>CREATE INDEX CONCURRENTLY</code>, so that neither the server startup nor
+ * the uploads are blocked while they are built. A build that was interrupted leaves an invalid index behind, that is dropped and built again. The automatic indexing only
+ * considers the keys that select few rows, as estimated periodically from a sample of the table.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>metadata.containment</code> - set to <code>false</code> to keep one <code>metadata -&gt; ? = ?</code> predicate per key instead of the containment test (default
+ * <code>true</code>)</li>
+ * <li><code>metadata.index.gin</code> - create the GIN index on the metadata column (default <code>false</code>)</li>
+ * <li><code>metadata.index.keys</code> - comma separated list of metadata keys to create expression indexes for (default none)</li>
+ * <li><code>metadata.index.auto</code> - create an expression index for any key once it was used in that many queries (default 0, disabled)</li>
+ * <li><code>metadata.index.auto.selectivity</code> - the automatic indexes are only created for keys whose equality test is estimated to select at most this
+ * percentage of the rows (default 1)</li>
+ * <li><code>metadata.stats.refresh</code> - interval between two selectivity estimations, in seconds (default 3600)</li>
+ * <li><code>metadata.stats.sample</code> - percentage of the table pages to sample for the estimation (default 1)</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+class SQLMetadataPlanner implements MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLMetadataPlanner.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(SQLMetadataPlanner.class.getCanonicalName());
+
+	private final boolean containment = Utils.stringToBool(Options.getOption("metadata.containment", null), true);
+
+	private final boolean ginIndex = Utils.stringToBool(Options.getOption("metadata.index.gin", null), false);
+
+	private final String indexedKeysOption = Options.getOption("metadata.index.keys", null);
+
+	private final long autoIndexThreshold = Options.getIntOption("metadata.index.auto", 0);
+
+	private final double autoIndexSelectivity = Math.min(Math.max(Options.getIntOption("metadata.index.auto.selectivity", 1), 0), 100) / 100.;
+
+	private final long statsRefreshInterval = Math.max(Options.getIntOption("metadata.stats.refresh", 3600), 60) * 1000L;
+
+	private final double statsSample = Math.min(Math.max(Options.getIntOption("metadata.stats.sample", 1), 1), 100);
+
+	/**
+	 * Translation of a set of constraints
+	 */
+	static final class Plan {
+		/**
+		 * SQL text to append to the WHERE clause
+		 */
+		final String predicates;
+
+		/**
+		 * Arguments of the above, in order
+		 */
+		final List<Object> arguments;
+
+		Plan(final String predicates, final List<Object> arguments) {
+			this.predicates = predicates;
+			this.arguments = arguments;
+		}
+	}
+
+	private static final Plan NO_CONSTRAINTS = new Plan("", Collections.emptyList());
+
+	/**
+	 * Usage and estimated selectivity of one metadata key
+	 */
+	private static final class KeyStats {
+		final AtomicLong used = new AtomicLong();
+
+		/**
+		 * Estimated fraction of the rows that match an equality test on this key, 1 if unknown
+		 */
+		volatile double selectivity = 1;
+
+		volatile boolean indexQueued = false;
+	}
+
+	private final Map<Integer, KeyStats> keyStats = new ConcurrentHashMap<>();
+
+	/**
+	 * Metadata IDs that have a usable expression index
+	 */
+	private final Set<Integer> indexedKeys = ConcurrentHashMap.newKeySet();
+
+	private final BlockingQueue<Integer> indexQueue = new LinkedBlockingQueue<>();
+
+	private final AtomicLong plans = new AtomicLong();
+	private final AtomicLong indexedPredicates = new AtomicLong();
+	private final AtomicLong containmentPredicates = new AtomicLong();
+
+	private volatile long lastStatsRefresh = 0;
+
+	private SQLMetadataPlanner() {
+		monitor.addMonitoring("planner", this);
+	}
+
+	private static SQLMetadataPlanner instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized SQLMetadataPlanner getInstance() {
+		if (instance == null)
+			instance = new SQLMetadataPlanner();
+
+		return instance;
+	}
+
+	private KeyStats getStats(final Integer metadataId) {
+		return keyStats.computeIfAbsent(metadataId, k -> new KeyStats());
+	}
+
+	/**
+	 * Build the predicates for the given flag constraints
+	 *
+	 * @param flagConstraints
+	 * @param skipUnknownFlags
+	 *            if <code>true</code> then constraints on unknown metadata keys are ignored, if <code>false</code> then <code>null</code> is returned for them since no object can
+	 *            match
+	 * @return the plan, or <code>null</code> if nothing can match
+	 */
+	Plan plan(final Map<String, String> flagConstraints, final boolean skipUnknownFlags) {
+		if (flagConstraints == null || flagConstraints.isEmpty())
+			return NO_CONSTRAINTS;
+
+		final Map<Integer, String> separate = new TreeMap<>();
+		final Map<Integer, String> contained = new TreeMap<>();
+
+		for (final Map.Entry<String, String> constraint : flagConstraints.entrySet()) {
+			final Integer metadataId = SQLObject.getMetadataID(constraint.getKey(), false);
+
+			if (metadataId == null) {
+				if (skipUnknownFlags)
+					continue;
+
+				return null;
+			}
+
+			final KeyStats stats = getStats(metadataId);
+
+			final long used = stats.used.incrementAndGet();
+
+			final boolean indexed = indexedKeys.contains(metadataId);
+
+			if (!indexed && autoIndexThreshold > 0 && used >= autoIndexThreshold && stats.selectivity <= autoIndexSelectivity && !stats.indexQueued) {
+				stats.indexQueued = true;
+				indexQueue.offer(metadataId);
+			}
+
+			if (indexed || !containment)
+				separate.put(metadataId, constraint.getValue());
+			else
+				contained.put(metadataId, constraint.getValue());
+		}
+
+		if (separate.isEmpty() && contained.isEmpty())
+			return NO_CONSTRAINTS;
+
+		plans.incrementAndGet();
+
+		final StringBuilder predicates = new StringBuilder();
+		final List<Object> arguments = new ArrayList<>(separate.size() * 2 + 1);
+
+		for (final Map.Entry<Integer, String> c : separate.entrySet()) {
+			if (indexedKeys.contains(c.getKey())) {
+				predicates.append(" AND metadata -> '").append(c.getKey()).append("' = ?");
+				indexedPredicates.incrementAndGet();
+			}
+			else {
+				predicates.append(" AND metadata -> ? = ?");
+				arguments.add(c.getKey().toString());
+			}
+
+			arguments.add(c.getValue());
+		}
+
+		if (!contained.isEmpty()) {
+			predicates.append(" AND metadata @> ?::hstore");
+			arguments.add(toHstore(contained));
+			containmentPredicates.incrementAndGet();
+		}
+
+		return new Plan(predicates.toString(), arguments);
+	}
+
+	/**
+	 * @param values
+	 * @return the text representation of an hstore with these keys and values
+	 */
+	static String toHstore(final Map<Integer, String> values) {
+		final StringBuilder sb = new StringBuilder();
+
+		for (final Map.Entry<Integer, String> entry : values.entrySet()) {
+			if (sb.length() > 0)
+				sb.append(',');
+
+			sb.append('"').append(entry.getKey()).append("\"=>\"");
+
+			final String value = entry.getValue();
+
+			for (int i = 0; i < value.length(); i++) {
+				final char c = value.charAt(i);
+
+				if (c == '"' || c == '\\')
+					sb.append('\\');
+
+				sb.append(c);
+			}
+
+			sb.append('"');
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Discover the existing indexes and start the background thread that creates the missing ones and keeps the selectivity estimations up to date. To be called once the
+	 * database structure and the dictionaries are in place.
+	 */
+	void start() {
+		discoverIndexes();
+
+		if (indexedKeysOption != null) {
+			final StringTokenizer st = new StringTokenizer(indexedKeysOption, ", \t");
+
+			while (st.hasMoreTokens()) {
+				final Integer metadataId = SQLObject.getMetadataID(st.nextToken(), false);
+
+				// keys that were never used will be indexed by the automatic mechanism, if enabled
+				if (metadataId != null && !indexedKeys.contains(metadataId)) {
+					getStats(metadataId).indexQueued = true;
+					indexQueue.offer(metadataId);
+				}
+			}
+		}
+
+		final Thread worker = new Thread("SQLMetadataPlanner.maintenance") {
+			@Override
+			public void run() {
+				if (ginIndex)
+					createIndex("ccdb_metadata_gin_idx", "ccdb USING gin(metadata)");
+
+				refreshStatistics();
+
+				while (true) {
+					try {
+						final long wait = lastStatsRefresh + statsRefreshInterval - System.currentTimeMillis();
+
+						final Integer metadataId = wait > 0 ? indexQueue.poll(wait, TimeUnit.MILLISECONDS) : null;
+
+						if (metadataId != null) {
+							if (!indexedKeys.contains(metadataId) && createIndex("ccdb_metadata_" + metadataId + "_idx", "ccdb (pathId, (metadata -> '" + metadataId + "'))"))
+								indexedKeys.add(metadataId);
+						}
+						else
+							refreshStatistics();
+					}
+					catch (@SuppressWarnings("unused") final InterruptedException ie) {
+						return;
+					}
+				}
+			}
+		};
+
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	private void discoverIndexes() {
+		try (DBFunctions db = SQLObject.getDB()) {
+			if (db == null || !db.query("SELECT c.relname FROM pg_index i INNER JOIN pg_class c ON c.oid=i.indexrelid WHERE i.indrelid='ccdb'::regclass AND i.indisvalid AND c.relname ~ '^ccdb_metadata_[0-9]+_idx$';", true))
+				return;
+
+			while (db.moveNext()) {
+				final String name = db.gets(1);
+
+				try {
+					indexedKeys.add(Integer.valueOf(name.substring("ccdb_metadata_".length(), name.length() - "_idx".length())));
+				}
+				catch (@SuppressWarnings("unused") final NumberFormatException nfe) {
+					// cannot happen given the regular expression above
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create an index if it doesn't exist yet. <code>IF NOT EXISTS</code> also accepts the invalid index that an interrupted concurrent build leaves behind, so the result is
+	 * checked and such an index is dropped and built again.
+	 *
+	 * @param name
+	 *            index name
+	 * @param definition
+	 *            what follows the <code>ON</code> keyword of the statement
+	 * @return <code>true</code> if a valid index exists at the end
+	 */
+	private static boolean createIndex(final String name, final String definition) {
+		final String statement = "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + definition + ";";
+
+		try (DBFunctions db = SQLObject.getDB(); Timing t = new Timing(monitor, "index_creation_ms")) {
+			if (db == null)
+				return false;
+
+			for (int attempt = 0; attempt < 2; attempt++) {
+				logger.log(Level.INFO, "Executing: " + statement);
+
+				if (!db.query(statement, true)) {
+					logger.log(Level.WARNING, "Could not execute: " + statement);
+					return false;
+				}
+
+				if (!db.query("SELECT indisvalid FROM pg_index WHERE indexrelid=to_regclass(?);", true, name) || !db.moveNext()) {
+					logger.log(Level.WARNING, "Could not find the index " + name + " after creating it");
+					return false;
+				}
+
+				if (db.getb(1, false)) {
+					logger.log(Level.INFO, "Index " + name + " is available after " + t.getSeconds() + "s");
+					return true;
+				}
+
+				logger.log(Level.WARNING, "Index " + name + " is invalid, probably left over by an interrupted build, dropping it");
+
+				if (!db.query("DROP INDEX CONCURRENTLY IF EXISTS " + name + ";", true)) {
+					logger.log(Level.WARNING, "Could not drop the invalid index " + name);
+					return false;
+				}
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Estimate, from a sample of the table, the fraction of rows that an equality constraint on each metadata key selects: the fraction of rows having the key divided by its number
+	 * of distinct values
+	 */
+	private void refreshStatistics() {
+		lastStatsRefresh = System.currentTimeMillis();
+
+		try (DBFunctions db = SQLObject.getDB(); Timing t = new Timing(monitor, "stats_refresh_ms")) {
+			if (db == null)
+				return;
+
+			final String sample = "ccdb TABLESAMPLE SYSTEM (" + statsSample + ")";
+
+			if (!db.query("SELECT count(1) FROM " + sample + ";", true) || !db.moveNext())
+				return;
+
+			final long rows = db.getl(1);
+
+			if (rows <= 0)
+				return;
+
+			if (!db.query("SELECT key, count(1), count(DISTINCT value) FROM (SELECT (each(metadata)).* FROM " + sample + ") s GROUP BY key;", true))
+				return;
+
+			while (db.moveNext()) {
+				final Integer metadataId;
+
+				try {
+					metadataId = Integer.valueOf(db.gets(1));
+				}
+				catch (@SuppressWarnings("unused") final NumberFormatException nfe) {
+					continue;
+				}
+
+				final long withKey = db.getl(2);
+				final long distinct = Math.max(db.getl(3), 1);
+
+				getStats(metadataId).selectivity = (double) withKey / rows / distinct;
+			}
+		}
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add("plans");
+		paramValues.add(Double.valueOf(plans.get()));
+
+		paramNames.add("indexed_predicates");
+		paramValues.add(Double.valueOf(indexedPredicates.get()));
+
+		paramNames.add("containment_predicates");
+		paramValues.add(Double.valueOf(containmentPredicates.get()));
+
+		paramNames.add("indexed_keys");
+		paramValues.add(Double.valueOf(indexedKeys.size()));
+
+		paramNames.add("index_queue");
+		paramValues.add(Double.valueOf(indexQueue.size()));
+
+		for (final Map.Entry<Integer, KeyStats> entry : keyStats.entrySet()) {
+			final String key = SQLObject.getMetadataString(entry.getKey());
+
+			if (key == null)
+				continue;
+
+			paramNames.add(key + "_used");
+			paramValues.add(Double.valueOf(entry.getValue().used.get()));
+
+			paramNames.add(key + "_selectivity");
+			paramValues.add(Double.valueOf(entry.getValue().selectivity));
+		}
+	}
+}
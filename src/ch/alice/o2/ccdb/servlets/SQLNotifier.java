@@ -25,4 +25,20 @@ public interface SQLNotifier {
 	 * @param object
 	 */
 	public void deletedObject(SQLObject object);
+
+	/**
+	 * @return <code>true</code> if the callbacks are cheap and have to be executed in the request thread, before the client receives the reply (for example to keep in-memory
+	 *         caches consistent with the database), <code>false</code> (default) to have them called asynchronously
+	 */
+	public default boolean isSynchronous() {
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if {@link #deletedObject(SQLObject)} removes the physical copies of the object. Bulk removals call it directly from the
+	 *         <code>removal.threads</code> workers of {@link AsyncPhysicalRemovalThread}, in parallel, instead of going through the single queue of the notifier.
+	 */
+	public default boolean removesFiles() {
+		return false;
+	}
 }
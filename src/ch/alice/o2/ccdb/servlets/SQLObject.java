@@ -2,7 +2,9 @@ package ch.alice.o2.ccdb.servlets;
 
 import java.io.File;
 import java.net.InetAddress;
-import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -11,12 +13,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,8 +33,6 @@ import alien.catalogue.access.XrootDEnvelope;
 import alien.monitoring.Monitor;
 import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
-import alien.se.SE;
-import alien.se.SEUtils;
 import alien.shell.commands.JAliEnCOMMander;
 import alien.user.AliEnPrincipal;
 import alien.user.UserFactory;
@@ -39,6 +40,7 @@ import ch.alice.o2.ccdb.Options;
 import ch.alice.o2.ccdb.RequestParser;
 import ch.alice.o2.ccdb.UUIDTools;
 import lazyj.DBFunctions;
+import lazyj.DBFunctions.DBConnection;
 import lazyj.ExtProperties;
 import lazyj.Format;
 import lazyj.StringFactory;
@@ -57,14 +59,87 @@ public class SQLObject implements Comparable<SQLObject> {
 
 	private static Logger logger = Logger.getLogger(SQLObject.class.getCanonicalName());
 
+	private static final SQLConnectionPool pool = new SQLConnectionPool(config);
+
+	static {
+		monitor.addMonitoring("db_pool", pool);
+		monitor.addMonitoring("statements", SQLQueryShapes.getInstance());
+	}
+
 	/**
 	 * @return the database connection
 	 */
 	public static final DBFunctions getDB() {
-		if (config.gets("driver", null) != null)
-			return new DBFunctions(config);
+		return pool.getDB();
+	}
 
-		return null;
+	/**
+	 * @return a database connection that doesn't count against the concurrency limit, for background threads that hold it for a long time
+	 * @see ConcurrencyLimits
+	 */
+	static final DBFunctions getDedicatedDB() {
+		return pool.getDedicatedDB();
+	}
+
+	/**
+	 * @return a database connection for queries that can be answered by a read-only replica, falling back to the primary server if no replica is available
+	 * @see SQLReadReplicas
+	 */
+	static final DBFunctions getReadDB() {
+		final SQLReadReplicas.Endpoint replica = SQLReadReplicas.getInstance().select(null);
+
+		return replica != null ? replica.getDB() : getDB();
+	}
+
+	/**
+	 * Execute a read-only query on a replica if possible. If the replica fails to execute it the query is repeated on the primary server.
+	 *
+	 * @param pathIds
+	 *            paths that the query touches, recently modified ones are only queried on the primary
+	 * @param q
+	 *            query
+	 * @param arguments
+	 *            query arguments
+	 * @return the database accessor positioned before the first row of the result, to be closed by the caller
+	 */
+	private static final DBFunctions readQuery(final Collection<Integer> pathIds, final String q, final Object... arguments) {
+		final SQLReadReplicas.Endpoint replica = SQLReadReplicas.getInstance().select(pathIds);
+
+		if (replica != null) {
+			final DBFunctions db = replica.getDB();
+
+			if (db.query(q, true, arguments))
+				return db;
+
+			replica.failed();
+			db.close();
+		}
+
+		return primaryQuery(q, arguments);
+	}
+
+	/**
+	 * Execute a query on the primary server
+	 *
+	 * @param q
+	 *            query
+	 * @param arguments
+	 *            query arguments
+	 * @return the database accessor positioned before the first row of the result, to be closed by the caller
+	 */
+	private static final DBFunctions primaryQuery(final String q, final Object... arguments) {
+		final DBFunctions db = getDB();
+
+		db.query(q, false, arguments);
+
+		return db;
+	}
+
+	/**
+	 * @return the database configuration
+	 */
+	static ExtProperties getConfig() {
+		return config;
 	}
 
 	/**
@@ -100,12 +175,12 @@ public class SQLObject implements Comparable<SQLObject> {
 	/**
 	 * Metadata fields set for this object
 	 */
-	public Map<Integer, String> metadata = new HashMap<>();
+	public Map<Integer, String> metadata;
 
 	/**
 	 * Servers holding a replica of this object
 	 */
-	public Set<Integer> replicas = new TreeSet<>();
+	public Set<Integer> replicas;
 
 	/**
 	 * Size of the object
@@ -158,6 +233,9 @@ public class SQLObject implements Comparable<SQLObject> {
 		assert path != null && path.length() > 0;
 
 		this.path = path;
+
+		metadata = new CompactMetadata();
+		replicas = new CompactReplicas();
 	}
 
 	/**
@@ -194,6 +272,9 @@ public class SQLObject implements Comparable<SQLObject> {
 		assert path != null && path.length() > 0;
 
 		this.path = path;
+
+		metadata = new CompactMetadata();
+		replicas = new CompactReplicas();
 	}
 
 	/**
@@ -207,41 +288,132 @@ public class SQLObject implements Comparable<SQLObject> {
 		validFrom = db.getl("validfrom");
 		validUntil = db.getl("validuntil"); // read from the tsrange structure
 		size = db.getl("size");
-		md5 = Format.replace(db.gets("md5"), "-", "");
+		md5 = stripDashes(db.gets("md5"));
 		initialValidity = db.getl("initialvalidity");
 		fileName = db.gets("filename");
 		contentType = getContentType(Integer.valueOf(db.geti("contenttype")));
 		uploadedFrom = db.gets("uploadedfrom");
 
-		pathId = Integer.valueOf(db.geti("pathId")); // should convert back to the path
+		pathId = canonicalPathId(db.geti("pathId")); // should convert back to the path
 
-		final Map<?, ?> md = (Map<?, ?>) db.getObject("metadata");
+		// decoded only when (and if) they are needed
+		metadata = new CompactMetadata(db.gets("metadata", null));
+		replicas = new CompactReplicas(db.gets("replicas", null));
 
-		if (md != null && md.size() > 0)
-			for (final Map.Entry<?, ?> entry : md.entrySet())
-				metadata.put(Integer.valueOf(entry.getKey().toString()), entry.getValue().toString());
+		existing = true;
+	}
 
-		final Array replicasObject = (Array) db.getObject("replicas");
+	/**
+	 * @param rs
+	 *            JDBC result set positioned on the row to load the fields from, for when the rows are streamed with a cursor instead of going through {@link DBFunctions}
+	 * @throws SQLException
+	 */
+	SQLObject(final ResultSet rs) throws SQLException {
+		this(rs, SQLProjection.ALL);
+	}
 
-		if (replicasObject != null)
-			try {
-				final Integer[] r = (Integer[]) replicasObject.getArray();
+	/**
+	 * @param rs
+	 *            JDBC result set positioned on the row to load the fields from
+	 * @param columns
+	 *            the {@link SQLProjection} column groups that the query has selected, the fields backed by the other columns keep their default values
+	 * @throws SQLException
+	 */
+	SQLObject(final ResultSet rs, final int columns) throws SQLException {
+		id = (UUID) rs.getObject("id");
 
-				Collections.addAll(replicas, r);
-			}
-			catch (@SuppressWarnings("unused") final SQLException e) {
-				// ignore
-			}
+		createTime = rs.getLong("createtime");
+
+		if ((columns & SQLProjection.VALIDITY) != 0) {
+			validFrom = rs.getLong("validfrom");
+			validUntil = rs.getLong("validuntil");
+		}
+
+		if ((columns & SQLProjection.SIZE) != 0)
+			size = rs.getLong("size");
+
+		if ((columns & SQLProjection.MD5) != 0)
+			md5 = stripDashes(rs.getString("md5"));
+
+		if ((columns & SQLProjection.INITIAL_VALIDITY) != 0)
+			initialValidity = rs.getLong("initialvalidity");
+
+		if ((columns & SQLProjection.FILE_NAME) != 0)
+			fileName = rs.getString("filename");
+
+		if ((columns & SQLProjection.CONTENT_TYPE) != 0)
+			contentType = getContentType(Integer.valueOf(rs.getInt("contenttype")));
+
+		if ((columns & SQLProjection.UPLOADED_FROM) != 0)
+			uploadedFrom = rs.getString("uploadedfrom");
+
+		pathId = canonicalPathId(rs.getInt("pathId"));
+
+		metadata = (columns & SQLProjection.METADATA) != 0 ? new CompactMetadata(rs.getString("metadata")) : new CompactMetadata();
+		replicas = (columns & SQLProjection.REPLICAS) != 0 ? new CompactReplicas(rs.getString("replicas")) : new CompactReplicas();
 
 		existing = true;
 	}
 
+	/**
+	 * Path IDs shared by all the objects of the same path, instead of one <code>Integer</code> for each loaded row. Keyed by value since the IDs are hashes spread over the
+	 * entire positive range, the size is bounded by the number of paths.
+	 */
+	private static final Map<Integer, Integer> pathIds = new ConcurrentHashMap<>();
+
+	/**
+	 * @param id
+	 * @return the canonical boxed value of this path ID
+	 */
+	static Integer canonicalPathId(final int id) {
+		final Integer key = Integer.valueOf(id);
+
+		final Integer existing = pathIds.putIfAbsent(key, key);
+
+		return existing != null ? existing : key;
+	}
+
+	/**
+	 * @param md5
+	 *            checksum as stored in the database (UUID-formatted)
+	 * @return the hex representation, without dashes
+	 */
+	private static String stripDashes(final String md5) {
+		if (md5 == null || md5.indexOf('-') < 0)
+			return md5;
+
+		final char[] chars = new char[md5.length()];
+		int len = 0;
+
+		for (int i = 0; i < md5.length(); i++) {
+			final char c = md5.charAt(i);
+
+			if (c != '-')
+				chars[len++] = c;
+		}
+
+		return new String(chars, 0, len);
+	}
+
 	/**
 	 * @param request
 	 *            request details, to decorate the metadata with
 	 * @return <code>true</code> if the object was successfully saved
 	 */
 	public boolean save(final HttpServletRequest request) {
+		return save(request, SQLInsertBatcher.getInstance().isEnabled());
+	}
+
+	/**
+	 * Write the object in the database (insert new objects or update existing ones)
+	 *
+	 * @param request
+	 *            request details, to decorate the metadata with
+	 * @param batched
+	 *            for new objects, whether to group the insert with the other concurrent ones through {@link SQLInsertBatcher}
+	 * @return <code>true</code> if the object was successfully saved
+	 */
+	public boolean save(final HttpServletRequest request, final boolean batched) {
 		if (!existing || tainted) {
 			if (request != null) {
 				if (existing)
@@ -256,63 +428,36 @@ public class SQLObject implements Comparable<SQLObject> {
 			if (pathId == null)
 				pathId = getPathID(path, true);
 
-			try (DBFunctions db = getDB()) {
-				final StringBuilder sb = new StringBuilder();
-
-				String replicaArray = null;
+			lastModified = System.currentTimeMillis();
 
-				if (replicas.size() > 0) {
-					sb.setLength(0);
-					sb.append("{");
-
-					for (final Integer replica : replicas) {
-						if (sb.length() > 2)
-							sb.append(',');
-						sb.append(replica);
-					}
-
-					sb.append('}');
-
-					replicaArray = sb.toString();
-				}
-
-				lastModified = System.currentTimeMillis();
-
-				if (existing) {
+			if (existing) {
+				try (DBFunctions db = getDB()) {
 					final boolean ok = db.query(
 							"UPDATE ccdb SET validity=tsrange(to_timestamp(?) AT TIME ZONE 'UTC', to_timestamp(?) AT TIME ZONE 'UTC'), replicas=?::int[], contenttype=?, metadata=?::hstore, lastmodified=? WHERE id=?;",
-							false, Double.valueOf(validFrom / 1000.), Double.valueOf(validUntil / 1000.), replicaArray, getContentTypeID(contentType, true), metadata, Long.valueOf(lastModified), id);
+							false, Double.valueOf(validFrom / 1000.), Double.valueOf(validUntil / 1000.), getReplicaArray(), getContentTypeID(contentType, true), metadata, Long.valueOf(lastModified),
+							id);
 
 					if (ok) {
 						existing = true;
 						tainted = false;
+						SQLInvalidationChannel.getInstance().publish(SQLInvalidationChannel.UPDATED, pathId, id);
 						return true;
 					}
-
-					System.err.println("Update query failed for id=" + id);
 				}
-				else {
-					initialValidity = validUntil;
-
-					for (int attempt = 0; attempt < 2; attempt++) {
-						if (attempt > 0) {
-							// if another instance has cleaned up this path
-							removePathID(pathId);
-							pathId = getPathID(path, true);
-						}
 
-						if (db.query(
-								"INSERT INTO ccdb (id, pathid, validity, createTime, replicas, size, md5, initialvalidity, filename, contenttype, uploadedfrom, metadata, lastmodified) VALUES (?, ?, tsrange(to_timestamp(?) AT TIME ZONE 'UTC', to_timestamp(?) AT TIME ZONE 'UTC'), ?, ?::int[], ?, ?::uuid, ?, ?, ?, ?::inet, ?, ?);",
-								false, id, pathId, Double.valueOf(validFrom / 1000.), Double.valueOf(validUntil / 1000.), Long.valueOf(createTime), replicaArray, Long.valueOf(size), md5,
-								Long.valueOf(initialValidity), fileName, getContentTypeID(contentType, true), uploadedFrom, metadata, Long.valueOf(lastModified))) {
-							existing = true;
-							tainted = false;
-							return true;
-						}
-					}
+				System.err.println("Update query failed for id=" + id);
+			}
+			else {
+				initialValidity = validUntil;
 
-					System.err.println("Insert query failed for id=" + id);
+				if (batched ? SQLInsertBatcher.getInstance().insert(this) : insert()) {
+					existing = true;
+					tainted = false;
+					SQLInvalidationChannel.getInstance().publish(SQLInvalidationChannel.NEW, pathId, id);
+					return true;
 				}
+
+				System.err.println("Insert query failed for id=" + id);
 			}
 		}
 
@@ -320,6 +465,65 @@ public class SQLObject implements Comparable<SQLObject> {
 
 	}
 
+	private String getReplicaArray() {
+		if (replicas.size() == 0)
+			return null;
+
+		final StringBuilder sb = new StringBuilder();
+
+		sb.append("{");
+
+		for (final Integer replica : replicas) {
+			if (sb.length() > 2)
+				sb.append(',');
+			sb.append(replica);
+		}
+
+		sb.append('}');
+
+		return sb.toString();
+	}
+
+	/**
+	 * Column list of the INSERT statement, matching the values returned by {@link #getInsertValues()}
+	 */
+	static final String INSERT_COLUMNS = "INSERT INTO ccdb (id, pathid, validity, createTime, replicas, size, md5, initialvalidity, filename, contenttype, uploadedfrom, metadata, lastmodified) VALUES ";
+
+	/**
+	 * Placeholders for one row of values, matching {@link #getInsertValues()}
+	 */
+	static final String INSERT_ROW = "(?, ?, tsrange(to_timestamp(?) AT TIME ZONE 'UTC', to_timestamp(?) AT TIME ZONE 'UTC'), ?, ?::int[], ?, ?::uuid, ?, ?, ?, ?::inet, ?, ?)";
+
+	/**
+	 * @return the values to bind to {@link #INSERT_ROW}
+	 */
+	Object[] getInsertValues() {
+		return new Object[] { id, pathId, Double.valueOf(validFrom / 1000.), Double.valueOf(validUntil / 1000.), Long.valueOf(createTime), getReplicaArray(), Long.valueOf(size), md5,
+				Long.valueOf(initialValidity), fileName, getContentTypeID(contentType, true), uploadedFrom, metadata, Long.valueOf(lastModified) };
+	}
+
+	/**
+	 * Insert this object in the database with a single-row statement
+	 *
+	 * @return <code>true</code> if the row was inserted
+	 */
+	boolean insert() {
+		try (DBFunctions db = getDB()) {
+			for (int attempt = 0; attempt < 2; attempt++) {
+				if (attempt > 0) {
+					// if another instance has cleaned up this path
+					removePathID(pathId);
+					pathId = getPathID(path, true);
+				}
+
+				if (db.query(INSERT_COLUMNS + INSERT_ROW + ";", false, getInsertValues()))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
 	/**
 	 * @return last modification timestamp
 	 */
@@ -371,66 +575,13 @@ public class SQLObject implements Comparable<SQLObject> {
 	 * @return full URL
 	 */
 	public List<String> getAddress(final Integer replica, final String ipAddress, final boolean resolveAliEn) {
-		final String configKey = "server." + replica + ".urlPattern";
+		final ReplicaLocations.Template template = ReplicaLocations.getInstance().getTemplate(replica);
 
-		String pattern = Options.getOption(configKey, config.gets(configKey, null));
-
-		if (pattern == null) {
-			if (replica.intValue() == 0) {
-				final String relativeURLKey = "server.0.relativeURL";
-
-				if (Utils.stringToBool(Options.getOption(relativeURLKey, null), config.getb(relativeURLKey, true))) {
-					// It's easier for CcdbApi to follow redirects if this is disabled, having the full URL in the Location header
-					pattern = "/download/UUID";
-				}
-				else {
-					String hostname;
-
-					try {
-						hostname = InetAddress.getLocalHost().getCanonicalHostName();
-					}
-					catch (@SuppressWarnings("unused") final Throwable t) {
-						hostname = "localhost";
-					}
+		final String pattern = template.render(this);
 
-					pattern = "http://" + hostname + ":" + Options.getIntOption("tomcat.port", 8080) + "/download/UUID";
-				}
-			}
-			else {
-				if (replica.intValue() > 0) {
-					final SE se = SEUtils.getSE(replica.intValue());
-
-					if (se != null) {
-						pattern = se.generateProtocol();
-						if (!pattern.endsWith("/"))
-							pattern += "/";
-
-						pattern += "HASH.ccdb";
-					}
-				}
-
-				if (pattern == null)
-					pattern = "alien:///alice/data/CCDB/PATHHASH";
-			}
-
-			config.set("server." + replica + ".urlPattern", pattern);
-		}
-
-		if (pattern.contains("UUID"))
-			pattern = Format.replace(pattern, "UUID", id.toString());
-
-		if (pattern.contains("FOLDER"))
-			pattern = Format.replace(pattern, "FOLDER", getFolder());
-
-		if (pattern.contains("PATH"))
-			pattern = Format.replace(pattern, "PATH", getPath());
-
-		if (pattern.contains("HASH"))
-			pattern = Format.replace(pattern, "HASH", SE.generatePath(id.toString()));
-
-		if (pattern.startsWith("alien://")) {
+		if (template.isAliEn()) {
 			if (!resolveAliEn)
-				return Arrays.asList(pattern);
+				return Collections.singletonList(pattern);
 
 			final JAliEnCOMMander commander = new JAliEnCOMMander(null, null, AsyncResolver.getSite(ipAddress, true), null);
 
@@ -471,7 +622,7 @@ public class SQLObject implements Comparable<SQLObject> {
 			}
 		}
 
-		return Arrays.asList(pattern);
+		return Collections.singletonList(pattern);
 	}
 
 	/**
@@ -485,19 +636,43 @@ public class SQLObject implements Comparable<SQLObject> {
 	 * @return the list of URLs where the content of this object can be retrieved from
 	 */
 	public List<String> getAddresses(final String ipAddress, final boolean httpOnly) {
-		final List<String> ret = new ArrayList<>();
+		final Integer[] ordered = replicas.toArray(new Integer[0]);
 
-		for (final Integer replica : replicas) {
-			final List<String> toAdd = (SQLBacked.isLocalCopyFirst() && replica.intValue() == 0) ? new LinkedList<>() : null;
+		if (ordered.length > 1) {
+			final ReplicaLocations locations = ReplicaLocations.getInstance();
 
-			for (final String addr : getAddress(replica, ipAddress, httpOnly))
-				if (!httpOnly || (!addr.startsWith("alien://") && !addr.startsWith("root://")))
-					(toAdd != null ? toAdd : ret).add(addr);
+			final String clientSite = AsyncResolver.getSite(ipAddress, true);
+
+			final int[] ranks = new int[ordered.length];
+
+			for (int i = 0; i < ordered.length; i++)
+				ranks[i] = locations.getRank(ordered[i], clientSite);
 
-			if (toAdd != null)
-				ret.addAll(0, toAdd);
+			// stable insertion sort, the replicas of the same rank stay in increasing order of their IDs
+			for (int i = 1; i < ordered.length; i++) {
+				final Integer replica = ordered[i];
+				final int rank = ranks[i];
+
+				int j = i - 1;
+
+				while (j >= 0 && ranks[j] > rank) {
+					ordered[j + 1] = ordered[j];
+					ranks[j + 1] = ranks[j];
+					j--;
+				}
+
+				ordered[j + 1] = replica;
+				ranks[j + 1] = rank;
+			}
 		}
 
+		final List<String> ret = new ArrayList<>(ordered.length);
+
+		for (final Integer replica : ordered)
+			for (final String addr : getAddress(replica, ipAddress, httpOnly))
+				if (!httpOnly || (!addr.startsWith("alien://") && !addr.startsWith("root://")))
+					ret.add(addr);
+
 		return ret;
 	}
 
@@ -620,6 +795,31 @@ public class SQLObject implements Comparable<SQLObject> {
 		return false;
 	}
 
+	/**
+	 * Record a new replica of this object in the database, for the background threads that upload or fetch the file after the object was saved. The in-memory caches of this
+	 * instance and of the other instances are notified like for any other update.
+	 *
+	 * @param replica
+	 *            the replica to add
+	 * @return <code>true</code> if the database was updated
+	 */
+	boolean addReplica(final Integer replica) {
+		try (DBFunctions db = getDB()) {
+			if (!db.query("update ccdb set replicas=replicas || ? where id=? AND NOT ? = ANY(replicas);", false, replica, id, replica))
+				return false;
+		}
+
+		replicas.add(replica);
+
+		for (final SQLNotifier notifier : SQLBacked.getNotifiers())
+			if (notifier.isSynchronous())
+				notifier.updatedObject(this);
+
+		SQLInvalidationChannel.getInstance().publish(SQLInvalidationChannel.UPDATED, pathId, id);
+
+		return true;
+	}
+
 	/**
 	 * Delete this entry
 	 *
@@ -642,6 +842,8 @@ public class SQLObject implements Comparable<SQLObject> {
 					return false;
 				}
 
+				SQLInvalidationChannel.getInstance().publish(SQLInvalidationChannel.DELETED, pathId, id);
+
 				return true;
 			}
 
@@ -659,8 +861,41 @@ public class SQLObject implements Comparable<SQLObject> {
 		return path;
 	}
 
-	private static Map<String, Integer> PATHS = new HashMap<>();
-	private static Map<Integer, String> PATHS_REVERSE = new HashMap<>();
+	private static final SQLDictionary PATHS = new SQLDictionary("paths", "ccdb_paths", "pathId", "path");
+	private static final SQLDictionary METADATA = new SQLDictionary("metadata", "ccdb_metadata", "metadataId", "metadataKey");
+	private static final SQLDictionary CONTENTTYPE = new SQLDictionary("contenttype", "ccdb_contenttype", "contentTypeId", "contentType");
+
+	static {
+		monitor.addMonitoring("paths_dictionary", PATHS);
+		monitor.addMonitoring("metadata_dictionary", METADATA);
+		monitor.addMonitoring("contenttype_dictionary", CONTENTTYPE);
+	}
+
+	/**
+	 * Bulk load the path, metadata key and content type dictionaries, so that regular lookups are answered from memory
+	 */
+	static void loadDictionaries() {
+		try (Timing t = new Timing(monitor, "dictionaries_load_ms")) {
+			final int paths = PATHS.load();
+			final int metadata = METADATA.load();
+			final int contentTypes = CONTENTTYPE.load();
+
+			logger.log(Level.INFO, "Loaded " + paths + " paths, " + metadata + " metadata keys and " + contentTypes + " content types in " + t);
+		}
+	}
+
+	/**
+	 * Load the dictionaries again, forgetting the entries that were removed from the database in the mean time
+	 */
+	static void reloadDictionaries() {
+		try (Timing t = new Timing(monitor, "dictionaries_reload_ms")) {
+			final int paths = PATHS.reload();
+			final int metadata = METADATA.reload();
+			final int contentTypes = CONTENTTYPE.reload();
+
+			logger.log(Level.INFO, "Reloaded " + paths + " paths, " + metadata + " metadata keys and " + contentTypes + " content types in " + t);
+		}
+	}
 
 	/**
 	 * @param parser
@@ -689,61 +924,16 @@ public class SQLObject implements Comparable<SQLObject> {
 		return pathIDs;
 	}
 
-	private static synchronized Integer getPathID(final String path, final boolean createIfNotExists) {
-		Integer value = PATHS.get(path);
-
-		if (value != null)
-			return value;
-
-		try (DBFunctions db = getDB()) {
-			db.query("SELECT pathid FROM ccdb_paths WHERE path=?;", false, path);
-
-			if (db.moveNext()) {
-				value = Integer.valueOf(db.geti(1));
-				PATHS.put(path, value);
-				PATHS_REVERSE.put(value, path);
-				return value;
-			}
-
-			if (createIfNotExists) {
-				final Integer hashId = absHashCode(path);
-
-				if (hashId.intValue() > 0 && db.query("INSERT INTO ccdb_paths (pathId, path) VALUES (?, ?);", false, hashId, path)) {
-					// could create the hash-based path ID, all good
-					PATHS.put(path, hashId);
-					PATHS_REVERSE.put(hashId, path);
-					return hashId;
-				}
-
-				// there is conflict on this hash code, take the next available value instead
-				db.query("INSERT INTO ccdb_paths (path) VALUES (?);", false, path);
-
-				// always execute the select, in case another instance has inserted it in the mean time
-				db.query("SELECT pathid FROM ccdb_paths WHERE path=?;", false, path);
-
-				if (db.moveNext()) {
-					value = Integer.valueOf(db.geti(1));
-					PATHS.put(path, value);
-					PATHS_REVERSE.put(value, path);
-					return value;
-				}
-			}
-		}
-
-		return null;
+	private static Integer getPathID(final String path, final boolean createIfNotExists) {
+		return PATHS.getId(path, createIfNotExists);
 	}
 
 	/**
 	 * @param pathID
 	 * @return cleaned up value, if any
 	 */
-	static synchronized String removePathID(final Integer pathID) {
-		final String path = PATHS_REVERSE.remove(pathID);
-
-		if (path != null)
-			PATHS.remove(path);
-
-		return path;
+	static String removePathID(final Integer pathID) {
+		return PATHS.remove(pathID);
 	}
 
 	private static List<Integer> getPathIDs(final String pathPattern) {
@@ -762,78 +952,15 @@ public class SQLObject implements Comparable<SQLObject> {
 		return ret;
 	}
 
-	private static synchronized String getPath(final Integer pathId) {
-		String value = PATHS_REVERSE.get(pathId);
-
-		if (value != null)
-			return value;
-
-		try (DBFunctions db = getDB()) {
-			db.query("SELECT path FROM ccdb_paths WHERE pathId=?;", false, pathId);
-
-			if (db.moveNext()) {
-				value = db.gets(1);
-
-				PATHS.put(value, pathId);
-				PATHS_REVERSE.put(pathId, value);
-			}
-		}
-
-		return value;
+	static String getPath(final Integer pathId) {
+		return PATHS.getValue(pathId);
 	}
 
-	private static Map<String, Integer> METADATA = new HashMap<>();
-	private static Map<Integer, String> METADATA_REVERSE = new HashMap<>();
-
-	private static synchronized Integer getMetadataID(final String metadataKey, final boolean createIfNotExists) {
+	static Integer getMetadataID(final String metadataKey, final boolean createIfNotExists) {
 		if (metadataKey == null || metadataKey.isBlank())
 			return null;
 
-		Integer value = METADATA.get(metadataKey);
-
-		if (value != null)
-			return value;
-
-		try (DBFunctions db = getDB()) {
-			if (db == null) {
-				value = Integer.valueOf(METADATA.size() + 1);
-				METADATA.put(metadataKey, value);
-				METADATA_REVERSE.put(value, metadataKey);
-				return value;
-			}
-
-			db.query("SELECT metadataId FROM ccdb_metadata WHERE metadataKey=?;", false, metadataKey);
-
-			if (db.moveNext()) {
-				value = Integer.valueOf(db.geti(1));
-				METADATA.put(metadataKey, value);
-				METADATA_REVERSE.put(value, metadataKey);
-				return value;
-			}
-
-			if (createIfNotExists) {
-				final Integer hashId = absHashCode(metadataKey);
-
-				if (hashId.intValue() > 0 && db.query("INSERT INTO ccdb_metadata(metadataId, metadataKey) VALUES (?, ?);", false, hashId, metadataKey)) {
-					METADATA.put(metadataKey, hashId);
-					METADATA_REVERSE.put(hashId, metadataKey);
-					return hashId;
-				}
-
-				db.query("INSERT INTO ccdb_metadata (metadataKey) VALUES (?);", false, metadataKey);
-
-				db.query("SELECT metadataId FROM ccdb_metadata WHERE metadataKey=?;", false, metadataKey);
-
-				if (db.moveNext()) {
-					value = Integer.valueOf(db.geti(1));
-					METADATA.put(metadataKey, value);
-					METADATA_REVERSE.put(value, metadataKey);
-					return value;
-				}
-			}
-		}
-
-		return null;
+		return METADATA.getId(metadataKey, createIfNotExists);
 	}
 
 	/**
@@ -842,91 +969,19 @@ public class SQLObject implements Comparable<SQLObject> {
 	 * @param metadataId
 	 * @return the string representation of this metadata key
 	 */
-	public static synchronized String getMetadataString(final Integer metadataId) {
-		String value = METADATA_REVERSE.get(metadataId);
-
-		if (value != null)
-			return value;
-
-		try (DBFunctions db = getDB()) {
-			db.query("SELECT metadataKey FROM ccdb_metadata WHERE metadataId=?;", false, metadataId);
-
-			if (db.moveNext()) {
-				value = db.gets(1);
-
-				METADATA.put(value, metadataId);
-				METADATA_REVERSE.put(metadataId, value);
-			}
-		}
-
-		return value;
+	public static String getMetadataString(final Integer metadataId) {
+		return METADATA.getValue(metadataId);
 	}
 
-	private static Map<String, Integer> CONTENTTYPE = new HashMap<>();
-	private static Map<Integer, String> CONTENTTYPE_REVERSE = new HashMap<>();
-
-	private static synchronized Integer getContentTypeID(final String contentType, final boolean createIfNotExists) {
+	private static Integer getContentTypeID(final String contentType, final boolean createIfNotExists) {
 		if (contentType == null || contentType.isBlank())
 			return null;
 
-		Integer value = CONTENTTYPE.get(contentType);
-
-		if (value != null)
-			return value;
-
-		try (DBFunctions db = getDB()) {
-			db.query("SELECT contentTypeId FROM ccdb_contenttype WHERE contentType=?", false, contentType);
-
-			if (db.moveNext()) {
-				value = Integer.valueOf(db.geti(1));
-				CONTENTTYPE.put(contentType, value);
-				CONTENTTYPE_REVERSE.put(value, contentType);
-				return value;
-			}
-
-			if (createIfNotExists) {
-				final Integer hashId = absHashCode(contentType);
-
-				if (hashId.intValue() > 0 && db.query("INSERT INTO ccdb_contenttype (contentTypeId, contentType) VALUES (?, ?);", false, hashId, contentType)) {
-					CONTENTTYPE.put(contentType, hashId);
-					CONTENTTYPE_REVERSE.put(hashId, contentType);
-					return hashId;
-				}
-
-				db.query("INSERT INTO ccdb_contenttype (contentType) VALUES (?);", false, contentType);
-
-				db.query("SELECT contentTypeId FROM ccdb_contenttype WHERE contentType=?;", false, contentType);
-
-				if (db.moveNext()) {
-					value = Integer.valueOf(db.geti(1));
-					CONTENTTYPE.put(contentType, value);
-					CONTENTTYPE_REVERSE.put(value, contentType);
-					return value;
-				}
-			}
-		}
-
-		return null;
+		return CONTENTTYPE.getId(contentType, createIfNotExists);
 	}
 
-	private static synchronized String getContentType(final Integer contentTypeId) {
-		String value = CONTENTTYPE_REVERSE.get(contentTypeId);
-
-		if (value != null)
-			return value;
-
-		try (DBFunctions db = getDB()) {
-			db.query("SELECT contentType FROM ccdb_contenttype WHERE contentTypeId=?;", false, contentTypeId);
-
-			if (db.moveNext()) {
-				value = db.gets(1);
-
-				CONTENTTYPE.put(value, contentTypeId);
-				CONTENTTYPE_REVERSE.put(contentTypeId, value);
-			}
-		}
-
-		return value;
+	private static String getContentType(final Integer contentTypeId) {
+		return CONTENTTYPE.getValue(contentTypeId);
 	}
 
 	/**
@@ -941,8 +996,26 @@ public class SQLObject implements Comparable<SQLObject> {
 			if (id == null)
 				return null;
 
+			final String q = "SELECT *,extract(epoch from lower(validity))*1000 as validfrom,extract(epoch from upper(validity))*1000 as validuntil FROM ccdb WHERE id=?;";
+
+			final SQLReadReplicas.Endpoint replica = SQLReadReplicas.getInstance().select(null);
+
+			if (replica != null) {
+				try (DBFunctions db = replica.getDB()) {
+					if (db.query(q, true, id)) {
+						if (db.moveNext())
+							return new SQLObject(db);
+
+						// might have just been uploaded and not replicated yet, confirm the miss on the primary
+						monitor.incrementCounter("getObject_replica_miss");
+					}
+					else
+						replica.failed();
+				}
+			}
+
 			try (DBFunctions db = getDB()) {
-				if (!db.query("SELECT *,extract(epoch from lower(validity))*1000 as validfrom,extract(epoch from upper(validity))*1000 as validuntil FROM ccdb WHERE id=?;", false, id)) {
+				if (!db.query(q, false, id)) {
 					System.err.println("Query execution error");
 					return null;
 				}
@@ -960,167 +1033,402 @@ public class SQLObject implements Comparable<SQLObject> {
 	 * @return the most recent matching object
 	 */
 	public static final SQLObject getMatchingObject(final RequestParser parser) {
+		return getMatchingObject(parser, false);
+	}
+
+	/**
+	 * @param parser
+	 * @param allowCached
+	 *            whether or not the answer can be served from {@link SQLObjectCache} or {@link NegativeResultCache}. Only read-only operations should allow it since the returned
+	 *            instance is shared between requests, and a recent miss might not hold any more.
+	 * @return the most recent matching object
+	 */
+	public static final SQLObject getMatchingObject(final RequestParser parser, final boolean allowCached) {
+		return getMatchingObject(parser, allowCached, null);
+	}
+
+	/**
+	 * @param parser
+	 * @param allowCached
+	 *            whether or not the answer can be served from {@link SQLObjectCache} or {@link NegativeResultCache}
+	 * @param knownId
+	 *            ID of the object that the client already has, can be <code>null</code>. If this is still the most recent matching object then its metadata and replicas are
+	 *            not read from the database, and the returned instance is only good for comparing the ID.
+	 * @return the most recent matching object
+	 */
+	public static final SQLObject getMatchingObject(final RequestParser parser, final boolean allowCached, final UUID knownId) {
+		try (Timing t = new Timing(monitor, "getMatchingObject_ms")) {
+			final NegativeResultCache negativeCache = NegativeResultCache.getInstance();
+
+			if (!allowCached || !negativeCache.isEnabled())
+				return lookupMatchingObject(parser, allowCached, knownId);
+
+			final String negativeKey = negativeCache.getKey(parser);
+
+			if (negativeCache.isKnownMiss(negativeKey))
+				return null;
+
+			final long lookupStart = NegativeResultCache.startLookup();
+
+			final SQLObject ret = lookupMatchingObject(parser, allowCached, knownId);
+
+			if (ret == null)
+				negativeCache.put(negativeKey, parser.path, lookupStart);
+
+			return ret;
+		}
+	}
+
+	/**
+	 * Variant of {@link #getMatchingObject(RequestParser)} for the read-modify-write of PUT and DELETE. The lookup skips the caches and the in-memory index and always runs on
+	 * the primary server, since a replica might not have the latest state of the path yet.
+	 *
+	 * @param parser
+	 * @return the most recent matching object
+	 */
+	public static final SQLObject getMatchingObjectForUpdate(final RequestParser parser) {
 		try (Timing t = new Timing(monitor, "getMatchingObject_ms")) {
 			final Integer pathId = getPathID(parser.path, false);
 
 			if (pathId == null)
 				return null;
 
-			final List<Object> arguments = new ArrayList<>();
+			return queryMatchingObject(parser, pathId, true, null);
+		}
+	}
 
-			try (DBFunctions db = getDB()) {
-				final StringBuilder q = new StringBuilder(
-						"SELECT *,extract(epoch from lower(validity))*1000 as validfrom,extract(epoch from upper(validity))*1000 as validuntil FROM ccdb WHERE pathId=?");
+	/**
+	 * Resolve only the ID of the object that {@link #getMatchingObject(RequestParser, boolean)} would return, for answering conditional requests, if it is known without querying
+	 * the database. The answer comes from {@link SQLObjectCache} or {@link SQLPathIndex}. Otherwise {@link #getMatchingObject(RequestParser, boolean, UUID)} resolves the
+	 * request with a single query that only reads the entire row if the client doesn't already have it.
+	 *
+	 * @param parser
+	 * @return the ID of the most recent matching object, or <code>null</code> if nothing matches or if the answer is not known
+	 */
+	public static final UUID getMatchingObjectId(final RequestParser parser) {
+		try (Timing t = new Timing(monitor, "getMatchingObjectId_ms")) {
+			final NegativeResultCache negativeCache = NegativeResultCache.getInstance();
 
-				arguments.add(pathId);
+			if (negativeCache.isEnabled() && negativeCache.isKnownMiss(negativeCache.getKey(parser)))
+				return null;
 
-				if (parser.uuidConstraint != null) {
-					q.append(" AND id=?");
+			final Integer pathId = getPathID(parser.path, false);
 
-					arguments.add(parser.uuidConstraint);
-				}
+			if (pathId == null)
+				return null;
 
-				if (parser.startTimeSet) {
-					q.append(" AND to_timestamp(?) AT TIME ZONE 'UTC' <@ validity");
+			final SQLObjectCache cache = SQLObjectCache.getInstance();
 
-					arguments.add(Double.valueOf(parser.startTime / 1000.));
-				}
+			if (cache.isEnabled()) {
+				final UUID cached = cache.getId(cache.getKey(pathId, parser), pathId, parser);
 
-				if (parser.notAfter > 0) {
-					q.append(" AND createTime<=?");
+				if (cached != null)
+					return cached;
+			}
 
-					arguments.add(Long.valueOf(parser.notAfter));
-				}
+			final SQLPathIndex index = SQLPathIndex.getInstance();
 
-				if (parser.notBefore > 0) {
-					q.append(" AND createTime>=?");
+			if (index.isEnabled()) {
+				final SQLPathIndex.PathEntries entries = index.getEntries(pathId);
 
-					arguments.add(Long.valueOf(parser.notBefore));
-				}
+				if (entries != null)
+					return index.find(parser, entries);
+			}
 
-				if (parser.flagConstraints != null && parser.flagConstraints.size() > 0)
-					for (final Map.Entry<String, String> constraint : parser.flagConstraints.entrySet()) {
-						final String key = constraint.getKey();
+			return null;
+		}
+	}
 
-						final Integer metadataId = getMetadataID(key, false);
+	private static final SQLObject lookupMatchingObject(final RequestParser parser, final boolean allowCached, final UUID knownId) {
+		final Integer pathId = getPathID(parser.path, false);
 
-						if (metadataId == null)
-							return null;
+		if (pathId == null)
+			return null;
 
-						final String value = constraint.getValue();
+		final SQLObjectCache cache = SQLObjectCache.getInstance();
 
-						q.append(" AND metadata -> ? = ?");
+		if (!allowCached || !cache.isEnabled())
+			return queryMatchingObject(parser, pathId, false, knownId);
 
-						arguments.add(metadataId.toString());
-						arguments.add(value);
-					}
+		final String key = cache.getKey(pathId, parser);
 
-				q.append(" ORDER BY createTime DESC LIMIT 1;");
+		SQLObject ret = cache.get(key, pathId, parser);
 
-				db.query(q.toString(), false, arguments.toArray(new Object[0]));
+		if (ret != null)
+			return ret;
 
-				if (db.moveNext())
-					return new SQLObject(db);
+		final long generation = cache.currentGeneration(pathId);
 
-				// System.err.println("No object for:\n" + q + "\nand\n" + arguments + "\n");
+		ret = queryMatchingObject(parser, pathId, false, knownId);
 
-				return null;
-			}
-		}
+		if (ret != null && ret.id.equals(knownId))
+			// loaded without the metadata and the replicas, only the identity of the answer can be cached
+			cache.putId(key, pathId, generation, ret.id, ret.validFrom, ret.validUntil);
+		else
+			cache.put(key, pathId, generation, ret);
+
+		return ret;
 	}
 
-	private static final void getMatchingObjects(final RequestParser parser, final Integer pathId, final Collection<SQLObject> ret) {
-		final StringBuilder q = new StringBuilder("SELECT *,extract(epoch from lower(validity))*1000 as validfrom,extract(epoch from upper(validity))*1000 as validuntil FROM ccdb WHERE pathId=?");
+	private static final SQLObject queryMatchingObject(final RequestParser parser, final Integer pathId, final boolean primaryOnly, final UUID knownId) {
+		final SQLPathIndex index = SQLPathIndex.getInstance();
 
-		final List<Object> arguments = new ArrayList<>();
+		if (!primaryOnly && index.isEnabled()) {
+			final SQLPathIndex.PathEntries entries = index.getEntries(pathId);
 
-		arguments.add(pathId);
+			if (entries != null) {
+				final UUID id = index.find(parser, entries);
 
-		if (parser.uuidConstraint != null) {
-			q.append(" AND id=?");
+				if (id == null)
+					return null;
 
-			arguments.add(parser.uuidConstraint);
-		}
+				final SQLObject ret = getObject(id);
 
-		if (parser.startTimeSet) {
-			q.append(" AND to_timestamp(?) AT TIME ZONE 'UTC' <@ validity");
+				if (ret != null)
+					return ret;
 
-			arguments.add(Double.valueOf(parser.startTime / 1000.));
+				// the index is out of sync with the database, reload it on next access and answer this request from the database
+				index.drop(pathId);
+			}
 		}
 
-		if (parser.notAfter > 0) {
-			q.append(" AND createTime<=?");
+		final List<Object> arguments = new ArrayList<>();
+
+		final String q = knownId != null ? SQLQueryShapes.getMatchingQueryUnlessId(parser, pathId, knownId, arguments)
+				: SQLQueryShapes.getMatchingQuery(parser, pathId, false, SQLQueryShapes.LIMIT_ONE, 0, arguments);
 
-			arguments.add(Long.valueOf(parser.notAfter));
+		if (q == null)
+			return null;
+
+		try (DBFunctions db = primaryOnly ? primaryQuery(q, arguments.toArray(new Object[0])) : readQuery(Arrays.asList(pathId), q, arguments.toArray(new Object[0]))) {
+			if (db.moveNext())
+				return new SQLObject(db);
+
+			return null;
 		}
+	}
 
-		if (parser.notBefore > 0) {
-			q.append(" AND createTime>=?");
+	/**
+	 * Build the query that returns all matching objects of the given paths, in a single round trip to the database
+	 *
+	 * @param parser
+	 * @param pathIDs
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query
+	 */
+	private static final String getMatchingObjectsQuery(final RequestParser parser, final List<Integer> pathIDs, final List<Object> arguments) {
+		return getMatchingObjectsQuery(parser, pathIDs, SQLProjection.ALL, arguments);
+	}
+
+	/**
+	 * @param parser
+	 * @param pathIDs
+	 * @param columns
+	 *            {@link SQLProjection} column groups to select
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query
+	 */
+	private static final String getMatchingObjectsQuery(final RequestParser parser, final List<Integer> pathIDs, final int columns, final List<Object> arguments) {
+		if (pathIDs.size() == 1) {
+			final int limit = parser.latestFlag ? SQLQueryShapes.LIMIT_ONE : (parser.browseLimit > 0 ? SQLQueryShapes.LIMIT_ARGUMENT : SQLQueryShapes.LIMIT_NONE);
 
-			arguments.add(Long.valueOf(parser.notBefore));
+			return SQLQueryShapes.getMatchingQuery(parser, pathIDs.get(0), true, limit, parser.browseLimit, columns, arguments);
 		}
 
-		if (parser.flagConstraints != null && parser.flagConstraints.size() > 0)
-			for (final Map.Entry<String, String> constraint : parser.flagConstraints.entrySet()) {
-				final String key = constraint.getKey();
+		return SQLQueryShapes.getMultiPathQuery(parser, pathIDs, columns, arguments);
+	}
+
+	/**
+	 * @param parser
+	 * @return the most recent matching object
+	 */
+	public static final Collection<SQLObject> getAllMatchingObjects(final RequestParser parser) {
+		try (Timing t = new Timing(monitor, "getAllMatchingObjects_ms")) {
+			final List<Integer> pathIDs = getPathIDsWithPatternFallback(parser);
+
+			if (pathIDs == null || pathIDs.isEmpty())
+				return null;
+
+			final List<Object> arguments = new ArrayList<>();
+
+			final String q = getMatchingObjectsQuery(parser, pathIDs, arguments);
+
+			final List<SQLObject> ret = new ArrayList<>(parser.latestFlag ? pathIDs.size() : 16);
+
+			try (DBFunctions db = readQuery(pathIDs, q, arguments.toArray(new Object[0]))) {
+				while (db.moveNext()) {
+					try {
+						ret.add(new SQLObject(db));
+					}
+					catch (final Exception e) {
+						System.err.println("Got exception loading object " + db.geti("id") + " from DB: " + e.getMessage());
+						e.printStackTrace();
+					}
+				}
+			}
+
+			return ret;
+		}
+	}
 
-				final Integer metadataId = getMetadataID(key, false);
+	/**
+	 * Find the most recent object matching the request constraints for each of the given paths, with a single query. Unlike the browsing, a flag constraint on a metadata key that
+	 * was never used means that nothing can match.
+	 *
+	 * @param parser
+	 *            constraints common to all paths. The path itself is ignored, the latest flag and browse limit are expected to have their default values.
+	 * @param paths
+	 *            paths to look up
+	 * @return path -&gt; matching object, only for the paths that have one
+	 */
+	public static final Map<String, SQLObject> getLatestMatchingObjects(final RequestParser parser, final Collection<String> paths) {
+		try (Timing t = new Timing(monitor, "getLatestMatchingObjects_ms")) {
+			final Map<String, SQLObject> ret = new HashMap<>(paths.size());
 
-				if (metadataId == null)
-					continue;
+			if (parser.flagConstraints != null)
+				for (final String key : parser.flagConstraints.keySet())
+					if (getMetadataID(key, false) == null)
+						return ret;
 
-				final String value = constraint.getValue();
+			final List<Integer> pathIDs = new ArrayList<>(paths.size());
 
-				q.append(" AND metadata -> ? = ?");
+			for (final String path : paths) {
+				final Integer pathId = getPathID(path, false);
 
-				arguments.add(metadataId.toString());
-				arguments.add(value);
+				if (pathId != null)
+					pathIDs.add(pathId);
 			}
 
-		q.append(" ORDER BY createTime DESC");
+			if (pathIDs.isEmpty())
+				return ret;
 
-		if (parser.latestFlag)
-			q.append(" LIMIT 1");
-		else if (parser.browseLimit > 0)
-			q.append(" LIMIT " + parser.browseLimit);
+			final List<Object> arguments = new ArrayList<>();
 
-		try (DBFunctions db = getDB()) {
-			db.query(q.toString(), false, arguments.toArray(new Object[0]));
+			final String q = getMatchingObjectsQuery(parser, pathIDs, arguments);
 
-			while (db.moveNext()) {
-				try {
-					ret.add(new SQLObject(db));
-				}
-				catch (final Exception e) {
-					System.err.println("Got exception loading object " + db.geti("id") + " from DB: " + e.getMessage());
-					e.printStackTrace();
+			try (DBFunctions db = readQuery(pathIDs, q, arguments.toArray(new Object[0]))) {
+				while (db.moveNext()) {
+					final SQLObject object = new SQLObject(db);
+
+					ret.put(object.getPath(), object);
 				}
 			}
+
+			return ret;
 		}
 	}
 
+	private static final int streamingFetchSize = Options.getIntOption("browse.fetchsize", 1000);
+
 	/**
+	 * Streaming alternative to {@link #getAllMatchingObjects(RequestParser)}: rows are read with a server-side cursor, <code>browse.fetchsize</code> (default 1000) at a time, and
+	 * handed to the consumer as they arrive, so the memory usage doesn't depend on the size of the result set.
+	 *
 	 * @param parser
-	 * @return the most recent matching object
+	 * @param consumer
+	 *            callback for each matching object
+	 * @return the number of objects that were streamed, or <code>-1</code> if no path matches the request or the query failed
 	 */
-	public static final Collection<SQLObject> getAllMatchingObjects(final RequestParser parser) {
-		try (Timing t = new Timing(monitor, "getAllMatchingObjects_ms")) {
+	public static final long streamAllMatchingObjects(final RequestParser parser, final Consumer<SQLObject> consumer) {
+		return streamAllMatchingObjects(parser, SQLProjection.ALL, consumer);
+	}
+
+	/**
+	 * Same as {@link #streamAllMatchingObjects(RequestParser, Consumer)} but only reading some of the columns, the objects passed to the consumer only have the fields backed by
+	 * them set
+	 *
+	 * @param parser
+	 * @param columns
+	 *            {@link SQLProjection} column groups to select
+	 * @param consumer
+	 *            callback for each matching object
+	 * @return the number of objects that were streamed, or <code>-1</code> if no path matches the request or the query failed
+	 */
+	static final long streamAllMatchingObjects(final RequestParser parser, final int columns, final Consumer<SQLObject> consumer) {
+		try (Timing t = new Timing(monitor, "streamAllMatchingObjects_ms")) {
 			final List<Integer> pathIDs = getPathIDsWithPatternFallback(parser);
 
 			if (pathIDs == null || pathIDs.isEmpty())
-				return null;
+				return -1;
+
+			final List<Object> arguments = new ArrayList<>();
+
+			final String q = getMatchingObjectsQuery(parser, pathIDs, columns, arguments);
 
-			final List<SQLObject> ret = Collections.synchronizedList(new ArrayList<>(pathIDs.size() * (parser.latestFlag ? 1 : 2)));
+			final SQLReadReplicas.Endpoint replica = SQLReadReplicas.getInstance().select(pathIDs);
 
-			pathIDs.parallelStream().forEach((id) -> getMatchingObjects(parser, id, ret));
+			if (replica != null) {
+				final AtomicLong streamed = new AtomicLong();
 
-			if (parser.browseLimit > 0 && ret.size() > parser.browseLimit) {
-				Collections.sort(ret);
+				final long count = streamQuery(replica.getDB(), parser, q, arguments, columns, o -> {
+					streamed.incrementAndGet();
+					consumer.accept(o);
+				});
 
-				return ret.subList(0, parser.browseLimit);
+				if (count >= 0)
+					return count;
+
+				replica.failed();
+
+				if (streamed.get() > 0)
+					// part of the answer was already consumed, it cannot be repeated
+					return -1;
 			}
 
-			return ret;
+			return streamQuery(getDB(), parser, q, arguments, columns, consumer);
+		}
+	}
+
+	private static final long streamQuery(final DBFunctions database, final RequestParser parser, final String q, final List<Object> arguments, final int columns,
+			final Consumer<SQLObject> consumer) {
+		try (DBFunctions db = database) {
+			final DBConnection dbc = db.getConnection();
+
+			if (dbc == null)
+				return -1;
+
+			final Connection conn = dbc.getConnection();
+
+			boolean ok = false;
+			long count = 0;
+
+			try {
+				// PostgreSQL only uses cursors for fetching the results when inside a transaction
+				conn.setAutoCommit(false);
+
+				try (PreparedStatement stat = conn.prepareStatement(q)) {
+					stat.setFetchSize(streamingFetchSize);
+
+					for (int i = 0; i < arguments.size(); i++)
+						stat.setObject(i + 1, arguments.get(i));
+
+					try (ResultSet rs = stat.executeQuery()) {
+						while (rs.next()) {
+							consumer.accept(new SQLObject(rs, columns));
+							count++;
+						}
+					}
+				}
+
+				conn.commit();
+				conn.setAutoCommit(true);
+
+				ok = true;
+			}
+			catch (final SQLException e) {
+				logger.log(Level.WARNING, "Exception streaming the objects matching " + parser.path, e);
+			}
+			finally {
+				if (ok)
+					dbc.free();
+				else
+					// don't put back in the pool a connection in an unknown transaction state
+					dbc.close();
+			}
+
+			return ok ? count : -1;
 		}
 	}
 
@@ -0,0 +1,426 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.Options;
+import ch.alice.o2.ccdb.RequestParser;
+
+/**
+ * In-memory cache of the answers given by {@link SQLObject#getMatchingObject(RequestParser)}, keyed by (pathId, time bucket, constraints). Entries are invalidated per path by the
+ * {@link SQLNotifier} events that {@link SQLBacked} fires on any object creation, update or removal.<br>
+ * <br>
+ * The conditional requests only need the ID of the answer, so for them only the identity and validity of the matching object are cached, see
+ * {@link SQLObject#getMatchingObjectId(RequestParser)} and {@link SQLObject#getMatchingObject(RequestParser, boolean, java.util.UUID)}.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>cache.latest.size</code> - maximum number of cached answers (default 0, ie. the cache is disabled)</li>
+ * <li><code>cache.latest.bucket</code> - granularity of the time key, in milliseconds (default 1, ie. exact timestamp matching). Clients that ask for the current time almost
+ * never repeat the exact timestamp, so the cache only pays off for them with a coarser bucket. That trades exactness for hit ratio: a cached object is only returned if its
+ * validity still covers the requested time, but an object that was uploaded with a validity interval shorter than the bucket might be shadowed by it.</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class SQLObjectCache implements SQLNotifier, MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLObjectCache.class.getCanonicalName());
+
+	private static final class CacheEntry {
+		/**
+		 * Full object, or <code>null</code> if only the identity of the answer is known (see {@link SQLObjectCache#putId(String, Integer, long, UUID, long, long)})
+		 */
+		final SQLObject object;
+
+		final UUID id;
+		final Integer pathId;
+		final long validFrom;
+		final long validUntil;
+		final long generation;
+
+		/**
+		 * CLOCK reference bit, set on each hit and cleared by the eviction sweep
+		 */
+		volatile boolean referenced = false;
+
+		CacheEntry(final SQLObject object, final long generation) {
+			this(object, object.id, object.pathId, object.validFrom, object.validUntil, generation);
+		}
+
+		CacheEntry(final SQLObject object, final UUID id, final Integer pathId, final long validFrom, final long validUntil, final long generation) {
+			this.object = object;
+			this.id = id;
+			this.pathId = pathId;
+			this.validFrom = validFrom;
+			this.validUntil = validUntil;
+			this.generation = generation;
+		}
+	}
+
+	private final int maxSize = Options.getIntOption("cache.latest.size", 0);
+
+	private final long bucket = Math.max(Options.getIntOption("cache.latest.bucket", 1), 1);
+
+	private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Per pathId generation. Cached answers that were produced under an older generation are stale. Only the paths that have cached answers or queries in flight need an entry,
+	 * the others are pruned, see {@link #pruneGenerations()}.
+	 */
+	private final Map<Integer, AtomicLong> generations = new ConcurrentHashMap<>();
+
+	/**
+	 * Source of the generation values, incremented on every invalidation. A path that was pruned from {@link #generations} starts again from the current value, that is newer than
+	 * any generation a query in flight might have taken before the path was invalidated.
+	 */
+	private final AtomicLong generationSequence = new AtomicLong();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong idHits = new AtomicLong();
+	private final AtomicLong idMisses = new AtomicLong();
+
+	private long lastReportedHits = 0;
+	private long lastReportedMisses = 0;
+
+	private SQLObjectCache() {
+		monitor.addMonitoring("cache", this);
+	}
+
+	private static SQLObjectCache instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized SQLObjectCache getInstance() {
+		if (instance == null)
+			instance = new SQLObjectCache();
+
+		return instance;
+	}
+
+	/**
+	 * @return <code>true</code> if the cache is enabled
+	 */
+	boolean isEnabled() {
+		return maxSize > 0;
+	}
+
+	private AtomicLong getGeneration(final Integer pathId) {
+		AtomicLong generation = generations.get(pathId);
+
+		if (generation == null) {
+			generation = generations.computeIfAbsent(pathId, k -> new AtomicLong(generationSequence.get()));
+
+			if (generations.size() > 2 * maxSize)
+				pruneGenerations();
+		}
+
+		return generation;
+	}
+
+	/**
+	 * Build the cache key for this request
+	 *
+	 * @param pathId
+	 * @param parser
+	 * @return the key
+	 */
+	String getKey(final Integer pathId, final RequestParser parser) {
+		final StringBuilder sb = new StringBuilder(64);
+
+		sb.append(pathId).append('/');
+
+		if (parser.startTimeSet)
+			sb.append(parser.startTime / bucket);
+		else
+			sb.append('*');
+
+		sb.append('/');
+
+		if (parser.uuidConstraint != null)
+			sb.append(parser.uuidConstraint);
+
+		sb.append('/').append(parser.notAfter).append('/').append(parser.notBefore);
+
+		if (parser.flagConstraints != null && parser.flagConstraints.size() > 0) {
+			final Map<String, String> sortedConstraints = parser.flagConstraints.size() > 1 ? new TreeMap<>(parser.flagConstraints) : parser.flagConstraints;
+
+			for (final Map.Entry<String, String> constraint : sortedConstraints.entrySet())
+				sb.append('/').append(constraint.getKey()).append('=').append(constraint.getValue());
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Current generation of this path, to be taken <i>before</i> querying the database and passed back to {@link #put(String, Integer, long, SQLObject)}
+	 *
+	 * @param pathId
+	 * @return the generation
+	 */
+	long currentGeneration(final Integer pathId) {
+		return getGeneration(pathId).get();
+	}
+
+	/**
+	 * @param key
+	 * @param pathId
+	 * @param parser
+	 * @return the cached object, if any
+	 */
+	SQLObject get(final String key, final Integer pathId, final RequestParser parser) {
+		final CacheEntry entry = getValidEntry(key, pathId, parser);
+
+		if (entry != null && entry.object != null) {
+			entry.referenced = true;
+			hits.incrementAndGet();
+			return entry.object;
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @param key
+	 * @param pathId
+	 * @param parser
+	 * @return the ID of the cached answer, if any, whether the full object is cached or only its identity
+	 */
+	UUID getId(final String key, final Integer pathId, final RequestParser parser) {
+		final CacheEntry entry = getValidEntry(key, pathId, parser);
+
+		if (entry != null) {
+			entry.referenced = true;
+			idHits.incrementAndGet();
+			return entry.id;
+		}
+
+		idMisses.incrementAndGet();
+		return null;
+	}
+
+	private CacheEntry getValidEntry(final String key, final Integer pathId, final RequestParser parser) {
+		final CacheEntry entry = cache.get(key);
+
+		if (entry != null) {
+			if (entry.generation == getGeneration(pathId).get() && (!parser.startTimeSet || (entry.validFrom <= parser.startTime && entry.validUntil > parser.startTime)))
+				return entry;
+
+			cache.remove(key, entry);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Remember the answer to a request
+	 *
+	 * @param key
+	 * @param pathId
+	 * @param generation
+	 *            path generation as returned by {@link #currentGeneration(Integer)} before the database query was executed
+	 * @param object
+	 */
+	void put(final String key, final Integer pathId, final long generation, final SQLObject object) {
+		if (object == null || generation != getGeneration(pathId).get())
+			return;
+
+		cache.put(key, new CacheEntry(object, generation));
+
+		if (cache.size() > maxSize)
+			evict();
+	}
+
+	/**
+	 * Remember only the identity of the answer to a request, for the conditional requests that don't need the object itself. A full object that is cached under the same key is
+	 * not replaced.
+	 *
+	 * @param key
+	 * @param pathId
+	 * @param generation
+	 *            path generation as returned by {@link #currentGeneration(Integer)} before the database query was executed
+	 * @param id
+	 * @param validFrom
+	 * @param validUntil
+	 */
+	void putId(final String key, final Integer pathId, final long generation, final UUID id, final long validFrom, final long validUntil) {
+		if (id == null || generation != getGeneration(pathId).get())
+			return;
+
+		final CacheEntry entry = new CacheEntry(null, id, pathId, validFrom, validUntil, generation);
+
+		final CacheEntry existing = cache.putIfAbsent(key, entry);
+
+		if (existing != null) {
+			if (existing.object != null && existing.generation == generation)
+				return;
+
+			cache.replace(key, existing, entry);
+		}
+
+		if (cache.size() > maxSize)
+			evict();
+	}
+
+	/**
+	 * CLOCK-style sweep: stale entries and entries not referenced since the previous sweep are dropped, the others get their reference bit cleared
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock())
+			return;
+
+		try {
+			final int target = maxSize - maxSize / 10;
+
+			for (int pass = 0; pass < 2 && cache.size() > target; pass++) {
+				final Iterator<Map.Entry<String, CacheEntry>> it = cache.entrySet().iterator();
+
+				while (it.hasNext() && cache.size() > target) {
+					final Map.Entry<String, CacheEntry> e = it.next();
+					final CacheEntry entry = e.getValue();
+
+					if (entry.referenced && entry.generation == getGeneration(entry.pathId).get())
+						entry.referenced = false;
+					else {
+						it.remove();
+						evictions.incrementAndGet();
+					}
+				}
+			}
+		}
+		finally {
+			evictionLock.unlock();
+		}
+
+		pruneGenerations();
+	}
+
+	/**
+	 * Forget the generation of the paths that have no cached answer any more
+	 */
+	private void pruneGenerations() {
+		if (!evictionLock.tryLock())
+			return;
+
+		try {
+			final Set<Integer> cachedPaths = new HashSet<>();
+
+			for (final CacheEntry entry : cache.values())
+				cachedPaths.add(entry.pathId);
+
+			generations.keySet().retainAll(cachedPaths);
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Drop all cached answers for the given path
+	 *
+	 * @param pathId
+	 */
+	void invalidate(final Integer pathId) {
+		if (pathId == null)
+			return;
+
+		// the sequence moves even if the path has no entry, a query in flight for it might have taken its generation before it was pruned
+		final long newGeneration = generationSequence.incrementAndGet();
+
+		final AtomicLong generation = generations.get(pathId);
+
+		if (generation != null)
+			generation.set(newGeneration);
+
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * Drop the entire content
+	 */
+	void clear() {
+		generationSequence.incrementAndGet();
+		generations.clear();
+		cache.clear();
+		invalidations.incrementAndGet();
+	}
+
+	@Override
+	public boolean isSynchronous() {
+		return true;
+	}
+
+	@Override
+	public void newObject(final SQLObject object) {
+		invalidate(object.pathId);
+	}
+
+	@Override
+	public void updatedObject(final SQLObject object) {
+		invalidate(object.pathId);
+	}
+
+	@Override
+	public void deletedObject(final SQLObject object) {
+		invalidate(object.pathId);
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		final long currentHits = hits.get();
+		final long currentMisses = misses.get();
+
+		final long deltaHits = currentHits - lastReportedHits;
+		final long deltaMisses = currentMisses - lastReportedMisses;
+
+		lastReportedHits = currentHits;
+		lastReportedMisses = currentMisses;
+
+		paramNames.add("hits");
+		paramValues.add(Double.valueOf(currentHits));
+
+		paramNames.add("misses");
+		paramValues.add(Double.valueOf(currentMisses));
+
+		paramNames.add("hit_ratio");
+		paramValues.add(Double.valueOf(deltaHits + deltaMisses > 0 ? deltaHits * 100. / (deltaHits + deltaMisses) : 0));
+
+		paramNames.add("id_hits");
+		paramValues.add(Double.valueOf(idHits.get()));
+
+		paramNames.add("id_misses");
+		paramValues.add(Double.valueOf(idMisses.get()));
+
+		paramNames.add("evictions");
+		paramValues.add(Double.valueOf(evictions.get()));
+
+		paramNames.add("invalidations");
+		paramValues.add(Double.valueOf(invalidations.get()));
+
+		paramNames.add("size");
+		paramValues.add(Double.valueOf(cache.size()));
+	}
+
+	@Override
+	public String toString() {
+		return "SQLObjectCache";
+	}
+}
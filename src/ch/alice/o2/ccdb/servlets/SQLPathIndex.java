@@ -0,0 +1,624 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import alien.monitoring.Timing;
+import ch.alice.o2.ccdb.Options;
+import ch.alice.o2.ccdb.RequestParser;
+import lazyj.DBFunctions;
+
+/**
+ * Optional in-memory index of the object versions of each path, answering {@link SQLObject#getMatchingObject(RequestParser)} without the validity range lookup in the database.
+ * The only query left for a request is fetching the full row by its primary key.<br>
+ * <br>
+ * Each path is loaded on first access and then kept current by the {@link SQLNotifier} events that {@link SQLBacked} fires on POST, PUT and DELETE. The fields needed to evaluate
+ * the request constraints are kept in primitive arrays, sorted by creation time (newest first). In addition, the "visible timeline" (which object is the most recent one valid in
+ * each elementary time interval) is precomputed so that point-in-time lookups are a binary search.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>index.inmemory</code> - set to <code>1</code> to enable it (default <code>0</code>)</li>
+ * <li><code>index.inmemory.paths</code> - maximum number of paths to keep in memory (default 10000), the least recently accessed ones are dropped first</li>
+ * </ul>
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class SQLPathIndex implements SQLNotifier, MonitoringObject {
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLPathIndex.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(SQLPathIndex.class.getCanonicalName());
+
+	private static final long[] EMPTY_LONGS = new long[0];
+	private static final int[] EMPTY_INTS = new int[0];
+	private static final String[] EMPTY_STRINGS = new String[0];
+
+	/**
+	 * Immutable view of all the versions of a path. Modifications create a new instance.
+	 */
+	static final class PathEntries {
+		final int count;
+
+		final long[] idMsb;
+		final long[] idLsb;
+		final long[] validFrom;
+		final long[] validUntil;
+		final long[] createTime;
+		final long[] size;
+
+		final int[][] metadataKeys;
+		final String[][] metadataValues;
+
+		/**
+		 * Sorted, distinct, validity interval boundaries
+		 */
+		private volatile long[] boundaries = null;
+
+		/**
+		 * For each interval [boundaries[i], boundaries[i+1]), the index of the most recent entry that covers it, or -1
+		 */
+		private volatile int[] visible = null;
+
+		PathEntries(final int count) {
+			this.count = count;
+
+			idMsb = new long[count];
+			idLsb = new long[count];
+			validFrom = new long[count];
+			validUntil = new long[count];
+			createTime = new long[count];
+			size = new long[count];
+			metadataKeys = new int[count][];
+			metadataValues = new String[count][];
+		}
+
+		/**
+		 * Copy the source entries, leaving a gap at position <code>gap</code> (if &gt;= 0) or skipping the entry at position <code>skip</code> (if &gt;= 0)
+		 */
+		private PathEntries(final PathEntries source, final int gap, final int skip) {
+			this(source.count + (gap >= 0 ? 1 : 0) - (skip >= 0 ? 1 : 0));
+
+			int target = 0;
+
+			for (int i = 0; i < source.count; i++) {
+				if (i == skip)
+					continue;
+
+				if (target == gap)
+					target++;
+
+				copy(source, i, target++);
+			}
+		}
+
+		private void copy(final PathEntries source, final int from, final int to) {
+			idMsb[to] = source.idMsb[from];
+			idLsb[to] = source.idLsb[from];
+			validFrom[to] = source.validFrom[from];
+			validUntil[to] = source.validUntil[from];
+			createTime[to] = source.createTime[from];
+			size[to] = source.size[from];
+			metadataKeys[to] = source.metadataKeys[from];
+			metadataValues[to] = source.metadataValues[from];
+		}
+
+		/**
+		 * @return a copy with the given capacity, keeping the first entries
+		 */
+		PathEntries resize(final int newCount) {
+			if (newCount == count)
+				return this;
+
+			final PathEntries ret = new PathEntries(newCount);
+
+			for (int i = Math.min(count, newCount) - 1; i >= 0; i--)
+				ret.copy(this, i, i);
+
+			return ret;
+		}
+
+		void set(final int idx, final SQLObject object) {
+			idMsb[idx] = object.id.getMostSignificantBits();
+			idLsb[idx] = object.id.getLeastSignificantBits();
+			validFrom[idx] = object.validFrom;
+			validUntil[idx] = object.validUntil;
+			createTime[idx] = object.createTime;
+			size[idx] = object.size;
+			setMetadata(idx, object.metadata);
+		}
+
+		void setMetadata(final int idx, final Map<?, ?> metadata) {
+			if (metadata == null || metadata.size() == 0) {
+				metadataKeys[idx] = EMPTY_INTS;
+				metadataValues[idx] = EMPTY_STRINGS;
+				return;
+			}
+
+			final int[] keys = new int[metadata.size()];
+			final String[] values = new String[keys.length];
+
+			int i = 0;
+
+			for (final Map.Entry<?, ?> entry : metadata.entrySet()) {
+				keys[i] = Integer.parseInt(entry.getKey().toString());
+				values[i] = entry.getValue().toString().intern();
+				i++;
+			}
+
+			metadataKeys[idx] = keys;
+			metadataValues[idx] = values;
+		}
+
+		/**
+		 * Same ordering as {@link SQLObject#compareTo(SQLObject)}: newest first, then descending by ID
+		 */
+		int compare(final int idx, final long otherCreateTime, final long otherMsb, final long otherLsb) {
+			int diff = Long.compare(otherCreateTime, createTime[idx]);
+
+			if (diff != 0)
+				return diff;
+
+			diff = Long.compare(otherMsb, idMsb[idx]);
+
+			if (diff != 0)
+				return diff;
+
+			return Long.compare(otherLsb, idLsb[idx]);
+		}
+
+		int indexOf(final UUID id) {
+			final long msb = id.getMostSignificantBits();
+			final long lsb = id.getLeastSignificantBits();
+
+			for (int i = 0; i < count; i++)
+				if (idMsb[i] == msb && idLsb[i] == lsb)
+					return i;
+
+			return -1;
+		}
+
+		/**
+		 * @return a copy that includes the given object (replacing any previous version of it)
+		 */
+		PathEntries with(final SQLObject object) {
+			final PathEntries base = without(object.id);
+
+			final long msb = object.id.getMostSignificantBits();
+			final long lsb = object.id.getLeastSignificantBits();
+
+			int lo = 0;
+			int hi = base.count;
+
+			while (lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+
+				if (base.compare(mid, object.createTime, msb, lsb) < 0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+
+			final PathEntries ret = new PathEntries(base, lo, -1);
+			ret.set(lo, object);
+			return ret;
+		}
+
+		/**
+		 * @return a copy without the given object, or the same instance if the object was not indexed
+		 */
+		PathEntries without(final UUID id) {
+			final int idx = indexOf(id);
+
+			if (idx < 0)
+				return this;
+
+			return new PathEntries(this, -1, idx);
+		}
+
+		private synchronized void buildTimeline() {
+			if (visible != null)
+				return;
+
+			final long[] allBoundaries = new long[count * 2];
+
+			for (int i = 0; i < count; i++) {
+				allBoundaries[2 * i] = validFrom[i];
+				allBoundaries[2 * i + 1] = validUntil[i];
+			}
+
+			Arrays.sort(allBoundaries);
+
+			int distinct = 0;
+
+			for (int i = 0; i < allBoundaries.length; i++)
+				if (distinct == 0 || allBoundaries[distinct - 1] != allBoundaries[i])
+					allBoundaries[distinct++] = allBoundaries[i];
+
+			final long[] b = distinct > 0 ? Arrays.copyOf(allBoundaries, distinct) : EMPTY_LONGS;
+
+			final int segments = Math.max(distinct - 1, 0);
+
+			final int[] owner = new int[segments];
+			Arrays.fill(owner, -1);
+
+			// next[j] = first segment >= j that is not yet painted (disjoint set union with path halving)
+			final int[] next = new int[segments + 1];
+
+			for (int j = 0; j <= segments; j++)
+				next[j] = j;
+
+			// entries are sorted newest first, so the first entry to cover a segment is the visible one
+			for (int i = 0; i < count; i++) {
+				if (validFrom[i] >= validUntil[i])
+					continue;
+
+				final int from = Arrays.binarySearch(b, validFrom[i]);
+				final int to = Arrays.binarySearch(b, validUntil[i]);
+
+				for (int j = find(next, from); j < to; j = find(next, j + 1)) {
+					owner[j] = i;
+					next[j] = j + 1;
+				}
+			}
+
+			boundaries = b;
+			visible = owner;
+		}
+
+		private static int find(final int[] next, final int start) {
+			int j = start;
+
+			while (next[j] != j) {
+				next[j] = next[next[j]];
+				j = next[j];
+			}
+
+			return j;
+		}
+
+		/**
+		 * @param time
+		 * @return index of the most recent entry that is valid at the given time, or -1 if none
+		 */
+		int visibleAt(final long time) {
+			if (visible == null)
+				buildTimeline();
+
+			final int pos = Arrays.binarySearch(boundaries, time);
+
+			final int segment = pos >= 0 ? pos : -pos - 2;
+
+			if (segment < 0 || segment >= visible.length)
+				return -1;
+
+			return visible[segment];
+		}
+
+		boolean matchesMetadata(final int idx, final int[] keys, final String[] values) {
+			final int[] entryKeys = metadataKeys[idx];
+
+			outer: for (int k = 0; k < keys.length; k++) {
+				for (int j = 0; j < entryKeys.length; j++)
+					if (entryKeys[j] == keys[k]) {
+						if (!values[k].equals(metadataValues[idx][j]))
+							return false;
+
+						continue outer;
+					}
+
+				return false;
+			}
+
+			return true;
+		}
+
+		/**
+		 * @param parser
+		 * @param keys
+		 *            metadata IDs of the flag constraints
+		 * @param values
+		 *            constraint values
+		 * @return index of the most recent entry matching all constraints, or -1 if none
+		 */
+		int find(final RequestParser parser, final int[] keys, final String[] values) {
+			final boolean onlyTime = parser.uuidConstraint == null && parser.notAfter <= 0 && parser.notBefore <= 0 && keys.length == 0;
+
+			if (onlyTime && parser.startTimeSet)
+				return visibleAt(parser.startTime);
+
+			final long msb = parser.uuidConstraint != null ? parser.uuidConstraint.getMostSignificantBits() : 0;
+			final long lsb = parser.uuidConstraint != null ? parser.uuidConstraint.getLeastSignificantBits() : 0;
+
+			for (int i = 0; i < count; i++) {
+				if (parser.uuidConstraint != null && (idMsb[i] != msb || idLsb[i] != lsb))
+					continue;
+
+				if (parser.startTimeSet && (validFrom[i] > parser.startTime || validUntil[i] <= parser.startTime))
+					continue;
+
+				if (parser.notAfter > 0 && createTime[i] > parser.notAfter)
+					continue;
+
+				if (parser.notBefore > 0 && createTime[i] < parser.notBefore)
+					break;
+
+				if (keys.length > 0 && !matchesMetadata(i, keys, values))
+					continue;
+
+				return i;
+			}
+
+			return -1;
+		}
+
+		UUID getId(final int idx) {
+			return new UUID(idMsb[idx], idLsb[idx]);
+		}
+	}
+
+	private static final class PathIndex {
+		volatile PathEntries entries;
+		volatile long lastAccess = System.currentTimeMillis();
+
+		PathIndex(final PathEntries entries) {
+			this.entries = entries;
+		}
+	}
+
+	private final boolean enabled = Options.getIntOption("index.inmemory", 0) == 1;
+
+	private final int maxPaths = Options.getIntOption("index.inmemory.paths", 10000);
+
+	private final Map<Integer, PathIndex> indexes = new ConcurrentHashMap<>();
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong staleFallbacks = new AtomicLong();
+	private final AtomicLong updates = new AtomicLong();
+
+	private SQLPathIndex() {
+		if (enabled) {
+			monitor.addMonitoring("index", this);
+			logger.log(Level.INFO, "In-memory path index enabled, keeping up to " + maxPaths + " paths");
+		}
+	}
+
+	private static SQLPathIndex instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized SQLPathIndex getInstance() {
+		if (instance == null)
+			instance = new SQLPathIndex();
+
+		return instance;
+	}
+
+	/**
+	 * @return <code>true</code> if the in-memory index mode was enabled in the configuration
+	 */
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	private static PathEntries load(final Integer pathId) {
+		try (DBFunctions db = SQLObject.getDB(); Timing t = new Timing(monitor, "index_load_ms")) {
+			db.setReadOnly(true);
+
+			if (!db.query("SELECT id, createTime, extract(epoch from lower(validity))*1000, extract(epoch from upper(validity))*1000, size, metadata FROM ccdb WHERE pathId=? ORDER BY createTime DESC, id DESC;",
+					false, pathId))
+				return null;
+
+			PathEntries ret = new PathEntries(64);
+
+			int idx = 0;
+
+			while (db.moveNext()) {
+				if (idx == ret.count)
+					ret = ret.resize(idx * 2);
+
+				final UUID id = (UUID) db.getObject(1);
+
+				ret.idMsb[idx] = id.getMostSignificantBits();
+				ret.idLsb[idx] = id.getLeastSignificantBits();
+				ret.createTime[idx] = db.getl(2);
+				ret.validFrom[idx] = db.getl(3);
+				ret.validUntil[idx] = db.getl(4);
+				ret.size[idx] = db.getl(5);
+				ret.setMetadata(idx, (Map<?, ?>) db.getObject(6));
+
+				idx++;
+			}
+
+			return ret.resize(idx);
+		}
+	}
+
+	/**
+	 * @param pathId
+	 * @return the current entries for this path, loading them if needed, or <code>null</code> if the database could not be queried
+	 */
+	PathEntries getEntries(final Integer pathId) {
+		PathIndex index = indexes.get(pathId);
+
+		if (index == null) {
+			index = indexes.computeIfAbsent(pathId, k -> {
+				final PathEntries entries = load(k);
+
+				if (entries == null)
+					return null;
+
+				loads.incrementAndGet();
+				return new PathIndex(entries);
+			});
+
+			if (index == null)
+				return null;
+
+			if (indexes.size() > maxPaths)
+				evict();
+		}
+
+		index.lastAccess = System.currentTimeMillis();
+
+		return index.entries;
+	}
+
+	private synchronized void evict() {
+		while (indexes.size() > maxPaths) {
+			Integer oldestPath = null;
+			long oldestAccess = Long.MAX_VALUE;
+
+			final Iterator<Map.Entry<Integer, PathIndex>> it = indexes.entrySet().iterator();
+
+			while (it.hasNext()) {
+				final Map.Entry<Integer, PathIndex> entry = it.next();
+
+				if (entry.getValue().lastAccess < oldestAccess) {
+					oldestAccess = entry.getValue().lastAccess;
+					oldestPath = entry.getKey();
+				}
+			}
+
+			if (oldestPath == null)
+				break;
+
+			indexes.remove(oldestPath);
+		}
+	}
+
+	/**
+	 * Look up the ID of the most recent object matching the request constraints
+	 *
+	 * @param parser
+	 * @param pathId
+	 * @param entries
+	 *            the path entries, as returned by {@link #getEntries(Integer)}
+	 * @return the object ID, or <code>null</code> if no object matches
+	 */
+	UUID find(final RequestParser parser, final PathEntries entries) {
+		lookups.incrementAndGet();
+
+		int[] keys = EMPTY_INTS;
+		String[] values = EMPTY_STRINGS;
+
+		if (parser.flagConstraints != null && parser.flagConstraints.size() > 0) {
+			keys = new int[parser.flagConstraints.size()];
+			values = new String[keys.length];
+
+			int i = 0;
+
+			for (final Map.Entry<String, String> constraint : parser.flagConstraints.entrySet()) {
+				final Integer metadataId = SQLObject.getMetadataID(constraint.getKey(), false);
+
+				if (metadataId == null)
+					return null;
+
+				keys[i] = metadataId.intValue();
+				values[i] = constraint.getValue();
+				i++;
+			}
+		}
+
+		final int idx = entries.find(parser, keys, values);
+
+		return idx >= 0 ? entries.getId(idx) : null;
+	}
+
+	/**
+	 * Forget everything about a path, for example when the index was found to be out of sync with the database
+	 *
+	 * @param pathId
+	 */
+	void drop(final Integer pathId) {
+		if (indexes.remove(pathId) != null)
+			staleFallbacks.incrementAndGet();
+	}
+
+	/**
+	 * Forget all the indexes, they will be loaded again from the database on the next lookup
+	 */
+	void clear() {
+		indexes.clear();
+	}
+
+	@Override
+	public boolean isSynchronous() {
+		return true;
+	}
+
+	@Override
+	public void newObject(final SQLObject object) {
+		if (!enabled || object.pathId == null)
+			return;
+
+		// only paths that are already in memory are updated, the others will be loaded on first access
+		indexes.computeIfPresent(object.pathId, (k, index) -> {
+			index.entries = index.entries.with(object);
+			return index;
+		});
+
+		updates.incrementAndGet();
+	}
+
+	@Override
+	public void updatedObject(final SQLObject object) {
+		newObject(object);
+	}
+
+	@Override
+	public void deletedObject(final SQLObject object) {
+		if (!enabled || object.pathId == null)
+			return;
+
+		indexes.computeIfPresent(object.pathId, (k, index) -> {
+			index.entries = index.entries.without(object.id);
+			return index;
+		});
+
+		updates.incrementAndGet();
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		long objects = 0;
+
+		for (final PathIndex index : indexes.values())
+			objects += index.entries.count;
+
+		paramNames.add("lookups");
+		paramValues.add(Double.valueOf(lookups.get()));
+
+		paramNames.add("loads");
+		paramValues.add(Double.valueOf(loads.get()));
+
+		paramNames.add("updates");
+		paramValues.add(Double.valueOf(updates.get()));
+
+		paramNames.add("stale_fallbacks");
+		paramValues.add(Double.valueOf(staleFallbacks.get()));
+
+		paramNames.add("indexed_paths");
+		paramValues.add(Double.valueOf(indexes.size()));
+
+		paramNames.add("indexed_objects");
+		paramValues.add(Double.valueOf(objects));
+	}
+
+	@Override
+	public String toString() {
+		return "SQLPathIndex";
+	}
+}
@@ -0,0 +1,180 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups of columns of the <code>ccdb</code> table that a listing can select independently of each other. When the client restricts the returned fields (the
+ * <code>X-Filter-Fields</code> header) only the columns backing these fields are read from the database and decoded, for example a listing of just
+ * <code>id,validFrom,validUntil</code> doesn't transfer the metadata, the replicas or the file names of each object.<br>
+ * <br>
+ * The object ID, the path ID and the creation time are always selected, they identify and order the objects.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class SQLProjection {
+	/**
+	 * <code>validity</code>, as the <code>validfrom</code> and <code>validuntil</code> epoch milliseconds
+	 */
+	static final int VALIDITY = 1;
+
+	/**
+	 * <code>initialvalidity</code>
+	 */
+	static final int INITIAL_VALIDITY = 1 << 1;
+
+	/**
+	 * <code>md5</code>
+	 */
+	static final int MD5 = 1 << 2;
+
+	/**
+	 * <code>filename</code>
+	 */
+	static final int FILE_NAME = 1 << 3;
+
+	/**
+	 * <code>contenttype</code>
+	 */
+	static final int CONTENT_TYPE = 1 << 4;
+
+	/**
+	 * <code>size</code>
+	 */
+	static final int SIZE = 1 << 5;
+
+	/**
+	 * <code>uploadedfrom</code>
+	 */
+	static final int UPLOADED_FROM = 1 << 6;
+
+	/**
+	 * <code>metadata</code>
+	 */
+	static final int METADATA = 1 << 7;
+
+	/**
+	 * <code>replicas</code>
+	 */
+	static final int REPLICAS = 1 << 8;
+
+	/**
+	 * All columns, the same as {@link SQLQueryShapes#OBJECT_COLUMNS}
+	 */
+	static final int ALL = (1 << 9) - 1;
+
+	/**
+	 * Number of bits taken by the column masks
+	 */
+	static final int BITS = 9;
+
+	/**
+	 * Columns needed by each of the standard fields of the browsing formatters, by the names under which they are returned to the client (both old and new style). The fields
+	 * that are computed from the always selected columns map to <code>0</code>.
+	 */
+	private static final Map<String, Integer> FIELD_COLUMNS = new HashMap<>();
+
+	private static void field(final int columns, final String... names) {
+		for (final String name : names)
+			FIELD_COLUMNS.put(name, Integer.valueOf(columns));
+	}
+
+	static {
+		field(0, "path", "id", "ETag", "createTime", "Created");
+		field(METADATA, "lastModified", "Last-Modified");
+		field(VALIDITY, "validFrom", "validUntil", "Valid-From", "Valid-Until");
+		field(INITIAL_VALIDITY, "initialValidity", "InitialValidityLimit");
+		field(MD5, "MD5", "Content-MD5");
+		field(FILE_NAME, "fileName", "Content-Disposition");
+		field(CONTENT_TYPE, "contentType", "Content-Type");
+		field(SIZE, "size", "Content-Length");
+		field(UPLOADED_FROM | METADATA, "UploadedFrom");
+		field(REPLICAS, "replicas");
+	}
+
+	private static final String[] selectLists = new String[ALL + 1];
+
+	private SQLProjection() {
+		// static helper methods only
+	}
+
+	/**
+	 * @param fields
+	 *            the fields that the client asked for, <code>null</code> or empty for all of them
+	 * @return the columns that have to be read to produce these fields
+	 */
+	static int forFields(final Set<String> fields) {
+		if (fields == null || fields.isEmpty())
+			return ALL;
+
+		int columns = 0;
+
+		for (final String field : fields) {
+			final Integer fieldColumns = FIELD_COLUMNS.get(field);
+
+			if (fieldColumns != null) {
+				columns |= fieldColumns.intValue();
+
+				// a metadata key of the same name would replace the value of the standard field in the output
+				if (SQLObject.getMetadataID(field, false) != null)
+					columns |= METADATA;
+			}
+			else
+				// anything else is a metadata key
+				columns |= METADATA;
+		}
+
+		return columns;
+	}
+
+	/**
+	 * @param columns
+	 *            column groups
+	 * @return the select list that reads them
+	 */
+	static String getSelectList(final int columns) {
+		if (columns == ALL)
+			return SQLQueryShapes.OBJECT_COLUMNS;
+
+		String ret = selectLists[columns];
+
+		if (ret == null) {
+			final StringBuilder sb = new StringBuilder("id,pathid,createtime");
+
+			if ((columns & VALIDITY) != 0)
+				sb.append(",extract(epoch from lower(validity))*1000 as validfrom,extract(epoch from upper(validity))*1000 as validuntil");
+
+			if ((columns & INITIAL_VALIDITY) != 0)
+				sb.append(",initialvalidity");
+
+			if ((columns & MD5) != 0)
+				sb.append(",md5");
+
+			if ((columns & FILE_NAME) != 0)
+				sb.append(",filename");
+
+			if ((columns & CONTENT_TYPE) != 0)
+				sb.append(",contenttype");
+
+			if ((columns & SIZE) != 0)
+				sb.append(",size");
+
+			if ((columns & UPLOADED_FROM) != 0)
+				sb.append(",uploadedfrom");
+
+			if ((columns & METADATA) != 0)
+				sb.append(",metadata");
+
+			if ((columns & REPLICAS) != 0)
+				sb.append(",replicas");
+
+			ret = sb.toString();
+
+			selectLists[columns] = ret;
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,360 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.RequestParser;
+
+/**
+ * The object lookup queries only differ by which constraints are present in the request. This class keeps one SQL text per combination (UUID, start time, If-Not-After,
+ * If-Not-Before, metadata predicates as planned by {@link SQLMetadataPlanner}, limit, single or multiple paths, selected columns) so that the text is not rebuilt for each request and the JDBC
+ * driver can reuse the server-side prepared statements, whose cache is keyed by the query text.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+class SQLQueryShapes implements MonitoringObject {
+	/**
+	 * Columns to read to build a {@link SQLObject} from a row
+	 */
+	static final String OBJECT_COLUMNS = "*,extract(epoch from lower(validity))*1000 as validfrom,extract(epoch from upper(validity))*1000 as validuntil";
+
+	/**
+	 * Columns to read for a conditional request: the entire row, but without the metadata and the replicas when the object is the one that the client already has (the first two
+	 * query arguments)
+	 */
+	static final String UNLESS_ID_COLUMNS = SQLProjection.getSelectList(SQLProjection.ALL & ~(SQLProjection.METADATA | SQLProjection.REPLICAS))
+			+ ",CASE WHEN id=? THEN NULL ELSE metadata END AS metadata,CASE WHEN id=? THEN NULL ELSE replicas END AS replicas";
+
+	/**
+	 * Common part of all object lookup queries
+	 */
+	static final String SELECT_OBJECTS = "SELECT " + OBJECT_COLUMNS + " FROM ccdb";
+
+	/**
+	 * No LIMIT clause
+	 */
+	static final int LIMIT_NONE = 0;
+
+	/**
+	 * <code>LIMIT 1</code>
+	 */
+	static final int LIMIT_ONE = 1;
+
+	/**
+	 * <code>LIMIT ?</code>, the value being passed as the last argument
+	 */
+	static final int LIMIT_ARGUMENT = 2;
+
+	/**
+	 * Shape of the fixed constraints -&gt; metadata predicates, as built by {@link SQLMetadataPlanner} -&gt; SQL text
+	 */
+	private static final Map<Integer, Map<String, String>> shapes = new ConcurrentHashMap<>();
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	private static final SQLQueryShapes instance = new SQLQueryShapes();
+
+	private SQLQueryShapes() {
+		// singleton, only used for monitoring
+	}
+
+	/**
+	 * @return monitoring producer of the cache statistics
+	 */
+	static SQLQueryShapes getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Build the arguments of the object lookup query and return the SQL text that matches them
+	 *
+	 * @param parser
+	 *            request constraints
+	 * @param pathId
+	 *            path to query
+	 * @param skipUnknownFlags
+	 *            if <code>true</code> then flag constraints on unknown metadata keys are ignored, if <code>false</code> then <code>null</code> is returned for them since no object
+	 *            can match
+	 * @param limit
+	 *            one of {@link #LIMIT_NONE}, {@link #LIMIT_ONE} or {@link #LIMIT_ARGUMENT}
+	 * @param limitValue
+	 *            value of the limit, in case of {@link #LIMIT_ARGUMENT}
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query, or <code>null</code> if nothing can match
+	 */
+	static String getMatchingQuery(final RequestParser parser, final Integer pathId, final boolean skipUnknownFlags, final int limit, final int limitValue, final List<Object> arguments) {
+		return getMatchingQuery(parser, pathId, skipUnknownFlags, limit, limitValue, SQLProjection.ALL, arguments);
+	}
+
+	/**
+	 * Same as {@link #getMatchingQuery(RequestParser, Integer, boolean, int, int, List)} but only selecting some of the columns
+	 *
+	 * @param parser
+	 *            request constraints
+	 * @param pathId
+	 *            path to query
+	 * @param skipUnknownFlags
+	 *            whether to ignore the flag constraints on unknown metadata keys
+	 * @param limit
+	 *            one of {@link #LIMIT_NONE}, {@link #LIMIT_ONE} or {@link #LIMIT_ARGUMENT}
+	 * @param limitValue
+	 *            value of the limit, in case of {@link #LIMIT_ARGUMENT}
+	 * @param columns
+	 *            column groups to select, see {@link SQLProjection}
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query, or <code>null</code> if nothing can match
+	 */
+	static String getMatchingQuery(final RequestParser parser, final Integer pathId, final boolean skipUnknownFlags, final int limit, final int limitValue, final int columns,
+			final List<Object> arguments) {
+		arguments.add(pathId);
+
+		return getQuery(parser, columns << COLUMNS_SHIFT, skipUnknownFlags, limit, limitValue, arguments);
+	}
+
+	/**
+	 * Same as {@link #getMatchingQuery(RequestParser, Integer, boolean, int, int, List)} with {@link #LIMIT_ONE}, but selecting the {@link #UNLESS_ID_COLUMNS}, so that the
+	 * metadata and the replicas are not transferred if the most recent matching object is the one that the client already has
+	 *
+	 * @param parser
+	 *            request constraints
+	 * @param pathId
+	 *            path to query
+	 * @param knownId
+	 *            ID of the object that the client has
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query, or <code>null</code> if nothing can match
+	 */
+	static String getMatchingQueryUnlessId(final RequestParser parser, final Integer pathId, final UUID knownId, final List<Object> arguments) {
+		arguments.add(knownId);
+		arguments.add(knownId);
+		arguments.add(pathId);
+
+		return getQuery(parser, UNLESS_ID, false, LIMIT_ONE, 0, arguments);
+	}
+
+	/**
+	 * Same as {@link #getMatchingQuery(RequestParser, Integer, boolean, int, int, List)} but for any number of paths in a single statement. Flag constraints on unknown metadata
+	 * keys are ignored. If the request only asks for the latest object (the default), the most recent matching object of each path is selected with a <code>LATERAL</code>
+	 * subquery. A positive browse limit is applied over the entire result set, keeping the newest objects.
+	 *
+	 * @param parser
+	 *            request constraints
+	 * @param pathIds
+	 *            paths to query
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query
+	 */
+	static String getMultiPathQuery(final RequestParser parser, final Collection<Integer> pathIds, final List<Object> arguments) {
+		return getMultiPathQuery(parser, pathIds, SQLProjection.ALL, arguments);
+	}
+
+	/**
+	 * Same as {@link #getMultiPathQuery(RequestParser, Collection, List)} but only selecting some of the columns
+	 *
+	 * @param parser
+	 *            request constraints
+	 * @param pathIds
+	 *            paths to query
+	 * @param columns
+	 *            column groups to select, see {@link SQLProjection}
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query
+	 */
+	static String getMultiPathQuery(final RequestParser parser, final Collection<Integer> pathIds, final int columns, final List<Object> arguments) {
+		arguments.add(toArray(pathIds));
+
+		final int limit = parser.browseLimit > 0 ? LIMIT_ARGUMENT : LIMIT_NONE;
+
+		return getQuery(parser, MULTI_PATH | (parser.latestFlag ? LATEST_PER_PATH : 0) | (columns << COLUMNS_SHIFT), true, limit, parser.browseLimit, arguments);
+	}
+
+	/**
+	 * Remove, in one statement, up to <code>batchSize</code> objects of the given paths that match the request constraints, returning the removed rows. A positive browse limit
+	 * of the request selects the newest objects first, the caller has to pass the remaining number of objects to delete as batch size.
+	 *
+	 * @param parser
+	 *            request constraints
+	 * @param pathIds
+	 *            paths to clean up
+	 * @param batchSize
+	 *            maximum number of rows to delete
+	 * @param arguments
+	 *            list to fill with the query arguments
+	 * @return the SQL query
+	 */
+	static String getBulkDeleteQuery(final RequestParser parser, final Collection<Integer> pathIds, final int batchSize, final List<Object> arguments) {
+		arguments.add(toArray(pathIds));
+
+		return getQuery(parser, MULTI_PATH | BULK_DELETE | (parser.browseLimit > 0 ? ORDERED : 0), true, LIMIT_ARGUMENT, batchSize, arguments);
+	}
+
+	private static String toArray(final Collection<Integer> pathIds) {
+		final StringBuilder array = new StringBuilder(pathIds.size() * 11 + 2);
+
+		array.append('{');
+
+		for (final Integer pathId : pathIds) {
+			if (array.length() > 1)
+				array.append(',');
+
+			array.append(pathId);
+		}
+
+		array.append('}');
+
+		return array.toString();
+	}
+
+	private static final int MULTI_PATH = 1 << 6;
+
+	private static final int LATEST_PER_PATH = 1 << 7;
+
+	private static final int BULK_DELETE = 1 << 8;
+
+	private static final int ORDERED = 1 << 9;
+
+	private static final int UNLESS_ID = 1 << 10;
+
+	/**
+	 * The {@link SQLProjection} column groups to select are stored in the shape starting from this bit
+	 */
+	private static final int COLUMNS_SHIFT = 11;
+
+	private static String getQuery(final RequestParser parser, final int mode, final boolean skipUnknownFlags, final int limit, final int limitValue, final List<Object> arguments) {
+		int shape = mode;
+
+		if (parser.uuidConstraint != null) {
+			shape |= 1;
+			arguments.add(parser.uuidConstraint);
+		}
+
+		if (parser.startTimeSet) {
+			shape |= 2;
+			arguments.add(Double.valueOf(parser.startTime / 1000.));
+		}
+
+		if (parser.notAfter > 0) {
+			shape |= 4;
+			arguments.add(Long.valueOf(parser.notAfter));
+		}
+
+		if (parser.notBefore > 0) {
+			shape |= 8;
+			arguments.add(Long.valueOf(parser.notBefore));
+		}
+
+		final SQLMetadataPlanner.Plan plan = SQLMetadataPlanner.getInstance().plan(parser.flagConstraints, skipUnknownFlags);
+
+		if (plan == null)
+			return null;
+
+		arguments.addAll(plan.arguments);
+
+		if (limit == LIMIT_ARGUMENT)
+			arguments.add(Integer.valueOf(limitValue));
+
+		shape |= limit << 4;
+
+		final Map<String, String> byPredicates = shapes.computeIfAbsent(Integer.valueOf(shape), k -> new ConcurrentHashMap<>());
+
+		final String cached = byPredicates.get(plan.predicates);
+
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+
+		misses.incrementAndGet();
+
+		final int finalShape = shape;
+
+		return byPredicates.computeIfAbsent(plan.predicates, k -> buildQuery(finalShape, k));
+	}
+
+	private static String buildQuery(final int shape, final String metadataPredicates) {
+		final StringBuilder constraints = new StringBuilder();
+
+		if ((shape & 1) != 0)
+			constraints.append(" AND id=?");
+
+		if ((shape & 2) != 0)
+			constraints.append(" AND to_timestamp(?) AT TIME ZONE 'UTC' <@ validity");
+
+		if ((shape & 4) != 0)
+			constraints.append(" AND createTime<=?");
+
+		if ((shape & 8) != 0)
+			constraints.append(" AND createTime>=?");
+
+		constraints.append(metadataPredicates);
+
+		final int limit = (shape >> 4) & 3;
+
+		final StringBuilder q = new StringBuilder();
+
+		final int columns = (shape >> COLUMNS_SHIFT) & SQLProjection.ALL;
+
+		final String selectObjects = columns == SQLProjection.ALL ? SELECT_OBJECTS : "SELECT " + SQLProjection.getSelectList(columns) + " FROM ccdb";
+
+		if ((shape & MULTI_PATH) == 0) {
+			q.append((shape & UNLESS_ID) != 0 ? "SELECT " + UNLESS_ID_COLUMNS + " FROM ccdb" : selectObjects).append(" WHERE pathId=?").append(constraints).append(" ORDER BY createTime DESC");
+
+			if (limit == LIMIT_ONE)
+				q.append(" LIMIT 1");
+			else if (limit == LIMIT_ARGUMENT)
+				q.append(" LIMIT ?");
+		}
+		else if ((shape & BULK_DELETE) != 0) {
+			q.append("DELETE FROM ccdb WHERE id IN (SELECT id FROM ccdb WHERE pathId=ANY(?::int[])").append(constraints);
+
+			if ((shape & ORDERED) != 0)
+				q.append(" ORDER BY createTime DESC");
+
+			q.append(" LIMIT ?) RETURNING ").append(OBJECT_COLUMNS);
+		}
+		else {
+			if ((shape & LATEST_PER_PATH) != 0)
+				q.append("SELECT o.* FROM unnest(?::int[]) AS p(pathid) CROSS JOIN LATERAL (").append(selectObjects).append(" WHERE ccdb.pathId=p.pathid").append(constraints)
+						.append(" ORDER BY createTime DESC LIMIT 1) AS o");
+			else
+				q.append(selectObjects).append(" WHERE pathId=ANY(?::int[])").append(constraints);
+
+			if (limit == LIMIT_ARGUMENT)
+				q.append(" ORDER BY createTime DESC LIMIT ?");
+		}
+
+		q.append(';');
+
+		return q.toString();
+	}
+
+	@Override
+	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+		paramNames.add("statement_cache_hits");
+		paramValues.add(Double.valueOf(hits.get()));
+
+		paramNames.add("statement_cache_misses");
+		paramValues.add(Double.valueOf(misses.get()));
+
+		long size = 0;
+
+		for (final Map<String, String> byPredicates : shapes.values())
+			size += byPredicates.size();
+
+		paramNames.add("statement_cache_size");
+		paramValues.add(Double.valueOf(size));
+	}
+}
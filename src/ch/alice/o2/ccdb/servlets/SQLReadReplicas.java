@@ -0,0 +1,338 @@
+package ch.alice.o2.ccdb.servlets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.Options;
+import lazyj.DBFunctions;
+import lazyj.ExtProperties;
+
+/**
+ * Routing of the read-only queries to hot standby replicas of the database. Each replica has its own connection pool and is health checked in the background; lookups are
+ * balanced round-robin over the replicas that answer and don't lag too much behind the primary. Writes, the dictionaries and anything that has to see the latest state stay on
+ * the primary server ({@link SQLObject#getDB()}).<br>
+ * <br>
+ * Read-your-writes: every change of an object marks its path as recently modified and, for a short while, the queries that involve that path are sent to the primary. Lookups by
+ * object ID that don't find anything on a replica are repeated on the primary, since the object might have just been uploaded.<br>
+ * <br>
+ * Configuration keys:
+ * <ul>
+ * <li><code>db.replicas</code> - comma separated list of <code>host[:port]</code> of the replicas, sharing all other connection settings with the primary (defaults to the
+ * <code>replicas</code> key of the database configuration file; none by default, in which case everything goes to the primary)</li>
+ * <li><code>db.replicas.check</code> - interval between two health checks, in seconds (default 5)</li>
+ * <li><code>db.replicas.maxlag</code> - replicas that have not replayed the changes of the last so many seconds are not used (default 30)</li>
+ * <li><code>db.replicas.stickiness</code> - for how long after a change the queries of a path keep going to the primary, in milliseconds (default and minimum: the maximum lag
+ * plus one check interval, so that a replica that is allowed to answer again has surely replayed the change)</li>
+ * </ul>
+ * The lag is measured against a heartbeat that the health check writes on the primary at each iteration, in the <code>ccdb_replica_heartbeat</code> table (created with the
+ * rest of the schema by {@link SQLBacked#createDBStructure()}), so it keeps growing when the replica stops receiving changes even if the primary is idle. A replica that is not
+ * streaming from the primary at all is not used either.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class SQLReadReplicas implements SQLNotifier {
+	private static final Monitor monitor = MonitorFactory.getMonitor(SQLReadReplicas.class.getCanonicalName());
+
+	private static Logger logger = Logger.getLogger(SQLReadReplicas.class.getCanonicalName());
+
+	/**
+	 * Executed on the primary before checking the replicas
+	 */
+	private static final String HEARTBEAT_QUERY = "INSERT INTO ccdb_replica_heartbeat (id, ts) VALUES (1, now()) ON CONFLICT (id) DO UPDATE SET ts=excluded.ts;";
+
+	/**
+	 * Whether the server is a standby, whether it is streaming from the primary (the status is only visible to privileged users, the row exists as long as the WAL receiver
+	 * runs) and how old is the last heartbeat it has replayed, in seconds
+	 */
+	private static final String HEALTH_CHECK_QUERY = "SELECT pg_is_in_recovery(), EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE coalesce(status, 'streaming') = 'streaming'), "
+			+ "extract(epoch FROM now() - (SELECT max(ts) FROM ccdb_replica_heartbeat));";
+
+	private final long checkInterval = Math.max(Options.getIntOption("db.replicas.check", 5), 1) * 1000L;
+
+	private final double maxLag = Options.getIntOption("db.replicas.maxlag", 30);
+
+	private final long stickiness = Math.max(Options.getIntOption("db.replicas.stickiness", 0), (long) (maxLag * 1000) + checkInterval);
+
+	/**
+	 * One read-only database server
+	 */
+	static final class Endpoint implements MonitoringObject {
+		private final String name;
+
+		private final SQLConnectionPool pool;
+
+		private volatile boolean healthy = false;
+
+		private volatile double lag = -1;
+
+		private volatile double checkMs = 0;
+
+		private final AtomicLong reads = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		private final AtomicLong failedChecks = new AtomicLong();
+
+		private Endpoint(final String name, final SQLConnectionPool pool) {
+			this.name = name;
+			this.pool = pool;
+		}
+
+		/**
+		 * @return a new database accessor to this replica
+		 */
+		DBFunctions getDB() {
+			reads.incrementAndGet();
+
+			return pool.getDB();
+		}
+
+		/**
+		 * Signal that a query could not be executed on this replica. It is taken out of the rotation until the next successful health check.
+		 */
+		void failed() {
+			errors.incrementAndGet();
+
+			if (healthy) {
+				healthy = false;
+				logger.log(Level.WARNING, "Replica " + name + " failed to execute a query, taking it out of the rotation until the next health check");
+			}
+		}
+
+		private void check(final double maxAcceptableLag) {
+			final long start = System.nanoTime();
+
+			boolean ok = false;
+
+			try (DBFunctions db = pool.getDB()) {
+				if (db != null && db.query(HEALTH_CHECK_QUERY, true) && db.moveNext()) {
+					if (!db.getb(1, true)) {
+						// promoted to primary, it has all the changes
+						lag = 0;
+						ok = true;
+					}
+					else {
+						// no heartbeat replayed yet counts as an infinite lag
+						lag = db.getd(3, Double.MAX_VALUE);
+						ok = db.getb(2, false) && lag <= maxAcceptableLag;
+					}
+				}
+			}
+
+			checkMs = (System.nanoTime() - start) / 1000000.;
+
+			if (!ok)
+				failedChecks.incrementAndGet();
+
+			if (ok != healthy) {
+				healthy = ok;
+				logger.log(ok ? Level.INFO : Level.WARNING, "Replica " + name + " is " + (ok ? "back in" : "taken out of") + " the rotation (lag: " + lag + "s)");
+			}
+		}
+
+		@Override
+		public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
+			pool.fillValues(paramNames, paramValues);
+
+			paramNames.add("healthy");
+			paramValues.add(Double.valueOf(healthy ? 1 : 0));
+
+			paramNames.add("lag_s");
+			paramValues.add(Double.valueOf(lag));
+
+			paramNames.add("check_ms");
+			paramValues.add(Double.valueOf(checkMs));
+
+			paramNames.add("reads");
+			paramValues.add(Double.valueOf(reads.get()));
+
+			paramNames.add("errors");
+			paramValues.add(Double.valueOf(errors.get()));
+
+			paramNames.add("failed_checks");
+			paramValues.add(Double.valueOf(failedChecks.get()));
+		}
+	}
+
+	private final List<Endpoint> endpoints;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Path ID -&gt; last time when an object of it was changed
+	 */
+	private final Map<Integer, Long> recentWrites = new ConcurrentHashMap<>();
+
+	private SQLReadReplicas(final ExtProperties config) {
+		final List<Endpoint> list = new ArrayList<>();
+
+		final String replicas = Options.getOption("db.replicas", config.gets("replicas", null));
+
+		if (replicas != null) {
+			final StringTokenizer st = new StringTokenizer(replicas, ", \t");
+
+			while (st.hasMoreTokens()) {
+				final String replica = st.nextToken();
+
+				final Properties overrides = new Properties();
+
+				final int idx = replica.lastIndexOf(':');
+
+				if (idx > 0) {
+					overrides.setProperty("host", replica.substring(0, idx));
+					overrides.setProperty("port", replica.substring(idx + 1));
+				}
+				else
+					overrides.setProperty("host", replica);
+
+				final Endpoint endpoint = new Endpoint(replica, new SQLConnectionPool(config, overrides));
+
+				list.add(endpoint);
+
+				monitor.addMonitoring("replica_" + replica.replaceAll("[^a-zA-Z0-9]", "_"), endpoint);
+			}
+		}
+
+		endpoints = Collections.unmodifiableList(list);
+
+		if (endpoints.size() > 0) {
+			final Thread checker = new Thread("SQLReadReplicas.healthCheck") {
+				@Override
+				public void run() {
+					while (true) {
+						try (DBFunctions db = SQLObject.getDB()) {
+							if (!db.query(HEARTBEAT_QUERY))
+								logger.log(Level.WARNING, "Cannot update the replication heartbeat on the primary");
+						}
+
+						for (final Endpoint endpoint : endpoints)
+							endpoint.check(maxLag);
+
+						final long now = System.currentTimeMillis();
+
+						recentWrites.values().removeIf(l -> now - l.longValue() >= stickiness);
+
+						try {
+							Thread.sleep(checkInterval);
+						}
+						catch (@SuppressWarnings("unused") final InterruptedException ie) {
+							return;
+						}
+					}
+				}
+			};
+
+			checker.setDaemon(true);
+			checker.start();
+		}
+	}
+
+	private static SQLReadReplicas instance = null;
+
+	/**
+	 * @return singleton
+	 */
+	static synchronized SQLReadReplicas getInstance() {
+		if (instance == null)
+			instance = new SQLReadReplicas(SQLObject.getConfig());
+
+		return instance;
+	}
+
+	/**
+	 * @return <code>true</code> if any replica was configured
+	 */
+	boolean isEnabled() {
+		return endpoints.size() > 0;
+	}
+
+	/**
+	 * Pick the replica to send a read-only query to
+	 *
+	 * @param pathIds
+	 *            the paths that the query touches, if known. Can be <code>null</code>.
+	 * @return the replica to use, or <code>null</code> if the query should go to the primary server
+	 */
+	Endpoint select(final Collection<Integer> pathIds) {
+		if (endpoints.isEmpty())
+			return null;
+
+		if (pathIds != null && !recentWrites.isEmpty()) {
+			final long now = System.currentTimeMillis();
+
+			for (final Integer pathId : pathIds) {
+				final Long lastWrite = recentWrites.get(pathId);
+
+				if (lastWrite != null && now - lastWrite.longValue() < stickiness) {
+					monitor.incrementCounter("primary_recent_write");
+					return null;
+				}
+			}
+		}
+
+		final int count = endpoints.size();
+		final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+
+		for (int i = 0; i < count; i++) {
+			final Endpoint endpoint = endpoints.get((start + i) % count);
+
+			if (endpoint.healthy)
+				return endpoint;
+		}
+
+		monitor.incrementCounter("primary_no_replica");
+
+		return null;
+	}
+
+	/**
+	 * Mark the given paths as modified, their queries will be sent to the primary for the next <code>db.replicas.stickiness</code> milliseconds
+	 *
+	 * @param pathIds
+	 */
+	void recordWrite(final Collection<Integer> pathIds) {
+		if (endpoints.isEmpty() || pathIds == null)
+			return;
+
+		final Long now = Long.valueOf(System.currentTimeMillis());
+
+		for (final Integer pathId : pathIds)
+			if (pathId != null)
+				recentWrites.put(pathId, now);
+	}
+
+	@Override
+	public boolean isSynchronous() {
+		return true;
+	}
+
+	@Override
+	public void newObject(final SQLObject object) {
+		recordWrite(Collections.singletonList(object.pathId));
+	}
+
+	@Override
+	public void updatedObject(final SQLObject object) {
+		recordWrite(Collections.singletonList(object.pathId));
+	}
+
+	@Override
+	public void deletedObject(final SQLObject object) {
+		recordWrite(Collections.singletonList(object.pathId));
+	}
+}
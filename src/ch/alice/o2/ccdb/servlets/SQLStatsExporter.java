@@ -38,7 +38,36 @@ public class SQLStatsExporter implements MonitoringObject {
 
 	@Override
 	public void fillValues(final Vector<String> paramNames, final Vector<Object> paramValues) {
-		try (DBFunctions db = SQLObject.getDB()) {
+		final SQLFolderStats stats = SQLFolderStats.getInstance();
+
+		if (stats.isLoaded()) {
+			long totalCount = 0;
+			long totalSize = 0;
+
+			final SQLFolderStats.Folder folder = stats.getFolder(path);
+
+			if (folder != null)
+				for (final SQLFolderStats.Folder subfolder : folder.getChildren()) {
+					totalCount += subfolder.getTotalCount();
+					totalSize += subfolder.getTotalSize();
+
+					paramNames.add(subfolder.getName() + "_count");
+					paramNames.add(subfolder.getName() + "_size");
+
+					paramValues.add(Double.valueOf(subfolder.getTotalCount()));
+					paramValues.add(Double.valueOf(subfolder.getTotalSize()));
+				}
+
+			paramNames.add("_TOTALS__count");
+			paramNames.add("_TOTALS__size");
+
+			paramValues.add(Double.valueOf(totalCount));
+			paramValues.add(Double.valueOf(totalSize));
+
+			return;
+		}
+
+		try (DBFunctions db = SQLObject.getReadDB()) {
 			if (path != null)
 				db.query("SELECT split_part(path,'/',?), sum(object_count), sum(object_size) FROM ccdb_paths INNER JOIN ccdb_stats USING(pathid) WHERE path LIKE ? GROUP BY 1;", false,
 						Integer.valueOf(depth), path + "/%");
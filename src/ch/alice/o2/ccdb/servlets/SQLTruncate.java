@@ -1,8 +1,10 @@
 package ch.alice.o2.ccdb.servlets;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -13,11 +15,16 @@ import javax.servlet.http.HttpServletResponse;
 import alien.monitoring.Monitor;
 import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
+import ch.alice.o2.ccdb.Options;
 import ch.alice.o2.ccdb.RequestParser;
 import lazyj.DBFunctions;
 
 /**
- * Remove all matching objects in a single operation.
+ * Remove all matching objects in a single operation.<br>
+ * <br>
+ * Rows are removed in batches of <code>truncate.batch.size</code> (default 1000) objects, each batch with one <code>DELETE ... RETURNING</code> statement. The returned rows
+ * are handed over to {@link AsyncPhysicalRemovalThread} for the removal of the physical files, and the paths left without any object are dropped with one more statement at the
+ * end.
  *
  * @author costing
  * @since 2018-06-08
@@ -28,42 +35,148 @@ public class SQLTruncate extends HttpServlet {
 
 	private static final Monitor monitor = MonitorFactory.getMonitor(SQLTruncate.class.getCanonicalName());
 
+	private static Logger logger = Logger.getLogger(SQLTruncate.class.getCanonicalName());
+
+	private static final int batchSize = Math.max(Options.getIntOption("truncate.batch.size", 1000), 1);
+
 	@Override
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
 		try (Timing t = new Timing(monitor, "TRUNCATE_ms")) {
 			final RequestParser parser = new RequestParser(request, true);
 
-			final Collection<SQLObject> matchingObjects = SQLObject.getAllMatchingObjects(parser);
+			final List<Integer> pathIDs = SQLObject.getPathIDsWithPatternFallback(parser);
 
-			if (matchingObjects != null && matchingObjects.size() > 0) {
-				for (final SQLObject object : matchingObjects) {
-					if (!object.delete()) {
-						response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Cannot delete " + object.id);
-						return;
-					}
+			if (pathIDs == null || pathIDs.isEmpty()) {
+				response.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
 
-					AsyncPhysicalRemovalThread.queueDeletion(object);
-				}
+			final long deleted = deleteMatchingObjects(parser, pathIDs);
+
+			if (deleted > 0) {
+				SQLReadReplicas.getInstance().recordWrite(pathIDs);
 
-				response.setHeader("Deleted", matchingObjects.size() + " objects");
+				for (final Integer pathID : pathIDs)
+					SQLInvalidationChannel.getInstance().publish(SQLInvalidationChannel.DELETED, pathID, null);
+			}
+
+			if (deleted < 0) {
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Cannot delete the objects matching " + parser.path);
+				return;
+			}
+
+			if (deleted == 0) {
+				response.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
 
-				response.sendError(HttpServletResponse.SC_NO_CONTENT);
+			response.setHeader("Deleted", deleted + " objects");
 
-				final List<Integer> pathIDs = SQLObject.getPathIDsWithPatternFallback(parser);
+			if (t.getMillis() > 0)
+				response.setHeader("Deleted-Rate", String.format("%.1f objects/s", Double.valueOf(deleted * 1000. / t.getMillis())));
 
-				if (pathIDs != null)
-					try (DBFunctions db = SQLObject.getDB()) {
-						for (final Integer pathID : pathIDs) {
-							db.query("SELECT 1 FROM ccdb WHERE pathid=? LIMIT 1;", false, pathID);
+			response.sendError(HttpServletResponse.SC_NO_CONTENT);
 
-							if (!db.moveNext())
-								if (db.query("DELETE FROM ccdb_paths WHERE pathid=?;", false, pathID))
-									SQLObject.removePathID(pathID);
+			removeEmptyPaths(pathIDs);
+		}
+	}
+
+	/**
+	 * Delete all objects matching the request, batch by batch
+	 *
+	 * @param parser
+	 * @param pathIDs
+	 * @return number of deleted objects, or <code>-1</code> if the first batch already failed
+	 */
+	private static long deleteMatchingObjects(final RequestParser parser, final List<Integer> pathIDs) {
+		long remaining = parser.browseLimit > 0 ? parser.browseLimit : Long.MAX_VALUE;
+
+		long deleted = 0;
+
+		final long started = System.currentTimeMillis();
+
+		try (DBFunctions db = SQLObject.getDB()) {
+			while (remaining > 0) {
+				final int limit = (int) Math.min(batchSize, remaining);
+
+				final List<Object> arguments = new ArrayList<>();
+
+				final String q = SQLQueryShapes.getBulkDeleteQuery(parser, pathIDs, limit, arguments);
+
+				final List<SQLObject> batch = new ArrayList<>(limit);
+
+				try (Timing batchTiming = new Timing(monitor, "TRUNCATE_batch_ms")) {
+					if (!db.query(q, false, arguments.toArray(new Object[0]))) {
+						logger.log(Level.WARNING, "Bulk removal of the objects matching " + parser.path + " failed after " + deleted + " objects");
+
+						return deleted > 0 ? deleted : -1;
+					}
+
+					while (db.moveNext()) {
+						try {
+							batch.add(new SQLObject(db));
+						}
+						catch (final Exception e) {
+							System.err.println("Got exception loading deleted object " + db.gets("id") + " from DB: " + e.getMessage());
 						}
 					}
+				}
+
+				AsyncPhysicalRemovalThread.queueDeletion(batch);
+
+				deleted += batch.size();
+				remaining -= batch.size();
+
+				monitor.incrementCounter("TRUNCATE_objects", batch.size());
+
+				if (batch.size() < limit)
+					break;
+
+				final long elapsed = System.currentTimeMillis() - started;
+
+				logger.log(Level.INFO, "Truncating " + parser.path + ": " + deleted + " objects removed in " + elapsed + " ms (" + (elapsed > 0 ? deleted * 1000 / elapsed : deleted)
+						+ " objects/s), " + AsyncPhysicalRemovalThread.getQueueLength() + " files waiting for physical removal");
+			}
+		}
+
+		final long elapsed = System.currentTimeMillis() - started;
+
+		if (elapsed > 0)
+			monitor.addMeasurement("TRUNCATE_rate", deleted * 1000. / elapsed);
+
+		return deleted;
+	}
+
+	/**
+	 * Drop the paths that don't have any object left, with a single statement
+	 *
+	 * @param pathIDs
+	 *            candidate paths
+	 */
+	private static void removeEmptyPaths(final List<Integer> pathIDs) {
+		final StringBuilder array = new StringBuilder("{");
+
+		for (final Integer pathID : pathIDs) {
+			if (array.length() > 1)
+				array.append(',');
+
+			array.append(pathID);
+		}
+
+		array.append('}');
+
+		try (DBFunctions db = SQLObject.getDB()) {
+			if (!db.query("DELETE FROM ccdb_paths WHERE pathid=ANY(?::int[]) AND NOT EXISTS (SELECT 1 FROM ccdb WHERE ccdb.pathid=ccdb_paths.pathid) RETURNING pathid, path;", false,
+					array.toString()))
+				return;
+
+			while (db.moveNext()) {
+				final Integer pathID = Integer.valueOf(db.geti(1));
+
+				SQLObject.removePathID(pathID);
+				SQLInvalidationChannel.getInstance().publish(SQLInvalidationChannel.PATH_REMOVED, pathID, null);
+				SQLFolderStats.getInstance().removePath(db.gets(2));
 			}
-			else
-				response.sendError(HttpServletResponse.SC_NOT_MODIFIED);
 		}
 	}
 }
@@ -9,6 +9,8 @@ import java.util.StringTokenizer;
 
 import javax.servlet.http.HttpServletRequest;
 
+import ch.alice.o2.ccdb.tools.CBORListing;
+
 /**
  * @author costing
  * @since Apr 27, 2020
@@ -50,7 +52,9 @@ public class FormatterFactory {
 			}
 		}
 
-		if ((sAccept.indexOf("application/json") >= 0) || (sAccept.indexOf("text/json") >= 0))
+		if (sAccept.indexOf(CBORListing.CONTENT_TYPE) >= 0)
+			formatter = new CBORFormatter();
+		else if ((sAccept.indexOf("application/json") >= 0) || (sAccept.indexOf("text/json") >= 0))
 			formatter = new JSONFormatter(fieldFilter);
 		else
 			if (sAccept.indexOf("text/html") >= 0)
@@ -1,14 +1,20 @@
 package ch.alice.o2.ccdb.servlets.formatters;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletResponse;
 
 import alien.test.cassandra.tomcat.Options;
 import ch.alice.o2.ccdb.multicast.Blob;
@@ -18,16 +24,82 @@ import lazyj.Format;
 import lazyj.Utils;
 
 /**
+ * JSON listing of objects, written directly as UTF-8 bytes in the response stream with pre-encoded field names (see {@link StreamingWriter}). The output is the same as
+ * serializing a map of the fields with <code>Format.toJSON()</code> would produce, including the field order and the metadata keys that replace standard fields of the same
+ * name, but the fields that are filtered out by <code>X-Filter-Fields</code> are not even computed.
+ *
  * @author costing
  * @since 2018-04-26
  */
 class JSONFormatter implements SQLFormatter {
 
-	private static final Set<String> IGNORED_MEMORY_HEADERS = Set.of("InitialValidityLimit", "Valid-Until", "OriginalFileName", "Last-Modified", "Valid-From", "Content-Type", "File-Size", "Created",
+	/**
+	 * Metadata keys of the memory objects that are already returned as standard fields
+	 */
+	static final Set<String> IGNORED_MEMORY_HEADERS = Set.of("InitialValidityLimit", "Valid-Until", "OriginalFileName", "Last-Modified", "Valid-From", "Content-Type", "File-Size", "Created",
 			"Content-MD5");
 
 	private static final Set<String> QC_SHORTCUT = Set.of("path", "createTime", "lastModified");
 
+	// the standard fields of an object, in the order in which they are written
+	private static final int PATH = 0;
+	private static final int CREATE_TIME = 1;
+	private static final int LAST_MODIFIED_OLD = 2;
+	private static final int CREATED = 3;
+	private static final int LAST_MODIFIED = 4;
+	private static final int ID = 5;
+	private static final int VALID_FROM_OLD = 6;
+	private static final int VALID_UNTIL_OLD = 7;
+	private static final int INITIAL_VALIDITY_OLD = 8;
+	private static final int MD5_OLD = 9;
+	private static final int FILE_NAME = 10;
+	private static final int CONTENT_TYPE_OLD = 11;
+	private static final int SIZE = 12;
+	private static final int ETAG = 13;
+	private static final int VALID_FROM = 14;
+	private static final int VALID_UNTIL = 15;
+	private static final int INITIAL_VALIDITY = 16;
+	private static final int CONTENT_MD5 = 17;
+	private static final int CONTENT_DISPOSITION = 18;
+	private static final int CONTENT_TYPE = 19;
+	private static final int CONTENT_LENGTH = 20;
+	private static final int UPLOADED_FROM = 21;
+
+	private static final String[] FIELD_NAMES = { "path", "createTime", "lastModified", "Created", "Last-Modified", "id", "validFrom", "validUntil", "initialValidity", "MD5",
+			"fileName", "contentType", "size", "ETag", "Valid-From", "Valid-Until", "InitialValidityLimit", "Content-MD5", "Content-Disposition", "Content-Type", "Content-Length",
+			"UploadedFrom" };
+
+	private static final Map<String, Integer> FIELD_INDEX = new HashMap<>();
+
+	private static final byte[][] FIELD_PREFIXES = new byte[FIELD_NAMES.length][];
+
+	static {
+		for (int i = 0; i < FIELD_NAMES.length; i++) {
+			FIELD_INDEX.put(FIELD_NAMES[i], Integer.valueOf(i));
+			FIELD_PREFIXES[i] = StreamingWriter.encodeJSONFieldName(FIELD_NAMES[i]);
+		}
+	}
+
+	private static final byte[] REPLICAS_PREFIX = StreamingWriter.encodeJSONFieldName("replicas");
+
+	private static final byte[] INCOMPLETE = (new String(StreamingWriter.encodeJSONFieldName("incomplete"), StandardCharsets.ISO_8859_1) + "true").getBytes(StandardCharsets.ISO_8859_1);
+
+	private static final byte[] ETAG_QUOTE = "\\\"".getBytes(StandardCharsets.ISO_8859_1);
+
+	private static final byte[] DISPOSITION_PREFIX = "inline;filename=\\\"".getBytes(StandardCharsets.ISO_8859_1);
+
+	private static final byte[] EXPANDED_OBJECT_SEPARATOR = ",\n  ".getBytes(StandardCharsets.ISO_8859_1);
+
+	private static final byte[] EXPANDED_LIST_SEPARATOR = ",\n    ".getBytes(StandardCharsets.ISO_8859_1);
+
+	// how to write the value of a standard field
+	private static final int ABSENT = 0;
+	private static final int NUMBER = 1;
+	private static final int STRING = 2;
+	private static final int UUID_STRING = 3;
+	private static final int ETAG_STRING = 4;
+	private static final int DISPOSITION_STRING = 5;
+
 	private final Set<String> fieldFilter;
 
 	private final boolean hasFilter;
@@ -46,6 +118,44 @@ class JSONFormatter implements SQLFormatter {
 	 */
 	private final boolean NEW_KEYS = Utils.stringToBool(Options.getOption("json.new.keys", "true"), true) || !OLD_KEYS;
 
+	/**
+	 * Standard fields that are part of each object with the current key style settings (<code>UploadedFrom</code> depends on the object)
+	 */
+	private final boolean[] present = new boolean[FIELD_NAMES.length];
+
+	/**
+	 * Standard fields that have to be written, the present ones that also pass the filter
+	 */
+	private final boolean[] selected = new boolean[FIELD_NAMES.length];
+
+	/**
+	 * Whether the filter asks for fields that are not among the standard ones (apart from <code>UploadedFrom</code>), so metadata and replicas have to be looked at
+	 */
+	private final boolean needsExtraFields;
+
+	private final boolean uploadedFromRequested;
+
+	private final boolean replicasSelected;
+
+	private final boolean incompleteSelected;
+
+	// the object that is currently being written
+	private final int[] kinds = new int[FIELD_NAMES.length];
+
+	private final long[] numbers = new long[FIELD_NAMES.length];
+
+	private final Object[] values = new Object[FIELD_NAMES.length];
+
+	private final List<String> metadataKeys = new ArrayList<>();
+
+	private final List<String> metadataValues = new ArrayList<>();
+
+	private final List<String> replicas = new ArrayList<>();
+
+	private boolean hasReplicas = false;
+
+	private boolean incomplete = false;
+
 	/**
 	 * Restrict the returned fields to the ones in this set. Can be <code>null</code> or empty to mean "all".
 	 *
@@ -59,6 +169,64 @@ class JSONFormatter implements SQLFormatter {
 			isQCShortcut = true;
 		else
 			isQCShortcut = false;
+
+		present[PATH] = true;
+
+		for (int i = CREATE_TIME; i <= LAST_MODIFIED_OLD; i++)
+			present[i] = OLD_KEYS;
+
+		for (int i = CREATED; i <= LAST_MODIFIED; i++)
+			present[i] = NEW_KEYS;
+
+		for (int i = ID; i <= SIZE; i++)
+			present[i] = OLD_KEYS;
+
+		for (int i = ETAG; i <= CONTENT_LENGTH; i++)
+			present[i] = NEW_KEYS;
+
+		for (int i = 0; i < FIELD_NAMES.length; i++)
+			// the QC shortcut returns the time fields without filtering them
+			selected[i] = (present[i] || i == UPLOADED_FROM) && (isQCShortcut || isSelected(FIELD_NAMES[i]));
+
+		boolean missingFields = false;
+
+		if (hasFilter)
+			for (final String field : fieldFilter) {
+				final Integer idx = FIELD_INDEX.get(field);
+
+				if (idx == null || (!present[idx.intValue()] && idx.intValue() != UPLOADED_FROM)) {
+					missingFields = true;
+					break;
+				}
+			}
+
+		needsExtraFields = missingFields;
+		uploadedFromRequested = hasFilter && fieldFilter.contains("UploadedFrom");
+		replicasSelected = isSelected("replicas");
+		incompleteSelected = isSelected("incomplete");
+	}
+
+	private boolean isSelected(final String field) {
+		return !hasFilter || fieldFilter.contains(field);
+	}
+
+	/**
+	 * @param uploadedFromPresent
+	 *            whether the object has the <code>UploadedFrom</code> field
+	 * @return <code>true</code> if the metadata and the replicas of the current object are needed
+	 */
+	private boolean needsExtraFields(final boolean uploadedFromPresent) {
+		return !hasFilter || needsExtraFields || (uploadedFromRequested && !uploadedFromPresent);
+	}
+
+	@Override
+	public PrintWriter getWriter(final HttpServletResponse response) throws IOException {
+		return new StreamingWriter(response.getOutputStream());
+	}
+
+	@Override
+	public Set<String> getFieldFilter() {
+		return hasFilter ? fieldFilter : null;
 	}
 
 	@Override
@@ -66,89 +234,312 @@ class JSONFormatter implements SQLFormatter {
 		writer.print("\"objects\":[\n");
 	}
 
-	private final void filterContent(final Map<String, Object> jsonContent) {
-		if (hasFilter) {
-			final Iterator<Map.Entry<String, Object>> it = jsonContent.entrySet().iterator();
+	private void writeMap(final PrintWriter writer, final Map<String, Object> jsonContent) {
+		if (NEW_LINES)
+			writer.println(Format.toJSON(jsonContent, true));
+		else
+			writer.print(Format.toJSON(jsonContent, false));
+	}
+
+	private void startObject() {
+		Arrays.fill(kinds, ABSENT);
+		Arrays.fill(values, null);
+
+		metadataKeys.clear();
+		metadataValues.clear();
+		replicas.clear();
+
+		hasReplicas = false;
+		incomplete = false;
+	}
+
+	private void set(final int field, final long value) {
+		kinds[field] = NUMBER;
+		numbers[field] = value;
+	}
+
+	private void set(final int field, final int kind, final Object value) {
+		kinds[field] = kind;
+		values[field] = value;
+	}
+
+	/**
+	 * Add one metadata entry of the current object
+	 *
+	 * @param key
+	 * @param value
+	 * @param uploadedFromPresent
+	 *            whether the object has the <code>UploadedFrom</code> field
+	 */
+	private void addMetadata(final String key, final String value, final boolean uploadedFromPresent) {
+		final Integer idx = FIELD_INDEX.get(key);
+
+		if (idx != null) {
+			final int field = idx.intValue();
 
-			while (it.hasNext()) {
-				final Map.Entry<String, Object> entry = it.next();
+			if (present[field] || (field == UPLOADED_FROM && uploadedFromPresent)) {
+				// a metadata key with the same name as a standard field replaces its value
+				if (kinds[field] != ABSENT)
+					set(field, STRING, value);
 
-				if (!fieldFilter.contains(entry.getKey()))
-					it.remove();
+				return;
 			}
 		}
+
+		if (isSelected(key)) {
+			metadataKeys.add(key);
+			metadataValues.add(value);
+		}
 	}
 
-	private void writeMap(final PrintWriter writer, final Map<String, Object> jsonContent) {
+	/**
+	 * Write the fields of the current object
+	 *
+	 * @param writer
+	 */
+	private void writeObject(final PrintWriter writer) {
+		if (writer instanceof StreamingWriter) {
+			writeObject((StreamingWriter) writer);
+			return;
+		}
+
+		// called with another writer, serialize in memory and pass on the content
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+
+		try (StreamingWriter sw = new StreamingWriter(baos)) {
+			writeObject(sw);
+		}
+
+		writer.write(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	private void writeObject(final StreamingWriter out) {
+		out.writeByte('{');
+
 		if (NEW_LINES)
-			writer.println(Format.toJSON(jsonContent, true));
+			out.writeByte('\n');
+
+		boolean first = true;
+
+		for (int field = 0; field < FIELD_NAMES.length; field++) {
+			final int kind = kinds[field];
+
+			if (kind == ABSENT)
+				continue;
+
+			first = separator(out, first);
+
+			out.writeBytes(FIELD_PREFIXES[field]);
+
+			final Object value = values[field];
+
+			switch (kind) {
+				case NUMBER:
+					out.writeNumber(numbers[field]);
+					break;
+				case UUID_STRING:
+					out.writeByte('"');
+					out.writeUUID((UUID) value);
+					out.writeByte('"');
+					break;
+				case ETAG_STRING:
+					out.writeByte('"');
+					out.writeBytes(ETAG_QUOTE);
+					if (value instanceof UUID)
+						out.writeUUID((UUID) value);
+					else
+						out.writeJSONEscaped(String.valueOf(value));
+					out.writeBytes(ETAG_QUOTE);
+					out.writeByte('"');
+					break;
+				case DISPOSITION_STRING:
+					out.writeByte('"');
+					out.writeBytes(DISPOSITION_PREFIX);
+					out.writeJSONEscaped(String.valueOf(value));
+					out.writeBytes(ETAG_QUOTE);
+					out.writeByte('"');
+					break;
+				default:
+					out.writeJSONString(value != null ? value.toString() : null);
+			}
+		}
+
+		boolean replicasWritten = !hasReplicas;
+		boolean incompleteWritten = !incomplete;
+
+		for (int i = 0; i < metadataKeys.size(); i++) {
+			final String key = metadataKeys.get(i);
+
+			first = separator(out, first);
+
+			// the fields below replace the value of metadata keys with the same name, in place
+			if (!replicasWritten && key.equals("replicas")) {
+				writeReplicas(out);
+				replicasWritten = true;
+				continue;
+			}
+
+			if (!incompleteWritten && key.equals("incomplete")) {
+				out.writeBytes(INCOMPLETE);
+				incompleteWritten = true;
+				continue;
+			}
+
+			out.writeJSONString(key);
+			out.writeByte(':');
+			out.writeJSONString(metadataValues.get(i));
+		}
+
+		if (!replicasWritten) {
+			first = separator(out, first);
+			writeReplicas(out);
+		}
+
+		if (!incompleteWritten) {
+			separator(out, first);
+			out.writeBytes(INCOMPLETE);
+		}
+
+		if (NEW_LINES) {
+			out.writeByte('\n');
+			out.writeByte('}');
+			out.println();
+		}
 		else
-			writer.print(Format.toJSON(jsonContent, false));
+			out.writeByte('}');
+	}
+
+	private void writeReplicas(final StreamingWriter out) {
+		out.writeBytes(REPLICAS_PREFIX);
+		out.writeByte('[');
+
+		if (NEW_LINES)
+			out.writeByte('\n');
+
+		for (int i = 0; i < replicas.size(); i++) {
+			if (NEW_LINES)
+				out.writeBytes(EXPANDED_LIST_SEPARATOR, i > 0 ? 0 : 2, i > 0 ? EXPANDED_LIST_SEPARATOR.length : EXPANDED_LIST_SEPARATOR.length - 2);
+			else if (i > 0)
+				out.writeByte(',');
+
+			out.writeJSONString(replicas.get(i));
+		}
+
+		if (NEW_LINES)
+			out.writeBytes(EXPANDED_OBJECT_SEPARATOR, 1, EXPANDED_OBJECT_SEPARATOR.length - 1);
+
+		out.writeByte(']');
+	}
+
+	/**
+	 * Write the separator before the next field
+	 *
+	 * @param out
+	 * @param first
+	 *            whether this is the first field of the object
+	 * @return <code>false</code>, for the following fields
+	 */
+	private boolean separator(final StreamingWriter out, final boolean first) {
+		if (NEW_LINES)
+			out.writeBytes(EXPANDED_OBJECT_SEPARATOR, first ? 2 : 0, first ? EXPANDED_OBJECT_SEPARATOR.length - 2 : EXPANDED_OBJECT_SEPARATOR.length);
+		else if (!first)
+			out.writeByte(',');
+
+		return false;
 	}
 
 	@Override
 	public void format(final PrintWriter writer, final SQLObject obj) {
-		final Map<String, Object> jsonContent = new LinkedHashMap<>();
+		startObject();
 
-		jsonContent.put("path", obj.getPath());
+		if (selected[PATH])
+			set(PATH, STRING, obj.getPath());
 
-		if (OLD_KEYS) {
-			jsonContent.put("createTime", Long.valueOf(obj.createTime));
-			jsonContent.put("lastModified", Long.valueOf(obj.getLastModified()));
-		}
+		if (selected[CREATE_TIME])
+			set(CREATE_TIME, obj.createTime);
 
-		if (NEW_KEYS) {
-			jsonContent.put("Created", Long.valueOf(obj.createTime));
-			jsonContent.put("Last-Modified", Long.valueOf(obj.getLastModified()));
-		}
+		if (selected[LAST_MODIFIED_OLD])
+			set(LAST_MODIFIED_OLD, obj.getLastModified());
+
+		if (selected[CREATED])
+			set(CREATED, obj.createTime);
+
+		if (selected[LAST_MODIFIED])
+			set(LAST_MODIFIED, obj.getLastModified());
 
 		if (isQCShortcut) {
 			// quick exit if these are all the fields needed by QC
-			writeMap(writer, jsonContent);
+			writeObject(writer);
 			return;
 		}
 
-		if (OLD_KEYS) {
-			jsonContent.put("id", obj.id.toString());
-			jsonContent.put("validFrom", Long.valueOf(obj.validFrom));
-			jsonContent.put("validUntil", Long.valueOf(obj.validUntil));
-			jsonContent.put("initialValidity", Long.valueOf(obj.initialValidity));
-			jsonContent.put("MD5", obj.md5);
-			jsonContent.put("fileName", obj.fileName);
-			jsonContent.put("contentType", obj.contentType);
-			jsonContent.put("size", Long.valueOf(obj.size));
-		}
+		if (selected[ID])
+			set(ID, UUID_STRING, obj.id);
 
-		if (NEW_KEYS) {
-			jsonContent.put("ETag", "\"" + obj.id.toString() + "\"");
-			jsonContent.put("Valid-From", Long.valueOf(obj.validFrom));
-			jsonContent.put("Valid-Until", Long.valueOf(obj.validUntil));
-			jsonContent.put("InitialValidityLimit", Long.valueOf(obj.initialValidity));
-			jsonContent.put("Content-MD5", obj.md5);
-			jsonContent.put("Content-Disposition", "inline;filename=\"" + obj.fileName + "\"");
-			jsonContent.put("Content-Type", obj.contentType);
-			jsonContent.put("Content-Length", Long.valueOf(obj.size));
-		}
+		if (selected[VALID_FROM_OLD])
+			set(VALID_FROM_OLD, obj.validFrom);
 
-		if (obj.uploadedFrom != null)
-			jsonContent.put("UploadedFrom", obj.uploadedFrom);
+		if (selected[VALID_UNTIL_OLD])
+			set(VALID_UNTIL_OLD, obj.validUntil);
 
-		if (!hasFilter || !jsonContent.keySet().containsAll(fieldFilter)) {
-			for (final Map.Entry<Integer, String> entry : obj.metadata.entrySet())
-				jsonContent.put(SQLObject.getMetadataString(entry.getKey()), entry.getValue());
+		if (selected[INITIAL_VALIDITY_OLD])
+			set(INITIAL_VALIDITY_OLD, obj.initialValidity);
 
-			final ArrayList<String> replicas = new ArrayList<>();
+		if (selected[MD5_OLD])
+			set(MD5_OLD, STRING, obj.md5);
 
-			for (final Integer replica : obj.replicas)
-				for (final String address : obj.getAddress(replica, null, false))
-					replicas.add(address);
+		if (selected[FILE_NAME])
+			set(FILE_NAME, STRING, obj.fileName);
 
-			jsonContent.put("replicas", replicas);
-		}
+		if (selected[CONTENT_TYPE_OLD])
+			set(CONTENT_TYPE_OLD, STRING, obj.contentType);
 
-		filterContent(jsonContent);
+		if (selected[SIZE])
+			set(SIZE, obj.size);
 
-		writeMap(writer, jsonContent);
+		if (selected[ETAG])
+			set(ETAG, ETAG_STRING, obj.id);
+
+		if (selected[VALID_FROM])
+			set(VALID_FROM, obj.validFrom);
+
+		if (selected[VALID_UNTIL])
+			set(VALID_UNTIL, obj.validUntil);
+
+		if (selected[INITIAL_VALIDITY])
+			set(INITIAL_VALIDITY, obj.initialValidity);
+
+		if (selected[CONTENT_MD5])
+			set(CONTENT_MD5, STRING, obj.md5);
+
+		if (selected[CONTENT_DISPOSITION])
+			set(CONTENT_DISPOSITION, DISPOSITION_STRING, obj.fileName);
+
+		if (selected[CONTENT_TYPE])
+			set(CONTENT_TYPE, STRING, obj.contentType);
+
+		if (selected[CONTENT_LENGTH])
+			set(CONTENT_LENGTH, obj.size);
+
+		final boolean uploadedFromPresent = obj.uploadedFrom != null;
+
+		if (uploadedFromPresent && selected[UPLOADED_FROM])
+			set(UPLOADED_FROM, STRING, obj.uploadedFrom);
+
+		if (needsExtraFields(uploadedFromPresent)) {
+			for (final Map.Entry<Integer, String> entry : obj.metadata.entrySet())
+				addMetadata(SQLObject.getMetadataString(entry.getKey()), entry.getValue(), uploadedFromPresent);
+
+			if (replicasSelected) {
+				hasReplicas = true;
+
+				for (final Integer replica : obj.replicas)
+					for (final String address : obj.getAddress(replica, null, false))
+						replicas.add(address);
+			}
+		}
+
+		writeObject(writer);
 	}
 
 	@Override
@@ -208,58 +599,88 @@ class JSONFormatter implements SQLFormatter {
 	 */
 	@Override
 	public void format(final PrintWriter writer, final LocalObjectWithVersion obj) {
-		final Map<String, Object> jsonContent = new LinkedHashMap<>();
+		startObject();
 
-		jsonContent.put("path", obj.getFolder());
+		if (selected[PATH])
+			set(PATH, STRING, obj.getFolder());
 
-		if (OLD_KEYS) {
-			jsonContent.put("createTime", Long.valueOf(obj.getCreateTime()));
-			jsonContent.put("lastModified", Long.valueOf(obj.getLastModified()));
-		}
+		if (selected[CREATE_TIME])
+			set(CREATE_TIME, obj.getCreateTime());
 
-		if (NEW_KEYS || !OLD_KEYS) {
-			jsonContent.put("Created", Long.valueOf(obj.getCreateTime()));
-			jsonContent.put("Last-Modified", Long.valueOf(obj.getLastModified()));
-		}
+		if (selected[LAST_MODIFIED_OLD])
+			set(LAST_MODIFIED_OLD, obj.getLastModified());
+
+		if (selected[CREATED])
+			set(CREATED, obj.getCreateTime());
+
+		if (selected[LAST_MODIFIED])
+			set(LAST_MODIFIED, obj.getLastModified());
 
 		if (isQCShortcut) {
 			// quick exit if these are all the fields needed by QC
-			writeMap(writer, jsonContent);
+			writeObject(writer);
 			return;
 		}
 
-		if (OLD_KEYS) {
-			jsonContent.put("id", obj.getID());
-			jsonContent.put("validFrom", Long.valueOf(obj.getStartTime()));
-			jsonContent.put("validUntil", Long.valueOf(obj.getEndTime()));
-			jsonContent.put("initialValidity", Long.valueOf(obj.getInitialValidity()));
-			jsonContent.put("MD5", obj.getProperty("Content-MD5"));
-			jsonContent.put("fileName", obj.getOriginalName());
-			jsonContent.put("contentType", obj.getProperty("Content-Type", "application/octet-stream"));
-			jsonContent.put("size", Long.valueOf(obj.getSize()));
-		}
+		if (selected[ID])
+			set(ID, STRING, obj.getID());
 
-		if (NEW_KEYS) {
-			jsonContent.put("ETag", "\"" + obj.getID() + "\"");
-			jsonContent.put("Valid-From", Long.valueOf(obj.getStartTime()));
-			jsonContent.put("Valid-Until", Long.valueOf(obj.getEndTime()));
-			jsonContent.put("InitialValidityLimit", Long.valueOf(obj.getInitialValidity()));
-			jsonContent.put("Content-MD5", obj.getProperty("Content-MD5"));
-			jsonContent.put("Content-Disposition", "inline;filename=\"" + obj.getOriginalName() + "\"");
-			jsonContent.put("Content-Type", obj.getProperty("Content-Type", "application/octet-stream"));
-			jsonContent.put("Content-Length", Long.valueOf(obj.getSize()));
-		}
+		if (selected[VALID_FROM_OLD])
+			set(VALID_FROM_OLD, obj.getStartTime());
+
+		if (selected[VALID_UNTIL_OLD])
+			set(VALID_UNTIL_OLD, obj.getEndTime());
+
+		if (selected[INITIAL_VALIDITY_OLD])
+			set(INITIAL_VALIDITY_OLD, obj.getInitialValidity());
+
+		if (selected[MD5_OLD])
+			set(MD5_OLD, STRING, obj.getProperty("Content-MD5"));
 
-		if (!hasFilter || !jsonContent.keySet().containsAll(fieldFilter)) {
+		if (selected[FILE_NAME])
+			set(FILE_NAME, STRING, obj.getOriginalName());
+
+		if (selected[CONTENT_TYPE_OLD])
+			set(CONTENT_TYPE_OLD, STRING, obj.getProperty("Content-Type", "application/octet-stream"));
+
+		if (selected[SIZE])
+			set(SIZE, obj.getSize());
+
+		if (selected[ETAG])
+			set(ETAG, ETAG_STRING, obj.getID());
+
+		if (selected[VALID_FROM])
+			set(VALID_FROM, obj.getStartTime());
+
+		if (selected[VALID_UNTIL])
+			set(VALID_UNTIL, obj.getEndTime());
+
+		if (selected[INITIAL_VALIDITY])
+			set(INITIAL_VALIDITY, obj.getInitialValidity());
+
+		if (selected[CONTENT_MD5])
+			set(CONTENT_MD5, STRING, obj.getProperty("Content-MD5"));
+
+		if (selected[CONTENT_DISPOSITION])
+			set(CONTENT_DISPOSITION, DISPOSITION_STRING, obj.getOriginalName());
+
+		if (selected[CONTENT_TYPE])
+			set(CONTENT_TYPE, STRING, obj.getProperty("Content-Type", "application/octet-stream"));
+
+		if (selected[CONTENT_LENGTH])
+			set(CONTENT_LENGTH, obj.getSize());
+
+		if (needsExtraFields(false)) {
 			for (final Object key : obj.getUserPropertiesKeys())
-				jsonContent.put(key.toString(), obj.getProperty(key.toString()));
+				addMetadata(key.toString(), obj.getProperty(key.toString()), false);
 
-			jsonContent.put("replicas", Arrays.asList(obj.getPath()));
+			if (replicasSelected) {
+				hasReplicas = true;
+				replicas.add(obj.getPath());
+			}
 		}
 
-		filterContent(jsonContent);
-
-		writeMap(writer, jsonContent);
+		writeObject(writer);
 	}
 
 	@Override
@@ -269,52 +690,81 @@ class JSONFormatter implements SQLFormatter {
 
 	@Override
 	public void format(final PrintWriter writer, final Blob obj) {
-		final Map<String, Object> jsonContent = new LinkedHashMap<>();
+		startObject();
 
-		jsonContent.put("path", obj.getKey());
+		if (selected[PATH])
+			set(PATH, STRING, obj.getKey());
 
-		if (OLD_KEYS) {
-			jsonContent.put("createTime", Long.valueOf(obj.getCreateTime()));
-			jsonContent.put("lastModified", Long.valueOf(obj.getLastModified()));
-		}
+		if (selected[CREATE_TIME])
+			set(CREATE_TIME, obj.getCreateTime());
 
-		if (NEW_KEYS) {
-			jsonContent.put("Created", Long.valueOf(obj.getCreateTime()));
-			jsonContent.put("Last-Modified", Long.valueOf(obj.getLastModified()));
-		}
+		if (selected[LAST_MODIFIED_OLD])
+			set(LAST_MODIFIED_OLD, obj.getLastModified());
+
+		if (selected[CREATED])
+			set(CREATED, obj.getCreateTime());
+
+		if (selected[LAST_MODIFIED])
+			set(LAST_MODIFIED, obj.getLastModified());
 
 		if (isQCShortcut) {
 			// quick exit if these are all the fields needed by QC
-			writeMap(writer, jsonContent);
+			writeObject(writer);
 			return;
 		}
 
-		if (OLD_KEYS) {
-			jsonContent.put("id", obj.getUuid().toString());
-			jsonContent.put("validFrom", Long.valueOf(obj.getStartTime()));
-			jsonContent.put("validUntil", Long.valueOf(obj.getEndTime()));
-			jsonContent.put("initialValidity", Long.valueOf(obj.getInitialValidity()));
-			jsonContent.put("MD5", obj.getProperty("Content-MD5"));
-			jsonContent.put("fileName", obj.getOriginalName());
-			jsonContent.put("contentType", obj.getProperty("Content-Type", "application/octet-stream"));
-			jsonContent.put("size", Long.valueOf(obj.getSize()));
-		}
+		if (selected[ID])
+			set(ID, UUID_STRING, obj.getUuid());
 
-		if (NEW_KEYS) {
-			jsonContent.put("ETag", "\"" + obj.getUuid().toString() + "\"");
-			jsonContent.put("Valid-From", Long.valueOf(obj.getStartTime()));
-			jsonContent.put("Valid-Until", Long.valueOf(obj.getEndTime()));
-			jsonContent.put("InitialValidityLimit", Long.valueOf(obj.getInitialValidity()));
-			jsonContent.put("Content-MD5", obj.getProperty("Content-MD5"));
-			jsonContent.put("Content-Disposition", "inline;filename=\"" + obj.getOriginalName() + "\"");
-			jsonContent.put("Content-Type", obj.getProperty("Content-Type", "application/octet-stream"));
-			jsonContent.put("Content-Length", Long.valueOf(obj.getSize()));
-		}
+		if (selected[VALID_FROM_OLD])
+			set(VALID_FROM_OLD, obj.getStartTime());
+
+		if (selected[VALID_UNTIL_OLD])
+			set(VALID_UNTIL_OLD, obj.getEndTime());
+
+		if (selected[INITIAL_VALIDITY_OLD])
+			set(INITIAL_VALIDITY_OLD, obj.getInitialValidity());
+
+		if (selected[MD5_OLD])
+			set(MD5_OLD, STRING, obj.getProperty("Content-MD5"));
+
+		if (selected[FILE_NAME])
+			set(FILE_NAME, STRING, obj.getOriginalName());
 
-		if (!hasFilter || !jsonContent.keySet().containsAll(fieldFilter)) {
+		if (selected[CONTENT_TYPE_OLD])
+			set(CONTENT_TYPE_OLD, STRING, obj.getProperty("Content-Type", "application/octet-stream"));
+
+		if (selected[SIZE])
+			set(SIZE, obj.getSize());
+
+		if (selected[ETAG])
+			set(ETAG, ETAG_STRING, obj.getUuid());
+
+		if (selected[VALID_FROM])
+			set(VALID_FROM, obj.getStartTime());
+
+		if (selected[VALID_UNTIL])
+			set(VALID_UNTIL, obj.getEndTime());
+
+		if (selected[INITIAL_VALIDITY])
+			set(INITIAL_VALIDITY, obj.getInitialValidity());
+
+		if (selected[CONTENT_MD5])
+			set(CONTENT_MD5, STRING, obj.getProperty("Content-MD5"));
+
+		if (selected[CONTENT_DISPOSITION])
+			set(CONTENT_DISPOSITION, DISPOSITION_STRING, obj.getOriginalName());
+
+		if (selected[CONTENT_TYPE])
+			set(CONTENT_TYPE, STRING, obj.getProperty("Content-Type", "application/octet-stream"));
+
+		if (selected[CONTENT_LENGTH])
+			set(CONTENT_LENGTH, obj.getSize());
+
+		if (needsExtraFields(false)) {
 			for (final String key : obj.getMetadataMap().keySet())
 				if (!IGNORED_MEMORY_HEADERS.contains(key))
-					jsonContent.put(key, obj.getProperty(key));
+					addMetadata(key, obj.getProperty(key), false);
 
 			boolean isComplete = false;
 
@@ -322,7 +772,10 @@ class JSONFormatter implements SQLFormatter {
 				if (obj.isComplete()) {
 					isComplete = true;
 
-					jsonContent.put("replicas", Arrays.asList("/download/" + obj.getUuid()));
+					if (replicasSelected) {
+						hasReplicas = true;
+						replicas.add("/download/" + obj.getUuid());
+					}
 				}
 			}
 			catch (@SuppressWarnings("unused") final IOException | NoSuchAlgorithmException e) {
@@ -330,12 +783,10 @@ class JSONFormatter implements SQLFormatter {
 			}
 
 			if (!isComplete)
-				jsonContent.put("incomplete", Boolean.TRUE);
+				incomplete = incompleteSelected;
 		}
 
-		filterContent(jsonContent);
-
-		writeMap(writer, jsonContent);
+		writeObject(writer);
 	}
 
 	@Override
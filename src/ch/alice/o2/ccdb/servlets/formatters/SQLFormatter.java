@@ -1,6 +1,10 @@
 package ch.alice.o2.ccdb.servlets.formatters;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
 
 import ch.alice.o2.ccdb.multicast.Blob;
 import ch.alice.o2.ccdb.servlets.LocalObjectWithVersion;
@@ -132,4 +136,25 @@ public interface SQLFormatter {
 	 * @return content type of the returned content
 	 */
 	public String getContentType();
+
+	/**
+	 * Get the writer to pass to the formatting methods. By default the character writer of the response, formatters that produce their output directly in bytes can wrap the
+	 * output stream instead.
+	 *
+	 * @param response
+	 * @return the writer to use for this response
+	 * @throws IOException
+	 */
+	public default PrintWriter getWriter(final HttpServletResponse response) throws IOException {
+		return response.getWriter();
+	}
+
+	/**
+	 * Get the fields that this formatter will write for each object, so that the others don't have to be retrieved from the backend
+	 *
+	 * @return the field names, or <code>null</code> if all of them are needed
+	 */
+	public default Set<String> getFieldFilter() {
+		return null;
+	}
 }
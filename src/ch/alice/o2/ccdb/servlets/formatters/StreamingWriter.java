@@ -0,0 +1,388 @@
+package ch.alice.o2.ccdb.servlets.formatters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * A <code>PrintWriter</code> that encodes to UTF-8 directly in its own byte buffer, flushed to the response stream when full. Besides the regular character methods, which keep
+ * working for the parts of the output that are not performance critical, it exposes byte-level methods that the formatters use to write pre-encoded field names, numbers,
+ * UUIDs and escaped JSON strings without creating any intermediate <code>String</code>s.<br>
+ * <br>
+ * As for any <code>PrintWriter</code>, I/O errors don't throw exceptions but set the error flag, see {@link #checkError()}.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+final class StreamingWriter extends PrintWriter {
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+	/**
+	 * JSON escape sequences of the ASCII characters, <code>null</code> for the ones that are written as they are. The same escaping as <code>lazyj.Format.escJSON()</code>, that
+	 * is also escaping the forward slash and everything outside of the printable ASCII range.
+	 */
+	private static final byte[][] JSON_ESCAPES = new byte[128][];
+
+	static {
+		for (int c = 0; c < 0x20; c++)
+			JSON_ESCAPES[c] = unicodeEscape(c);
+
+		JSON_ESCAPES['\b'] = bytes("\\b");
+		JSON_ESCAPES['\t'] = bytes("\\t");
+		JSON_ESCAPES['\n'] = bytes("\\n");
+		JSON_ESCAPES['\f'] = bytes("\\f");
+		JSON_ESCAPES['\r'] = bytes("\\r");
+		JSON_ESCAPES['"'] = bytes("\\\"");
+		JSON_ESCAPES['/'] = bytes("\\/");
+		JSON_ESCAPES['\\'] = bytes("\\\\");
+	}
+
+	private static byte[] bytes(final String s) {
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static byte[] unicodeEscape(final int c) {
+		return new byte[] { '\\', 'u', HEX[(c >> 12) & 0xF], HEX[(c >> 8) & 0xF], HEX[(c >> 4) & 0xF], HEX[c & 0xF] };
+	}
+
+	/**
+	 * The underlying <code>Writer</code> of the <code>PrintWriter</code>, holding the byte buffer
+	 */
+	private static final class Sink extends Writer {
+		private final OutputStream os;
+
+		/**
+		 * Allocated for each writer, a per-thread cache would pin one buffer to each of the (possibly very many, virtual) request threads
+		 */
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		private int pos = 0;
+
+		Sink(final OutputStream os) {
+			this.os = os;
+		}
+
+		/**
+		 * Make sure that the given number of bytes fit in the buffer, flushing it if needed
+		 *
+		 * @param count
+		 *            at most the buffer size
+		 * @throws IOException
+		 */
+		void reserve(final int count) throws IOException {
+			if (pos + count > buffer.length)
+				drain();
+		}
+
+		void drain() throws IOException {
+			if (pos > 0) {
+				os.write(buffer, 0, pos);
+				pos = 0;
+			}
+		}
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len) throws IOException {
+			for (int i = off; i < off + len; i++) {
+				final char c = cbuf[i];
+
+				if (c < 0x80) {
+					reserve(1);
+					buffer[pos++] = (byte) c;
+				}
+				else if (c < 0x800) {
+					reserve(2);
+					buffer[pos++] = (byte) (0xC0 | (c >> 6));
+					buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < off + len && Character.isLowSurrogate(cbuf[i + 1])) {
+					final int cp = Character.toCodePoint(c, cbuf[++i]);
+
+					reserve(4);
+					buffer[pos++] = (byte) (0xF0 | (cp >> 18));
+					buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					buffer[pos++] = (byte) (0x80 | (cp & 0x3F));
+				}
+				else {
+					reserve(3);
+					buffer[pos++] = (byte) (0xE0 | (c >> 12));
+					buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		@Override
+		public void write(final String str, final int off, final int len) throws IOException {
+			final char[] chars = new char[Math.min(len, 1024)];
+
+			for (int start = off; start < off + len; start += chars.length) {
+				final int count = Math.min(chars.length, off + len - start);
+
+				str.getChars(start, start + count, chars, 0);
+
+				write(chars, 0, count);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			drain();
+			os.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				drain();
+			}
+			finally {
+				os.close();
+			}
+		}
+	}
+
+	private final Sink sink;
+
+	/**
+	 * @param os
+	 *            where to write the encoded content
+	 */
+	StreamingWriter(final OutputStream os) {
+		super(new Sink(os));
+
+		sink = (Sink) out;
+	}
+
+	/**
+	 * Write pre-encoded bytes
+	 *
+	 * @param b
+	 */
+	void writeBytes(final byte[] b) {
+		writeBytes(b, 0, b.length);
+	}
+
+	/**
+	 * Write pre-encoded bytes
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 */
+	void writeBytes(final byte[] b, final int off, final int len) {
+		try {
+			if (len > sink.buffer.length) {
+				sink.drain();
+				sink.os.write(b, off, len);
+				return;
+			}
+
+			sink.reserve(len);
+
+			System.arraycopy(b, off, sink.buffer, sink.pos, len);
+			sink.pos += len;
+		}
+		catch (@SuppressWarnings("unused") final IOException ioe) {
+			setError();
+		}
+	}
+
+	/**
+	 * Write one byte
+	 *
+	 * @param b
+	 */
+	void writeByte(final int b) {
+		try {
+			sink.reserve(1);
+			sink.buffer[sink.pos++] = (byte) b;
+		}
+		catch (@SuppressWarnings("unused") final IOException ioe) {
+			setError();
+		}
+	}
+
+	/**
+	 * Write the decimal representation of a number
+	 *
+	 * @param value
+	 */
+	void writeNumber(final long value) {
+		if (value == Long.MIN_VALUE) {
+			writeBytes(bytes(String.valueOf(value)));
+			return;
+		}
+
+		try {
+			sink.reserve(20);
+
+			final byte[] buffer = sink.buffer;
+
+			long v = value;
+
+			if (v < 0) {
+				buffer[sink.pos++] = '-';
+				v = -v;
+			}
+
+			int digits = 1;
+
+			for (long t = v; t >= 10; t /= 10)
+				digits++;
+
+			for (int i = sink.pos + digits - 1; i >= sink.pos; i--) {
+				buffer[i] = (byte) ('0' + (v % 10));
+				v /= 10;
+			}
+
+			sink.pos += digits;
+		}
+		catch (@SuppressWarnings("unused") final IOException ioe) {
+			setError();
+		}
+	}
+
+	/**
+	 * Write the canonical text representation of a UUID (36 characters, lowercase)
+	 *
+	 * @param uuid
+	 */
+	void writeUUID(final UUID uuid) {
+		try {
+			sink.reserve(36);
+
+			final long msb = uuid.getMostSignificantBits();
+			final long lsb = uuid.getLeastSignificantBits();
+
+			hex(msb >>> 32, 8);
+			sink.buffer[sink.pos++] = '-';
+			hex(msb >>> 16, 4);
+			sink.buffer[sink.pos++] = '-';
+			hex(msb, 4);
+			sink.buffer[sink.pos++] = '-';
+			hex(lsb >>> 48, 4);
+			sink.buffer[sink.pos++] = '-';
+			hex(lsb, 12);
+		}
+		catch (@SuppressWarnings("unused") final IOException ioe) {
+			setError();
+		}
+	}
+
+	private void hex(final long value, final int digits) {
+		final byte[] buffer = sink.buffer;
+
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+			buffer[sink.pos++] = HEX[(int) ((value >>> shift) & 0xF)];
+	}
+
+	/**
+	 * Write the content of a JSON string, escaped but without the enclosing quotes
+	 *
+	 * @param s
+	 */
+	void writeJSONEscaped(final CharSequence s) {
+		try {
+			final int len = s.length();
+
+			for (int i = 0; i < len; i++) {
+				final char c = s.charAt(i);
+
+				if (c < 0x80) {
+					final byte[] escape = JSON_ESCAPES[c];
+
+					if (escape == null) {
+						sink.reserve(1);
+						sink.buffer[sink.pos++] = (byte) c;
+					}
+					else {
+						sink.reserve(escape.length);
+						System.arraycopy(escape, 0, sink.buffer, sink.pos, escape.length);
+						sink.pos += escape.length;
+					}
+				}
+				else {
+					sink.reserve(6);
+
+					final byte[] buffer = sink.buffer;
+
+					buffer[sink.pos++] = '\\';
+					buffer[sink.pos++] = 'u';
+					buffer[sink.pos++] = HEX[(c >> 12) & 0xF];
+					buffer[sink.pos++] = HEX[(c >> 8) & 0xF];
+					buffer[sink.pos++] = HEX[(c >> 4) & 0xF];
+					buffer[sink.pos++] = HEX[c & 0xF];
+				}
+			}
+		}
+		catch (@SuppressWarnings("unused") final IOException ioe) {
+			setError();
+		}
+	}
+
+	/**
+	 * Write a quoted and escaped JSON string, or <code>null</code>
+	 *
+	 * @param s
+	 */
+	void writeJSONString(final CharSequence s) {
+		if (s == null) {
+			writeBytes(NULL);
+			return;
+		}
+
+		writeByte('"');
+		writeJSONEscaped(s);
+		writeByte('"');
+	}
+
+	private static final byte[] NULL = bytes("null");
+
+	/**
+	 * @param s
+	 * @return how many bytes the UTF-8 encoding of this string takes, as written by the character methods of this class
+	 */
+	static int utf8Length(final CharSequence s) {
+		final int len = s.length();
+
+		int bytes = len;
+
+		for (int i = 0; i < len; i++) {
+			final char c = s.charAt(i);
+
+			if (c >= 0x80) {
+				if (c < 0x800)
+					bytes++;
+				else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+					// 4 bytes for the two chars
+					bytes += 2;
+					i++;
+				}
+				else
+					bytes += 2;
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * @param s
+	 *            JSON field name
+	 * @return the encoded <code>"name":</code> prefix of this field
+	 */
+	static byte[] encodeJSONFieldName(final String s) {
+		final StringBuilder sb = new StringBuilder(s.length() + 3);
+
+		sb.append('"').append(lazyj.Format.escJSON(s)).append("\":");
+
+		return bytes(sb.toString());
+	}
+}
@@ -0,0 +1,271 @@
+package ch.alice.o2.ccdb.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ch.alice.o2.ccdb.multicast.Blob;
+import ch.alice.o2.ccdb.servlets.formatters.FormatterFactory;
+import ch.alice.o2.ccdb.servlets.formatters.SQLFormatter;
+import ch.alice.o2.ccdb.tools.CBORListing;
+import lazyj.Format;
+
+/**
+ * Round trip of the binary browse listing: a synthetic listing is written by the formatter that the server picks for <code>Accept: application/cbor</code>, decoded with
+ * {@link CBORListing} and every field is compared with the original objects. The paths, content types and metadata keys repeat across the objects, so most of them are decoded
+ * from dictionary references, and each of them has to appear only once as text in the encoded listing.<br>
+ * <br>
+ * The same listing is also produced as JSON to print how much smaller the binary one is. No database or repository is needed. The exit code is the number of failed checks.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class CBORListingCheck {
+	private static final int PATHS = 10;
+
+	private static final String[] CONTENT_TYPES = new String[] { "application/root", "application/octet-stream", "text/plain" };
+
+	/**
+	 * Metadata keys that are sent as separate fields, not in the metadata map
+	 */
+	private static final Set<String> STANDARD_HEADERS = Set.of("InitialValidityLimit", "Valid-Until", "OriginalFileName", "Last-Modified", "Valid-From", "Content-Type", "File-Size", "Created",
+			"Content-MD5");
+
+	private static int failures = 0;
+
+	/**
+	 * Stream keeping the bytes in memory
+	 */
+	private static final class MemoryOutputStream extends ServletOutputStream {
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+		@Override
+		public void write(final int b) {
+			content.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			content.write(b, off, len);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(final WriteListener writeListener) {
+			// blocking only
+		}
+	}
+
+	/**
+	 * @param args
+	 *            [number of objects (default 2000)]
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int objects = args.length >= 1 ? Integer.parseInt(args[0]) : 2000;
+
+		final List<Blob> blobs = new ArrayList<>(objects);
+
+		for (int i = 0; i < objects; i++)
+			blobs.add(createBlob(i));
+
+		final byte[] cbor = listing(blobs, CBORListing.CONTENT_TYPE);
+		final byte[] json = listing(blobs, "application/json");
+
+		final List<CBORListing.Entry> entries = new ArrayList<>();
+		final List<CBORListing.Subfolder> subfolders = new ArrayList<>();
+
+		CBORListing.decode(new ByteArrayInputStream(cbor), entries::add, subfolders::add);
+
+		check("decoded " + entries.size() + " objects out of " + objects, entries.size() == objects);
+
+		int mismatches = 0;
+
+		for (int i = 0; i < Math.min(objects, entries.size()); i++) {
+			final String difference = compare(blobs.get(i), entries.get(i));
+
+			if (difference != null && mismatches++ < 5)
+				System.err.println("  object " + i + ": " + difference);
+		}
+
+		check("all decoded objects match the originals", mismatches == 0);
+
+		final int expectedSubfolders = objects > 0 ? PATHS : 0;
+
+		boolean subfoldersMatch = subfolders.size() == expectedSubfolders;
+
+		for (int i = 0; subfoldersMatch && i < expectedSubfolders; i++) {
+			final CBORListing.Subfolder s = subfolders.get(i);
+
+			subfoldersMatch = ("qc/TPC/MO/folder_" + i).equals(s.name) && s.ownFiles == i && s.ownSize == i * 10L && s.filesInSubfolders == i * 2L && s.sizeOfSubfolders == i * 20L;
+		}
+
+		check("subfolders match", subfoldersMatch);
+
+		// repeated strings have to be sent as dictionary references
+		if (objects > 0) {
+			check("each path is written once", occurrences(cbor, blobs.get(0).getKey()) == 1);
+			check("each content type is written once", occurrences(cbor, CONTENT_TYPES[0]) == 1);
+			check("each metadata key is written once", occurrences(cbor, "PeriodName") == 1);
+		}
+
+		System.err.println("JSON listing: " + json.length + " bytes, CBOR listing: " + cbor.length + " bytes, " + Format.point((double) json.length / Math.max(cbor.length, 1))
+				+ " times smaller");
+
+		System.err.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+
+		System.exit(failures);
+	}
+
+	private static Blob createBlob(final int i) throws NoSuchAlgorithmException, IOException {
+		final Map<String, String> metadata = new LinkedHashMap<>();
+
+		metadata.put("RunNumber", String.valueOf(500000 + i));
+		metadata.put("PeriodName", "LHC22o");
+		metadata.put("D\u00e9tecteur", "TPC \u20ac");
+
+		final long created = 1600000000000L + i * 1000L;
+
+		metadata.put("Created", String.valueOf(created));
+		metadata.put("Last-Modified", String.valueOf(created + 1));
+		metadata.put("Valid-From", String.valueOf(created));
+		metadata.put("Valid-Until", String.valueOf(created + 86400000L));
+		metadata.put("InitialValidityLimit", String.valueOf(created + 2 * 86400000L));
+		metadata.put("Content-MD5", UUID.nameUUIDFromBytes(String.valueOf(i).getBytes()).toString().replace("-", ""));
+		metadata.put("Content-Type", CONTENT_TYPES[i % CONTENT_TYPES.length]);
+		metadata.put("OriginalFileName", "o2-ccdb-" + i + ".root");
+		metadata.put("File-Size", "1");
+
+		final Blob b = new Blob(metadata, new byte[] { 1 }, "qc/TPC/MO/Clusters/N_Clusters_" + (i % PATHS), UUID.nameUUIDFromBytes(String.valueOf(i).getBytes()));
+
+		// the validity interval is only parsed from the metadata when the object is completed
+		b.isComplete();
+
+		return b;
+	}
+
+	/**
+	 * @return <code>null</code> if the decoded entry has the same content as the object, otherwise a description of the first difference
+	 */
+	private static String compare(final Blob b, final CBORListing.Entry e) {
+		// compared with what the object holds, since Blob stores the metadata with the platform encoding
+		final Map<String, String> metadata = new LinkedHashMap<>(b.getMetadataMap());
+		metadata.keySet().removeAll(STANDARD_HEADERS);
+
+		final Object[][] fields = new Object[][] { { "path", b.getKey(), e.path }, { "id", b.getUuid(), e.id }, { "createTime", Long.valueOf(b.getCreateTime()), Long.valueOf(e.createTime) },
+				{ "lastModified", Long.valueOf(b.getLastModified()), Long.valueOf(e.lastModified) }, { "validFrom", Long.valueOf(b.getStartTime()), Long.valueOf(e.validFrom) },
+				{ "validUntil", Long.valueOf(b.getEndTime()), Long.valueOf(e.validUntil) }, { "initialValidity", Long.valueOf(b.getInitialValidity()), Long.valueOf(e.initialValidity) },
+				{ "md5", b.getProperty("Content-MD5"), e.md5 }, { "fileName", b.getOriginalName(), e.fileName }, { "contentType", b.getProperty("Content-Type"), e.contentType },
+				{ "size", Long.valueOf(b.getSize()), Long.valueOf(e.size) }, { "metadata", metadata, e.metadata }, { "replicas", List.of("/download/" + b.getUuid()), e.replicas },
+				{ "incomplete", Boolean.FALSE, Boolean.valueOf(e.incomplete) } };
+
+		for (final Object[] field : fields)
+			if (!Objects.equals(field[1], field[2]))
+				return field[0] + " is " + field[2] + " instead of " + field[1];
+
+		return null;
+	}
+
+	private static boolean check(final String what, final boolean ok) {
+		System.err.println((ok ? "OK    " : "FAILED") + " " + what);
+
+		if (!ok)
+			failures++;
+
+		return ok;
+	}
+
+	private static int occurrences(final byte[] content, final String text) {
+		final byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+
+		int count = 0;
+
+		outer: for (int i = 0; i <= content.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++)
+				if (content[i + j] != pattern[j])
+					continue outer;
+
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return the complete listing of these objects, with some subfolders, in the format that the server would pick for this <code>Accept</code> header
+	 */
+	private static byte[] listing(final List<Blob> blobs, final String accept) throws IOException {
+		final MemoryOutputStream os = new MemoryOutputStream();
+
+		final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(CBORListingCheck.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+				(proxy, method, methodArgs) -> {
+					if (method.getName().equals("getHeader") && "Accept".equals(methodArgs[0]))
+						return accept;
+
+					return null;
+				});
+
+		final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(CBORListingCheck.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+				(proxy, method, methodArgs) -> {
+					if (method.getName().equals("getOutputStream"))
+						return os;
+
+					if (method.getName().equals("getWriter"))
+						return new PrintWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+
+					return null;
+				});
+
+		final SQLFormatter formatter = FormatterFactory.getFormatter(request);
+
+		try (PrintWriter pw = formatter.getWriter(response)) {
+			formatter.start(pw);
+			formatter.header(pw);
+
+			boolean first = true;
+
+			for (final Blob b : blobs) {
+				if (first)
+					first = false;
+				else
+					formatter.middle(pw);
+
+				formatter.format(pw, b);
+			}
+
+			formatter.footer(pw);
+
+			formatter.subfoldersListingHeader(pw);
+
+			for (int i = 0; i < (blobs.isEmpty() ? 0 : PATHS); i++)
+				formatter.subfoldersListing(pw, "qc/TPC/MO/folder_" + i, "qc/TPC/MO/folder_" + i, i, i * 10L, i * 2L, i * 20L);
+
+			formatter.subfoldersListingFooter(pw, blobs.size(), blobs.size());
+
+			formatter.end(pw);
+		}
+
+		return os.content.toByteArray();
+	}
+}
@@ -0,0 +1,145 @@
+package ch.alice.o2.ccdb.testing;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lazyj.Format;
+
+/**
+ * Compare the ways of sending a file to a socket: the byte[] copy loop that the download servlets used to do, the larger reused buffer that they fall back to now and the
+ * kernel-side <code>sendfile</code> that Tomcat uses when the connector supports it (<code>FileChannel.transferTo()</code> into a socket channel). The data goes over the loopback
+ * interface to a thread that discards it. Throughput and the CPU time of the process per GB are reported for each mode.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class DownloadBenchmark {
+	/**
+	 * @param args
+	 *            [file size in MB (default 1024) [iterations (default 5)]]
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		final long fileSize = (args.length >= 1 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+
+		final int iterations = args.length >= 2 ? Integer.parseInt(args[1]) : 5;
+
+		final File f = File.createTempFile("download-benchmark", ".bin");
+		f.deleteOnExit();
+
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			final byte[] chunk = new byte[1024 * 1024];
+			ThreadLocalRandom.current().nextBytes(chunk);
+
+			for (long written = 0; written < fileSize; written += chunk.length)
+				raf.write(chunk, 0, (int) Math.min(chunk.length, fileSize - written));
+		}
+
+		System.err.println("Serving " + Format.size(fileSize) + " " + iterations + " times with each method");
+
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+			final Thread drain = new Thread(() -> {
+				final ByteBuffer sink = ByteBuffer.allocateDirect(1024 * 1024);
+
+				while (true) {
+					try (SocketChannel client = server.accept()) {
+						while (client.read(sink) >= 0)
+							sink.clear();
+					}
+					catch (@SuppressWarnings("unused") final IOException ioe) {
+						return;
+					}
+				}
+			});
+
+			drain.setDaemon(true);
+			drain.start();
+
+			for (final String mode : new String[] { "stream4k", "buffer64k", "transferTo" }) {
+				// one warmup round
+				send(f, mode, server);
+
+				final long cpuStart = getProcessCpuTime();
+				final long start = System.nanoTime();
+
+				for (int i = 0; i < iterations; i++)
+					send(f, mode, server);
+
+				final double seconds = (System.nanoTime() - start) / 1e9;
+				final double cpuSeconds = (getProcessCpuTime() - cpuStart) / 1e9;
+
+				final double gb = (double) fileSize * iterations / (1024 * 1024 * 1024);
+
+				System.err.println(mode + ": " + Format.point(gb * 1024 / seconds) + " MB/s, " + Format.point(cpuSeconds / gb) + " CPU seconds/GB");
+			}
+		}
+	}
+
+	private static void send(final File f, final String mode, final ServerSocketChannel server) throws IOException {
+		try (SocketChannel socket = SocketChannel.open(server.getLocalAddress())) {
+			switch (mode) {
+				case "stream4k":
+					try (InputStream is = new FileInputStream(f); OutputStream os = Channels.newOutputStream(socket)) {
+						final byte[] buffer = new byte[4096];
+						int cnt;
+
+						while ((cnt = is.read(buffer)) > 0)
+							os.write(buffer, 0, cnt);
+					}
+					break;
+				case "buffer64k":
+					try (RandomAccessFile input = new RandomAccessFile(f, "r"); OutputStream os = Channels.newOutputStream(socket)) {
+						final FileChannel channel = input.getChannel();
+						final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+						long position = 0;
+
+						while (position < f.length()) {
+							buffer.clear();
+
+							final int cnt = channel.read(buffer, position);
+
+							os.write(buffer.array(), 0, cnt);
+
+							position += cnt;
+						}
+					}
+					break;
+				default:
+					try (RandomAccessFile input = new RandomAccessFile(f, "r")) {
+						final FileChannel channel = input.getChannel();
+
+						long position = 0;
+
+						while (position < f.length())
+							position += channel.transferTo(position, f.length() - position, socket);
+					}
+			}
+		}
+	}
+
+	private static long getProcessCpuTime() {
+		final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+
+		return 0;
+	}
+}
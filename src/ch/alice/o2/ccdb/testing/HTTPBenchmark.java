@@ -5,14 +5,24 @@ package ch.alice.o2.ccdb.testing;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import alien.monitoring.Timing;
 import alien.test.cassandra.tomcat.Options;
+import ch.alice.o2.ccdb.VirtualThreads;
 import lazyj.Format;
 
 /**
+ * Concurrent GET requests against a repository. The first argument can be a comma-separated list of client counts (for example <code>1000,2000,5000,10000</code>) to measure
+ * how the server scales with the number of concurrent clients, each level being run separately. Start the server with and without <code>-Dvirtual.threads=true</code> to
+ * compare the two request executors.<br>
+ * <br>
+ * The clients themselves run on virtual threads if this JVM supports them and is also started with <code>-Dvirtual.threads=true</code>, otherwise on platform threads.
+ *
  * @author costing
  * @since Jun 4, 2021
  */
@@ -30,8 +40,46 @@ public class HTTPBenchmark {
 
 	private static final String repository = Options.getOption("repository.url", "http://ccdb-test.cern.ch:8080/");
 
-	private static class RequestThread extends Thread {
+	/**
+	 * Each power of two of the latency (in microseconds) is split in this many linear buckets, bounding the relative error of the reported percentiles to ~6%
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * Latency histogram shared by all clients, with a fixed size whatever the number of clients and requests
+	 */
+	private static final AtomicLongArray latencyHistogram = new AtomicLongArray(64 << SUB_BUCKET_BITS);
+
+	private static final AtomicLong maxLatency = new AtomicLong();
+
+	private static int bucket(final long micros) {
+		if (micros < (1 << SUB_BUCKET_BITS))
+			return (int) Math.max(micros, 0);
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+
+		return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1));
+	}
+
+	/**
+	 * @param bucket
+	 * @return the lowest latency, in microseconds, that falls in this bucket
+	 */
+	private static long bucketValue(final int bucket) {
+		if (bucket < (1 << SUB_BUCKET_BITS))
+			return bucket;
+
+		final int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
 
+		return ((1L << SUB_BUCKET_BITS) + (bucket & ((1 << SUB_BUCKET_BITS) - 1))) << shift;
+	}
+
+	private static void recordLatency(final long nanos) {
+		latencyHistogram.incrementAndGet(bucket(nanos / 1000));
+		maxLatency.accumulateAndGet(nanos, Math::max);
+	}
+
+	private static class RequestThread implements Runnable {
 		@Override
 		public void run() {
 			for (int i = 0; i < iterations; i++) {
@@ -41,6 +89,8 @@ public class HTTPBenchmark {
 
 						requestsMade.incrementAndGet();
 						nanosTook.addAndGet(t.getNanos());
+
+						recordLatency(t.getNanos());
 					}
 					catch (@SuppressWarnings("unused") final IOException ioe) {
 						errors.incrementAndGet();
@@ -64,31 +114,58 @@ public class HTTPBenchmark {
 
 		final double millis = nanosTook.get() / 1000000.;
 		System.err.println((lastReport ? "In total " : "So far ") + requestsMade + " requests were made in " + global + " for a global rate of "
-				+ Format.point(req / global.getSeconds()) + " Hz and an average time per call of " + Format.point(millis / req) + " ms");
+				+ Format.point(req / global.getSeconds()) + " Hz and an average time per call of " + Format.point(millis / req) + " ms" + (errors.get() > 0 ? ", " + errors + " errors" : ""));
 	}
 
-	/**
-	 * Benchmark entry point
-	 * 
-	 * @param args
-	 */
-	public static void main(final String[] args) {
-		final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+	private static long percentile(final long total, final double fraction) {
+		final long rank = Math.max((long) Math.ceil(total * fraction), 1);
 
-		if (args.length > 1)
-			iterations = Integer.parseInt(args[1]);
+		long seen = 0;
+
+		for (int i = 0; i < latencyHistogram.length(); i++) {
+			seen += latencyHistogram.get(i);
 
-		System.err.println("Starting " + threads + " threads to make " + iterations + " GET requests each");
+			if (seen >= rank)
+				return bucketValue(i);
+		}
+
+		return maxLatency.get() / 1000;
+	}
+
+	private static void printPercentiles() {
+		long total = 0;
+
+		for (int i = 0; i < latencyHistogram.length(); i++)
+			total += latencyHistogram.get(i);
+
+		if (total == 0)
+			return;
+
+		System.err.println("Latency median: " + Format.point(percentile(total, 0.5) / 1000.) + " ms, 99th percentile: " + Format.point(percentile(total, 0.99) / 1000.)
+				+ " ms, max: " + Format.point(maxLatency.get() / 1000000.) + " ms");
+	}
+
+	private static void run(final int threads) {
+		requestsMade.set(0);
+		nanosTook.set(0);
+		errors.set(0);
+		completedThreads.set(0);
+		maxLatency.set(0);
+
+		for (int i = 0; i < latencyHistogram.length(); i++)
+			latencyHistogram.set(i, 0);
+
+		System.err.println("Starting " + threads + " " + (VirtualThreads.isEnabled() ? "virtual" : "platform") + " threads to make " + iterations + " GET requests each");
 
 		final ArrayList<RequestThread> list = new ArrayList<>();
 
 		for (int i = 0; i < threads; i++)
 			list.add(new RequestThread());
 
-		for (final RequestThread rt : list)
-			rt.start();
-
 		try (Timing global = new Timing()) {
+			for (int i = 0; i < threads; i++)
+				VirtualThreads.start("HTTPBenchmark." + i, list.get(i));
+
 			while (completedThreads.get() < threads) {
 				printProgress(global, false);
 
@@ -104,5 +181,32 @@ public class HTTPBenchmark {
 
 			printProgress(global, true);
 		}
+
+		printPercentiles();
+	}
+
+	/**
+	 * Benchmark entry point
+	 *
+	 * @param args
+	 *            [number of concurrent clients, or a comma-separated list of them (default 100) [requests per client (default 10000)]]
+	 */
+	public static void main(final String[] args) {
+		final List<Integer> levels = new ArrayList<>();
+
+		if (args.length > 0) {
+			final StringTokenizer st = new StringTokenizer(args[0], ",");
+
+			while (st.hasMoreTokens())
+				levels.add(Integer.valueOf(st.nextToken().trim()));
+		}
+		else
+			levels.add(Integer.valueOf(100));
+
+		if (args.length > 1)
+			iterations = Integer.parseInt(args[1]);
+
+		for (final Integer threads : levels)
+			run(threads.intValue());
 	}
 }
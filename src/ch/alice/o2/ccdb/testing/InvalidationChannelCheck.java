@@ -0,0 +1,217 @@
+package ch.alice.o2.ccdb.testing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.function.BooleanSupplier;
+
+import alien.monitoring.MonitoringObject;
+import ch.alice.o2.ccdb.RequestParser;
+import ch.alice.o2.ccdb.servlets.NegativeResultCache;
+import ch.alice.o2.ccdb.servlets.SQLInvalidationChannel;
+import ch.alice.o2.ccdb.servlets.SQLObject;
+import lazyj.DBFunctions;
+
+/**
+ * Check the cache invalidation channel against the PostgreSQL server from the regular configuration, with the CCDB tables already created. Two channels are opened in this
+ * process, as two instances sharing the database would do:
+ * <ol>
+ * <li>a miss on a test path is cached by {@link NegativeResultCache}</li>
+ * <li>the first channel announces a new object on that path, the second one has to receive and apply it (the first one ignores its own events), after which the miss is not served
+ * from the cache any more</li>
+ * <li>the backend of the second channel's listening connection is terminated, the channel has to reconnect and drop all the caches, since the events sent in the mean time are
+ * lost</li>
+ * <li>events are received again on the new connection</li>
+ * <li>a third channel with a queue of a single event drops most of a burst of events, so it has to ask the others to drop all their caches instead</li>
+ * </ol>
+ * The exit code is the number of failed checks.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class InvalidationChannelCheck {
+	private static int failures = 0;
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		// the cached miss should only go away because of the invalidation
+		if (System.getProperty("cache.negative.ttl") == null)
+			System.setProperty("cache.negative.ttl", "600000");
+
+		final String path = "invalidation_check/" + UUID.randomUUID();
+
+		final Integer pathId = createPath(path);
+
+		if (pathId == null) {
+			System.err.println("Cannot create the test path, is the database configured and does it have the CCDB structures?");
+			System.exit(1);
+			return;
+		}
+
+		try {
+			runChecks(path, pathId);
+		}
+		finally {
+			try (DBFunctions db = SQLObject.getDB()) {
+				db.query("DELETE FROM ccdb_paths WHERE pathid=?;", false, pathId);
+			}
+		}
+
+		System.err.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+
+		System.exit(failures);
+	}
+
+	private static void runChecks(final String path, final Integer pathId) {
+		final NegativeResultCache negativeCache = NegativeResultCache.getInstance();
+
+		if (!negativeCache.isEnabled()) {
+			check("negative cache enabled", false);
+			return;
+		}
+
+		final SQLInvalidationChannel a = SQLInvalidationChannel.createInstance();
+		final SQLInvalidationChannel b = SQLInvalidationChannel.createInstance();
+
+		a.start();
+		b.start();
+
+		if (!check("both channels are listening", waitFor(() -> value(a, "listening") == 1 && value(b, "listening") == 1, 10000)))
+			return;
+
+		System.err.println("Channel instances: " + a.getInstanceId() + ", " + b.getInstanceId());
+
+		// 1. cache a miss
+		final RequestParser parser = new RequestParser(null);
+		parser.path = path;
+
+		check("no object on the test path", SQLObject.getMatchingObject(parser, true) == null);
+
+		double hits = value(negativeCache, "hits");
+
+		SQLObject.getMatchingObject(parser, true);
+
+		check("repeated miss is served from the negative cache", value(negativeCache, "hits") == hits + 1);
+
+		// 2. an event published by A invalidates it through B
+		a.publish(SQLInvalidationChannel.NEW, pathId, UUID.randomUUID());
+
+		check("B applies the event of A", waitFor(() -> value(b, "applied") == 1, 10000));
+		check("A ignores its own event", value(a, "received") == 0 && value(a, "applied") == 0);
+
+		hits = value(negativeCache, "hits");
+
+		SQLObject.getMatchingObject(parser, true);
+
+		check("miss is looked up again after the invalidation", value(negativeCache, "hits") == hits);
+		check("new miss is cached", value(negativeCache, "size") > 0);
+
+		// 3. losing B's connection drops everything
+		final double reconnects = value(b, "reconnects");
+		final double resyncs = value(b, "resyncs");
+
+		try (DBFunctions db = SQLObject.getDB()) {
+			check("terminate B's listening backend " + b.getListenerPid(), db.query("SELECT pg_terminate_backend(?);", false, Integer.valueOf(b.getListenerPid())) && db.moveNext()
+					&& db.getb(1, false));
+		}
+
+		check("B reconnects and resynchronizes", waitFor(() -> value(b, "resyncs") == resyncs + 1 && value(b, "listening") == 1, 30000));
+		check("B counted the reconnection", value(b, "reconnects") > reconnects);
+		check("negative cache was dropped", value(negativeCache, "size") == 0);
+		check("A was not affected", value(a, "resyncs") == 0 && value(a, "listening") == 1);
+
+		// 4. B receives events again
+		a.publish(SQLInvalidationChannel.UPDATED, pathId, UUID.randomUUID());
+
+		check("B applies events after reconnecting", waitFor(() -> value(b, "applied") == 2, 10000));
+
+		// 5. events that A cannot queue are replaced by a resynchronization request
+		System.setProperty("invalidation.queue", "1");
+
+		final SQLInvalidationChannel c;
+
+		try {
+			c = SQLInvalidationChannel.createInstance();
+		}
+		finally {
+			System.clearProperty("invalidation.queue");
+		}
+
+		c.start();
+
+		if (!check("C is listening", waitFor(() -> value(c, "listening") == 1, 10000)))
+			return;
+
+		SQLObject.getMatchingObject(parser, true);
+
+		final double bResyncs = value(b, "resyncs");
+
+		for (int i = 0; i < 10000; i++)
+			c.publish(SQLInvalidationChannel.UPDATED, pathId, UUID.randomUUID());
+
+		check("C dropped events", value(c, "dropped") > 0);
+		check("C asks for a resynchronization", waitFor(() -> value(c, "resync_requests") > 0, 10000));
+		check("B resynchronizes", waitFor(() -> value(b, "resyncs") > bResyncs, 10000));
+		check("negative cache was dropped again", value(negativeCache, "size") == 0);
+		check("C ignores its own request", value(c, "resyncs") == 0);
+	}
+
+	private static Integer createPath(final String path) {
+		try (DBFunctions db = SQLObject.getDB()) {
+			if (db == null || !db.query("INSERT INTO ccdb_paths (path) VALUES (?);", false, path))
+				return null;
+
+			if (!db.query("SELECT pathid FROM ccdb_paths WHERE path=?;", false, path) || !db.moveNext())
+				return null;
+
+			return Integer.valueOf(db.geti(1));
+		}
+	}
+
+	private static boolean check(final String what, final boolean ok) {
+		System.err.println((ok ? "OK    " : "FAILED") + " " + what);
+
+		if (!ok)
+			failures++;
+
+		return ok;
+	}
+
+	private static boolean waitFor(final BooleanSupplier condition, final long timeout) {
+		final long deadline = System.currentTimeMillis() + timeout;
+
+		while (!condition.getAsBoolean()) {
+			if (System.currentTimeMillis() > deadline)
+				return false;
+
+			try {
+				Thread.sleep(50);
+			}
+			catch (@SuppressWarnings("unused") final InterruptedException ie) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static double value(final MonitoringObject source, final String name) {
+		final Vector<String> names = new Vector<>();
+		final Vector<Object> values = new Vector<>();
+
+		source.fillValues(names, values);
+
+		final Map<String, Double> map = new HashMap<>();
+
+		for (int i = 0; i < names.size(); i++)
+			map.put(names.get(i), (Double) values.get(i));
+
+		final Double v = map.get(name);
+
+		return v != null ? v.doubleValue() : -1;
+	}
+}
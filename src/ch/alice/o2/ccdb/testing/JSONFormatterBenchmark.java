@@ -0,0 +1,331 @@
+package ch.alice.o2.ccdb.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ch.alice.o2.ccdb.multicast.Blob;
+import ch.alice.o2.ccdb.servlets.formatters.FormatterFactory;
+import ch.alice.o2.ccdb.servlets.formatters.SQLFormatter;
+import lazyj.Format;
+
+/**
+ * Time and heap allocation of a JSON listing of many objects, as the browse servlets produce it. The previous way of serializing each object (a <code>LinkedHashMap</code> of the
+ * fields, <code>Format.toJSON()</code> and a character writer, filtering the fields at the end) is compared with the current formatter that writes bytes directly, with and
+ * without an <code>X-Filter-Fields</code> restriction.<br>
+ * <br>
+ * The objects are synthetic in-memory {@link Blob}s, with a metadata set similar to what QC uploads, so no database or repository is needed. The output is discarded, only the
+ * serialization is measured. The gain of reading fewer columns from the database when the fields are restricted comes on top of this.<br>
+ * <br>
+ * Before timing anything the two implementations have to produce exactly the same bytes, with and without the field restriction, otherwise the program exits with an error.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class JSONFormatterBenchmark {
+	private static final Set<String> FILTER = Set.of("id", "validFrom", "validUntil");
+
+	private static final Set<String> IGNORED_MEMORY_HEADERS = Set.of("InitialValidityLimit", "Valid-Until", "OriginalFileName", "Last-Modified", "Valid-From", "Content-Type", "File-Size", "Created",
+			"Content-MD5");
+
+	/**
+	 * Stream that counts the bytes, optionally keeping a copy of them
+	 */
+	private static final class NullOutputStream extends ServletOutputStream {
+		long count = 0;
+
+		final ByteArrayOutputStream copy;
+
+		NullOutputStream(final boolean keepCopy) {
+			copy = keepCopy ? new ByteArrayOutputStream() : null;
+		}
+
+		@Override
+		public void write(final int b) {
+			count++;
+
+			if (copy != null)
+				copy.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			count += len;
+
+			if (copy != null)
+				copy.write(b, off, len);
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(final WriteListener writeListener) {
+			// blocking only
+		}
+	}
+
+	/**
+	 * @param args
+	 *            [number of objects (default 100000) [iterations (default 10)]]
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int objects = args.length >= 1 ? Integer.parseInt(args[0]) : 100000;
+		final int iterations = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+
+		final List<Blob> blobs = new ArrayList<>(objects);
+
+		for (int i = 0; i < objects; i++)
+			blobs.add(createBlob(i));
+
+		if (!sameOutput(blobs, null) | !sameOutput(blobs, FILTER))
+			System.exit(1);
+
+		final String[] modes = new String[] { "legacy", "legacy filtered", "streaming", "streaming filtered" };
+
+		for (int round = 0; round < 2; round++) {
+			// first round is the warmup
+			for (final String mode : modes) {
+				final boolean filtered = mode.endsWith("filtered");
+
+				long nanos = 0;
+				long allocated = 0;
+				long bytes = 0;
+
+				for (int it = 0; it < iterations; it++) {
+					final NullOutputStream os = new NullOutputStream(false);
+
+					final long allocStart = getAllocatedBytes();
+					final long start = System.nanoTime();
+
+					if (mode.startsWith("legacy"))
+						legacyListing(blobs, filtered ? FILTER : null, os);
+					else
+						streamingListing(blobs, filtered ? FILTER : null, os);
+
+					nanos += System.nanoTime() - start;
+					allocated += getAllocatedBytes() - allocStart;
+					bytes += os.count;
+				}
+
+				if (round > 0)
+					System.err.println(mode + ": " + Format.point(nanos / 1000000. / iterations) + " ms per listing of " + objects + " objects, "
+							+ Format.point((double) allocated / iterations / objects) + " B/object allocated, " + Format.size(bytes / iterations) + " per listing");
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the legacy and the streaming serialization produce the same bytes
+	 */
+	private static boolean sameOutput(final List<Blob> blobs, final Set<String> filter) throws IOException {
+		final NullOutputStream legacy = new NullOutputStream(true);
+		final NullOutputStream streaming = new NullOutputStream(true);
+
+		legacyListing(blobs, filter, legacy);
+		streamingListing(blobs, filter, streaming);
+
+		final byte[] expected = legacy.copy.toByteArray();
+		final byte[] actual = streaming.copy.toByteArray();
+
+		final int mismatch = Arrays.mismatch(expected, actual);
+
+		final String what = filter != null ? "filtered" : "unfiltered";
+
+		if (mismatch < 0) {
+			System.err.println("The " + what + " outputs are identical (" + Format.size(expected.length) + ")");
+			return true;
+		}
+
+		System.err.println("The " + what + " outputs differ at byte " + mismatch + " (lengths " + expected.length + " and " + actual.length + "):\n  legacy:    "
+				+ excerpt(expected, mismatch) + "\n  streaming: " + excerpt(actual, mismatch));
+
+		return false;
+	}
+
+	private static String excerpt(final byte[] content, final int offset) {
+		final int from = Math.max(offset - 60, 0);
+		final int to = Math.min(offset + 60, content.length);
+
+		return new String(content, from, to - from, StandardCharsets.UTF_8).replace("\n", "\\n");
+	}
+
+	private static Blob createBlob(final int i) throws NoSuchAlgorithmException, IOException {
+		final Map<String, String> metadata = new HashMap<>();
+
+		final long created = 1600000000000L + i * 1000L;
+
+		metadata.put("Created", String.valueOf(created));
+		metadata.put("Last-Modified", String.valueOf(created));
+		metadata.put("Valid-From", String.valueOf(created));
+		metadata.put("Valid-Until", String.valueOf(created + 86400000L));
+		metadata.put("InitialValidityLimit", String.valueOf(created + 86400000L));
+		metadata.put("Content-MD5", UUID.nameUUIDFromBytes(String.valueOf(i).getBytes()).toString().replace("-", ""));
+		metadata.put("Content-Type", "application/octet-stream");
+		metadata.put("OriginalFileName", "o2-ccdb-" + i + ".root");
+		metadata.put("File-Size", "1");
+		metadata.put("RunNumber", String.valueOf(500000 + i / 100));
+		metadata.put("PeriodName", "LHC22o");
+		metadata.put("PassName", "apass" + (i % 4));
+		metadata.put("qc_version", "1.2.3");
+		metadata.put("ObjectType", "TH1F");
+
+		final Blob b = new Blob(metadata, new byte[] { 1 }, "qc/TPC/MO/Clusters/N_Clusters_" + (i % 500), UUID.nameUUIDFromBytes(String.valueOf(i).getBytes()));
+
+		// the validity interval is only parsed from the metadata when the object is completed
+		b.isComplete();
+
+		return b;
+	}
+
+	private static void streamingListing(final List<Blob> blobs, final Set<String> filter, final ServletOutputStream os) throws IOException {
+		final HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(JSONFormatterBenchmark.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+				(proxy, method, methodArgs) -> {
+					if (method.getName().equals("getHeader")) {
+						if ("Accept".equals(methodArgs[0]))
+							return "application/json";
+
+						if ("X-Filter-Fields".equals(methodArgs[0]) && filter != null)
+							return String.join(",", filter);
+					}
+
+					return null;
+				});
+
+		final HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(JSONFormatterBenchmark.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class }, (proxy, method, methodArgs) -> {
+					if (method.getName().equals("getOutputStream"))
+						return os;
+
+					if (method.getName().equals("getWriter"))
+						return new PrintWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+
+					return null;
+				});
+
+		final SQLFormatter formatter = FormatterFactory.getFormatter(request);
+
+		try (PrintWriter pw = formatter.getWriter(response)) {
+			formatter.start(pw);
+			formatter.header(pw);
+
+			boolean first = true;
+
+			for (final Blob b : blobs) {
+				if (first)
+					first = false;
+				else
+					formatter.middle(pw);
+
+				formatter.format(pw, b);
+			}
+
+			formatter.footer(pw);
+			formatter.end(pw);
+		}
+	}
+
+	/**
+	 * The JSON serialization as it was done before the streaming writer
+	 */
+	private static void legacyListing(final List<Blob> blobs, final Set<String> filter, final OutputStream os) {
+		try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+			pw.write("{");
+			pw.print("\"objects\":[\n");
+
+			boolean first = true;
+
+			for (final Blob obj : blobs) {
+				if (first)
+					first = false;
+				else
+					pw.print(",\n");
+
+				final Map<String, Object> jsonContent = new LinkedHashMap<>();
+
+				jsonContent.put("path", obj.getKey());
+				jsonContent.put("createTime", Long.valueOf(obj.getCreateTime()));
+				jsonContent.put("lastModified", Long.valueOf(obj.getLastModified()));
+				jsonContent.put("Created", Long.valueOf(obj.getCreateTime()));
+				jsonContent.put("Last-Modified", Long.valueOf(obj.getLastModified()));
+				jsonContent.put("id", obj.getUuid().toString());
+				jsonContent.put("validFrom", Long.valueOf(obj.getStartTime()));
+				jsonContent.put("validUntil", Long.valueOf(obj.getEndTime()));
+				jsonContent.put("initialValidity", Long.valueOf(obj.getInitialValidity()));
+				jsonContent.put("MD5", obj.getProperty("Content-MD5"));
+				jsonContent.put("fileName", obj.getOriginalName());
+				jsonContent.put("contentType", obj.getProperty("Content-Type", "application/octet-stream"));
+				jsonContent.put("size", Long.valueOf(obj.getSize()));
+				jsonContent.put("ETag", "\"" + obj.getUuid().toString() + "\"");
+				jsonContent.put("Valid-From", Long.valueOf(obj.getStartTime()));
+				jsonContent.put("Valid-Until", Long.valueOf(obj.getEndTime()));
+				jsonContent.put("InitialValidityLimit", Long.valueOf(obj.getInitialValidity()));
+				jsonContent.put("Content-MD5", obj.getProperty("Content-MD5"));
+				jsonContent.put("Content-Disposition", "inline;filename=\"" + obj.getOriginalName() + "\"");
+				jsonContent.put("Content-Type", obj.getProperty("Content-Type", "application/octet-stream"));
+				jsonContent.put("Content-Length", Long.valueOf(obj.getSize()));
+
+				if (filter == null || !jsonContent.keySet().containsAll(filter)) {
+					for (final String key : obj.getMetadataMap().keySet())
+						if (!IGNORED_MEMORY_HEADERS.contains(key))
+							jsonContent.put(key, obj.getProperty(key));
+
+					try {
+						if (obj.isComplete())
+							jsonContent.put("replicas", Arrays.asList("/download/" + obj.getUuid()));
+						else
+							jsonContent.put("incomplete", Boolean.TRUE);
+					}
+					catch (@SuppressWarnings("unused") final IOException | NoSuchAlgorithmException e) {
+						// ignore
+					}
+				}
+
+				if (filter != null) {
+					final Iterator<Map.Entry<String, Object>> it = jsonContent.entrySet().iterator();
+
+					while (it.hasNext())
+						if (!filter.contains(it.next().getKey()))
+							it.remove();
+				}
+
+				pw.print(Format.toJSON(jsonContent, false));
+			}
+
+			pw.print("]\n");
+			pw.write("}");
+		}
+	}
+
+	private static long getAllocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		return 0;
+	}
+}
@@ -0,0 +1,102 @@
+package ch.alice.o2.ccdb.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+import lazyj.Format;
+
+/**
+ * Latency of the conditional requests that the polling clients make, sending the ETag of the object they already have in <code>If-None-Match</code> and expecting a
+ * <code>304 Not Modified</code>. Run it against an instance started with <code>-Detag.fastpath=false</code> and then with the default settings to compare the two code paths.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class NotModifiedBenchmark {
+	private static HttpURLConnection open(final String url, final String etag) throws IOException {
+		final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+
+		conn.setInstanceFollowRedirects(false);
+
+		if (etag != null)
+			conn.setRequestProperty("If-None-Match", etag);
+
+		return conn;
+	}
+
+	private static void drain(final HttpURLConnection conn) {
+		try (InputStream is = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream()) {
+			if (is != null)
+				while (is.read() >= 0) {
+					// discard
+				}
+		}
+		catch (@SuppressWarnings("unused") final IOException ioe) {
+			// ignore
+		}
+	}
+
+	/**
+	 * @param args
+	 *            URL of an object, for example <code>http://localhost:8080/path/of/object</code> [number of requests (default 10000)]
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: NotModifiedBenchmark <object URL> [requests]");
+			return;
+		}
+
+		final String url = args[0];
+		final int requests = args.length >= 2 ? Integer.parseInt(args[1]) : 10000;
+
+		final HttpURLConnection first = open(url, null);
+
+		final String etag = first.getHeaderField("ETag");
+
+		drain(first);
+
+		if (etag == null) {
+			System.err.println("No ETag returned for " + url + " (status " + first.getResponseCode() + ")");
+			return;
+		}
+
+		System.err.println("Object ETag is " + etag);
+
+		final long[] latencies = new long[requests];
+
+		int notModified = 0;
+
+		for (int round = 0; round < 2; round++) {
+			// first round is the warmup
+			notModified = 0;
+
+			for (int i = 0; i < requests; i++) {
+				final long start = System.nanoTime();
+
+				final HttpURLConnection conn = open(url, etag);
+
+				if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+					notModified++;
+
+				drain(conn);
+
+				latencies[i] = System.nanoTime() - start;
+			}
+		}
+
+		Arrays.sort(latencies);
+
+		long total = 0;
+
+		for (final long l : latencies)
+			total += l;
+
+		System.err.println(notModified + "/" + requests + " requests answered with 304");
+		System.err.println("Average: " + Format.point(total / 1000000. / requests) + " ms, median: " + Format.point(latencies[requests / 2] / 1000000.) + " ms, 99th percentile: "
+				+ Format.point(latencies[(int) (requests * 0.99)] / 1000000.) + " ms");
+	}
+}
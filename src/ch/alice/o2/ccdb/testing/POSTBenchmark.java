@@ -40,6 +40,8 @@ public class POSTBenchmark {
 
 	private static byte[] buffer;
 
+	private static boolean rawUpload = false;
+
 	private static final String repository = Options.getOption("repository.url", "http://ccdb-test.cern.ch:8080/");
 
 	private static class RequestThread extends Thread {
@@ -73,16 +75,27 @@ public class POSTBenchmark {
 					http.setDoOutput(true);
 					http.setDoInput(true);
 
-					http.setRequestProperty("Content-Type", "multipart/form-data; charset=UTF-8; boundary=" + boundary);
+					if (rawUpload) {
+						http.setRequestProperty("Content-Type", "text/plain");
+						http.setRequestProperty("X-Raw-Upload", "true");
+						http.setRequestProperty("Content-Disposition", "inline; filename=\"benchmark\"");
 
-					http.setFixedLengthStreamingMode(multipartHeader.length + buffer.length + finishBoundaryBytes.length);
+						http.setFixedLengthStreamingMode(buffer.length);
+					}
+					else {
+						http.setRequestProperty("Content-Type", "multipart/form-data; charset=UTF-8; boundary=" + boundary);
+
+						http.setFixedLengthStreamingMode(multipartHeader.length + buffer.length + finishBoundaryBytes.length);
+					}
 
 					try (OutputStream httpOut = http.getOutputStream()) {
-						httpOut.write(multipartHeader);
+						if (!rawUpload)
+							httpOut.write(multipartHeader);
 
 						httpOut.write(buffer);
 
-						httpOut.write(finishBoundaryBytes);
+						if (!rawUpload)
+							httpOut.write(finishBoundaryBytes);
 
 						httpOut.flush();
 
@@ -137,6 +150,7 @@ public class POSTBenchmark {
 	 * Benchmark entry point
 	 *
 	 * @param args
+	 *            [threads (default 10) [iterations (default 10000) [object size (default 1024) [upload mode: multipart (default) | raw]]]]
 	 * @throws Exception
 	 * @throws MalformedURLException
 	 */
@@ -148,9 +162,11 @@ public class POSTBenchmark {
 
 		final int length = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
 
+		rawUpload = args.length > 3 && "raw".equals(args[3]);
+
 		truncate();
 
-		System.err.println("Starting " + threads + " threads to make " + iterations + " requests to upload objects of " + length + " bytes");
+		System.err.println("Starting " + threads + " threads to make " + iterations + " requests to upload objects of " + length + " bytes as " + (rawUpload ? "raw request body" : "multipart form"));
 
 		buffer = new byte[length];
 
@@ -0,0 +1,181 @@
+package ch.alice.o2.ccdb.testing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import ch.alice.o2.ccdb.servlets.ByteRanges;
+import lazyj.Format;
+
+/**
+ * Cost of answering the multi-range requests that the multicast receivers send to recover the missing fragments of an object (<code>UDPReceiver.recoverBlob()</code>). The
+ * hand-written parser and multipart writer that the download servlets used to have is compared with {@link ByteRanges}, both writing to a stream that discards the data. Time and
+ * heap allocation per request are reported.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class RangeBenchmark {
+	private static final class NullOutputStream extends OutputStream {
+		long written = 0;
+
+		@Override
+		public void write(final int b) {
+			written++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			written += len;
+		}
+	}
+
+	/**
+	 * @param args
+	 *            [object size in KB (default 2048) [number of missing fragments (default 64) [fragment size in bytes (default 8192) [iterations (default 200000)]]]]
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		final int objectSize = (args.length >= 1 ? Integer.parseInt(args[0]) : 2048) * 1024;
+		final int fragments = args.length >= 2 ? Integer.parseInt(args[1]) : 64;
+		final int fragmentSize = args.length >= 3 ? Integer.parseInt(args[2]) : 8192;
+		final int iterations = args.length >= 4 ? Integer.parseInt(args[3]) : 200000;
+
+		final byte[] payload = new byte[objectSize];
+
+		// same format as the recovery request, every other fragment is missing
+		final StringBuilder sb = new StringBuilder("bytes=");
+
+		for (int i = 0; i < fragments; i++) {
+			final long first = (long) i * 2 * fragmentSize;
+
+			if (first >= objectSize)
+				break;
+
+			if (i > 0)
+				sb.append(',');
+
+			sb.append(first).append('-').append(Math.min(first + fragmentSize, objectSize) - 1);
+		}
+
+		final String range = sb.toString();
+
+		System.err.println("Object of " + Format.size(objectSize) + ", Range: " + (range.length() > 100 ? range.substring(0, 100) + "..." : range));
+
+		final NullOutputStream sink = new NullOutputStream();
+
+		for (int round = 0; round < 2; round++) {
+			// first round is the warmup
+			for (final String mode : new String[] { "legacy", "ByteRanges" }) {
+				final long allocStart = getAllocatedBytes();
+				final long start = System.nanoTime();
+
+				for (int i = 0; i < iterations; i++) {
+					if ("legacy".equals(mode))
+						legacy(range, payload, "application/octet-stream", sink);
+					else
+						engine(range, payload, "application/octet-stream", sink);
+				}
+
+				final long nanos = System.nanoTime() - start;
+				final long allocated = getAllocatedBytes() - allocStart;
+
+				if (round > 0)
+					System.err.println(mode + ": " + Format.point((double) nanos / iterations) + " ns/request, " + Format.point((double) allocated / iterations) + " bytes allocated/request");
+			}
+		}
+
+		System.err.println("Total bytes written: " + sink.written);
+	}
+
+	private static void engine(final String range, final byte[] payload, final String contentType, final OutputStream os) throws IOException {
+		final ByteRanges ranges = ByteRanges.parse(range, payload.length);
+
+		final byte[] boundary = "THIS_STRING_SEPARATES_00000000-0000-0000-0000-000000000000".getBytes(StandardCharsets.ISO_8859_1);
+		final byte[] partContentType = contentType.getBytes(StandardCharsets.ISO_8859_1);
+
+		if (ranges.getMultipartLength(boundary, partContentType) < 0)
+			throw new IllegalStateException();
+
+		ranges.writeMultipart(os, ByteRanges.Source.of(payload), boundary, partContentType);
+	}
+
+	/**
+	 * The previous implementation, as it was in the download servlets
+	 */
+	private static void legacy(final String range, final byte[] payload, final String contentType, final OutputStream os) throws IOException {
+		final long payloadSize = payload.length;
+
+		final StringTokenizer st = new StringTokenizer(range.substring(6).trim(), ",");
+
+		final List<Map.Entry<Long, Long>> requestedRanges = new ArrayList<>();
+
+		while (st.hasMoreTokens()) {
+			final String s = st.nextToken();
+
+			final int idx = s.indexOf('-');
+
+			final long start = Long.parseLong(s.substring(0, idx));
+			final long end = idx < (s.length() - 1) ? Long.parseLong(s.substring(idx + 1)) : payloadSize - 1;
+
+			requestedRanges.add(new AbstractMap.SimpleEntry<>(Long.valueOf(start), Long.valueOf(end)));
+		}
+
+		final String boundaryString = "THIS_STRING_SEPARATES_00000000-0000-0000-0000-000000000000";
+
+		final ArrayList<String> subHeaders = new ArrayList<>(requestedRanges.size());
+
+		long contentLength = 0;
+
+		for (final Map.Entry<Long, Long> theRange : requestedRanges) {
+			final long first = theRange.getKey().longValue();
+			final long last = theRange.getValue().longValue();
+
+			final StringBuilder subHeader = new StringBuilder();
+
+			subHeader.append("\r\n--").append(boundaryString);
+			subHeader.append("\r\nContent-Type: ").append(contentType).append("\r\n");
+			subHeader.append("Content-Range: bytes ").append(first).append("-").append(last).append("/").append(payloadSize).append("\r\n\r\n");
+
+			final String sh = subHeader.toString();
+
+			subHeaders.add(sh);
+
+			contentLength += last - first + 1 + sh.length();
+		}
+
+		final String documentFooter = "\r\n--" + boundaryString + "--";
+
+		contentLength += documentFooter.length();
+
+		if (contentLength < 0)
+			throw new IllegalStateException();
+
+		for (int i = 0; i < requestedRanges.size(); i++) {
+			final Map.Entry<Long, Long> theRange = requestedRanges.get(i);
+
+			final long first = theRange.getKey().longValue();
+			final long last = theRange.getValue().longValue();
+
+			os.write(subHeaders.get(i).getBytes());
+			os.write(payload, (int) first, (int) (last - first + 1));
+		}
+
+		os.write(documentFooter.getBytes());
+	}
+
+	private static long getAllocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		return 0;
+	}
+}
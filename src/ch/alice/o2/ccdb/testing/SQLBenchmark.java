@@ -19,6 +19,7 @@ import lazyj.Format;
 public class SQLBenchmark {
 	/**
 	 * @param args
+	 *            [target number of objects [threads [starting count [insert mode: single (default) | batched | both]]]]
 	 * @throws InterruptedException
 	 */
 	public static void main(final String[] args) throws InterruptedException {
@@ -52,55 +53,26 @@ public class SQLBenchmark {
 
 		final long base = startingCount;
 
-		final long noOfObjects = (targetNoOfObjects > startingCount && noThreads > 0) ? ((targetNoOfObjects - startingCount) / noThreads) : 0;
-
-		final List<Thread> threads = new ArrayList<>();
-
-		System.err.println(
-				"Inserting " + (noOfObjects * noThreads) + " new objects in the database on " + noThreads + " threads, starting from " + base + " (target = " + targetNoOfObjects + " objects)");
-
-		final long startTime = System.currentTimeMillis();
-
-		for (long thread = 0; thread < noThreads; thread++) {
-			final long localThread = thread;
-
-			final Thread t = new Thread() {
-				@Override
-				public void run() {
-					for (long i = 0; i < noOfObjects; i++) {
-						final SQLObject obj = new SQLObject("dummy");
-
-						obj.validFrom = (base + i + localThread * noOfObjects) * 160;
-						obj.validUntil = obj.validFrom + 600000;
-
-						obj.fileName = "some_new_detector_object.root";
-						obj.contentType = "application/octet-stream";
-						obj.uploadedFrom = "127.0.0.1";
-						obj.size = base + localThread * noOfObjects + i;
-						obj.md5 = "7e8fbee4f76f7079ec87bdc83d7d5538";
+		final String insertMode = args.length >= 4 ? args[3] : "single";
 
-						obj.replicas.add(Integer.valueOf(1));
-
-						obj.save(null);
-					}
-				}
-			};
+		final boolean both = "both".equals(insertMode);
 
-			t.start();
-
-			threads.add(t);
-		}
+		final long noOfObjects = (targetNoOfObjects > startingCount && noThreads > 0) ? ((targetNoOfObjects - startingCount) / noThreads) : 0;
 
-		// wait for all threads to finish
-		for (final Thread t : threads)
-			t.join();
+		final List<Thread> threads = new ArrayList<>();
 
 		if (noOfObjects * noThreads > 0) {
-			// print insert statistics
-			System.err.println(noOfObjects * noThreads + " created in " + Format.toInterval(System.currentTimeMillis() - startTime) + " ("
-					+ (double) (System.currentTimeMillis() - startTime) / (noOfObjects * noThreads) + " ms/object)");
+			if ((both || "batched".equals(insertMode)) && System.getProperty("insert.batch.size") == null)
+				System.setProperty("insert.batch.size", "500");
+
+			if (both) {
+				final long half = noOfObjects / 2;
 
-			System.err.println((noOfObjects * noThreads * 1000.) / (System.currentTimeMillis() - startTime) + " Hz");
+				insert(base, 0, half, noThreads, noOfObjects, false);
+				insert(base, half, noOfObjects - half, noThreads, noOfObjects, true);
+			}
+			else
+				insert(base, 0, noOfObjects, noThreads, noOfObjects, "batched".equals(insertMode));
 		}
 		else
 			System.err.println("Not inserting anything, just benchmarking read times");
@@ -150,4 +122,70 @@ public class SQLBenchmark {
 			System.err.println(nullObjects + " / " + (noQueries * queryThreads) + " results were null");
 		}
 	}
+
+	/**
+	 * Insert phase, each thread creating <code>count</code> objects starting from the given offset in its own range of <code>perThread</code> objects
+	 *
+	 * @param base
+	 * @param offset
+	 * @param count
+	 * @param noThreads
+	 * @param perThread
+	 * @param batched
+	 *            whether to go through the group commit path
+	 * @throws InterruptedException
+	 */
+	private static void insert(final long base, final long offset, final long count, final long noThreads, final long perThread, final boolean batched) throws InterruptedException {
+		final List<Thread> threads = new ArrayList<>();
+
+		final String mode = batched ? "batched" : "single";
+
+		System.err.println("Inserting " + (count * noThreads) + " new objects in " + mode + " mode on " + noThreads + " threads, starting from " + base);
+
+		final long startTime = System.currentTimeMillis();
+
+		for (long thread = 0; thread < noThreads; thread++) {
+			final long localThread = thread;
+
+			final Thread t = new Thread() {
+				@Override
+				public void run() {
+					for (long i = offset; i < offset + count; i++) {
+						final SQLObject obj = new SQLObject("dummy");
+
+						obj.validFrom = (base + i + localThread * perThread) * 160;
+						obj.validUntil = obj.validFrom + 600000;
+
+						obj.fileName = "some_new_detector_object.root";
+						obj.contentType = "application/octet-stream";
+						obj.uploadedFrom = "127.0.0.1";
+						obj.size = base + localThread * perThread + i;
+						obj.md5 = "7e8fbee4f76f7079ec87bdc83d7d5538";
+
+						obj.replicas.add(Integer.valueOf(1));
+
+						obj.save(null, batched);
+					}
+				}
+			};
+
+			t.start();
+
+			threads.add(t);
+		}
+
+		// wait for all threads to finish
+		for (final Thread t : threads)
+			t.join();
+
+		final long total = count * noThreads;
+
+		if (total > 0) {
+			// print insert statistics
+			System.err.println(mode + ": " + total + " created in " + Format.toInterval(System.currentTimeMillis() - startTime) + " (" + (double) (System.currentTimeMillis() - startTime) / total
+					+ " ms/object)");
+
+			System.err.println(mode + ": " + (total * 1000.) / (System.currentTimeMillis() - startTime) + " objects/s");
+		}
+	}
 }
@@ -0,0 +1,183 @@
+package ch.alice.o2.ccdb.testing;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import ch.alice.o2.ccdb.servlets.SQLObject;
+import lazyj.DBFunctions;
+import lazyj.Format;
+
+/**
+ * Heap allocation and retained size of the {@link SQLObject}s built from the rows of a bulk listing. The previous way of loading a row (boxed path ID, a <code>HashMap</code> of
+ * the metadata, a <code>TreeSet</code> of the replicas, both going through the JDBC <code>Map</code> and <code>Array</code> objects) is compared with the current
+ * <code>new SQLObject(db)</code>, with and without decoding the metadata.<br>
+ * <br>
+ * The rows are synthetic, generated by the database that {@link SQLObject#getDB()} points to (it needs the <code>hstore</code> extension and a content type in the CCDB
+ * dictionary), with the same columns as the real queries. Only the row decoding is measured, not the query execution.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class SQLObjectAllocationBenchmark {
+	/**
+	 * Path and metadata key IDs are hashes of the names in the real dictionaries (see {@link SQLObject#absHashCode(Object)}), so they are spread over the entire positive range
+	 */
+	private static final String HASH_ID = "(1 + abs(hashtext(%s)::bigint) %% 2147483647)";
+
+	private static final String QUERY = "SELECT md5(g::text)::uuid AS id, " + String.format(HASH_ID, "'qc/TPC/MO/Clusters/N_Clusters_' || g % 5000")
+			+ " AS pathid, 1600000000000 + g AS createtime, 1600000000000 + g * 1000 AS validfrom, "
+			+ "1600000000000 + g * 1000 + 86400000 AS validuntil, 1600000000000 + g * 1000 + 86400000 AS initialvalidity, 10000 + g % 100000 AS size, "
+			+ "md5(g::text || 'x')::uuid::text AS md5, 'o2-ccdb-' || g || '.root' AS filename, (SELECT min(contenttypeid) FROM ccdb_contenttype) AS contenttype, "
+			+ "'127.0.0.1' AS uploadedfrom, 1600000000000 + g AS lastmodified, '{0,1}'::int[] AS replicas, "
+			+ "hstore(ARRAY[" + String.format(HASH_ID, "'Created'") + "::text, " + String.format(HASH_ID, "'RunNumber'") + "::text, " + String.format(HASH_ID, "'RunType'")
+			+ "::text, " + String.format(HASH_ID, "'OriginalFileName'") + "::text], ARRAY[(1600000000000 + g)::text, (500000 + g / 100)::text, 'Physics', 'o2-ccdb-' || g || '.root']) AS metadata "
+			+ "FROM generate_series(?, ?) g;";
+
+	/**
+	 * How the rows were loaded before the compact representation
+	 */
+	private static final class LegacyObject {
+		final UUID id;
+		final long createTime;
+		final long validFrom;
+		final long validUntil;
+		final long size;
+		final String md5;
+		final long initialValidity;
+		final String fileName;
+		final Integer contentType;
+		final String uploadedFrom;
+		final Integer pathId;
+		final Map<Integer, String> metadata = new HashMap<>();
+		final Set<Integer> replicas = new TreeSet<>();
+
+		LegacyObject(final DBFunctions db) {
+			id = (UUID) db.getObject("id");
+			createTime = db.getl("createtime");
+			validFrom = db.getl("validfrom");
+			validUntil = db.getl("validuntil");
+			size = db.getl("size");
+			md5 = Format.replace(db.gets("md5"), "-", "");
+			initialValidity = db.getl("initialvalidity");
+			fileName = db.gets("filename");
+			contentType = Integer.valueOf(db.geti("contenttype"));
+			uploadedFrom = db.gets("uploadedfrom");
+			pathId = Integer.valueOf(db.geti("pathId"));
+
+			final Map<?, ?> md = (Map<?, ?>) db.getObject("metadata");
+
+			if (md != null && md.size() > 0)
+				for (final Map.Entry<?, ?> entry : md.entrySet())
+					metadata.put(Integer.valueOf(entry.getKey().toString()), entry.getValue().toString());
+
+			final Array replicasObject = (Array) db.getObject("replicas");
+
+			if (replicasObject != null)
+				try {
+					Collections.addAll(replicas, (Integer[]) replicasObject.getArray());
+				}
+				catch (@SuppressWarnings("unused") final SQLException e) {
+					// ignore
+				}
+		}
+	}
+
+	/**
+	 * @param args
+	 *            [number of rows (default 1000000) [rows per query (default 100000)]]
+	 */
+	public static void main(final String[] args) {
+		final int rows = args.length >= 1 ? Integer.parseInt(args[0]) : 1000000;
+		final int chunk = args.length >= 2 ? Integer.parseInt(args[1]) : 100000;
+
+		final String[] modes = new String[] { "legacy", "SQLObject", "SQLObject+metadata" };
+
+		for (int round = 0; round < 2; round++) {
+			// first round is the warmup
+			for (final String mode : modes) {
+				long allocated = 0;
+				long nanos = 0;
+				long checksum = 0;
+				long retained = 0;
+				int retainedCount = 0;
+
+				for (int first = 1; first <= rows; first += chunk) {
+					final int last = Math.min(first + chunk - 1, rows);
+
+					final Object[] keep = new Object[last - first + 1];
+
+					try (DBFunctions db = SQLObject.getDB()) {
+						if (!db.query(QUERY, false, Integer.valueOf(first), Integer.valueOf(last))) {
+							System.err.println("Cannot generate the rows, is the hstore extension available?");
+							return;
+						}
+
+						final long usedBefore = last == rows ? usedHeap() : 0;
+
+						final long allocStart = getAllocatedBytes();
+						final long start = System.nanoTime();
+
+						int idx = 0;
+
+						while (db.moveNext()) {
+							if ("legacy".equals(mode)) {
+								final LegacyObject o = new LegacyObject(db);
+								checksum += o.metadata.size() + o.replicas.size() + o.pathId.intValue();
+								keep[idx++] = o;
+							}
+							else {
+								final SQLObject o = new SQLObject(db);
+
+								if ("SQLObject+metadata".equals(mode))
+									checksum += o.metadata.size();
+
+								checksum += o.replicas.size() + o.pathId.intValue();
+								keep[idx++] = o;
+							}
+						}
+
+						nanos += System.nanoTime() - start;
+						allocated += getAllocatedBytes() - allocStart;
+
+						if (last == rows) {
+							retained = usedHeap() - usedBefore;
+							retainedCount = idx;
+						}
+
+						// keep the objects reachable until after the measurement
+						checksum += keep.length;
+					}
+				}
+
+				if (round > 0)
+					System.err.println(mode + ": " + Format.point(nanos / 1000000.) + " ms, " + Format.point((double) allocated / rows) + " B/row allocated, "
+							+ (retainedCount > 0 ? Format.point((double) retained / retainedCount) : "?") + " B/row retained (checksum " + checksum + ")");
+			}
+		}
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+
+		final Runtime r = Runtime.getRuntime();
+
+		return r.totalMemory() - r.freeMemory();
+	}
+
+	private static long getAllocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		return 0;
+	}
+}
@@ -0,0 +1,755 @@
+package ch.alice.o2.ccdb.tools;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Client side decoder of the binary browse listings, that the server returns when asked for <code>Accept: application/cbor</code>. It only depends on the JDK so it can be copied
+ * as it is in other projects.<br>
+ * <br>
+ * The document is a CBOR (RFC 8949) map with two keys, <code>"objects"</code> and <code>"subfolders"</code>, each an array that is streamed with indefinite length. Each object
+ * is a map with the small integer keys defined below, where:
+ * <ul>
+ * <li>the ID is a UUID tag (37) of a 16 bytes string</li>
+ * <li>the MD5 checksum is a 16 bytes string</li>
+ * <li>the timestamps are integers, epoch milliseconds</li>
+ * <li>the path, the content type and the metadata keys are strings that repeat a lot in a listing, so they go through a dictionary that is built while decoding: the first
+ * occurrence of a string is sent as text and gets the next index, the following ones only send this index as an integer</li>
+ * </ul>
+ * Keys that this decoder doesn't know are skipped, so fields can be added to the format without breaking the existing clients.
+ *
+ * @author agent
+ * @since 2026-10-17
+ */
+public class CBORListing {
+	/**
+	 * MIME type of the binary listing
+	 */
+	public static final String CONTENT_TYPE = "application/cbor";
+
+	/**
+	 * Object field: path, dictionary string
+	 */
+	public static final int PATH = 0;
+
+	/**
+	 * Object field: unique identifier, UUID tag
+	 */
+	public static final int ID = 1;
+
+	/**
+	 * Object field: creation time
+	 */
+	public static final int CREATE_TIME = 2;
+
+	/**
+	 * Object field: last modification time
+	 */
+	public static final int LAST_MODIFIED = 3;
+
+	/**
+	 * Object field: start of the validity interval (inclusive)
+	 */
+	public static final int VALID_FROM = 4;
+
+	/**
+	 * Object field: end of the validity interval (exclusive)
+	 */
+	public static final int VALID_UNTIL = 5;
+
+	/**
+	 * Object field: end of the validity interval as it was set at upload time
+	 */
+	public static final int INITIAL_VALIDITY = 6;
+
+	/**
+	 * Object field: MD5 checksum, as 16 bytes or, if it cannot be represented like this, as text
+	 */
+	public static final int MD5 = 7;
+
+	/**
+	 * Object field: original file name
+	 */
+	public static final int FILE_NAME = 8;
+
+	/**
+	 * Object field: content type, dictionary string
+	 */
+	public static final int CONTENT_TYPE_FIELD = 9;
+
+	/**
+	 * Object field: size in bytes
+	 */
+	public static final int SIZE = 10;
+
+	/**
+	 * Object field: address of the client that has uploaded the object
+	 */
+	public static final int UPLOADED_FROM = 11;
+
+	/**
+	 * Object field: map of dictionary string keys to text values
+	 */
+	public static final int METADATA = 12;
+
+	/**
+	 * Object field: array of URLs from where the object can be downloaded
+	 */
+	public static final int REPLICAS = 13;
+
+	/**
+	 * Object field: <code>true</code> if the object is not yet completely received (memory backend only)
+	 */
+	public static final int INCOMPLETE = 14;
+
+	/**
+	 * Subfolder field: folder name
+	 */
+	public static final int FOLDER_NAME = 0;
+
+	/**
+	 * Subfolder field: number of objects directly in this folder
+	 */
+	public static final int FOLDER_OWN_FILES = 1;
+
+	/**
+	 * Subfolder field: size of the objects directly in this folder
+	 */
+	public static final int FOLDER_OWN_SIZE = 2;
+
+	/**
+	 * Subfolder field: number of objects in all the subfolders
+	 */
+	public static final int FOLDER_FILES_IN_SUBFOLDERS = 3;
+
+	/**
+	 * Subfolder field: size of the objects in all the subfolders
+	 */
+	public static final int FOLDER_SIZE_OF_SUBFOLDERS = 4;
+
+	/**
+	 * CBOR tag of a UUID
+	 */
+	public static final int UUID_TAG = 37;
+
+	/**
+	 * One object of the listing. The fields that were not sent keep their default values (<code>null</code> or <code>-1</code>).
+	 */
+	public static final class Entry {
+		/**
+		 * Path
+		 */
+		public String path = null;
+
+		/**
+		 * Unique identifier
+		 */
+		public UUID id = null;
+
+		/**
+		 * Creation time, epoch milliseconds
+		 */
+		public long createTime = -1;
+
+		/**
+		 * Last modification time, epoch milliseconds
+		 */
+		public long lastModified = -1;
+
+		/**
+		 * Start of the validity interval, epoch milliseconds, inclusive
+		 */
+		public long validFrom = -1;
+
+		/**
+		 * End of the validity interval, epoch milliseconds, exclusive
+		 */
+		public long validUntil = -1;
+
+		/**
+		 * Initial end of the validity interval, epoch milliseconds
+		 */
+		public long initialValidity = -1;
+
+		/**
+		 * MD5 checksum, as hex string
+		 */
+		public String md5 = null;
+
+		/**
+		 * Original file name
+		 */
+		public String fileName = null;
+
+		/**
+		 * Content type
+		 */
+		public String contentType = null;
+
+		/**
+		 * Size in bytes
+		 */
+		public long size = -1;
+
+		/**
+		 * Address of the client that has uploaded it
+		 */
+		public String uploadedFrom = null;
+
+		/**
+		 * Metadata key -&gt; value
+		 */
+		public final Map<String, String> metadata = new LinkedHashMap<>();
+
+		/**
+		 * Where to download it from
+		 */
+		public final List<String> replicas = new ArrayList<>();
+
+		/**
+		 * Whether the object is only partially received by the server
+		 */
+		public boolean incomplete = false;
+
+		@Override
+		public String toString() {
+			return path + "/" + id + " (valid " + validFrom + " - " + validUntil + ", " + size + " bytes, " + contentType + ", md5 " + md5 + "), metadata " + metadata + ", replicas "
+					+ replicas;
+		}
+	}
+
+	/**
+	 * One subfolder of the listing. The counters are only filled for extended reports, otherwise they are <code>-1</code>.
+	 */
+	public static final class Subfolder {
+		/**
+		 * Folder name
+		 */
+		public String name = null;
+
+		/**
+		 * Objects in this folder
+		 */
+		public long ownFiles = -1;
+
+		/**
+		 * Size of the objects in this folder
+		 */
+		public long ownSize = -1;
+
+		/**
+		 * Objects in all its subfolders
+		 */
+		public long filesInSubfolders = -1;
+
+		/**
+		 * Size of the objects in all its subfolders
+		 */
+		public long sizeOfSubfolders = -1;
+
+		@Override
+		public String toString() {
+			return name + (ownFiles >= 0 ? " (" + ownFiles + " objects of " + ownSize + " bytes, " + filesInSubfolders + " objects of " + sizeOfSubfolders + " bytes in subfolders)" : "");
+		}
+	}
+
+	private static final int BREAK = -1;
+
+	private final DataInputStream in;
+
+	private final List<String> dictionary = new ArrayList<>();
+
+	/**
+	 * Additional information of the last read head: the value for integers, the length for strings, arrays and maps (<code>-1</code> for indefinite length), the tag number, the
+	 * simple value
+	 */
+	private long argument;
+
+	private CBORListing(final InputStream is) {
+		this.in = new DataInputStream(is instanceof BufferedInputStream ? is : new BufferedInputStream(is, 65536));
+	}
+
+	/**
+	 * Decode a listing, passing the objects and the subfolders to the callbacks as they are read
+	 *
+	 * @param is
+	 *            the content returned by the server
+	 * @param objects
+	 *            callback for each object, can be <code>null</code>
+	 * @param subfolders
+	 *            callback for each subfolder, can be <code>null</code>
+	 * @throws IOException
+	 *             if the content cannot be read or is not a valid listing
+	 */
+	public static void decode(final InputStream is, final Consumer<Entry> objects, final Consumer<Subfolder> subfolders) throws IOException {
+		final CBORListing decoder = new CBORListing(is);
+
+		if (decoder.readHead() != 5)
+			throw new IOException("The listing is not a CBOR map");
+
+		final long entries = decoder.argument;
+
+		for (long i = 0; entries < 0 || i < entries; i++) {
+			final int major = decoder.readHead();
+
+			if (major == BREAK)
+				break;
+
+			if (major != 3)
+				throw new IOException("Unexpected key type " + major + " in the listing");
+
+			final String section = decoder.readText();
+
+			if ("objects".equals(section))
+				decoder.readArray(() -> {
+					final Entry entry = decoder.readEntry();
+
+					if (objects != null)
+						objects.accept(entry);
+				});
+			else if ("subfolders".equals(section))
+				decoder.readArray(() -> {
+					final Subfolder subfolder = decoder.readSubfolder();
+
+					if (subfolders != null)
+						subfolders.accept(subfolder);
+				});
+			else
+				decoder.skip(decoder.readHead());
+		}
+	}
+
+	/**
+	 * @param is
+	 *            the content returned by the server
+	 * @return all the objects of the listing
+	 * @throws IOException
+	 */
+	public static List<Entry> decodeObjects(final InputStream is) throws IOException {
+		final List<Entry> ret = new ArrayList<>();
+
+		decode(is, ret::add, null);
+
+		return ret;
+	}
+
+	private interface ElementReader {
+		void read() throws IOException;
+	}
+
+	private void readArray(final ElementReader reader) throws IOException {
+		if (readHead() != 4)
+			throw new IOException("Expected an array");
+
+		final long length = argument;
+
+		for (long i = 0; length < 0 || i < length; i++) {
+			if (length < 0 && peekBreak())
+				break;
+
+			reader.read();
+		}
+	}
+
+	private Entry readEntry() throws IOException {
+		final Entry e = new Entry();
+
+		if (readHead() != 5)
+			throw new IOException("An object is not a map");
+
+		final long length = argument;
+
+		for (long i = 0; length < 0 || i < length; i++) {
+			final int keyMajor = readHead();
+
+			if (keyMajor == BREAK)
+				break;
+
+			if (keyMajor != 0) {
+				// unknown kind of key, skip it and its value
+				skip(keyMajor);
+				skip(readHead());
+				continue;
+			}
+
+			switch ((int) argument) {
+				case PATH:
+					e.path = readDictionaryString();
+					break;
+				case ID:
+					e.id = readUUID();
+					break;
+				case CREATE_TIME:
+					e.createTime = readLong();
+					break;
+				case LAST_MODIFIED:
+					e.lastModified = readLong();
+					break;
+				case VALID_FROM:
+					e.validFrom = readLong();
+					break;
+				case VALID_UNTIL:
+					e.validUntil = readLong();
+					break;
+				case INITIAL_VALIDITY:
+					e.initialValidity = readLong();
+					break;
+				case MD5:
+					e.md5 = readMD5();
+					break;
+				case FILE_NAME:
+					e.fileName = readString();
+					break;
+				case CONTENT_TYPE_FIELD:
+					e.contentType = readDictionaryString();
+					break;
+				case SIZE:
+					e.size = readLong();
+					break;
+				case UPLOADED_FROM:
+					e.uploadedFrom = readString();
+					break;
+				case METADATA:
+					readMetadata(e.metadata);
+					break;
+				case REPLICAS:
+					readArray(() -> e.replicas.add(readString()));
+					break;
+				case INCOMPLETE:
+					e.incomplete = readHead() == 7 && argument == 21;
+					break;
+				default:
+					skip(readHead());
+			}
+		}
+
+		return e;
+	}
+
+	private Subfolder readSubfolder() throws IOException {
+		final Subfolder s = new Subfolder();
+
+		final int major = readHead();
+
+		if (major == 3) {
+			s.name = readText();
+			return s;
+		}
+
+		if (major != 5)
+			throw new IOException("A subfolder is neither a string nor a map");
+
+		final long length = argument;
+
+		for (long i = 0; length < 0 || i < length; i++) {
+			final int keyMajor = readHead();
+
+			if (keyMajor == BREAK)
+				break;
+
+			if (keyMajor != 0) {
+				skip(keyMajor);
+				skip(readHead());
+				continue;
+			}
+
+			switch ((int) argument) {
+				case FOLDER_NAME:
+					s.name = readString();
+					break;
+				case FOLDER_OWN_FILES:
+					s.ownFiles = readLong();
+					break;
+				case FOLDER_OWN_SIZE:
+					s.ownSize = readLong();
+					break;
+				case FOLDER_FILES_IN_SUBFOLDERS:
+					s.filesInSubfolders = readLong();
+					break;
+				case FOLDER_SIZE_OF_SUBFOLDERS:
+					s.sizeOfSubfolders = readLong();
+					break;
+				default:
+					skip(readHead());
+			}
+		}
+
+		return s;
+	}
+
+	private void readMetadata(final Map<String, String> metadata) throws IOException {
+		if (readHead() != 5)
+			throw new IOException("The metadata is not a map");
+
+		final long length = argument;
+
+		for (long i = 0; length < 0 || i < length; i++) {
+			final int keyMajor = readHead();
+
+			if (keyMajor == BREAK)
+				break;
+
+			final String key = dictionaryString(keyMajor);
+
+			metadata.put(key, readString());
+		}
+	}
+
+	/**
+	 * Read the head of the next data item
+	 *
+	 * @return the major type, or {@link #BREAK} for the end of an indefinite length item
+	 * @throws IOException
+	 */
+	private int readHead() throws IOException {
+		final int initial = in.read();
+
+		if (initial < 0)
+			throw new EOFException("Truncated listing");
+
+		if (initial == 0xFF)
+			return BREAK;
+
+		final int major = initial >> 5;
+		final int info = initial & 0x1F;
+
+		if (info < 24)
+			argument = info;
+		else if (info == 24)
+			argument = in.readUnsignedByte();
+		else if (info == 25)
+			argument = in.readUnsignedShort();
+		else if (info == 26)
+			argument = in.readInt() & 0xFFFFFFFFL;
+		else if (info == 27)
+			argument = in.readLong();
+		else if (info == 31)
+			argument = -1;
+		else
+			throw new IOException("Invalid additional information " + info);
+
+		return major;
+	}
+
+	private boolean peekBreak() throws IOException {
+		in.mark(1);
+
+		final int next = in.read();
+
+		if (next == 0xFF)
+			return true;
+
+		in.reset();
+		return false;
+	}
+
+	private long readLong() throws IOException {
+		final int major = readHead();
+
+		if (major == 0)
+			return argument;
+
+		if (major == 1)
+			return -1 - argument;
+
+		throw new IOException("Expected an integer, got major type " + major);
+	}
+
+	private String readText() throws IOException {
+		if (argument < 0) {
+			// indefinite length string, made of definite length chunks
+			final StringBuilder sb = new StringBuilder();
+
+			while (readHead() != BREAK)
+				sb.append(readText());
+
+			return sb.toString();
+		}
+
+		final byte[] b = new byte[(int) argument];
+		in.readFully(b);
+
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private String readString() throws IOException {
+		final int major = readHead();
+
+		if (major == 3)
+			return readText();
+
+		if (major == 7 && (argument == 22 || argument == 23))
+			return null;
+
+		throw new IOException("Expected a string, got major type " + major);
+	}
+
+	private String readDictionaryString() throws IOException {
+		return dictionaryString(readHead());
+	}
+
+	private String dictionaryString(final int major) throws IOException {
+		if (major == 3) {
+			final String s = readText();
+			dictionary.add(s);
+			return s;
+		}
+
+		if (major == 0 && argument < dictionary.size())
+			return dictionary.get((int) argument);
+
+		throw new IOException("Invalid dictionary reference");
+	}
+
+	private byte[] readBytes(final int major) throws IOException {
+		if (major != 2 || argument < 0)
+			throw new IOException("Expected a byte string, got major type " + major);
+
+		final byte[] b = new byte[(int) argument];
+		in.readFully(b);
+
+		return b;
+	}
+
+	private UUID readUUID() throws IOException {
+		int major = readHead();
+
+		if (major == 6) {
+			// the UUID tag
+			major = readHead();
+		}
+
+		if (major == 3)
+			return UUID.fromString(readText());
+
+		final ByteBuffer bb = ByteBuffer.wrap(readBytes(major));
+
+		return new UUID(bb.getLong(), bb.getLong());
+	}
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private String readMD5() throws IOException {
+		final int major = readHead();
+
+		if (major == 3)
+			return readText();
+
+		final byte[] b = readBytes(major);
+
+		final char[] c = new char[b.length * 2];
+
+		for (int i = 0; i < b.length; i++) {
+			c[i * 2] = HEX[(b[i] >> 4) & 0xF];
+			c[i * 2 + 1] = HEX[b[i] & 0xF];
+		}
+
+		return new String(c);
+	}
+
+	/**
+	 * Skip the content of the data item whose head was just read
+	 *
+	 * @param major
+	 * @throws IOException
+	 */
+	private void skip(final int major) throws IOException {
+		final long length = argument;
+
+		switch (major) {
+			case 2:
+			case 3:
+				if (length < 0)
+					while (true) {
+						final int chunk = readHead();
+
+						if (chunk == BREAK)
+							break;
+
+						skip(chunk);
+					}
+				else
+					for (long left = length; left > 0;) {
+						final int skipped = in.skipBytes((int) Math.min(left, Integer.MAX_VALUE));
+
+						if (skipped <= 0)
+							throw new EOFException("Truncated listing");
+
+						left -= skipped;
+					}
+				break;
+			case 4:
+				for (long i = 0; length < 0 || i < length; i++) {
+					final int element = readHead();
+
+					if (element == BREAK)
+						break;
+
+					skip(element);
+				}
+				break;
+			case 5:
+				for (long i = 0; length < 0 || i < length; i++) {
+					final int key = readHead();
+
+					if (key == BREAK)
+						break;
+
+					skip(key);
+					skip(readHead());
+				}
+				break;
+			case 6:
+				skip(readHead());
+				break;
+			default:
+				// integers and simple values have no content
+		}
+	}
+
+	/**
+	 * Print the listing of a repository path
+	 *
+	 * @param args
+	 *            the browse URL, for example <code>http://localhost:8080/browse/qc/TPC</code>
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: ch.alice.o2.ccdb.tools.CBORListing [browse URL]");
+			return;
+		}
+
+		final HttpURLConnection conn = (HttpURLConnection) new URL(args[0]).openConnection();
+		conn.setRequestProperty("Accept", CONTENT_TYPE);
+
+		final long start = System.nanoTime();
+
+		final long[] counters = new long[2];
+
+		try (InputStream is = conn.getInputStream()) {
+			decode(is, (e) -> {
+				System.out.println(e);
+				counters[0]++;
+			}, (s) -> {
+				System.out.println("Subfolder: " + s);
+				counters[1]++;
+			});
+		}
+
+		System.err.println(counters[0] + " objects and " + counters[1] + " subfolders decoded in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
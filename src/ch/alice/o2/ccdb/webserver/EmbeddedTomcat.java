@@ -6,7 +6,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -31,6 +34,7 @@ import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.valves.ErrorReportValve;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.tomcat.util.descriptor.web.FilterDef;
 import org.apache.tomcat.util.descriptor.web.FilterMap;
 import org.apache.tomcat.util.descriptor.web.LoginConfig;
@@ -43,6 +47,8 @@ import alien.user.JAKeyStore;
 import alien.user.LdapCertificateRealm;
 import alien.user.UserFactory;
 import ch.alice.o2.ccdb.Options;
+import ch.alice.o2.ccdb.VirtualThreads;
+import lazyj.Utils;
 
 /**
  * Configure an embedded Tomcat instance
@@ -169,6 +175,8 @@ public class EmbeddedTomcat extends Tomcat {
 		final FilterDef filter1definition = new FilterDef();
 		filter1definition.setFilterName(CORSFilter.class.getSimpleName());
 		filter1definition.setFilterClass(CORSFilter.class.getName());
+		// it sits in front of the servlets that can switch to non-blocking writes
+		filter1definition.setAsyncSupported("true");
 		ctx.addFilterDef(filter1definition);
 
 		final FilterMap filter1mapping = new FilterMap();
@@ -207,8 +215,69 @@ public class EmbeddedTomcat extends Tomcat {
 		// default number of theads in Tomcat is also 20
 		passConnectorProperty(connector, "maxThreads", 200);
 
+		// same as the NIO connector's default, with virtual threads this is what bounds the number of requests in progress
+		passConnectorProperty(connector, "maxConnections", 8192);
+
+		if (VirtualThreads.isEnabled()) {
+			final ExecutorService virtualThreads = VirtualThreads.newExecutor("http-virtual-", () -> null);
+
+			if (virtualThreads != null)
+				connector.getProtocolHandler().setExecutor(new VirtualThreadExecutor(virtualThreads));
+		}
+
 		// same default value as in Tomcat
 		connector.setProperty("compression", Options.getOption("compression", "off"));
+
+		// let the downloads go from the page cache to the socket without copying them through the heap, on the connectors that support it
+		connector.setProperty("useSendfile", Options.getOption("download.sendfile", "true"));
+
+		if (Utils.stringToBool(Options.getOption("tomcat.http2", null), false)) {
+			// HTTP/2 next to HTTP/1.1: h2c upgrade on the plain connector, ALPN negotiation on the SSL one
+			final Http2Protocol http2 = new Http2Protocol();
+
+			http2.setMaxConcurrentStreams(Options.getIntOption("tomcat.http2.maxConcurrentStreams", 100));
+			http2.setMaxConcurrentStreamExecution(Options.getIntOption("tomcat.http2.maxConcurrentStreamExecution", 20));
+			http2.setUseSendfile(Utils.stringToBool(Options.getOption("download.sendfile", null), true));
+
+			// same limits as for HTTP/1.1
+			http2.setMaxHeaderSize(Options.getIntOption("maxHttpHeaderSize", 100000));
+			http2.setMaxHeaderCount(Options.getIntOption("maxHeaderCount", 1000));
+
+			connector.addUpgradeProtocol(http2);
+		}
+	}
+
+	/**
+	 * One virtual thread per request, counting how many are in progress
+	 */
+	private static final class VirtualThreadExecutor implements Executor {
+		private final ExecutorService executor;
+
+		private final AtomicInteger active = new AtomicInteger();
+
+		VirtualThreadExecutor(final ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			active.incrementAndGet();
+
+			try {
+				executor.execute(() -> {
+					try {
+						command.run();
+					}
+					finally {
+						active.decrementAndGet();
+					}
+				});
+			}
+			catch (final RejectedExecutionException ree) {
+				active.decrementAndGet();
+				throw ree;
+			}
+		}
 	}
 
 	/**
@@ -232,6 +301,20 @@ public class EmbeddedTomcat extends Tomcat {
 			return true;
 		}
 
+		if (executor instanceof VirtualThreadExecutor) {
+			final VirtualThreadExecutor vte = (VirtualThreadExecutor) executor;
+
+			monitor.addMonitoring("server_status_" + connector.getPort(), (names, values) -> {
+				names.add("active_threads");
+				values.add(Double.valueOf(vte.active.get()));
+
+				names.add("virtual_threads");
+				values.add(Double.valueOf(1));
+			});
+
+			return true;
+		}
+
 		System.err.println("Cannot monitor Tomcat executor on port " + connector.getPort() + (executor != null ? " of type " + executor.getClass().getCanonicalName() : ""));
 		return false;
 	}
@@ -245,6 +328,9 @@ public class EmbeddedTomcat extends Tomcat {
 		final Wrapper wrapper = Tomcat.addServlet(ctx, className.substring(className.lastIndexOf('.') + 1), className);
 		wrapper.addMapping(mapping);
 		wrapper.setLoadOnStartup(0);
+
+		// allows the downloads to be written with non-blocking I/O (see download.async), it doesn't change anything for the servlets that don't use it
+		wrapper.setAsyncSupported(true);
 		return wrapper;
 	}
 